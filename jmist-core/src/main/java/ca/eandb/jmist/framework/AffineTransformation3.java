@@ -28,6 +28,7 @@ package ca.eandb.jmist.framework;
 import java.io.Serializable;
 
 import ca.eandb.jmist.math.AffineMatrix3;
+import ca.eandb.jmist.math.Box3;
 import ca.eandb.jmist.math.HPoint3;
 import ca.eandb.jmist.math.LinearMatrix3;
 import ca.eandb.jmist.math.Point3;
@@ -166,6 +167,16 @@ public class AffineTransformation3 implements AffineTransformable3, Serializable
     return this.matrix != null ? this.matrix.times(p) : p;
   }
 
+  /**
+   * Applies this <code>AffineTransformation3</code> to a <code>Box3</code>.
+   * @param box The <code>Box3</code> to apply this transformation to.
+   * @return The smallest <code>Box3</code> containing the transformed box.
+   * @see AffineMatrix3#times(Box3)
+   */
+  public Box3 apply(Box3 box) {
+    return this.matrix != null ? this.matrix.times(box) : box;
+  }
+
   /**
    * Applies this <code>AffineTransformation3</code> to a <code>Ray3</code>.
    * @param ray The <code>Ray3</code> object to apply this transformation to.
@@ -28,6 +28,7 @@ package ca.eandb.jmist.framework;
 import java.io.Serializable;
 
 import ca.eandb.jmist.math.AffineMatrix3;
+import ca.eandb.jmist.math.Box3;
 import ca.eandb.jmist.math.HPoint3;
 import ca.eandb.jmist.math.LinearMatrix3;
 import ca.eandb.jmist.math.Point3;
@@ -276,6 +277,20 @@ public class InvertibleAffineTransformation3 extends AffineTransformation3
     return this.inverse != null ? this.inverse.times(v) : v;
   }
 
+  /**
+   * Applies the inverse of this <code>AffineTransformation3</code> to a
+   * <code>Box3</code>.
+   *
+   * @param box
+   *            The <code>Box3</code> to apply the inverse of this
+   *            transformation to.
+   * @return The smallest <code>Box3</code> containing the transformed box.
+   * @see AffineMatrix3#times(Box3)
+   */
+  public Box3 applyInverse(Box3 box) {
+    return this.inverse != null ? this.inverse.times(box) : box;
+  }
+
   /**
    * Applies the inverse of this <code>AffineTransformation3</code> to a
    * <code>Ray3</code>.
@@ -25,7 +25,11 @@
  */
 package ca.eandb.jmist.framework;
 
+import java.io.Serializable;
+
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.DoubleRaster;
+import ca.eandb.jmist.framework.color.RasterContributions;
 import ca.eandb.jmist.math.MathUtil;
 import ca.eandb.jmist.math.Point2;
 
@@ -89,4 +93,87 @@ public final class RasterUtil {
     return raster.getPixel(x, y);
   }
 
+  /**
+   * Packages a worker's raster so that it may be returned as the results of
+   * a task.  A <code>DoubleRaster</code> is reduced to its non-zero pixels;
+   * any other <code>Raster</code> is returned as is.
+   * @param raster The <code>Raster</code> to package.
+   * @param compress A value indicating whether the results should be
+   *     deflated when they are serialized.
+   * @return The task results.
+   * @see #accumulate(Raster, double, Object, double)
+   */
+  public static Serializable getTaskResults(Raster raster, boolean compress) {
+    if (raster instanceof DoubleRaster) {
+      return ((DoubleRaster) raster).getContributions(compress);
+    } else {
+      return raster;
+    }
+  }
+
+  /**
+   * Combines task results with a raster.  Each pixel of <code>dest</code> is
+   * set to <code>a * dest + k * results</code>.
+   * @param dest The <code>Raster</code> to accumulate into.
+   * @param a The factor by which to scale <code>dest</code>.
+   * @param results The task results, as returned by
+   *     {@link #getTaskResults(Raster, boolean)}.
+   * @param k The factor by which to scale <code>results</code>.
+   * @throws IllegalArgumentException If <code>results</code> is neither a
+   *     <code>Raster</code> nor <code>RasterContributions</code> compatible
+   *     with <code>dest</code>.
+   */
+  public static void accumulate(Raster dest, double a, Object results,
+      double k) {
+    if (results instanceof RasterContributions) {
+      if (!(dest instanceof DoubleRaster)) {
+        throw new IllegalArgumentException(
+            "Raster contributions require a DoubleRaster");
+      }
+      DoubleRaster raster = (DoubleRaster) dest;
+      if (a != 1.0) {
+        raster.scale(a);
+      }
+      raster.accumulate((RasterContributions) results, k);
+    } else if (results instanceof Raster) {
+      Raster src = (Raster) results;
+      int w = dest.getWidth();
+      int h = dest.getHeight();
+      for (int y = 0; y < h; y++) {
+        for (int x = 0; x < w; x++) {
+          Color c = src.getPixel(x, y);
+          if (k != 1.0) {
+            c = c.times(k);
+          }
+          if (a != 1.0) {
+            dest.setPixel(x, y, dest.getPixel(x, y).times(a).plus(c));
+          } else {
+            dest.addPixel(x, y, c);
+          }
+        }
+      }
+    } else {
+      throw new IllegalArgumentException("Unrecognized task results");
+    }
+  }
+
+  /**
+   * Multiplies every pixel in a raster by a constant.
+   * @param raster The <code>Raster</code> to scale.
+   * @param k The factor by which to scale the raster.
+   */
+  public static void scale(Raster raster, double k) {
+    if (raster instanceof DoubleRaster) {
+      ((DoubleRaster) raster).scale(k);
+    } else {
+      int w = raster.getWidth();
+      int h = raster.getHeight();
+      for (int y = 0; y < h; y++) {
+        for (int x = 0; x < w; x++) {
+          raster.setPixel(x, y, raster.getPixel(x, y).times(k));
+        }
+      }
+    }
+  }
+
 }
@@ -26,7 +26,6 @@
 package ca.eandb.jmist.framework.accel;
 
 import ca.eandb.jmist.framework.IntersectionRecorder;
-import ca.eandb.jmist.framework.NearestIntersectionRecorder;
 import ca.eandb.jmist.framework.SceneElement;
 import ca.eandb.jmist.framework.Visitor;
 import ca.eandb.jmist.framework.scene.SceneElementDecorator;
@@ -116,11 +115,35 @@ public final class BBHSceneElement extends SceneElementDecorator {
     bbh.intersect(ray, recorder.interval(), new BBHVisitor(ray, recorder));
   }
 
+  /**
+   * The <code>Visitor</code> used by the BBH for visibility queries.  The
+   * traversal is cancelled as soon as an occluding primitive is found.
+   */
+  private final class VisibilityVisitor implements Visitor {
+
+    /** The <code>Ray3</code> to perform visibility tests with. */
+    private final Ray3 ray;
+
+    /**
+     * Creates a new <code>VisibilityVisitor</code>.
+     * @param ray The <code>Ray3</code> to perform visibility tests with.
+     */
+    public VisibilityVisitor(Ray3 ray) {
+      this.ray = ray;
+    }
+
+    @Override
+    public boolean visit(Object object) {
+      int index = (Integer) object;
+      return visibility(index, ray);
+    }
+
+  }
+
   @Override
   public boolean visibility(Ray3 ray) {
-    NearestIntersectionRecorder recorder = new NearestIntersectionRecorder(new Interval(0.0, ray.limit()));
-    intersect(ray, recorder);
-    return recorder.isEmpty();
+    ensureReady();
+    return bbh.intersect(ray, new Interval(0.0, ray.limit()), new VisibilityVisitor(ray));
   }
 
 }
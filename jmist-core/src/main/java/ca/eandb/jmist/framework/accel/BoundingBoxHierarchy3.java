@@ -26,12 +26,9 @@
 package ca.eandb.jmist.framework.accel;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 
 import ca.eandb.jmist.framework.Bounded3;
-import ca.eandb.jmist.framework.BoundingBoxBuilder3;
 import ca.eandb.jmist.framework.RayTraversalStrategy3;
 import ca.eandb.jmist.framework.Visitor;
 import ca.eandb.jmist.math.Box3;
@@ -42,6 +39,15 @@ import ca.eandb.jmist.math.Ray3;
 /**
  * Stores bounded objects in a tree structure so that intersection tests may be
  * accelerated.
+ *
+ * The tree is stored in flat arrays in depth-first order.  Each node has a
+ * bounding box (six <code>float</code>s, rounded outward), the index of the
+ * item it holds (or -1 for internal nodes), and the index of the node that
+ * follows its subtree.  Traversal walks the array front to back: when a
+ * node's box is hit, traversal descends to the next node in the array,
+ * otherwise it skips to the end of that node's subtree.  Consequently, no
+ * stack is required and traversal does not allocate.
+ *
  * @author Brad Kimmel
  */
 public final class BoundingBoxHierarchy3 implements RayTraversalStrategy3 {
@@ -49,18 +55,44 @@ public final class BoundingBoxHierarchy3 implements RayTraversalStrategy3 {
   /** Serialization version ID. */
   private static final long serialVersionUID = -7768577656591759503L;
 
-  /** The <code>NodeComparator</code>s for each axis. */
-  private static final NodeComparator[] COMPARATORS = new NodeComparator[]{
-      new NodeComparator(NodeComparator.X_AXIS),
-      new NodeComparator(NodeComparator.Y_AXIS),
-      new NodeComparator(NodeComparator.Z_AXIS)
-  };
+  /** The items that have been added to this hierarchy. */
+  private final List<Object> items = new ArrayList<>();
+
+  /** The bounding boxes of the items in {@link #items}. */
+  private final List<Box3> bounds = new ArrayList<>();
+
+  /**
+   * The bounding box of each node, stored as six consecutive values
+   * (minimum x, y, z, then maximum x, y, z).
+   */
+  private transient float[] nodeBounds;
+
+  /**
+   * The index into {@link #leafItems} of the item stored at each node, or -1
+   * for internal nodes.
+   */
+  private transient int[] nodeItems;
+
+  /**
+   * The index of the node following the subtree rooted at each node in
+   * depth-first order.
+   */
+  private transient int[] nodeSkip;
+
+  /** The items stored at the leaves, indexed by {@link #nodeItems}. */
+  private transient Object[] leafItems;
+
+  /** The number of nodes in the tree. */
+  private transient int numNodes;
+
+  /** The number of items in {@link #leafItems}. */
+  private transient int numLeafItems;
 
-  /** The root node of the bounding box tree. */
-  private Node root;
+  /** The bounding box of all of the items in this hierarchy. */
+  private transient Box3 boundingBox;
 
-  /** The <code>List</code> of leaf nodes in the bounding box tree. */
-  private final List<Node> leaves = new ArrayList<>();
+  /** A value indicating if the tree has been built. */
+  private transient boolean ready = false;
 
   /**
    * Creates a new <code>BoundingBoxHierarchy3</code>.
@@ -84,21 +116,49 @@ public final class BoundingBoxHierarchy3 implements RayTraversalStrategy3 {
    * @return A reference to this <code>BoundingBoxHierarchy3</code> so that
    *     calls to this method may be chained.
    */
-  public BoundingBoxHierarchy3 addItem(Object item, Box3 bound) {
+  public synchronized BoundingBoxHierarchy3 addItem(Object item, Box3 bound) {
     /* Invalidate the tree if we've already built it. */
-    this.root = null;
+    this.ready = false;
 
-    /* Add the new leaf node. */
-    this.leaves.add(new Node(item, bound));
+    this.items.add(item);
+    this.bounds.add(bound);
     return this;
   }
 
   @Override
   public boolean intersect(Ray3 ray, Interval I, Visitor visitor) {
-    if (this.leaves.size() > 0) {
-      /* Rebuild the tree if necessary. */
-      this.ensureReady();
-      return this.root.intersect(ray, I, visitor);
+    ensureReady();
+
+    Point3 o = ray.origin();
+    double ox = o.x();
+    double oy = o.y();
+    double oz = o.z();
+    double ix = ray.reciprocalDirectionX();
+    double iy = ray.reciprocalDirectionY();
+    double iz = ray.reciprocalDirectionZ();
+    double tmin = I.minimum();
+    double tmax = I.maximum();
+
+    float[] nodeBounds = this.nodeBounds;
+    int[] nodeItems = this.nodeItems;
+    int[] nodeSkip = this.nodeSkip;
+    Object[] leafItems = this.leafItems;
+    int n = this.numNodes;
+
+    int node = 0;
+    while (node < n) {
+      int b = 6 * node;
+      if (Box3.intersect(nodeBounds[b], nodeBounds[b + 1], nodeBounds[b + 2],
+          nodeBounds[b + 3], nodeBounds[b + 4], nodeBounds[b + 5],
+          ox, oy, oz, ix, iy, iz, tmin, tmax, null, 0)) {
+        int item = nodeItems[node];
+        if (item >= 0 && !visitor.visit(leafItems[item])) {
+          return false;
+        }
+        node++;
+      } else {
+        node = nodeSkip[node];
+      }
     }
     return true;
   }
@@ -106,9 +166,9 @@ public final class BoundingBoxHierarchy3 implements RayTraversalStrategy3 {
   /**
    * Rebuilds the tree if necessary.
    */
-  private synchronized void ensureReady() {
-    if (this.root == null) {
-      this.rebuild();
+  private void ensureReady() {
+    if (!ready) {
+      rebuild();
     }
   }
 
@@ -119,229 +179,208 @@ public final class BoundingBoxHierarchy3 implements RayTraversalStrategy3 {
    *     boxes that were added to this <code>BoundingBoxHierarchy3</code>.
    */
   public Box3 getBoundingBox() {
-    if (this.leaves.size() > 0) {
-      this.ensureReady();
-      return this.root.bound;
-    }
-    return Box3.EMPTY;
+    ensureReady();
+    return boundingBox;
   }
 
   /**
-   * Rebuilds the bounding box tree from the leaves.
+   * Rebuilds the bounding box tree from the items.
    */
-  private void rebuild() {
-    Node[] nodes = new Node[this.leaves.size()];
-    this.leaves.toArray(nodes);
-    this.root = this.rebuild(nodes, 0, nodes.length - 1);
-  }
+  private synchronized void rebuild() {
+    if (ready) { // double check inside synchronized method
+      return;
+    }
 
-  /**
-   * Rebuilds the bounding box tree for the specified range of leaves
-   * in an array.
-   * @param nodes The array containing the leaf <code>Node</code>s to build
-   *     the subtree for.
-   * @param fromIndex The index of the first node of the range to build the
-   *     subtree for.
-   * @param toIndex The index of the last node of the range to build the
-   *     subtree for.
-   * @return The root <code>Node</code> of the subtree containing the
-   *     specified leaf <code>Node</code>s.
-   */
-  private Node rebuild(Node[] nodes, int fromIndex, int toIndex) {
-    assert(toIndex >= fromIndex);
-    int len = toIndex - fromIndex + 1;
-    if (len > 2) {
-      /* This is a binary tree, so we deal with more than two nodes by
-       * splitting the list in half and a subtree for each half.
-       */
-      int midIndex = (fromIndex + toIndex) / 2;
-      Arrays.sort(nodes, fromIndex, toIndex, this.getComparator(nodes, fromIndex, toIndex));
-
-      return new Node(
-          this.rebuild(nodes, fromIndex, midIndex),
-          this.rebuild(nodes, midIndex + 1, toIndex)
-      );
-    } else if (len == 2) {
-      /* If there are two nodes, create a single node with the two leaves
-       * as its children.
-       */
-      return new Node(nodes[fromIndex], nodes[toIndex]);
-    } else { /* len == 1 */
-      /* If there is only one node, then it is the subtree. */
-      assert(len == 1);
-      return nodes[fromIndex];
+    /* Items with empty bounding boxes can never be hit, so leave them out
+     * of the tree altogether.
+     */
+    int numItems = items.size();
+    int[] order = new int[numItems];
+    int numLeaves = 0;
+    for (int i = 0; i < numItems; i++) {
+      if (!bounds.get(i).isEmpty()) {
+        order[numLeaves++] = i;
+      }
     }
-  }
 
-  /**
-   * Gets the <code>Comparator</code> to use to sort the specified list of
-   * <code>Node</code>s.
-   * @param nodes The array of <code>Node</code>s to be sorted.
-   * @param fromIndex The first index of the range of <code>Node</code>s to
-   *     be sorted.
-   * @param toIndex The last index of the range of <code>Node</code>s to be
-   *     sorted.
-   * @return The <code>Comparator</code> that will sort the
-   *     <code>Node</code>s by the centers of their bounding boxes in the
-   *     direction in which the bounding box of all the nodes is the
-   *     longest.
-   */
-  private Comparator<Node> getComparator(Node[] nodes, int fromIndex, int toIndex) {
-    Box3 bound = getBoundingBox(nodes, fromIndex, toIndex);
+    double[] box = new double[6 * numItems];
+    double[] center = new double[3 * numItems];
+    for (int k = 0; k < numLeaves; k++) {
+      int i = order[k];
+      Box3 bound = bounds.get(i);
+      box[6 * i] = bound.minimumX();
+      box[6 * i + 1] = bound.minimumY();
+      box[6 * i + 2] = bound.minimumZ();
+      box[6 * i + 3] = bound.maximumX();
+      box[6 * i + 4] = bound.maximumY();
+      box[6 * i + 5] = bound.maximumZ();
+      center[3 * i] = 0.5 * (box[6 * i] + box[6 * i + 3]);
+      center[3 * i + 1] = 0.5 * (box[6 * i + 1] + box[6 * i + 4]);
+      center[3 * i + 2] = 0.5 * (box[6 * i + 2] + box[6 * i + 5]);
+    }
 
-    if (bound.lengthX() > bound.lengthY() && bound.lengthX() > bound.lengthZ()) {
-      return COMPARATORS[NodeComparator.X_AXIS];
-    } else if (bound.lengthY() > bound.lengthZ()) {
-      return COMPARATORS[NodeComparator.Y_AXIS];
+    int maxNodes = Math.max(2 * numLeaves - 1, 0);
+    nodeBounds = new float[6 * maxNodes];
+    nodeItems = new int[maxNodes];
+    nodeSkip = new int[maxNodes];
+    leafItems = new Object[numLeaves];
+    numNodes = 0;
+    numLeafItems = 0;
+
+    double[] rootBound = new double[6];
+    if (numLeaves > 0) {
+      build(order, 0, numLeaves, box, center, rootBound);
+      boundingBox = new Box3(rootBound[0], rootBound[1], rootBound[2],
+          rootBound[3], rootBound[4], rootBound[5]);
     } else {
-      return COMPARATORS[NodeComparator.Z_AXIS];
+      boundingBox = Box3.EMPTY;
     }
+
+    ready = true;
   }
 
   /**
-   * Gets the bounding box of a collection of <code>Node</code>s.
-   * @param nodes The array containing the <code>Node</code>s to get the
-   *     bounding box for.
-   * @param fromIndex The first index into <code>nodes</code> of the range to
-   *     get the bounding box for.
-   * @param toIndex The last index into <code>nodes</code> of the range to
-   *     get the bounding box for.
-   * @return The smallest <code>Box3</code> that contains all of the bounding
-   *     boxes of the specified <code>Node</code>s.
+   * Builds the subtree for a range of items, appending its nodes in
+   * depth-first order.
+   * @param order The array of item indices.  The range
+   *     <code>[from, to)</code> will be reordered.
+   * @param from The first index into <code>order</code> of the range.
+   * @param to One past the last index into <code>order</code> of the range.
+   * @param box The bounding boxes of the items, six values per item.
+   * @param center The centers of the bounding boxes, three values per item.
+   * @param bound An array to receive the bounding box of the subtree, as six
+   *     values.
    */
-  private Box3 getBoundingBox(Node[] nodes, int fromIndex, int toIndex) {
-    BoundingBoxBuilder3 builder = new BoundingBoxBuilder3();
-    for (int i = fromIndex; i <= toIndex; i++) {
-      builder.add(nodes[i].bound);
+  private void build(int[] order, int from, int to, double[] box,
+      double[] center, double[] bound) {
+    int node = numNodes++;
+
+    if (to - from == 1) {
+      int i = order[from];
+      System.arraycopy(box, 6 * i, bound, 0, 6);
+      int leaf = numLeafItems++;
+      nodeItems[node] = leaf;
+      leafItems[leaf] = items.get(i);
+    } else {
+      /* Split the range in half along the axis in which the bounding box of
+       * the range is the longest.
+       */
+      int axis = longestAxis(order, from, to, box);
+      int mid = (from + to) >>> 1;
+      select(order, from, to, mid, center, axis);
+
+      double[] right = new double[6];
+      build(order, from, mid, box, center, bound);
+      build(order, mid, to, box, center, right);
+      for (int k = 0; k < 3; k++) {
+        bound[k] = Math.min(bound[k], right[k]);
+        bound[k + 3] = Math.max(bound[k + 3], right[k + 3]);
+      }
+      nodeItems[node] = -1;
     }
-    return builder.getBoundingBox();
+
+    for (int k = 0; k < 3; k++) {
+      nodeBounds[6 * node + k] = roundDown(bound[k]);
+      nodeBounds[6 * node + k + 3] = roundUp(bound[k + 3]);
+    }
+    nodeSkip[node] = numNodes;
   }
 
   /**
-   * A node in the bounding box tree.
-   * @author Brad Kimmel
+   * Determines the axis along which the bounding box of a range of items is
+   * the longest.
+   * @param order The array of item indices.
+   * @param from The first index into <code>order</code> of the range.
+   * @param to One past the last index into <code>order</code> of the range.
+   * @param box The bounding boxes of the items, six values per item.
+   * @return The axis (0, 1, or 2) along which the bounding box of the
+   *     specified items is the longest.
    */
-  private static final class Node {
-
-    /** The <code>Object</code> contained at this <code>Node</code>. */
-    public final Object item;
-
-    /** The bounding <code>Box3</code> of this <code>Node</code>. */
-    public final Box3 bound;
-
-    /** The root <code>Node</code> of the first subtree. */
-    public final Node a;
-
-    /** The root <code>Node</code> of the second subtree. */
-    public final Node b;
-
-    /**
-     * Creates a leaf <code>Node</code>.
-     * @param item The <code>Object</code> to be stored at the new
-     *    <code>Node</code>.
-     * @param bound The bounding <code>Box3</code> of the new
-     *     <code>Node</code>.
-     */
-    public Node(Object item, Box3 bound) {
-      this.item = item;
-      this.bound = bound;
-      this.a = null;
-      this.b = null;
+  private static int longestAxis(int[] order, int from, int to, double[] box) {
+    double[] extent = new double[]{
+        Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+    for (int k = from; k < to; k++) {
+      int b = 6 * order[k];
+      for (int j = 0; j < 3; j++) {
+        extent[j] = Math.min(extent[j], box[b + j]);
+        extent[j + 3] = Math.max(extent[j + 3], box[b + j + 3]);
+      }
     }
-
-    /**
-     * Creates an internal <code>Node</code>.
-     * @param a The root <code>Node</code> of the first subtree.
-     * @param b The root <code>Node</code> of the second subtree.
-     */
-    public Node(Node a, Node b) {
-      this.item = null;
-      this.bound = Box3.smallestContaining(a.bound, b.bound);
-      this.a = a;
-      this.b = b;
+    double lx = extent[3] - extent[0];
+    double ly = extent[4] - extent[1];
+    double lz = extent[5] - extent[2];
+    if (lx > ly && lx > lz) {
+      return 0;
+    } else if (ly > lz) {
+      return 1;
+    } else {
+      return 2;
     }
+  }
 
-    /**
-     * Intersects a <code>Ray3</code> with the subtree rooted at this
-     * <code>Node</code>.
-     * @param ray The <code>Ray3</code> to intersect with this subtree.
-     * @param I The <code>Interval</code> along the ray to consider.
-     * @param visitor The <code>Visitor</code> to notify when a
-     *     <code>Node</code> containing an item is hit.
-     * @return A value indicating whether the operation was completed
-     *     without being cancelled.
-     */
-    public boolean intersect(Ray3 ray, Interval I, Visitor visitor) {
-      if (this.bound.intersects(ray, I)) {
-        if (item != null && !visitor.visit(item)) {
-          return false;
-        }
-        if (a != null && !a.intersect(ray, I, visitor)) {
-          return false;
-        }
-        if (b != null && !b.intersect(ray, I, visitor)) {
-          return false;
+  /**
+   * Partially sorts a range of items so that the item at index
+   * <code>k</code> is the one that would be there if the range were sorted
+   * by the centers of the bounding boxes along the specified axis, and so
+   * that no item before (after) it has a greater (lesser) center.
+   * @param order The array of item indices.
+   * @param from The first index into <code>order</code> of the range.
+   * @param to One past the last index into <code>order</code> of the range.
+   * @param k The index into <code>order</code> to select.
+   * @param center The centers of the bounding boxes, three values per item.
+   * @param axis The axis along which to compare the centers.
+   */
+  private static void select(int[] order, int from, int to, int k,
+      double[] center, int axis) {
+    int lo = from;
+    int hi = to - 1;
+    while (lo < hi) {
+      double pivot = center[3 * order[(lo + hi) >>> 1] + axis];
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (center[3 * order[i] + axis] < pivot) i++;
+        while (center[3 * order[j] + axis] > pivot) j--;
+        if (i <= j) {
+          int t = order[i];
+          order[i] = order[j];
+          order[j] = t;
+          i++;
+          j--;
         }
       }
-      return true;
+      if (k <= j) {
+        hi = j;
+      } else if (k >= i) {
+        lo = i;
+      } else {
+        break;
+      }
     }
-
   }
 
   /**
-   * Compares <code>Node</code>s according to the centers of their bounding
-   * boxes along a particular axis.
-   * @author Brad Kimmel
+   * Converts a <code>double</code> to the largest <code>float</code> that
+   * is not greater than it.
+   * @param x The value to convert.
+   * @return The largest <code>float</code> not greater than <code>x</code>.
    */
-  private static final class NodeComparator implements Comparator<Node> {
-
-    /**
-     * Indicates that this <code>NodeComparator</code> should compare the
-     * x-coordinates of the centers of the bounding boxes.
-     */
-    public static final int X_AXIS = 0;
-
-    /**
-     * Indicates that this <code>NodeComparator</code> should compare the
-     * y-coordinates of the centers of the bounding boxes.
-     */
-    public static final int Y_AXIS = 1;
-
-    /**
-     * Indicates that this <code>NodeComparator</code> should compare the
-     * z-coordinates of the centers of the bounding boxes.
-     */
-    public static final int Z_AXIS = 2;
-
-    /**
-     * A value indicating the axis along which the comparison should take
-     * place.
-     */
-    private final int axis;
-
-    /**
-     * Creates a new <code>NodeComparator</code>.
-     * @param axis A value indicating the axis along which the comparison
-     *     should take place.
-     */
-    public NodeComparator(int axis) {
-      this.axis = axis;
-    }
-
-    @Override
-    public int compare(Node o1, Node o2) {
-      Point3 p1 = o1.bound.center();
-      Point3 p2 = o2.bound.center();
-
-      switch (this.axis) {
-      case X_AXIS: return Double.compare(p1.x(), p2.x());
-      case Y_AXIS: return Double.compare(p1.y(), p2.y());
-      case Z_AXIS: return Double.compare(p1.z(), p2.z());
-      }
-
-      throw new UnsupportedOperationException("invalid axis");
-    }
+  private static float roundDown(double x) {
+    float f = (float) x;
+    return (f > x) ? Math.nextDown(f) : f;
+  }
 
+  /**
+   * Converts a <code>double</code> to the smallest <code>float</code> that
+   * is not less than it.
+   * @param x The value to convert.
+   * @return The smallest <code>float</code> not less than <code>x</code>.
+   */
+  private static float roundUp(double x) {
+    float f = (float) x;
+    return (f < x) ? Math.nextUp(f) : f;
   }
 
 }
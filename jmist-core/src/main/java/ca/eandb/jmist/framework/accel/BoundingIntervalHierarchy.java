@@ -26,17 +26,24 @@
 package ca.eandb.jmist.framework.accel;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
 
 import ca.eandb.jmist.framework.IntersectionRecorder;
-import ca.eandb.jmist.framework.NearestIntersectionRecorder;
 import ca.eandb.jmist.framework.SceneElement;
 import ca.eandb.jmist.framework.scene.SceneElementDecorator;
 import ca.eandb.jmist.math.Box3;
@@ -59,6 +66,25 @@ import ca.eandb.util.UnexpectedException;
  * pp. 139-149, 2006.
  * </blockquote>
  *
+ * A pre-built hierarchy may be written to a file using {@link #write(File)}
+ * and later memory-mapped using {@link #map(File)}.  The file consists of a
+ * header followed by the item and node arrays, all in big-endian byte order:
+ *
+ * <table>
+ *   <caption>File layout</caption>
+ *   <tr><th>Offset</th><th>Type</th><th>Description</th></tr>
+ *   <tr><td>0</td><td>int</td><td>Magic number ({@link #FILE_MAGIC})</td></tr>
+ *   <tr><td>4</td><td>int</td><td>Format version ({@link #FILE_VERSION})</td></tr>
+ *   <tr><td>8</td><td>int</td><td>Number of primitives</td></tr>
+ *   <tr><td>12</td><td>int</td><td>Offset of the root node</td></tr>
+ *   <tr><td>16</td><td>long</td><td>CRC-32 of the primitive bounding boxes</td></tr>
+ *   <tr><td>24</td><td>double[6]</td><td>Bounding box (min x, y, z, max x, y, z)</td></tr>
+ *   <tr><td>72</td><td>int</td><td>Number of items (<em>n</em>)</td></tr>
+ *   <tr><td>76</td><td>int</td><td>Size of the node array in bytes (<em>m</em>)</td></tr>
+ *   <tr><td>80</td><td>int[<em>n</em>]</td><td>Item array</td></tr>
+ *   <tr><td>80 + 4<em>n</em></td><td>byte[<em>m</em>]</td><td>Node array</td></tr>
+ * </table>
+ *
  * @author Brad Kimmel
  */
 public final class BoundingIntervalHierarchy extends SceneElementDecorator {
@@ -66,7 +92,27 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
   /** Serialization version ID. */
   private static final long serialVersionUID = -5882424225852208674L;
 
-  private transient int[] items;
+  /** Magic number identifying a bounding interval hierarchy file. */
+  public static final int FILE_MAGIC = 0x4a424948; // "JBIH"
+
+  /** The version of the file format written by {@link #write(File)}. */
+  public static final int FILE_VERSION = 1;
+
+  /** The size of the file header, in bytes. */
+  private static final int FILE_HEADER_SIZE = 80;
+
+  /**
+   * Storage reused by each thread for the interval over which a ray
+   * overlaps the bounding box.  The values are passed by value to the
+   * traversal, so hierarchies nested within this one may reuse it.
+   */
+  private static final ThreadLocal<double[]> rayExtent =
+      ThreadLocal.withInitial(() -> new double[2]);
+
+  private transient IntBuffer items;
+
+  /** The ordering of the primitives while the hierarchy is being built. */
+  private transient int[] order;
 
   private transient NodeBuffer buffer;
 
@@ -80,66 +126,305 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
 
   private final double tolerance = MathUtil.EPSILON;
 
+  /**
+   * The minimum number of primitives in a subtree for its construction to be
+   * split into parallel tasks, or zero to build the hierarchy serially.
+   */
+  private final int parallelThreshold;
+
+  /**
+   * The default minimum number of primitives in a subtree for its
+   * construction to be split into parallel tasks.
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+
+  /**
+   * The number of subtrees that were not visited because a visibility query
+   * found an occluding primitive before reaching them.
+   */
+  private final LongAdder skippedSubtrees = new LongAdder();
+
   /**
    * @param inner The <code>SceneElement</code> to apply the bounding interval
    *     hierarchy to.
    */
   public BoundingIntervalHierarchy(SceneElement inner) {
+    this(inner, 0);
+  }
+
+  /**
+   * Creates a <code>BoundingIntervalHierarchy</code> that is constructed in
+   * parallel using the common <code>ForkJoinPool</code>.  The resulting
+   * hierarchy is identical to the one built serially.
+   * @param inner The <code>SceneElement</code> to apply the bounding interval
+   *     hierarchy to.
+   * @param parallelThreshold The minimum number of primitives in a subtree
+   *     for its construction to be split into parallel tasks, or zero to
+   *     build the hierarchy serially.
+   * @see #DEFAULT_PARALLEL_THRESHOLD
+   */
+  public BoundingIntervalHierarchy(SceneElement inner, int parallelThreshold) {
     super(inner);
+    if (parallelThreshold < 0) {
+      throw new IllegalArgumentException("parallelThreshold must be non-negative");
+    }
+    this.parallelThreshold = parallelThreshold;
   }
 
   /**
    * @param inner The <code>SceneElement</code> to apply the bounding interval
    *     hierarchy to.
    * @param filename The name of the file containing the pre-generated bounding
-   *     interval hierarchy.
-   * @throws IOException If the specified file could not be read.
+   *     interval hierarchy.  If the file does not exist, or if it does not
+   *     match <code>inner</code>, the hierarchy is built and written to it.
+   * @throws IOException If the specified file could not be read or written.
+   * @see #map(File)
+   * @see #write(File)
    */
   public BoundingIntervalHierarchy(SceneElement inner, String filename) throws IOException {
-    super(inner);
+    this(inner, filename, 0);
+  }
+
+  /**
+   * @param inner The <code>SceneElement</code> to apply the bounding interval
+   *     hierarchy to.
+   * @param filename The name of the file containing the pre-generated bounding
+   *     interval hierarchy.  If the file does not exist, or if it does not
+   *     match <code>inner</code>, the hierarchy is built and written to it.
+   * @param parallelThreshold The minimum number of primitives in a subtree
+   *     for its construction to be split into parallel tasks, or zero to
+   *     build the hierarchy serially.
+   * @throws IOException If the specified file could not be read or written.
+   * @see #map(File)
+   * @see #write(File)
+   */
+  public BoundingIntervalHierarchy(SceneElement inner, String filename, int parallelThreshold) throws IOException {
+    this(inner, parallelThreshold);
 
     File file = new File(filename);
-    if (file.isFile()) {
-      FileInputStream fs = new FileInputStream(file);
-      try {
-        restore(fs);
-      } finally {
-        fs.close();
+    if (!file.isFile() || !map(file)) {
+      write(file);
+    }
+  }
+
+  /**
+   * Writes this hierarchy to a file that may later be memory-mapped using
+   * {@link #map(File)}, building the hierarchy first if necessary.  The file
+   * is written to a temporary file in the same directory and then moved into
+   * place, so that processes that have the previous version of the file
+   * mapped are unaffected.
+   * @param file The <code>File</code> to write.
+   * @throws IOException If the file could not be written.
+   */
+  public void write(File file) throws IOException {
+    ensureReady();
+
+    int nodeBytes = buffer.next;
+    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    header.putInt(FILE_MAGIC);
+    header.putInt(FILE_VERSION);
+    header.putInt(super.getNumPrimitives());
+    header.putInt(root);
+    header.putLong(computeBoundsChecksum());
+    for (int axis = 0; axis < 3; axis++) {
+      header.putDouble(boundingBox.minimum(axis));
+    }
+    for (int axis = 0; axis < 3; axis++) {
+      header.putDouble(boundingBox.maximum(axis));
+    }
+    header.putInt(items.limit());
+    header.putInt(nodeBytes);
+    header.flip();
+
+    Path target = file.getAbsoluteFile().toPath();
+    Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        writeFully(channel, header);
+
+        ByteBuffer chunk = ByteBuffer.allocate(65536);
+        IntBuffer src = items.duplicate();
+        src.rewind();
+        while (src.hasRemaining()) {
+          chunk.clear();
+          IntBuffer dst = chunk.asIntBuffer();
+          int n = Math.min(dst.remaining(), src.remaining());
+          IntBuffer slice = src.slice();
+          slice.limit(n);
+          dst.put(slice);
+          src.position(src.position() + n);
+          chunk.limit(4 * n);
+          writeFully(channel, chunk);
+        }
+
+        ByteBuffer nodes = buffer.buf.duplicate();
+        nodes.clear();
+        nodes.limit(nodeBytes);
+        writeFully(channel, nodes);
+        channel.force(true);
       }
-    } else {
-      FileOutputStream fs = new FileOutputStream(file);
+
       try {
-        save(fs);
-        fs.flush();
-      } finally {
-        fs.close();
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Writes the remaining contents of a buffer to a channel.
+   * @param channel The <code>FileChannel</code> to write to.
+   * @param buf The <code>ByteBuffer</code> to write.
+   * @throws IOException If an I/O error occurs.
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+  }
+
+  /**
+   * Memory-maps a hierarchy previously written using {@link #write(File)}.
+   * The node and item arrays are used directly from the mapped file, so
+   * that no copy is made on the heap and the pages may be shared by multiple
+   * processes on the same host.
+   * @param file The <code>File</code> to map.
+   * @return A value indicating whether the file was mapped.  If the file
+   *     was written by an incompatible version, or for a different
+   *     <code>SceneElement</code> (as determined by the number of primitives
+   *     and a checksum of their bounding boxes), <code>false</code> is
+   *     returned and this hierarchy is left unchanged.
+   * @throws IOException If the file could not be read.
+   */
+  public synchronized boolean map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < FILE_HEADER_SIZE) {
+        return false;
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) {
+          throw new IOException("Unexpected end of file reading header");
+        }
+      }
+      header.flip();
+
+      if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION) {
+        return false;
+      }
+      if (header.getInt() != super.getNumPrimitives()) {
+        return false;
+      }
+      int fileRoot = header.getInt();
+      if (header.getLong() != computeBoundsChecksum()) {
+        return false;
+      }
+      double minx = header.getDouble();
+      double miny = header.getDouble();
+      double minz = header.getDouble();
+      double maxx = header.getDouble();
+      double maxy = header.getDouble();
+      double maxz = header.getDouble();
+      int itemCount = header.getInt();
+      int nodeBytes = header.getInt();
+
+      long itemOffset = FILE_HEADER_SIZE;
+      long nodeOffset = itemOffset + 4L * itemCount;
+      if (itemCount < 0 || nodeBytes < 0 || nodeOffset + nodeBytes != size) {
+        throw new IOException("Corrupt bounding interval hierarchy file");
+      }
+      if (itemCount != super.getNumPrimitives()) {
+        throw new IOException(String.format(
+            "Corrupt bounding interval hierarchy file: %d items for %d primitives",
+            itemCount, super.getNumPrimitives()));
+      }
+      if (fileRoot < 0 || fileRoot >= nodeBytes) {
+        throw new IOException(String.format(
+            "Corrupt bounding interval hierarchy file: root offset %d outside node array of %d bytes",
+            fileRoot, nodeBytes));
+      }
+
+      IntBuffer mappedItems = channel.map(FileChannel.MapMode.READ_ONLY, itemOffset, 4L * itemCount).asIntBuffer();
+      NodeBuffer mappedNodes = new NodeBuffer();
+      mappedNodes.buf = channel.map(FileChannel.MapMode.READ_ONLY, nodeOffset, nodeBytes);
+      mappedNodes.next = nodeBytes;
+
+      items = mappedItems;
+      buffer = mappedNodes;
+      root = fileRoot;
+      boundingBox = new Box3(minx, miny, minz, maxx, maxy, maxz);
+      ready = true;
+      return true;
+    }
+  }
+
+  /**
+   * Computes a checksum of the bounding boxes of the primitives of the
+   * decorated <code>SceneElement</code>.  This is used to detect when a
+   * hierarchy file does not correspond to the scene being rendered.
+   * @return The CRC-32 of the bounding boxes of the primitives.
+   */
+  private long computeBoundsChecksum() {
+    CRC32 crc = new CRC32();
+    ByteBuffer buf = ByteBuffer.allocate(48);
+    for (int i = 0, n = super.getNumPrimitives(); i < n; i++) {
+      Box3 box = getBoundingBox(i);
+      buf.clear();
+      for (int axis = 0; axis < 3; axis++) {
+        buf.putDouble(box.minimum(axis));
       }
+      for (int axis = 0; axis < 3; axis++) {
+        buf.putDouble(box.maximum(axis));
+      }
+      buf.flip();
+      crc.update(buf);
     }
+    return crc.getValue();
   }
 
+  /**
+   * Writes this hierarchy to a stream using Java serialization.
+   * @param out The <code>OutputStream</code> to write to.
+   * @throws IOException If an I/O error occurs.
+   * @see #write(File)
+   */
   public void save(OutputStream out) throws IOException {
     ensureReady();
 
+    int[] itemArray = new int[items.limit()];
+    items.duplicate().get(itemArray);
+
     ObjectOutputStream oos = new ObjectOutputStream(out);
-    oos.writeObject(items);
+    oos.writeObject(itemArray);
     oos.writeInt(root);
     oos.writeObject(boundingBox);
     oos.writeInt(buffer.next);
 
-    byte[] buf = buffer.buf.array();
-    oos.write(buf, 0, buffer.next);
+    byte[] buf = new byte[buffer.next];
+    ByteBuffer nodes = buffer.buf.duplicate();
+    nodes.clear();
+    nodes.get(buf);
+    oos.write(buf);
 
     oos.flush();
-
-    System.out.printf("Wrote %d bytes from backing array of size %d.", buffer.next, buf.length);
-    System.out.println();
   }
 
+  /**
+   * Reads a hierarchy from a stream written by {@link #save(OutputStream)}.
+   * @param in The <code>InputStream</code> to read from.
+   * @throws IOException If an I/O error occurs.
+   * @see #map(File)
+   */
   public void restore(InputStream in) throws IOException {
     ObjectInputStream ois = new ObjectInputStream(in);
 
     try {
-      items = (int[]) ois.readObject();
+      items = IntBuffer.wrap((int[]) ois.readObject());
       root = ois.readInt();
       boundingBox = (Box3) ois.readObject();
 
@@ -163,8 +448,6 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
     } catch (ClassNotFoundException e) {
       throw new UnexpectedException(e);
     }
-
-    System.out.println("Restored BIH from file.");
   }
 
 
@@ -180,7 +463,7 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
       indent(depth);
       System.out.printf("LEAF(%d,%d):", start, end);
       for (int i = start; i < end; i++) {
-        System.out.printf(" %d", items[i]);
+        System.out.printf(" %d", items.get(i));
       }
       System.out.println();
     } else {
@@ -222,18 +505,135 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
 
   private synchronized void build() {
     if (!ready) {
-      buffer = new NodeBuffer();
-      items = ArrayUtil.range(0, super.getNumPrimitives());
+      order = ArrayUtil.range(0, super.getNumPrimitives());
       boundingBox = boundingBox();
       Bound bound = new Bound(boundingBox);
-      Clip clip = new Clip();
-      root = buffer.allocateInternal();
-      build(root, bound, 0, items.length, clip);
+      if (parallelThreshold > 0 && order.length > parallelThreshold) {
+        buffer = new BuildTask(bound, 0, order.length).invoke();
+        root = 0;
+      } else {
+        buffer = new NodeBuffer();
+        Clip clip = new Clip();
+        root = buffer.allocateInternal();
+        build(buffer, root, bound, 0, order.length, clip);
+      }
+      items = IntBuffer.wrap(order);
+      order = null;
       ready = true;
     }
   }
 
-  private void build(int offset, Bound bound, int start, int end, Clip clip) {
+  /**
+   * A task that builds a subtree of the hierarchy.  The subtree is written to
+   * a separate <code>NodeBuffer</code>, with the root of the subtree at
+   * offset zero followed by its descendants in the same order as they would
+   * be written by the serial build.  Subtrees built by child tasks are then
+   * stitched into the parent's buffer, so that the resulting hierarchy is
+   * identical to the one built serially.
+   */
+  private final class BuildTask extends RecursiveTask<NodeBuffer> {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = -8616744212859434779L;
+
+    /** The bounds of the subtree. */
+    private final Bound bound;
+
+    /** The index into <code>order</code> of the first item in the subtree. */
+    private final int start;
+
+    /** The index into <code>order</code> one past the last item in the subtree. */
+    private final int end;
+
+    /**
+     * Creates a new <code>BuildTask</code>.
+     * @param bound The bounds of the subtree.
+     * @param start The index into <code>order</code> of the first item in the
+     *     subtree.
+     * @param end The index into <code>order</code> one past the last item in
+     *     the subtree.
+     */
+    public BuildTask(Bound bound, int start, int end) {
+      this.bound = bound;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected NodeBuffer compute() {
+      NodeBuffer sub = new NodeBuffer();
+      Clip clip = new Clip();
+      int offset = sub.allocateInternal();
+
+      if (end - start <= parallelThreshold) {
+        build(sub, offset, bound, start, end, clip);
+        return sub;
+      }
+
+      // Split this node as in build(NodeBuffer, int, Bound, int, int, Clip),
+      // but hand off the construction of internal children to subtasks.
+      double lenx = bound.maxx - bound.minx;
+      double leny = bound.maxy - bound.miny;
+      double lenz = bound.maxz - bound.minz;
+      double maxlen = Math.max(Math.max(lenx, leny), lenz);
+      int axis;
+      double plane;
+      if (lenx > leny && lenx > lenz) {
+        axis = 0;
+        plane = 0.5 * (bound.minx + bound.maxx);
+      } else if (leny > lenz) {
+        axis = 1;
+        plane = 0.5 * (bound.miny + bound.maxy);
+      } else {
+        axis = 2;
+        plane = 0.5 * (bound.minz + bound.maxz);
+      }
+      int split = split(axis, plane, start, end, clip);
+      int left = split - start;
+      int right = end - split;
+
+      boolean leftInternal = left > maxItemsPerLeaf && maxlen >= tolerance;
+      boolean rightInternal = right > maxItemsPerLeaf && maxlen >= tolerance;
+      int leftChild = leftInternal ? sub.allocateInternal() : (left > 0) ? sub.allocateLeaf() : -1;
+      int rightChild = rightInternal ? sub.allocateInternal() : (right > 0) ? sub.allocateLeaf() : -1;
+      int firstChild = (left > 0) ? leftChild : rightChild;
+
+      sub.writeInternal(offset, axis, clip, firstChild);
+
+      BuildTask leftTask = null;
+      BuildTask rightTask = null;
+      if (leftInternal) {
+        Bound leftBound = new Bound(bound);
+        leftBound.setMax(axis, plane);
+        leftTask = new BuildTask(leftBound, start, split);
+      } else if (left > 0) {
+        sub.writeLeaf(leftChild, start, split);
+      }
+      if (rightInternal) {
+        Bound rightBound = new Bound(bound);
+        rightBound.setMin(axis, plane);
+        rightTask = new BuildTask(rightBound, split, end);
+      } else if (right > 0) {
+        sub.writeLeaf(rightChild, split, end);
+      }
+
+      if (leftTask != null && rightTask != null) {
+        leftTask.fork();
+        NodeBuffer rightSub = rightTask.compute();
+        sub.append(leftTask.join(), leftChild);
+        sub.append(rightSub, rightChild);
+      } else if (leftTask != null) {
+        sub.append(leftTask.compute(), leftChild);
+      } else if (rightTask != null) {
+        sub.append(rightTask.compute(), rightChild);
+      }
+
+      return sub;
+    }
+
+  }
+
+  private void build(NodeBuffer buffer, int offset, Bound bound, int start, int end, Clip clip) {
     assert(end > start);
 
     double lenx = bound.maxx - bound.minx;
@@ -267,7 +667,7 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
     // add new node here
     if (left > maxItemsPerLeaf && maxlen >= tolerance) {
       double temp = bound.setMax(axis, plane);
-      build(leftChild, bound, start, split, clip);
+      build(buffer, leftChild, bound, start, split, clip);
       bound.setMax(axis, temp);
     } else if (left > 0) {
       assert(leftChild >= 0);
@@ -278,7 +678,7 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
     }
     if (right > maxItemsPerLeaf && maxlen >= tolerance) {
       double temp = bound.setMin(axis, plane);
-      build(rightChild, bound, split, end, clip);
+      build(buffer, rightChild, bound, split, end, clip);
       bound.setMin(axis, temp);
     } else if (right > 0) {
       assert(rightChild >= 0);
@@ -306,6 +706,15 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
       maxz = box.maximumZ();
     }
 
+    public Bound(Bound other) {
+      minx = other.minx;
+      miny = other.miny;
+      minz = other.minz;
+      maxx = other.maxx;
+      maxy = other.maxy;
+      maxz = other.maxz;
+    }
+
     public double setMin(int axis, double value) {
       double temp;
       switch (axis) {
@@ -367,7 +776,7 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
     int split = start;
     clip.reset();
     for (int i = start; i < end; i++) {
-      Box3 bound = getBoundingBox(items[i]);
+      Box3 bound = getBoundingBox(order[i]);
       min = bound.minimum(axis);
       max = bound.maximum(axis);
       mid = 0.5 * (min + max);
@@ -376,7 +785,7 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
           clip.left = max;
         }
         if (i > split) {
-          ArrayUtil.swap(items, split, i);
+          ArrayUtil.swap(order, split, i);
         }
         split++;
       } else {
@@ -434,7 +843,7 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
       int result = next;
       next += size;
       if (next > buf.capacity()) {
-        ByteBuffer newBuf = ByteBuffer.allocate(2 * buf.capacity());
+        ByteBuffer newBuf = ByteBuffer.allocate(Math.max(2 * buf.capacity(), next));
         buf.clear();
         newBuf.put(buf);
         buf = newBuf;
@@ -442,6 +851,36 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
       return result;
     }
 
+    /**
+     * Appends a subtree built into a separate buffer.  The root of the
+     * subtree (at offset zero of <code>sub</code>) is written to the
+     * specified node, and its descendants are appended to this buffer with
+     * their child offsets relocated accordingly.
+     * @param sub The <code>NodeBuffer</code> containing the subtree.
+     * @param offset The offset of the (already allocated) internal node to
+     *     write the root of the subtree to.
+     */
+    public void append(NodeBuffer sub, int offset) {
+      int base = allocate(sub.next - SIZE_INTERNAL);
+      int delta = base - SIZE_INTERNAL;
+
+      ByteBuffer src = sub.buf.duplicate();
+      src.limit(sub.next);
+      src.position(SIZE_INTERNAL);
+      buf.position(base);
+      buf.put(src);
+
+      buf.putInt(offset, sub.buf.getInt(0) + delta);
+      buf.putInt(offset + 4, sub.buf.getInt(4));
+      buf.putInt(offset + 8, sub.buf.getInt(8));
+
+      for (int node = base; node < next; node = getNext(node)) {
+        if (!isLeaf(node)) {
+          buf.putInt(node, buf.getInt(node) + delta);
+        }
+      }
+    }
+
     public int getStart(int offset) {
       return buf.getInt(offset) >> 2;
     }
@@ -497,9 +936,10 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
   @Override
   public void intersect(Ray3 ray, IntersectionRecorder recorder) {
     ensureReady();
-    Interval I = boundingBox.intersect(ray).intersect(recorder.interval());
-    if (!I.isEmpty()) {
-      intersectNode(root, I.minimum(), I.maximum(), ray, recorder);
+    Interval I = recorder.interval();
+    double[] t = rayExtent.get();
+    if (boundingBox.intersect(ray, Math.max(I.minimum(), 0.0), I.maximum(), t)) {
+      intersectNode(root, t[0], t[1], ray, recorder);
     }
   }
 
@@ -518,7 +958,7 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
         if (i == 1) {
           i = 1;
         }
-        super.intersect(items[i], ray, recorder);
+        super.intersect(items.get(i), ray, recorder);
       }
     } else {
       double p = ray.origin().get(type);
@@ -571,9 +1011,89 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
 
   @Override
   public boolean visibility(Ray3 ray) {
-    NearestIntersectionRecorder recorder = new NearestIntersectionRecorder(new Interval(0.0, ray.limit()));
-    intersect(ray, recorder);
-    return recorder.isEmpty();
+    ensureReady();
+    double[] t = rayExtent.get();
+    if (!boundingBox.intersect(ray, 0.0, ray.limit(), t)) {
+      return true;
+    }
+    return visibilityNode(root, t[0], t[1], ray);
+  }
+
+  /**
+   * Determines whether any primitive within the subtree rooted at the
+   * specified node occludes the given ray.  Unlike
+   * {@link #intersectNode(int, double, double, Ray3, IntersectionRecorder)},
+   * the traversal stops as soon as any occluding primitive is found.
+   * @param node The offset of the node at the root of the subtree.
+   * @param near The parametric distance along the ray at which it enters
+   *     the node.
+   * @param far The parametric distance along the ray at which it exits the
+   *     node.
+   * @param ray The <code>Ray3</code> to test.
+   * @return A value indicating whether the ray is unoccluded by the
+   *     primitives in the subtree.
+   */
+  private boolean visibilityNode(int node, double near, double far, Ray3 ray) {
+    if (far < near) {
+      return true;
+    }
+
+    int type = buffer.getType(node);
+
+    if (type == NodeBuffer.TYPE_LEAF) {
+      int start = buffer.getStart(node);
+      int end = buffer.getEnd(node);
+      for (int i = start; i < end; i++) {
+        if (!super.visibility(items.get(i), ray)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    double p = ray.origin().get(type);
+    double v = ray.direction().get(type);
+
+    double lp = buffer.getLeftPlane(node);
+    double rp = buffer.getRightPlane(node);
+
+    boolean aligned = Math.abs(v) < MathUtil.SMALL_EPSILON;
+    double ld = aligned ? Double.NEGATIVE_INFINITY : (lp - p) / v;
+    double rd = aligned ? Double.POSITIVE_INFINITY : (rp - p) / v;
+
+    int firstChild, secondChild;
+    double firstFar, secondNear;
+    if (v > MathUtil.SMALL_EPSILON) { // left to right
+      firstChild = (near < ld) ? buffer.getLeftChild(node) : -1;
+      secondChild = (rd < far) ? buffer.getRightChild(node) : -1;
+      firstFar = Math.min(ld, far);
+      secondNear = Math.max(near, rd);
+    } else { // aligned or right to left
+      firstChild = (near < rd) ? buffer.getRightChild(node) : -1;
+      secondChild = (ld < far) ? buffer.getLeftChild(node) : -1;
+      firstFar = Math.min(rd, far);
+      secondNear = Math.max(near, ld);
+    }
+
+    if (firstChild >= 0 && !visibilityNode(firstChild, near, firstFar, ray)) {
+      if (secondChild >= 0) {
+        skippedSubtrees.increment();
+      }
+      return false;
+    }
+
+    return secondChild < 0 || visibilityNode(secondChild, secondNear, far, ray);
+  }
+
+  /**
+   * Gets the number of subtrees that were not visited because a call to
+   * {@link #visibility(Ray3)} found an occluding primitive before reaching
+   * them.
+   * @return The number of subtrees skipped by early termination of
+   *     visibility queries.
+   */
+  public long getSkippedSubtreeCount() {
+    return skippedSubtrees.sum();
   }
 
 }
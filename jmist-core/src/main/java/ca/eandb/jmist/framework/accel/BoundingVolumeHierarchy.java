@@ -0,0 +1,731 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.accel;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import ca.eandb.jmist.framework.IntersectionRecorder;
+import ca.eandb.jmist.framework.SceneElement;
+import ca.eandb.jmist.framework.scene.SceneElementDecorator;
+import ca.eandb.jmist.math.Box3;
+import ca.eandb.jmist.math.Interval;
+import ca.eandb.jmist.math.Ray3;
+import ca.eandb.jmist.util.ArrayUtil;
+
+/**
+ * A decorator <code>SceneElement</code> that applies a bounding volume
+ * hierarchy (BVH), constructed using the surface area heuristic (SAH), to the
+ * primitives of the underlying <code>SceneElement</code>.
+ *
+ * The hierarchy is built top-down.  At each node, the primitive centroids are
+ * binned along each axis and the partition minimizing the SAH cost is chosen,
+ * as described in the following paper:
+ *
+ * <blockquote>
+ * I. Wald,
+ * <a href="http://www.sci.utah.edu/~wald/Publications/2007/ParallelBVHBuild/fastbuild.pdf">On fast Construction of SAH-based Bounding Volume Hierarchies</a>,
+ * In <em>Proceedings of the 2007 IEEE Symposium on Interactive Ray
+ * Tracing</em>, pp. 33-40, 2007.
+ * </blockquote>
+ *
+ * The resulting tree is stored in flat arrays in depth-first order, so that
+ * the left child of an internal node immediately follows its parent.
+ * Coherent rays may be traced together using
+ * {@link #intersectPacket(RayPacket, IntersectionRecorder[])}.
+ *
+ * @see BoundingIntervalHierarchy
+ * @author Brad Kimmel
+ */
+public final class BoundingVolumeHierarchy extends SceneElementDecorator
+    implements PacketIntersectable {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 4466135524786213553L;
+
+  /** The default maximum number of primitives in a leaf node. */
+  public static final int DEFAULT_MAX_ITEMS_PER_LEAF = 4;
+
+  /** The default cost of traversing an internal node. */
+  public static final double DEFAULT_TRAVERSAL_COST = 0.125;
+
+  /** The default cost of intersecting a ray with a primitive. */
+  public static final double DEFAULT_INTERSECTION_COST = 1.0;
+
+  /** The default number of bins to use for evaluating split candidates. */
+  public static final int DEFAULT_NUM_BINS = 16;
+
+  /**
+   * The maximum number of primitives in a leaf node.  Nodes with more
+   * primitives than this are always split (unless their centroids cannot be
+   * separated).  Smaller nodes are split only if the SAH indicates that doing
+   * so is beneficial.
+   */
+  private final int maxItemsPerLeaf;
+
+  /** The estimated cost of traversing an internal node. */
+  private final double traversalCost;
+
+  /** The estimated cost of intersecting a ray with a single primitive. */
+  private final double intersectionCost;
+
+  /** The number of bins to use for evaluating split candidates. */
+  private final int numBins;
+
+  /** The indices of the primitives, ordered by leaf. */
+  private transient int[] items;
+
+  /**
+   * The bounding boxes of the nodes, six entries per node
+   * (min x, min y, min z, max x, max y, max z).
+   */
+  private transient double[] bounds;
+
+  /**
+   * Two entries per node.  For a leaf node, the first entry is the offset
+   * into {@link #items} of its first primitive and the second is the
+   * (positive) number of primitives.  For an internal node, the first entry
+   * is the index of the right child (the left child immediately follows the
+   * parent) and the second is <code>-(axis + 1)</code>, where
+   * <code>axis</code> is the axis along which the node was split.
+   */
+  private transient int[] nodes;
+
+  /** The number of nodes in the tree. */
+  private transient int numNodes;
+
+  /** The maximum depth of the tree. */
+  private transient int depth;
+
+  /** A value indicating whether the tree has been built. */
+  private transient boolean ready = false;
+
+  /** The working storage used by each thread to traverse the tree. */
+  private transient ThreadLocal<Traversal> traversal;
+
+  /**
+   * The number of subtrees that were not visited because a visibility query
+   * found an occluding primitive before reaching them.
+   */
+  private final LongAdder skippedSubtrees = new LongAdder();
+
+  /**
+   * Creates a new <code>BoundingVolumeHierarchy</code> using the default
+   * build parameters.
+   * @param inner The <code>SceneElement</code> to apply the bounding volume
+   *     hierarchy to.
+   */
+  public BoundingVolumeHierarchy(SceneElement inner) {
+    this(inner, DEFAULT_MAX_ITEMS_PER_LEAF, DEFAULT_TRAVERSAL_COST,
+        DEFAULT_INTERSECTION_COST);
+  }
+
+  /**
+   * Creates a new <code>BoundingVolumeHierarchy</code>.
+   * @param inner The <code>SceneElement</code> to apply the bounding volume
+   *     hierarchy to.
+   * @param maxItemsPerLeaf The maximum number of primitives to store in a
+   *     leaf node.
+   * @param traversalCost The estimated cost of traversing an internal node.
+   * @param intersectionCost The estimated cost of intersecting a ray with a
+   *     single primitive.
+   */
+  public BoundingVolumeHierarchy(SceneElement inner, int maxItemsPerLeaf,
+      double traversalCost, double intersectionCost) {
+    this(inner, maxItemsPerLeaf, traversalCost, intersectionCost,
+        DEFAULT_NUM_BINS);
+  }
+
+  /**
+   * Creates a new <code>BoundingVolumeHierarchy</code>.
+   * @param inner The <code>SceneElement</code> to apply the bounding volume
+   *     hierarchy to.
+   * @param maxItemsPerLeaf The maximum number of primitives to store in a
+   *     leaf node.
+   * @param traversalCost The estimated cost of traversing an internal node.
+   * @param intersectionCost The estimated cost of intersecting a ray with a
+   *     single primitive.
+   * @param numBins The number of bins to use along each axis for evaluating
+   *     split candidates.
+   */
+  public BoundingVolumeHierarchy(SceneElement inner, int maxItemsPerLeaf,
+      double traversalCost, double intersectionCost, int numBins) {
+    super(inner);
+    if (maxItemsPerLeaf < 1) {
+      throw new IllegalArgumentException("maxItemsPerLeaf must be positive");
+    }
+    if (numBins < 2) {
+      throw new IllegalArgumentException("numBins must be at least 2");
+    }
+    this.maxItemsPerLeaf = maxItemsPerLeaf;
+    this.traversalCost = traversalCost;
+    this.intersectionCost = intersectionCost;
+    this.numBins = numBins;
+  }
+
+  /** Called to build the BVH on demand. */
+  private void ensureReady() {
+    if (!ready) {
+      build();
+    }
+  }
+
+  /** Builds the BVH. */
+  private synchronized void build() {
+    if (ready) { // double check inside synchronized method
+      return;
+    }
+
+    int n = super.getNumPrimitives();
+    Builder builder = new Builder(n);
+    items = ArrayUtil.range(0, n);
+    bounds = new double[6 * Math.max(2 * n - 1, 1)];
+    nodes = new int[2 * Math.max(2 * n - 1, 1)];
+    numNodes = 0;
+    depth = 0;
+
+    if (n > 0) {
+      builder.build(0, n, 1);
+    }
+
+    bounds = Arrays.copyOf(bounds, 6 * numNodes);
+    nodes = Arrays.copyOf(nodes, 2 * numNodes);
+
+    int stackSize = depth + 1;
+    traversal = ThreadLocal.withInitial(() -> new Traversal(stackSize));
+    ready = true;
+  }
+
+  /**
+   * Working storage for traversing the tree.  One instance is kept per
+   * thread so that traversals do not allocate.  A traversal never re-enters
+   * the same hierarchy, so the storage is not shared between active calls.
+   */
+  private static final class Traversal {
+
+    /** The stack of nodes remaining to be visited. */
+    final int[] stack;
+
+    /** The near end of the valid interval for each ray in a packet. */
+    double[] near = new double[0];
+
+    /** The far end of the valid interval for each ray in a packet. */
+    double[] far = new double[0];
+
+    /**
+     * Creates a new <code>Traversal</code>.
+     * @param stackSize The maximum number of nodes on the stack.
+     */
+    Traversal(int stackSize) {
+      stack = new int[stackSize];
+    }
+
+    /**
+     * Ensures that the per-ray arrays can hold the specified number of rays.
+     * @param n The number of rays in the packet.
+     */
+    void ensurePacketSize(int n) {
+      if (near.length < n) {
+        near = new double[n];
+        far = new double[n];
+      }
+    }
+
+  }
+
+  /**
+   * Holds the temporary state required while building the hierarchy.
+   */
+  private final class Builder {
+
+    /** The bounding boxes of the primitives, six entries per primitive. */
+    private final double[] primBounds;
+
+    /** The centroids of the primitive bounding boxes. */
+    private final double[] centroids;
+
+    /** The number of primitives falling into each bin. */
+    private final int[] binCount;
+
+    /** The bounding boxes of the primitives falling into each bin. */
+    private final double[] binBounds;
+
+    /**
+     * The surface area of the union of the bins to the right of each split
+     * candidate.
+     */
+    private final double[] rightArea;
+
+    /** The number of primitives to the right of each split candidate. */
+    private final int[] rightCount;
+
+    /** Scratch space for accumulating a bounding box. */
+    private final double[] box = new double[6];
+
+    /**
+     * Creates a new <code>Builder</code>.
+     * @param n The number of primitives.
+     */
+    public Builder(int n) {
+      primBounds = new double[6 * n];
+      centroids = new double[3 * n];
+      binCount = new int[numBins];
+      binBounds = new double[6 * numBins];
+      rightArea = new double[numBins];
+      rightCount = new int[numBins];
+
+      for (int i = 0; i < n; i++) {
+        Box3 b = getBoundingBox(i);
+        for (int axis = 0; axis < 3; axis++) {
+          double min = b.minimum(axis);
+          double max = b.maximum(axis);
+          primBounds[6 * i + axis] = min;
+          primBounds[6 * i + 3 + axis] = max;
+          centroids[3 * i + axis] = 0.5 * (min + max);
+        }
+      }
+    }
+
+    /**
+     * Builds the subtree for the specified range of primitives.
+     * @param start The index into {@link #items} of the first primitive.
+     * @param end The index into {@link #items} one past the last primitive.
+     * @param level The depth of the node being built.
+     */
+    public void build(int start, int end, int level) {
+      int node = numNodes++;
+      int count = end - start;
+      depth = Math.max(depth, level);
+
+      double[] nodeBox = box;
+      resetBox(nodeBox, 0);
+      double cminx = Double.POSITIVE_INFINITY, cmaxx = Double.NEGATIVE_INFINITY;
+      double cminy = Double.POSITIVE_INFINITY, cmaxy = Double.NEGATIVE_INFINITY;
+      double cminz = Double.POSITIVE_INFINITY, cmaxz = Double.NEGATIVE_INFINITY;
+      for (int i = start; i < end; i++) {
+        int item = items[i];
+        extendBox(nodeBox, 0, primBounds, 6 * item);
+        double cx = centroids[3 * item];
+        double cy = centroids[3 * item + 1];
+        double cz = centroids[3 * item + 2];
+        if (cx < cminx) cminx = cx;
+        if (cx > cmaxx) cmaxx = cx;
+        if (cy < cminy) cminy = cy;
+        if (cy > cmaxy) cmaxy = cy;
+        if (cz < cminz) cminz = cz;
+        if (cz > cmaxz) cmaxz = cz;
+      }
+      System.arraycopy(nodeBox, 0, bounds, 6 * node, 6);
+
+      if (count > 1) {
+        double nodeArea = area(nodeBox, 0);
+        double leafCost = intersectionCost * count;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestAxis = -1;
+        int bestBin = -1;
+
+        for (int axis = 0; axis < 3; axis++) {
+          double cmin = (axis == 0) ? cminx : (axis == 1) ? cminy : cminz;
+          double cmax = (axis == 0) ? cmaxx : (axis == 1) ? cmaxy : cmaxz;
+          if (!(cmax > cmin)) {
+            continue;
+          }
+
+          binPrimitives(axis, cmin, cmax, start, end);
+
+          // Sweep from the right to compute the area and count of the right
+          // partition for each split candidate.
+          resetBox(box, 0);
+          int rc = 0;
+          for (int b = numBins - 1; b > 0; b--) {
+            extendBox(box, 0, binBounds, 6 * b);
+            rc += binCount[b];
+            rightArea[b] = area(box, 0);
+            rightCount[b] = rc;
+          }
+
+          // Sweep from the left, evaluating the SAH for each split candidate.
+          resetBox(box, 0);
+          int lc = 0;
+          for (int b = 0; b < numBins - 1; b++) {
+            extendBox(box, 0, binBounds, 6 * b);
+            lc += binCount[b];
+            rc = rightCount[b + 1];
+            if (lc == 0 || rc == 0) {
+              continue;
+            }
+            double cost = traversalCost + intersectionCost
+                * (area(box, 0) * lc + rightArea[b + 1] * rc) / nodeArea;
+            if (cost < bestCost) {
+              bestCost = cost;
+              bestAxis = axis;
+              bestBin = b;
+            }
+          }
+        }
+
+        if (bestAxis >= 0 && (count > maxItemsPerLeaf || bestCost < leafCost)) {
+          double cmin = (bestAxis == 0) ? cminx : (bestAxis == 1) ? cminy : cminz;
+          double cmax = (bestAxis == 0) ? cmaxx : (bestAxis == 1) ? cmaxy : cmaxz;
+          int split = partition(bestAxis, cmin, cmax, bestBin, start, end);
+          assert(start < split && split < end);
+
+          build(start, split, level + 1);
+          nodes[2 * node] = numNodes;
+          nodes[2 * node + 1] = -(bestAxis + 1);
+          build(split, end, level + 1);
+          return;
+        }
+      }
+
+      nodes[2 * node] = start;
+      nodes[2 * node + 1] = count;
+    }
+
+    /**
+     * Computes the bin into which a centroid falls.
+     * @param c The centroid coordinate.
+     * @param cmin The minimum centroid coordinate along the split axis.
+     * @param scale The number of bins per unit length along the split axis.
+     * @return The index of the bin.
+     */
+    private int bin(double c, double cmin, double scale) {
+      int b = (int) ((c - cmin) * scale);
+      return Math.min(Math.max(b, 0), numBins - 1);
+    }
+
+    /**
+     * Assigns primitives to bins along the specified axis.
+     * @param axis The axis along which to bin primitives.
+     * @param cmin The minimum centroid coordinate along the axis.
+     * @param cmax The maximum centroid coordinate along the axis.
+     * @param start The index into {@link #items} of the first primitive.
+     * @param end The index into {@link #items} one past the last primitive.
+     */
+    private void binPrimitives(int axis, double cmin, double cmax, int start, int end) {
+      double scale = numBins / (cmax - cmin);
+      Arrays.fill(binCount, 0);
+      for (int b = 0; b < numBins; b++) {
+        resetBox(binBounds, 6 * b);
+      }
+      for (int i = start; i < end; i++) {
+        int item = items[i];
+        int b = bin(centroids[3 * item + axis], cmin, scale);
+        binCount[b]++;
+        extendBox(binBounds, 6 * b, primBounds, 6 * item);
+      }
+    }
+
+    /**
+     * Partitions the specified range of primitives.
+     * @param axis The axis along which to split.
+     * @param cmin The minimum centroid coordinate along the axis.
+     * @param cmax The maximum centroid coordinate along the axis.
+     * @param bin The last bin belonging to the left partition.
+     * @param start The index into {@link #items} of the first primitive.
+     * @param end The index into {@link #items} one past the last primitive.
+     * @return The index into {@link #items} of the first primitive in the
+     *     right partition.
+     */
+    private int partition(int axis, double cmin, double cmax, int bin, int start, int end) {
+      double scale = numBins / (cmax - cmin);
+      int split = start;
+      for (int i = start; i < end; i++) {
+        if (bin(centroids[3 * items[i] + axis], cmin, scale) <= bin) {
+          if (i > split) {
+            ArrayUtil.swap(items, split, i);
+          }
+          split++;
+        }
+      }
+      return split;
+    }
+
+  }
+
+  /**
+   * Resets a bounding box stored in an array to the empty box.
+   * @param box The array containing the box.
+   * @param offset The offset into <code>box</code> at which the box is stored.
+   */
+  private static void resetBox(double[] box, int offset) {
+    for (int axis = 0; axis < 3; axis++) {
+      box[offset + axis] = Double.POSITIVE_INFINITY;
+      box[offset + 3 + axis] = Double.NEGATIVE_INFINITY;
+    }
+  }
+
+  /**
+   * Extends a bounding box stored in an array to contain another.
+   * @param box The array containing the box to extend.
+   * @param offset The offset into <code>box</code> at which the box is stored.
+   * @param other The array containing the box to extend to.
+   * @param otherOffset The offset into <code>other</code> at which the box to
+   *     extend to is stored.
+   */
+  private static void extendBox(double[] box, int offset, double[] other, int otherOffset) {
+    for (int axis = 0; axis < 3; axis++) {
+      if (other[otherOffset + axis] < box[offset + axis]) {
+        box[offset + axis] = other[otherOffset + axis];
+      }
+      if (other[otherOffset + 3 + axis] > box[offset + 3 + axis]) {
+        box[offset + 3 + axis] = other[otherOffset + 3 + axis];
+      }
+    }
+  }
+
+  /**
+   * Computes the surface area of a bounding box stored in an array.
+   * @param box The array containing the box.
+   * @param offset The offset into <code>box</code> at which the box is stored.
+   * @return The surface area of the box, or zero if the box is empty.
+   */
+  private static double area(double[] box, int offset) {
+    double dx = box[offset + 3] - box[offset];
+    double dy = box[offset + 4] - box[offset + 1];
+    double dz = box[offset + 5] - box[offset + 2];
+    if (!(dx >= 0.0 && dy >= 0.0 && dz >= 0.0)) {
+      return 0.0;
+    }
+    return 2.0 * (dx * dy + dy * dz + dz * dx);
+  }
+
+  /**
+   * Determines the parametric distance along a ray to its entry into the
+   * bounding box of a node.
+   * @param node The index of the node.
+   * @param ox The x-coordinate of the ray origin.
+   * @param oy The y-coordinate of the ray origin.
+   * @param oz The z-coordinate of the ray origin.
+   * @param ix The reciprocal of the x-component of the ray direction.
+   * @param iy The reciprocal of the y-component of the ray direction.
+   * @param iz The reciprocal of the z-component of the ray direction.
+   * @param near The minimum parametric distance of interest.
+   * @param far The maximum parametric distance of interest.
+   * @return The parametric distance at which the ray enters the box, or
+   *     {@link Double#NaN} if the ray misses the box within
+   *     <code>[near, far]</code>.
+   */
+  private double enter(int node, double ox, double oy, double oz,
+      double ix, double iy, double iz, double near, double far) {
+    int b = 6 * node;
+    double t0, t1;
+
+    t0 = (bounds[b] - ox) * ix;
+    t1 = (bounds[b + 3] - ox) * ix;
+    if (t0 > t1) { double t = t0; t0 = t1; t1 = t; }
+    if (t0 > near) near = t0;
+    if (t1 < far) far = t1;
+
+    t0 = (bounds[b + 1] - oy) * iy;
+    t1 = (bounds[b + 4] - oy) * iy;
+    if (t0 > t1) { double t = t0; t0 = t1; t1 = t; }
+    if (t0 > near) near = t0;
+    if (t1 < far) far = t1;
+
+    t0 = (bounds[b + 2] - oz) * iz;
+    t1 = (bounds[b + 5] - oz) * iz;
+    if (t0 > t1) { double t = t0; t0 = t1; t1 = t; }
+    if (t0 > near) near = t0;
+    if (t1 < far) far = t1;
+
+    return (near <= far) ? near : Double.NaN;
+  }
+
+  @Override
+  public void intersect(Ray3 ray, IntersectionRecorder recorder) {
+    ensureReady();
+    if (numNodes == 0) {
+      return;
+    }
+
+    double ox = ray.origin().x();
+    double oy = ray.origin().y();
+    double oz = ray.origin().z();
+    double dx = ray.direction().x();
+    double dy = ray.direction().y();
+    double dz = ray.direction().z();
+    double ix = ray.reciprocalDirectionX();
+    double iy = ray.reciprocalDirectionY();
+    double iz = ray.reciprocalDirectionZ();
+
+    int[] stack = traversal.get().stack;
+    int top = 0;
+    stack[top++] = 0;
+
+    while (top > 0) {
+      int node = stack[--top];
+      Interval I = recorder.interval();
+      if (Double.isNaN(enter(node, ox, oy, oz, ix, iy, iz, I.minimum(), I.maximum()))) {
+        continue;
+      }
+
+      int first = nodes[2 * node];
+      int second = nodes[2 * node + 1];
+      if (second > 0) { // leaf
+        for (int i = first, end = first + second; i < end; i++) {
+          super.intersect(items[i], ray, recorder);
+        }
+      } else {
+        int axis = -second - 1;
+        double d = (axis == 0) ? dx : (axis == 1) ? dy : dz;
+
+        // Push the far child first so that the near child is visited first.
+        if (d < 0.0) {
+          stack[top++] = node + 1;
+          stack[top++] = first;
+        } else {
+          stack[top++] = first;
+          stack[top++] = node + 1;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void intersectPacket(RayPacket packet, IntersectionRecorder[] recorders) {
+    ensureReady();
+    int n = packet.size();
+    if (numNodes == 0 || n == 0) {
+      return;
+    }
+
+    Traversal t = traversal.get();
+    t.ensurePacketSize(n);
+    double[] near = t.near;
+    double[] far = t.far;
+    for (int j = 0; j < n; j++) {
+      Interval I = recorders[j].interval();
+      near[j] = I.minimum();
+      far[j] = I.maximum();
+    }
+
+    int[] stack = t.stack;
+    int top = 0;
+    stack[top++] = 0;
+
+    while (top > 0) {
+      int node = stack[--top];
+
+      // Find the first ray in the packet that hits this node.
+      int j0 = 0;
+      while (j0 < n && Double.isNaN(enter(node, packet.ox[j0], packet.oy[j0],
+          packet.oz[j0], packet.ix[j0], packet.iy[j0], packet.iz[j0],
+          near[j0], far[j0]))) {
+        j0++;
+      }
+      if (j0 >= n) {
+        continue;
+      }
+
+      int first = nodes[2 * node];
+      int second = nodes[2 * node + 1];
+      if (second > 0) { // leaf
+        for (int j = j0; j < n; j++) {
+          if (j > j0 && Double.isNaN(enter(node, packet.ox[j], packet.oy[j],
+              packet.oz[j], packet.ix[j], packet.iy[j], packet.iz[j],
+              near[j], far[j]))) {
+            continue;
+          }
+          Ray3 ray = packet.getRay(j);
+          for (int i = first, end = first + second; i < end; i++) {
+            super.intersect(items[i], ray, recorders[j]);
+          }
+          far[j] = recorders[j].interval().maximum();
+        }
+      } else {
+        int axis = -second - 1;
+        double[] d = (axis == 0) ? packet.dx : (axis == 1) ? packet.dy : packet.dz;
+
+        // Order the children according to the direction of the first ray
+        // that hit this node, which is assumed to be representative of the
+        // packet.
+        if (d[j0] < 0.0) {
+          stack[top++] = node + 1;
+          stack[top++] = first;
+        } else {
+          stack[top++] = first;
+          stack[top++] = node + 1;
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean visibility(Ray3 ray) {
+    ensureReady();
+    if (numNodes == 0) {
+      return true;
+    }
+
+    double ox = ray.origin().x();
+    double oy = ray.origin().y();
+    double oz = ray.origin().z();
+    double ix = ray.reciprocalDirectionX();
+    double iy = ray.reciprocalDirectionY();
+    double iz = ray.reciprocalDirectionZ();
+    double limit = ray.limit();
+
+    int[] stack = traversal.get().stack;
+    int top = 0;
+    stack[top++] = 0;
+
+    while (top > 0) {
+      int node = stack[--top];
+      if (Double.isNaN(enter(node, ox, oy, oz, ix, iy, iz, 0.0, limit))) {
+        continue;
+      }
+
+      int first = nodes[2 * node];
+      int second = nodes[2 * node + 1];
+      if (second > 0) { // leaf
+        for (int i = first, end = first + second; i < end; i++) {
+          if (!super.visibility(items[i], ray)) {
+            skippedSubtrees.add(top);
+            return false;
+          }
+        }
+      } else {
+        stack[top++] = first;
+        stack[top++] = node + 1;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Gets the number of subtrees that were not visited because a call to
+   * {@link #visibility(Ray3)} found an occluding primitive before reaching
+   * them.
+   * @return The number of subtrees skipped by early termination of
+   *     visibility queries.
+   */
+  public long getSkippedSubtreeCount() {
+    return skippedSubtrees.sum();
+  }
+
+}
@@ -259,10 +259,11 @@ public final class Grid3 implements Serializable {
    * @see Interval#intersects(Interval)
    */
   public boolean intersect(Ray3 ray, Interval I, Visitor visitor) {
-    I = I.intersect(bound.intersect(ray));
-    if (I.isEmpty()) { // missed the grid entirely
-      return false;
+    double[] span = new double[2];
+    if (!bound.intersect(ray, Math.max(I.minimum(), 0.0), I.maximum(), span)) {
+      return false; // missed the grid entirely
     }
+    I = new Interval(span[0], span[1]);
 
     Interval cellI = new Interval(I.minimum(), I.minimum());
     Vector3 d = ray.direction();
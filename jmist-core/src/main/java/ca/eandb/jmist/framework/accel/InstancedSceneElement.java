@@ -0,0 +1,349 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.accel;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.eandb.jmist.framework.BoundingBoxBuilder3;
+import ca.eandb.jmist.framework.Intersection;
+import ca.eandb.jmist.framework.IntersectionDecorator;
+import ca.eandb.jmist.framework.IntersectionRecorder;
+import ca.eandb.jmist.framework.IntersectionRecorderDecorator;
+import ca.eandb.jmist.framework.Light;
+import ca.eandb.jmist.framework.SceneElement;
+import ca.eandb.jmist.framework.ShadingContext;
+import ca.eandb.jmist.framework.SurfacePoint;
+import ca.eandb.jmist.math.AffineMatrix3;
+import ca.eandb.jmist.math.Basis3;
+import ca.eandb.jmist.math.Box3;
+import ca.eandb.jmist.math.MathUtil;
+import ca.eandb.jmist.math.Ray3;
+import ca.eandb.jmist.math.Sphere;
+import ca.eandb.jmist.math.Vector3;
+import ca.eandb.util.UnimplementedException;
+
+/**
+ * A two-level acceleration structure for scenes containing many transformed
+ * copies (instances) of a smaller number of <code>SceneElement</code>s.
+ *
+ * Each distinct prototype <code>SceneElement</code> is wrapped in a single
+ * {@link BoundingIntervalHierarchy} that is shared by all of its instances.
+ * Each instance stores only a reference to the shared hierarchy and its
+ * object-to-world transformation and inverse.  A
+ * {@link BoundingVolumeHierarchy} is built over the world-space bounding
+ * boxes of the instances, so that a ray is transformed into the local
+ * coordinate frame of an instance only when it reaches that instance.
+ *
+ * The primitives of this <code>SceneElement</code> are the instances, in the
+ * order that they were added.
+ *
+ * @author Brad Kimmel
+ */
+public final class InstancedSceneElement implements SceneElement {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 4476281537416012297L;
+
+  /**
+   * The bottom-level hierarchies for each distinct prototype, keyed by the
+   * prototype <code>SceneElement</code>.
+   */
+  private final Map<SceneElement, SceneElement> prototypes = new IdentityHashMap<>();
+
+  /** The instances in this <code>InstancedSceneElement</code>. */
+  private final List<Instance> instances = new ArrayList<>();
+
+  /** The top-level hierarchy over the instances. */
+  private transient volatile BoundingVolumeHierarchy topLevel = null;
+
+  /** The bounding box of all of the instances. */
+  private transient volatile Box3 bound = null;
+
+  /**
+   * An instance of a prototype <code>SceneElement</code>.
+   */
+  private static final class Instance implements Serializable {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = -3036993525662453911L;
+
+    /** The shared bottom-level hierarchy for the prototype. */
+    public final SceneElement element;
+
+    /** The transformation from local to world coordinates. */
+    public final AffineMatrix3 toWorld;
+
+    /** The transformation from world to local coordinates. */
+    public final AffineMatrix3 toLocal;
+
+    /**
+     * Creates a new <code>Instance</code>.
+     * @param element The shared bottom-level hierarchy for the prototype.
+     * @param toWorld The transformation from local to world coordinates.
+     */
+    public Instance(SceneElement element, AffineMatrix3 toWorld) {
+      this.element = element;
+      this.toWorld = toWorld;
+      this.toLocal = toWorld.inverse();
+    }
+
+  }
+
+  /**
+   * Adds an instance of a <code>SceneElement</code>.  The first time a
+   * given <code>SceneElement</code> is added, a bottom-level hierarchy is
+   * created for it.  Subsequent instances of the same
+   * <code>SceneElement</code> share that hierarchy.
+   * @param prototype The <code>SceneElement</code> to instance.
+   * @param toWorld The transformation from the coordinate frame of
+   *     <code>prototype</code> to world coordinates.  This transformation
+   *     must be invertible.
+   * @return The primitive index of the new instance.
+   */
+  public synchronized int addInstance(SceneElement prototype, AffineMatrix3 toWorld) {
+    SceneElement element = prototypes.get(prototype);
+    if (element == null) {
+      element = new BoundingIntervalHierarchy(prototype);
+      prototypes.put(prototype, element);
+    }
+    instances.add(new Instance(element, toWorld));
+    topLevel = null;
+    bound = null;
+    return instances.size() - 1;
+  }
+
+  /**
+   * Gets the top-level hierarchy, creating it if necessary.  This is called
+   * for every ray, so the lock is only taken if the hierarchy has not yet
+   * been created.
+   * @return The top-level <code>BoundingVolumeHierarchy</code>.
+   */
+  private BoundingVolumeHierarchy getTopLevel() {
+    BoundingVolumeHierarchy result = topLevel;
+    if (result == null) {
+      synchronized (this) {
+        result = topLevel;
+        if (result == null) {
+          /* Intersecting an instance is expensive relative to a box test,
+           * so let the top level split all the way down to single
+           * instances.
+           */
+          result = new BoundingVolumeHierarchy(this, 1,
+              BoundingVolumeHierarchy.DEFAULT_TRAVERSAL_COST,
+              BoundingVolumeHierarchy.DEFAULT_INTERSECTION_COST);
+          topLevel = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Transforms a <code>ShadingContext</code> from the local coordinate frame
+   * of an instance to world coordinates.
+   * @param context The <code>ShadingContext</code> to transform.
+   * @param T The transformation from local to world coordinates.
+   */
+  private static void transformShadingContext(ShadingContext context, AffineMatrix3 T) {
+    Basis3 basis = context.getShadingBasis();
+    context.setShadingBasis(Basis3.fromUV(T.times(basis.u()), T.times(basis.v())));
+
+    basis = context.getBasis();
+    context.setBasis(Basis3.fromUV(T.times(basis.u()), T.times(basis.v())));
+
+    context.setPosition(T.times(context.getPosition()));
+  }
+
+  /**
+   * Computes the factor by which a transformation scales surface area, if
+   * it preserves shape.
+   * @param T The transformation.
+   * @return The factor by which <code>T</code> scales surface areas.
+   * @throws UnsupportedOperationException If <code>T</code> does not
+   *     preserve shape.
+   */
+  private static double getAreaScale(AffineMatrix3 T) {
+    Vector3 u = T.times(Vector3.I);
+    Vector3 v = T.times(Vector3.J);
+    Vector3 w = T.times(Vector3.K);
+    double scale = Math.cbrt(Math.abs(T.determinant()));
+    if (Math.abs(u.dot(v)) > MathUtil.EPSILON * scale * scale
+        || Math.abs(v.dot(w)) > MathUtil.EPSILON * scale * scale
+        || Math.abs(w.dot(u)) > MathUtil.EPSILON * scale * scale
+        || Math.abs(1.0 - u.length() / scale) > MathUtil.EPSILON
+        || Math.abs(1.0 - v.length() / scale) > MathUtil.EPSILON
+        || Math.abs(1.0 - w.length() / scale) > MathUtil.EPSILON) {
+      throw new UnsupportedOperationException();
+    }
+    return scale * scale;
+  }
+
+  @Override
+  public int getNumPrimitives() {
+    return instances.size();
+  }
+
+  @Override
+  public void intersect(final int index, Ray3 ray, IntersectionRecorder recorder) {
+    final Instance instance = instances.get(index);
+    instance.element.intersect(ray.transform(instance.toLocal),
+        new IntersectionRecorderDecorator(recorder) {
+          @Override
+          public void record(Intersection intersection) {
+            inner.record(new IntersectionDecorator(intersection) {
+              @Override
+              protected void transformShadingContext(ShadingContext context) {
+                InstancedSceneElement.transformShadingContext(context, instance.toWorld);
+                context.setPrimitiveIndex(index);
+              }
+            });
+          }
+        });
+  }
+
+  @Override
+  public void intersect(Ray3 ray, IntersectionRecorder recorder) {
+    getTopLevel().intersect(ray, recorder);
+  }
+
+  @Override
+  public boolean visibility(int index, Ray3 ray) {
+    Instance instance = instances.get(index);
+    return instance.element.visibility(ray.transform(instance.toLocal));
+  }
+
+  @Override
+  public boolean visibility(Ray3 ray) {
+    return getTopLevel().visibility(ray);
+  }
+
+  @Override
+  public boolean intersects(int index, Box3 box) {
+    Instance instance = instances.get(index);
+    return instance.element.boundingBox().intersects(instance.toLocal.times(box));
+  }
+
+  @Override
+  public Box3 getBoundingBox(int index) {
+    Instance instance = instances.get(index);
+    return instance.toWorld.times(instance.element.boundingBox());
+  }
+
+  @Override
+  public Sphere getBoundingSphere(int index) {
+    Box3 b = getBoundingBox(index);
+    return new Sphere(b.center(), 0.5 * b.diagonal());
+  }
+
+  private synchronized Box3 computeBoundingBox() {
+    if (bound == null) {
+      BoundingBoxBuilder3 builder = new BoundingBoxBuilder3();
+      for (int i = 0, n = instances.size(); i < n; i++) {
+        builder.add(getBoundingBox(i));
+      }
+      bound = builder.getBoundingBox();
+    }
+    return bound;
+  }
+
+  @Override
+  public Box3 boundingBox() {
+    Box3 result = bound;
+    return result != null ? result : computeBoundingBox();
+  }
+
+  @Override
+  public Sphere boundingSphere() {
+    Box3 b = boundingBox();
+    return new Sphere(b.center(), 0.5 * b.diagonal());
+  }
+
+  @Override
+  public double getSurfaceArea(int index) {
+    Instance instance = instances.get(index);
+    return getAreaScale(instance.toWorld) * instance.element.getSurfaceArea();
+  }
+
+  @Override
+  public double getSurfaceArea() {
+    double area = 0.0;
+    for (int i = 0, n = instances.size(); i < n; i++) {
+      area += getSurfaceArea(i);
+    }
+    return area;
+  }
+
+  @Override
+  public void generateRandomSurfacePoint(int index, ShadingContext context,
+      double ru, double rv, double rj) {
+    Instance instance = instances.get(index);
+    instance.element.generateRandomSurfacePoint(context, ru, rv, rj);
+    transformShadingContext(context, instance.toWorld);
+    context.setPrimitiveIndex(index);
+  }
+
+  @Override
+  public void generateRandomSurfacePoint(ShadingContext context, double ru,
+      double rv, double rj) {
+    throw new UnimplementedException();
+  }
+
+  @Override
+  public double generateImportanceSampledSurfacePoint(int index,
+      SurfacePoint x, ShadingContext context, double ru, double rv,
+      double rj) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public double generateImportanceSampledSurfacePoint(SurfacePoint x,
+      ShadingContext context, double ru, double rv, double rj) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Instanced light sources are not supported.
+   * @return <code>null</code>, if none of the instanced
+   *     <code>SceneElement</code>s emit light.
+   * @throws UnsupportedOperationException If any of the instanced
+   *     <code>SceneElement</code>s emit light.
+   */
+  @Override
+  public Light createLight() {
+    for (SceneElement prototype : prototypes.keySet()) {
+      if (prototype.createLight() != null) {
+        throw new UnsupportedOperationException(
+            "Instanced light sources are not supported.");
+      }
+    }
+    return null;
+  }
+
+}
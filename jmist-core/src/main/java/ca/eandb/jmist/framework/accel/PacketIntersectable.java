@@ -0,0 +1,47 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.accel;
+
+import ca.eandb.jmist.framework.IntersectionRecorder;
+
+/**
+ * An acceleration structure that can trace a packet of rays together.
+ * @author Brad Kimmel
+ */
+public interface PacketIntersectable {
+
+  /**
+   * Computes the intersections between each of the rays in a packet and this
+   * geometry.  The result must be the same as calling
+   * <code>intersect(packet.getRay(i), recorders[i])</code> for each ray.
+   * @param packet The <code>RayPacket</code> to intersect with this
+   *     geometry.
+   * @param recorders The <code>IntersectionRecorder</code>s to receive the
+   *     intersections for the corresponding rays in <code>packet</code>.
+   */
+  void intersectPacket(RayPacket packet, IntersectionRecorder[] recorders);
+
+}
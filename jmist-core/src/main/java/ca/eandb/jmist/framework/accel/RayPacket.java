@@ -0,0 +1,178 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.accel;
+
+import ca.eandb.jmist.framework.IntersectionRecorder;
+import ca.eandb.jmist.framework.SceneElement;
+import ca.eandb.jmist.math.Ray3;
+
+/**
+ * A group of (typically coherent) rays to be traced together.  The origins,
+ * directions, and reciprocal directions of the rays are stored in separate
+ * arrays (structure-of-arrays layout) so that acceleration structures can
+ * test all of the rays in the packet against a node using a single fetch of
+ * the node.
+ *
+ * A <code>RayPacket</code> is mutable and is intended to be reused.
+ *
+ * @see PacketIntersectable
+ * @author Brad Kimmel
+ */
+public final class RayPacket {
+
+  /** The default number of rays in a packet. */
+  public static final int DEFAULT_CAPACITY = 8;
+
+  /** The rays in this packet. */
+  private final Ray3[] rays;
+
+  /** The coordinates of the ray origins. */
+  final double[] ox, oy, oz;
+
+  /** The components of the ray directions. */
+  final double[] dx, dy, dz;
+
+  /** The reciprocals of the components of the ray directions. */
+  final double[] ix, iy, iz;
+
+  /** The number of rays in this packet. */
+  private int size = 0;
+
+  /**
+   * Creates a new <code>RayPacket</code> with the default capacity.
+   * @see #DEFAULT_CAPACITY
+   */
+  public RayPacket() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new <code>RayPacket</code>.
+   * @param capacity The maximum number of rays in the packet.
+   */
+  public RayPacket(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    rays = new Ray3[capacity];
+    ox = new double[capacity];
+    oy = new double[capacity];
+    oz = new double[capacity];
+    dx = new double[capacity];
+    dy = new double[capacity];
+    dz = new double[capacity];
+    ix = new double[capacity];
+    iy = new double[capacity];
+    iz = new double[capacity];
+  }
+
+  /** Removes all rays from this packet. */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      rays[i] = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * Adds a ray to this packet.
+   * @param ray The <code>Ray3</code> to add.
+   * @return The index of the ray within this packet.
+   * @throws IllegalStateException If the packet is full.
+   */
+  public int add(Ray3 ray) {
+    if (size >= rays.length) {
+      throw new IllegalStateException("packet is full");
+    }
+    int i = size++;
+    rays[i] = ray;
+    ox[i] = ray.origin().x();
+    oy[i] = ray.origin().y();
+    oz[i] = ray.origin().z();
+    dx[i] = ray.direction().x();
+    dy[i] = ray.direction().y();
+    dz[i] = ray.direction().z();
+    ix[i] = ray.reciprocalDirectionX();
+    iy[i] = ray.reciprocalDirectionY();
+    iz[i] = ray.reciprocalDirectionZ();
+    return i;
+  }
+
+  /**
+   * Gets the number of rays in this packet.
+   * @return The number of rays in this packet.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the maximum number of rays in this packet.
+   * @return The maximum number of rays in this packet.
+   */
+  public int capacity() {
+    return rays.length;
+  }
+
+  /**
+   * Determines if this packet is full.
+   * @return A value indicating if this packet is full.
+   */
+  public boolean isFull() {
+    return size >= rays.length;
+  }
+
+  /**
+   * Gets a ray in this packet.
+   * @param index The index of the ray.
+   * @return The <code>Ray3</code> at the specified index.
+   */
+  public Ray3 getRay(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException();
+    }
+    return rays[index];
+  }
+
+  /**
+   * Intersects the rays in this packet with a <code>SceneElement</code>.  If
+   * the element implements {@link PacketIntersectable}, the rays are traced
+   * together.  Otherwise, they are traced one at a time.
+   * @param element The <code>SceneElement</code> to intersect.
+   * @param recorders The <code>IntersectionRecorder</code>s to receive the
+   *     intersections for the corresponding rays in this packet.
+   */
+  public void intersect(SceneElement element, IntersectionRecorder[] recorders) {
+    if (element instanceof PacketIntersectable) {
+      ((PacketIntersectable) element).intersectPacket(this, recorders);
+    } else {
+      for (int i = 0; i < size; i++) {
+        element.intersect(rays[i], recorders[i]);
+      }
+    }
+  }
+
+}
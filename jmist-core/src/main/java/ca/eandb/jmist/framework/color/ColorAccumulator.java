@@ -0,0 +1,213 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.color;
+
+import java.util.Arrays;
+
+/**
+ * A mutable sum of <code>Color</code>s.  Unlike operations on
+ * <code>Color</code>, which return a new <code>Color</code>, operations on a
+ * <code>ColorAccumulator</code> update its channel values in place, so that
+ * sums of many terms may be computed without allocating an intermediate
+ * <code>Color</code> for each term.
+ *
+ * A <code>ColorAccumulator</code> is tied to the <code>ColorModel</code> and
+ * <code>WavelengthPacket</code> it was created for, and should only be used
+ * with <code>Color</code>s belonging to that <code>WavelengthPacket</code>.
+ *
+ * @see ColorModel#createAccumulator(WavelengthPacket)
+ * @author Brad Kimmel
+ */
+public final class ColorAccumulator {
+
+  /** The <code>ColorModel</code> that this accumulator belongs to. */
+  private final ColorModel colorModel;
+
+  /** The <code>WavelengthPacket</code> that this accumulator belongs to. */
+  private final WavelengthPacket lambda;
+
+  /** The channel values. */
+  private final double[] values;
+
+  /**
+   * Creates a new <code>ColorAccumulator</code>, initially black.
+   * @param colorModel The <code>ColorModel</code> that this accumulator
+   *     belongs to.
+   * @param lambda The <code>WavelengthPacket</code> that this accumulator
+   *     belongs to.
+   * @param channels The number of channels in a <code>Color</code> for the
+   *     given <code>WavelengthPacket</code>.
+   */
+  public ColorAccumulator(ColorModel colorModel, WavelengthPacket lambda, int channels) {
+    this.colorModel = colorModel;
+    this.lambda = lambda;
+    this.values = new double[channels];
+  }
+
+  /**
+   * Gets the <code>WavelengthPacket</code> that this accumulator belongs to.
+   * @return The <code>WavelengthPacket</code>.
+   */
+  public WavelengthPacket getWavelengthPacket() {
+    return lambda;
+  }
+
+  /**
+   * Gets the number of channels in this accumulator.
+   * @return The number of channels.
+   */
+  public int getNumChannels() {
+    return values.length;
+  }
+
+  /**
+   * Gets the accumulated value of a channel.
+   * @param channel The index of the channel.
+   * @return The accumulated value of the specified channel.
+   */
+  public double getValue(int channel) {
+    return values[channel];
+  }
+
+  /**
+   * Resets this accumulator to black.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator reset() {
+    Arrays.fill(values, 0.0);
+    return this;
+  }
+
+  /**
+   * Sets this accumulator to the specified <code>Color</code>.
+   * @param c The <code>Color</code>.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator set(Color c) {
+    for (int i = 0; i < values.length; i++) {
+      values[i] = c.getValue(i);
+    }
+    return this;
+  }
+
+  /**
+   * Adds a <code>Color</code> to this accumulator.
+   * @param c The <code>Color</code> to add.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator add(Color c) {
+    addScaled(values, 0, values.length, c, 1.0);
+    return this;
+  }
+
+  /**
+   * Adds a scaled <code>Color</code> to this accumulator
+   * (<code>this += k * c</code>).
+   * @param c The <code>Color</code> to add.
+   * @param k The factor by which to scale <code>c</code>.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator addScaled(Color c, double k) {
+    addScaled(values, 0, values.length, c, k);
+    return this;
+  }
+
+  /**
+   * Adds the product of two <code>Color</code>s to this accumulator
+   * (<code>this += a * b</code>).
+   * @param a The first <code>Color</code>.
+   * @param b The second <code>Color</code>.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator mulAdd(Color a, Color b) {
+    return mulAdd(a, b, 1.0);
+  }
+
+  /**
+   * Adds the scaled product of two <code>Color</code>s to this accumulator
+   * (<code>this += k * a * b</code>).
+   * @param a The first <code>Color</code>.
+   * @param b The second <code>Color</code>.
+   * @param k The factor by which to scale the product.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator mulAdd(Color a, Color b, double k) {
+    for (int i = 0; i < values.length; i++) {
+      values[i] += k * a.getValue(i) * b.getValue(i);
+    }
+    return this;
+  }
+
+  /**
+   * Multiplies this accumulator by a <code>Color</code>, channel by
+   * channel.
+   * @param c The <code>Color</code> to multiply by.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator multiply(Color c) {
+    for (int i = 0; i < values.length; i++) {
+      values[i] *= c.getValue(i);
+    }
+    return this;
+  }
+
+  /**
+   * Multiplies this accumulator by a constant.
+   * @param k The factor to multiply by.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator scale(double k) {
+    for (int i = 0; i < values.length; i++) {
+      values[i] *= k;
+    }
+    return this;
+  }
+
+  /**
+   * Creates a <code>Color</code> with the accumulated channel values.
+   * @return A new <code>Color</code>.
+   */
+  public Color toColor() {
+    return colorModel.fromArray(values, lambda);
+  }
+
+  /**
+   * Adds a scaled <code>Color</code> to a range of an array
+   * (<code>dest[offset + i] += k * c.getValue(i)</code>).
+   * @param dest The array to add to.
+   * @param offset The index into <code>dest</code> at which to add the first
+   *     channel.
+   * @param channels The number of channels to add.
+   * @param c The <code>Color</code> to add.
+   * @param k The factor by which to scale <code>c</code>.
+   */
+  public static void addScaled(double[] dest, int offset, int channels, Color c, double k) {
+    for (int i = 0; i < channels; i++) {
+      dest[offset + i] += k * c.getValue(i);
+    }
+  }
+
+}
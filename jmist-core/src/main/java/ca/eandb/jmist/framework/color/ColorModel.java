@@ -181,6 +181,15 @@ public interface ColorModel extends Serializable {
    */
   Raster createRaster(int width, int height);
 
+  /**
+   * Creates a <code>ColorAccumulator</code> for summing <code>Color</code>s
+   * belonging to the specified <code>WavelengthPacket</code> without
+   * allocating intermediate <code>Color</code>s.
+   * @param lambda The <code>WavelengthPacket</code>.
+   * @return A new <code>ColorAccumulator</code>, initially black.
+   */
+  ColorAccumulator createAccumulator(WavelengthPacket lambda);
+
   /**
    * The number of channels for colors in this <code>ColorModel</code>.
    * @return The number of channels for colors in this <code>ColorModel</code>.
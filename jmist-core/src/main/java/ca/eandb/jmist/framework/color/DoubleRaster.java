@@ -25,6 +25,8 @@
  */
 package ca.eandb.jmist.framework.color;
 
+import java.util.stream.IntStream;
+
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.util.ArrayUtil;
 
@@ -37,6 +39,15 @@ public abstract class DoubleRaster implements Raster {
   /** Serialization version ID. */
   private static final long serialVersionUID = 3651188089171016945L;
 
+  /**
+   * The minimum number of values to process before operations on the whole
+   * raster are split into parallel tasks.
+   */
+  private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+  /** The number of entries per parallel task. */
+  private static final int PARALLEL_CHUNK_SIZE = 1 << 14;
+
   private final double[] raster;
 
   private final int width;
@@ -61,9 +72,7 @@ public abstract class DoubleRaster implements Raster {
   protected abstract Color getPixel(double[] raster, int index);
 
   protected void addPixel(double[] raster, int index, Color pixel) {
-    for (int ch = 0; ch < channels; ch++) {
-      raster[index++] += pixel.getValue(ch);
-    }
+    ColorAccumulator.addScaled(raster, index, channels, pixel, 1.0);
   }
 
   protected void setPixel(double[] raster, int index, Color pixel) {
@@ -99,4 +108,116 @@ public abstract class DoubleRaster implements Raster {
     ArrayUtil.setAll(raster, 0.0);
   }
 
+  /**
+   * Gets the number of values stored per pixel.
+   * @return The number of values stored per pixel.
+   */
+  public final int getNumChannels() {
+    return channels;
+  }
+
+  /**
+   * Gets the non-zero pixels of this raster.  If the list would be larger
+   * than the raster itself, every pixel is included and the pixel indices are
+   * omitted.
+   * @param compress A value indicating whether the returned list should be
+   *     deflated when it is serialized.
+   * @return The non-zero pixels of this raster.
+   */
+  public final RasterContributions getContributions(boolean compress) {
+    int numPixels = width * height;
+    int count = 0;
+    for (int i = 0, index = 0; i < numPixels; i++, index += channels) {
+      if (!isZero(index)) {
+        count++;
+      }
+    }
+
+    if ((long) count * (channels * 8 + 4) >= (long) numPixels * channels * 8) {
+      return new RasterContributions(width, height, channels, numPixels, null,
+          raster.clone(), compress);
+    }
+
+    int[] pixels = new int[count];
+    double[] values = new double[count * channels];
+    for (int i = 0, n = 0, index = 0; i < numPixels; i++, index += channels) {
+      if (!isZero(index)) {
+        pixels[n] = i;
+        System.arraycopy(raster, index, values, n * channels, channels);
+        n++;
+      }
+    }
+    return new RasterContributions(width, height, channels, count, pixels,
+        values, compress);
+  }
+
+  /**
+   * Determines if all channels of a pixel are zero.
+   * @param index The index into the array of the first channel of the pixel.
+   * @return A value indicating if all channels of the pixel are zero.
+   */
+  private boolean isZero(int index) {
+    for (int ch = 0; ch < channels; ch++) {
+      if (raster[index + ch] != 0.0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds pixel contributions, scaled by a constant, to this raster.  Large
+   * lists are merged in parallel.
+   * @param contrib The contributions to add, which must have been obtained
+   *     from a raster of the same dimensions and color model.
+   * @param k The factor by which to scale the contributions.
+   * @throws IllegalArgumentException If <code>contrib</code> has different
+   *     dimensions than this raster.
+   * @see #getContributions(boolean)
+   */
+  public final void accumulate(RasterContributions contrib, double k) {
+    if (contrib.getWidth() != width || contrib.getHeight() != height
+        || contrib.getNumChannels() != channels) {
+      throw new IllegalArgumentException("Incompatible raster contributions");
+    }
+    int n = contrib.size();
+    if (n * channels < PARALLEL_THRESHOLD) {
+      contrib.addTo(raster, k, 0, n);
+    } else {
+      // Entries refer to distinct pixels, so the chunks write disjoint parts
+      // of the array.
+      int chunks = (n + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+      IntStream.range(0, chunks).parallel().forEach(i -> contrib.addTo(
+          raster, k, i * PARALLEL_CHUNK_SIZE,
+          Math.min(n, (i + 1) * PARALLEL_CHUNK_SIZE)));
+    }
+  }
+
+  /**
+   * Multiplies every pixel in this raster by a constant.
+   * @param k The factor by which to scale the raster.
+   */
+  public final void scale(double k) {
+    if (raster.length < PARALLEL_THRESHOLD) {
+      scale(k, 0, raster.length);
+    } else {
+      int chunks = (raster.length + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+      IntStream.range(0, chunks).parallel().forEach(i -> scale(k,
+          i * PARALLEL_CHUNK_SIZE,
+          Math.min(raster.length, (i + 1) * PARALLEL_CHUNK_SIZE)));
+    }
+  }
+
+  /**
+   * Multiplies a range of values in this raster by a constant.
+   * @param k The factor by which to scale the values.
+   * @param from The index of the first value to scale (inclusive).
+   * @param to The index of the last value to scale (exclusive).
+   */
+  private void scale(double k, int from, int to) {
+    for (int i = from; i < to; i++) {
+      raster[i] *= k;
+    }
+  }
+
 }
@@ -0,0 +1,238 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.color;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compact list of the non-zero pixels of a <code>DoubleRaster</code>,
+ * suitable for returning partial results from a worker to the master.  Each
+ * entry consists of a pixel index (<code>y * width + x</code>) and the raw
+ * channel values stored in the raster for that pixel.  When most pixels are
+ * non-zero, the pixel indices are omitted and every pixel is stored in
+ * order.
+ *
+ * @see DoubleRaster#getContributions(boolean)
+ * @see DoubleRaster#accumulate(RasterContributions, double)
+ * @author Brad Kimmel
+ */
+public final class RasterContributions implements Serializable {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 2609237346917745021L;
+
+  /** The width of the source raster, in pixels. */
+  private final int width;
+
+  /** The height of the source raster, in pixels. */
+  private final int height;
+
+  /** The number of values stored per pixel. */
+  private final int channels;
+
+  /** A value indicating whether the entries are deflated when serialized. */
+  private final boolean compressed;
+
+  /** The number of entries. */
+  private transient int size;
+
+  /**
+   * The pixel index of each entry in increasing order, or <code>null</code>
+   * if every pixel is present.
+   */
+  private transient int[] pixels;
+
+  /** The channel values of each entry. */
+  private transient double[] values;
+
+  /**
+   * Creates a new <code>RasterContributions</code>.
+   * @param width The width of the source raster, in pixels.
+   * @param height The height of the source raster, in pixels.
+   * @param channels The number of values stored per pixel.
+   * @param size The number of entries.
+   * @param pixels The pixel index of each entry in increasing order, or
+   *     <code>null</code> if every pixel is present.
+   * @param values The channel values of each entry.
+   * @param compressed A value indicating whether the entries should be
+   *     deflated when serialized.
+   */
+  RasterContributions(int width, int height, int channels, int size,
+      int[] pixels, double[] values, boolean compressed) {
+    this.width = width;
+    this.height = height;
+    this.channels = channels;
+    this.size = size;
+    this.pixels = pixels;
+    this.values = values;
+    this.compressed = compressed;
+  }
+
+  /**
+   * Gets the width of the source raster.
+   * @return The width of the source raster, in pixels.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets the height of the source raster.
+   * @return The height of the source raster, in pixels.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Gets the number of values stored per pixel.
+   * @return The number of values stored per pixel.
+   */
+  public int getNumChannels() {
+    return channels;
+  }
+
+  /**
+   * Gets the number of entries in this list.
+   * @return The number of entries in this list.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the pixel index (<code>y * width + x</code>) of an entry.
+   * @param i The index of the entry.
+   * @return The pixel index of the entry.
+   */
+  public int getPixelIndex(int i) {
+    return pixels != null ? pixels[i] : i;
+  }
+
+  /**
+   * Gets a channel value of an entry.
+   * @param i The index of the entry.
+   * @param channel The channel to get.
+   * @return The value of the specified channel of the entry.
+   */
+  public double getValue(int i, int channel) {
+    return values[i * channels + channel];
+  }
+
+  /**
+   * Adds a range of entries, scaled by a constant, to an array laid out like
+   * that of the source raster.
+   * @param dest The array to add to.
+   * @param k The factor by which to scale the entries.
+   * @param from The index of the first entry to add (inclusive).
+   * @param to The index of the last entry to add (exclusive).
+   */
+  void addTo(double[] dest, double k, int from, int to) {
+    for (int i = from, src = from * channels; i < to; i++) {
+      int dst = getPixelIndex(i) * channels;
+      for (int ch = 0; ch < channels; ch++) {
+        dest[dst++] += k * values[src++];
+      }
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(size);
+    out.writeBoolean(pixels != null);
+    if (compressed) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(
+          new DeflaterOutputStream(bytes));
+      writeEntries(data);
+      data.close();
+      out.writeInt(bytes.size());
+      bytes.writeTo(out);
+    } else {
+      writeEntries(out);
+    }
+  }
+
+  private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    size = in.readInt();
+    pixels = in.readBoolean() ? new int[size] : null;
+    values = new double[size * channels];
+    if (compressed) {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      DataInputStream data = new DataInputStream(
+          new InflaterInputStream(new ByteArrayInputStream(bytes)));
+      readEntries(data);
+    } else {
+      readEntries(in);
+    }
+  }
+
+  /**
+   * Writes the entries to a stream.  Pixel indices are delta-encoded so that
+   * they deflate well.
+   */
+  private void writeEntries(DataOutput out) throws IOException {
+    if (pixels != null) {
+      int prev = 0;
+      for (int i = 0; i < size; i++) {
+        out.writeInt(pixels[i] - prev);
+        prev = pixels[i];
+      }
+    }
+    for (int i = 0, n = size * channels; i < n; i++) {
+      out.writeDouble(values[i]);
+    }
+  }
+
+  /** Reads the entries written by {@link #writeEntries(DataOutput)}. */
+  private void readEntries(DataInput in) throws IOException {
+    if (pixels != null) {
+      int prev = 0;
+      for (int i = 0; i < size; i++) {
+        prev += in.readInt();
+        pixels[i] = prev;
+      }
+    }
+    for (int i = 0, n = size * channels; i < n; i++) {
+      values[i] = in.readDouble();
+    }
+  }
+
+}
@@ -30,6 +30,7 @@ import ca.eandb.jmist.framework.ProbabilityDensityFunction;
 import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
 import ca.eandb.jmist.framework.color.DoubleRaster;
@@ -129,6 +130,11 @@ public final class LuminanceColorModel implements ColorModel {
     return new LuminanceColor(value, lambda);
   }
 
+  @Override
+  public ColorAccumulator createAccumulator(WavelengthPacket lambda) {
+    return new ColorAccumulator(this, lambda, 1);
+  }
+
   @Override
   public int getNumChannels() {
     return 1;
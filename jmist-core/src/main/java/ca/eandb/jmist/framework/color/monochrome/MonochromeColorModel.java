@@ -32,6 +32,7 @@ import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.color.CIEXYZ;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
 import ca.eandb.jmist.framework.color.DoubleRaster;
@@ -258,6 +259,11 @@ public final class MonochromeColorModel implements ColorModel {
     return white;
   }
 
+  @Override
+  public ColorAccumulator createAccumulator(WavelengthPacket lambda) {
+    return new ColorAccumulator(this, lambda, 1);
+  }
+
   @Override
   public int getNumChannels() {
     return 1;
@@ -30,6 +30,7 @@ import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.color.CIEXYZ;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
 import ca.eandb.jmist.framework.color.DoubleRaster;
@@ -307,6 +308,11 @@ public final class PolychromeColorModel implements ColorModel {
     return result;
   }
 
+  @Override
+  public ColorAccumulator createAccumulator(WavelengthPacket lambda) {
+    return new ColorAccumulator(this, lambda, getNumChannels());
+  }
+
   @Override
   public int getNumChannels() {
     return wavelengths.size();
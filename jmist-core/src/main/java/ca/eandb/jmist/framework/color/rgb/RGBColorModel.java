@@ -29,6 +29,7 @@ import ca.eandb.jmist.framework.Function1;
 import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
 import ca.eandb.jmist.framework.color.DoubleRaster;
@@ -126,6 +127,11 @@ public final class RGBColorModel implements ColorModel {
     return RGBColor.WHITE;
   }
 
+  @Override
+  public ColorAccumulator createAccumulator(WavelengthPacket lambda) {
+    return new ColorAccumulator(this, lambda, 3);
+  }
+
   @Override
   public int getNumChannels() {
     return 3;
@@ -31,6 +31,7 @@ import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.color.CIEXYZ;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
 import ca.eandb.jmist.framework.color.DoubleRaster;
@@ -117,6 +118,11 @@ public final class XYZColorModel implements ColorModel {
     return new XYZColor(value, value, value, lambda);
   }
 
+  @Override
+  public ColorAccumulator createAccumulator(WavelengthPacket lambda) {
+    return new ColorAccumulator(this, lambda, 3);
+  }
+
   @Override
   public int getNumChannels() {
     return 3;
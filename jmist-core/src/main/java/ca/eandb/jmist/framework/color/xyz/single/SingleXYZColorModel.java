@@ -31,6 +31,7 @@ import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.color.CIEXYZ;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
 import ca.eandb.jmist.framework.color.DoubleRaster;
@@ -140,6 +141,12 @@ public final class SingleXYZColorModel implements ColorModel {
     };
   }
 
+  @Override
+  public ColorAccumulator createAccumulator(WavelengthPacket lambda) {
+    /* Colors sampled at a single wavelength have one channel. */
+    return new ColorAccumulator(this, lambda, lambda != null ? 1 : 3);
+  }
+
   @Override
   public int getNumChannels() {
     return 3;
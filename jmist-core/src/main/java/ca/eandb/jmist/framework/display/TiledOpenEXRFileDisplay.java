@@ -0,0 +1,674 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.display;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.stream.IIOByteBuffer;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import ca.eandb.jdcp.JdcpUtil;
+import ca.eandb.jdcp.job.HostService;
+import ca.eandb.jmist.framework.Display;
+import ca.eandb.jmist.framework.Raster;
+import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorModel;
+import ca.eandb.jmist.framework.color.RGB;
+import ca.eandb.jmist.framework.loader.openexr.Half;
+import ca.eandb.jmist.framework.loader.openexr.OpenEXRImage;
+import ca.eandb.jmist.framework.loader.openexr.attribute.Box2i;
+import ca.eandb.jmist.framework.loader.openexr.attribute.Channel;
+import ca.eandb.jmist.framework.loader.openexr.attribute.ChannelList;
+import ca.eandb.jmist.framework.loader.openexr.attribute.CompressionMethod;
+import ca.eandb.jmist.framework.loader.openexr.attribute.LineOrder;
+import ca.eandb.jmist.framework.loader.openexr.attribute.PixelType;
+import ca.eandb.jmist.framework.loader.openexr.attribute.TileDescription;
+import ca.eandb.jmist.framework.loader.openexr.attribute.TileDescription.LevelMode;
+import ca.eandb.jmist.framework.loader.openexr.attribute.TileDescription.RoundingMode;
+import ca.eandb.util.UnexpectedException;
+
+/**
+ * A <code>Display</code> that streams the results to a tiled OpenEXR (.exr)
+ * image file.  Unlike {@link OpenEXRFileDisplay}, the full frame is never
+ * held in memory: pixels are accumulated only for tiles that are partially
+ * written, and each tile is encoded and written to the file as soon as all
+ * of its pixels have been received.  The tile offset table is written by
+ * {@link #finish()}.
+ *
+ * If a tile is written again after it has been flushed (e.g., by a
+ * progressive render), it is read back from the file, updated, and
+ * rewritten -- in place if the new chunk fits, or at the end of the file
+ * otherwise.
+ *
+ * @author Brad Kimmel
+ */
+public final class TiledOpenEXRFileDisplay implements Display {
+
+  /** The default width and height of a tile, in pixels. */
+  public static final int DEFAULT_TILE_SIZE = 64;
+
+  /** Size of the header preceding the data of each tile chunk, in bytes. */
+  private static final int CHUNK_HEADER_SIZE = 20;
+
+  /** The name of the file to write. */
+  private final String fileName;
+
+  /** The <code>PixelType</code> to use for the raw color channel data. */
+  private final PixelType rawPixelType;
+
+  /** The <code>PixelType</code> to use for the RGB color data. */
+  private final PixelType rgbPixelType;
+
+  /** The width of a tile, in pixels. */
+  private final int tileWidth;
+
+  /** The height of a tile, in pixels. */
+  private final int tileHeight;
+
+  /** The <code>CompressionMethod</code> to apply to each tile. */
+  private final CompressionMethod compressionMethod;
+
+  /** The current <code>ColorModel</code>. */
+  private transient ColorModel colorModel;
+
+  /** The file being written. */
+  private transient RandomAccessFile file;
+
+  /** The <code>FileChannel</code> for the file being written. */
+  private transient FileChannel channel;
+
+  /** The width of the image, in pixels. */
+  private transient int width;
+
+  /** The height of the image, in pixels. */
+  private transient int height;
+
+  /** The number of columns of tiles. */
+  private transient int numTilesX;
+
+  /** The number of rows of tiles. */
+  private transient int numTilesY;
+
+  /**
+   * The source of each channel in the file, in the order in which they are
+   * stored.  Values less than the number of raw channels refer to the
+   * corresponding channel of the <code>ColorModel</code>.  The values
+   * following those refer to the R, G, and B components, respectively.
+   */
+  private transient int[] channelSource;
+
+  /** The <code>PixelType</code> of each channel in the file. */
+  private transient PixelType[] channelType;
+
+  /** The channels in the file. */
+  private transient ChannelList channelList;
+
+  /** The position in the file of the tile offset table. */
+  private transient long offsetTablePosition;
+
+  /** The position in the file of each tile chunk (zero if not written). */
+  private transient long[] offsets;
+
+  /** The space available for the data of each tile chunk, in bytes. */
+  private transient int[] capacities;
+
+  /** The position of the end of the file. */
+  private transient long endOfFile;
+
+  /** The tiles that have been partially written, keyed by tile index. */
+  private transient Map<Integer, Tile> openTiles;
+
+  /**
+   * Creates a new <code>TiledOpenEXRFileDisplay</code> with
+   * {@link #DEFAULT_TILE_SIZE} square, uncompressed tiles.
+   * @param fileName The name of the file to write.
+   * @param rawPixelType The <code>PixelType</code> to use for the raw color
+   *     channel data.  If <code>null</code> then the raw color channel data
+   *     is not written to the file.  This pixel type must be a floating
+   *     point type.
+   * @param rgbPixelType The <code>PixelType</code> to use for the RGB color
+   *     data.  If <code>null</code> then the RGB color data is not written
+   *     to the file.  This pixel type must be a floating point type.
+   * @see #TiledOpenEXRFileDisplay(String, PixelType, PixelType, int, int, CompressionMethod)
+   */
+  public TiledOpenEXRFileDisplay(String fileName, PixelType rawPixelType, PixelType rgbPixelType) {
+    this(fileName, rawPixelType, rgbPixelType, DEFAULT_TILE_SIZE,
+        DEFAULT_TILE_SIZE, CompressionMethod.NONE);
+  }
+
+  /**
+   * Creates a new <code>TiledOpenEXRFileDisplay</code>.
+   * @param fileName The name of the file to write.
+   * @param rawPixelType The <code>PixelType</code> to use for the raw color
+   *     channel data.  If <code>null</code> then the raw color channel data
+   *     is not written to the file.  This pixel type must be a floating
+   *     point type.
+   * @param rgbPixelType The <code>PixelType</code> to use for the RGB color
+   *     data.  If <code>null</code> then the RGB color data is not written
+   *     to the file.  This pixel type must be a floating point type.
+   * @param tileWidth The width of a tile, in pixels.
+   * @param tileHeight The height of a tile, in pixels.
+   * @param compressionMethod The <code>CompressionMethod</code> to apply to
+   *     each tile.
+   * @throws IllegalArgumentException if <code>rawPixelType</code> or
+   *     <code>rgbColorType</code> are non-floating-point.
+   * @throws IllegalArgumentException if <code>rawPixelType</code> and
+   *     <code>rgbColorType</code> are both <code>null</code>.
+   * @throws IllegalArgumentException if <code>tileWidth</code> or
+   *     <code>tileHeight</code> is not positive.
+   */
+  public TiledOpenEXRFileDisplay(String fileName, PixelType rawPixelType,
+      PixelType rgbPixelType, int tileWidth, int tileHeight,
+      CompressionMethod compressionMethod) {
+    if (rawPixelType == PixelType.UINT) {
+      throw new IllegalArgumentException("rawPixelType == UINT");
+    }
+    if (rgbPixelType == PixelType.UINT) {
+      throw new IllegalArgumentException("rgbPixelType == UINT");
+    }
+    if (rawPixelType == null && rgbPixelType == null) {
+      throw new IllegalArgumentException("At least one pixel type must be specified");
+    }
+    if (tileWidth <= 0 || tileHeight <= 0) {
+      throw new IllegalArgumentException("Tile dimensions must be positive");
+    }
+    this.fileName = fileName;
+    this.rawPixelType = rawPixelType;
+    this.rgbPixelType = rgbPixelType;
+    this.tileWidth = tileWidth;
+    this.tileHeight = tileHeight;
+    this.compressionMethod = compressionMethod;
+  }
+
+  @Override
+  public synchronized void initialize(int w, int h, ColorModel colorModel) {
+    this.colorModel = colorModel;
+    this.width = w;
+    this.height = h;
+    this.numTilesX = (w + tileWidth - 1) / tileWidth;
+    this.numTilesY = (h + tileHeight - 1) / tileHeight;
+
+    /* The image is used only to describe the header, so no pixel buffers
+     * are ever allocated for it.
+     */
+    OpenEXRImage header = new OpenEXRImage(w, h);
+    header.setCompressionMethod(compressionMethod);
+    header.setLineOrder(LineOrder.RANDOM_Y);
+    header.setTiles(new TileDescription(tileWidth, tileHeight,
+        LevelMode.ONE_LEVEL, RoundingMode.DOWN));
+
+    ChannelList chlist = header.getChannelList();
+    Map<String, Integer> sources = new HashMap<>();
+    int n = colorModel.getNumChannels();
+
+    if (rawPixelType != null) {
+      for (int i = 0; i < n; i++) {
+        String name = colorModel.getChannelName(i);
+        chlist.addChannel(new Channel(name, rawPixelType));
+        sources.put(name, i);
+      }
+    }
+
+    if (rgbPixelType != null) {
+      chlist.addChannel(new Channel("R", rgbPixelType));
+      chlist.addChannel(new Channel("G", rgbPixelType));
+      chlist.addChannel(new Channel("B", rgbPixelType));
+      sources.put("R", n);
+      sources.put("G", n + 1);
+      sources.put("B", n + 2);
+    }
+
+    List<Channel> channels = chlist.channels();
+    channelList = chlist;
+    channelSource = new int[channels.size()];
+    channelType = new PixelType[channels.size()];
+    for (int i = 0; i < channels.size(); i++) {
+      Channel channel = channels.get(i);
+      channelSource[i] = sources.get(channel.getName());
+      channelType[i] = channel.getPixelType();
+    }
+
+    int numTiles = numTilesX * numTilesY;
+    offsets = new long[numTiles];
+    capacities = new int[numTiles];
+    openTiles = new HashMap<>();
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ImageOutputStream out = new MemoryCacheImageOutputStream(bytes);
+      header.writeHeader(out, true);
+      out.close();
+
+      HostService service = JdcpUtil.getHostService();
+      if (service != null) {
+        file = service.createRandomAccessFile(fileName);
+      } else {
+        file = new RandomAccessFile(new File(fileName), "rw");
+      }
+      file.setLength(0);
+      channel = file.getChannel();
+
+      /* Write the header followed by an empty offset table.  Entries are
+       * filled in as tiles are written, so an interrupted render leaves
+       * the completed tiles addressable.
+       */
+      offsetTablePosition = bytes.size();
+      endOfFile = offsetTablePosition + 8L * numTiles;
+      writeFully(ByteBuffer.wrap(bytes.toByteArray()), 0);
+      writeFully(ByteBuffer.allocate(8 * numTiles), offsetTablePosition);
+    } catch (IOException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  @Override
+  public synchronized void fill(int x0, int y0, int w, int h, Color color) {
+    RGB rgb = (rgbPixelType != null) ? color.toRGB() : null;
+    int x1 = Math.min(x0 + w, width);
+    int y1 = Math.min(y0 + h, height);
+    x0 = Math.max(x0, 0);
+    y0 = Math.max(y0, 0);
+    if (x0 >= x1 || y0 >= y1) {
+      return;
+    }
+
+    for (int ty = y0 / tileHeight; ty <= (y1 - 1) / tileHeight; ty++) {
+      for (int tx = x0 / tileWidth; tx <= (x1 - 1) / tileWidth; tx++) {
+        Tile tile = getTile(tx, ty);
+        int xa = Math.max(x0, tile.x0);
+        int xb = Math.min(x1, tile.x0 + tile.w);
+        int ya = Math.max(y0, tile.y0);
+        int yb = Math.min(y1, tile.y0 + tile.h);
+        for (int y = ya; y < yb; y++) {
+          for (int x = xa; x < xb; x++) {
+            tile.set(x, y, color, rgb);
+          }
+        }
+        releaseIfComplete(tile);
+      }
+    }
+  }
+
+  @Override
+  public void setPixel(int x, int y, Color pixel) {
+    fill(x, y, 1, 1, pixel);
+  }
+
+  @Override
+  public synchronized void setPixels(int x0, int y0, Raster pixels) {
+    int x1 = Math.min(x0 + pixels.getWidth(), width);
+    int y1 = Math.min(y0 + pixels.getHeight(), height);
+    int xs = Math.max(x0, 0);
+    int ys = Math.max(y0, 0);
+    if (xs >= x1 || ys >= y1) {
+      return;
+    }
+
+    for (int ty = ys / tileHeight; ty <= (y1 - 1) / tileHeight; ty++) {
+      for (int tx = xs / tileWidth; tx <= (x1 - 1) / tileWidth; tx++) {
+        Tile tile = getTile(tx, ty);
+        int xa = Math.max(xs, tile.x0);
+        int xb = Math.min(x1, tile.x0 + tile.w);
+        int ya = Math.max(ys, tile.y0);
+        int yb = Math.min(y1, tile.y0 + tile.h);
+        for (int y = ya; y < yb; y++) {
+          for (int x = xa; x < xb; x++) {
+            Color color = pixels.getPixel(x - x0, y - y0);
+            RGB rgb = (rgbPixelType != null) ? color.toRGB() : null;
+            tile.set(x, y, color, rgb);
+          }
+        }
+        releaseIfComplete(tile);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void finish() {
+    try {
+      for (Tile tile : openTiles.values()) {
+        writeTile(tile);
+      }
+      openTiles.clear();
+
+      /* Every tile must be present in the file, so write out any tiles
+       * that were never touched.
+       */
+      for (int i = 0; i < offsets.length; i++) {
+        if (offsets[i] == 0) {
+          writeTile(new Tile(i));
+        }
+      }
+
+      ByteBuffer table = ByteBuffer.allocate(8 * offsets.length)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      for (long offset : offsets) {
+        table.putLong(offset);
+      }
+      table.flip();
+      writeFully(table, offsetTablePosition);
+      channel.truncate(endOfFile);
+      file.close();
+    } catch (IOException e) {
+      throw new UnexpectedException(e);
+    } finally {
+      file = null;
+      channel = null;
+      offsets = null;
+      capacities = null;
+      openTiles = null;
+    }
+  }
+
+  /**
+   * Gets the tile at the specified position, reading it back from the file
+   * if it has already been written.
+   * @param tx The column of the tile.
+   * @param ty The row of the tile.
+   * @return The <code>Tile</code>.
+   */
+  private Tile getTile(int tx, int ty) {
+    int index = ty * numTilesX + tx;
+    Tile tile = openTiles.get(index);
+    if (tile == null) {
+      tile = new Tile(index);
+      if (offsets[index] != 0) {
+        try {
+          readTile(tile);
+        } catch (IOException e) {
+          throw new UnexpectedException(e);
+        }
+      }
+      openTiles.put(index, tile);
+    }
+    return tile;
+  }
+
+  /**
+   * Writes the tile to the file and discards it if all of its pixels have
+   * been set.
+   * @param tile The <code>Tile</code> to check.
+   */
+  private void releaseIfComplete(Tile tile) {
+    if (tile.isComplete()) {
+      try {
+        writeTile(tile);
+      } catch (IOException e) {
+        throw new UnexpectedException(e);
+      }
+      openTiles.remove(tile.index);
+    }
+  }
+
+  /**
+   * Reads a previously written tile back from the file.
+   * @param tile The <code>Tile</code> to read into.
+   * @throws IOException If an I/O error occurs.
+   */
+  private void readTile(Tile tile) throws IOException {
+    long position = offsets[tile.index];
+    ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    readFully(header, position);
+    int size = header.getInt(CHUNK_HEADER_SIZE - 4);
+
+    byte[] data = new byte[size];
+    readFully(ByteBuffer.wrap(data), position + CHUNK_HEADER_SIZE);
+
+    IIOByteBuffer buf = new IIOByteBuffer(data, 0, size);
+    if (size < tile.getDataSize()) {
+      compressionMethod.decompress(buf, tile.getBounds(), channelList);
+    }
+
+    ByteBuffer in = ByteBuffer.wrap(buf.getData(), buf.getOffset(), buf.getLength())
+        .order(ByteOrder.LITTLE_ENDIAN);
+    for (int y = 0; y < tile.h; y++) {
+      for (int c = 0; c < channelType.length; c++) {
+        float[] samples = tile.samples[c];
+        for (int x = 0, i = y * tile.w; x < tile.w; x++, i++) {
+          samples[i] = (channelType[c] == PixelType.HALF)
+              ? Half.fromShortBits(in.getShort()).floatValue()
+              : in.getFloat();
+        }
+      }
+    }
+    tile.written.set(0, tile.w * tile.h);
+    tile.numWritten = tile.w * tile.h;
+  }
+
+  /**
+   * Encodes a tile and writes it to the file, updating its entry in the
+   * offset table.
+   * @param tile The <code>Tile</code> to write.
+   * @throws IOException If an I/O error occurs.
+   */
+  private void writeTile(Tile tile) throws IOException {
+    int dataSize = tile.getDataSize();
+    byte[] data = new byte[dataSize];
+    ByteBuffer out = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    for (int y = 0; y < tile.h; y++) {
+      for (int c = 0; c < channelType.length; c++) {
+        float[] samples = tile.samples[c];
+        for (int x = 0, i = y * tile.w; x < tile.w; x++, i++) {
+          if (channelType[c] == PixelType.HALF) {
+            out.putShort(Half.valueOf(samples[i]).toShortBits());
+          } else {
+            out.putFloat(samples[i]);
+          }
+        }
+      }
+    }
+
+    IIOByteBuffer buf = new IIOByteBuffer(data, 0, dataSize);
+    compressionMethod.compress(buf, tile.getBounds(), channelList);
+    if (buf.getLength() >= dataSize) {
+      buf.setData(data);
+      buf.setOffset(0);
+      buf.setLength(dataSize);
+    }
+
+    int size = buf.getLength();
+    ByteBuffer chunk = ByteBuffer.allocate(CHUNK_HEADER_SIZE + size)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    chunk.putInt(tile.tx);
+    chunk.putInt(tile.ty);
+    chunk.putInt(0);
+    chunk.putInt(0);
+    chunk.putInt(size);
+    chunk.put(buf.getData(), buf.getOffset(), size);
+    chunk.flip();
+
+    int index = tile.index;
+    long position;
+    if (offsets[index] != 0 && size <= capacities[index]) {
+      position = offsets[index];
+    } else {
+      position = endOfFile;
+      endOfFile += CHUNK_HEADER_SIZE + size;
+      capacities[index] = size;
+    }
+    writeFully(chunk, position);
+
+    ByteBuffer entry = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    entry.putLong(0, position);
+    writeFully(entry, offsetTablePosition + 8L * index);
+    offsets[index] = position;
+  }
+
+  /**
+   * Writes the remaining contents of a buffer to the file.
+   * @param buf The <code>ByteBuffer</code> to write.
+   * @param position The position in the file at which to write.
+   * @throws IOException If an I/O error occurs.
+   */
+  private void writeFully(ByteBuffer buf, long position) throws IOException {
+    while (buf.hasRemaining()) {
+      position += channel.write(buf, position);
+    }
+  }
+
+  /**
+   * Fills a buffer with the contents of the file.
+   * @param buf The <code>ByteBuffer</code> to fill.
+   * @param position The position in the file at which to start reading.
+   * @throws IOException If an I/O error occurs or the end of the file is
+   *     reached before the buffer is filled.
+   */
+  private void readFully(ByteBuffer buf, long position) throws IOException {
+    while (buf.hasRemaining()) {
+      int n = channel.read(buf, position);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      position += n;
+    }
+  }
+
+  /**
+   * A tile that has been partially written.
+   */
+  private final class Tile {
+
+    /** The index of this tile in the offset table. */
+    final int index;
+
+    /** The column of this tile. */
+    final int tx;
+
+    /** The row of this tile. */
+    final int ty;
+
+    /** The x-coordinate of the upper left corner of this tile. */
+    final int x0;
+
+    /** The y-coordinate of the upper left corner of this tile. */
+    final int y0;
+
+    /** The width of this tile, in pixels. */
+    final int w;
+
+    /** The height of this tile, in pixels. */
+    final int h;
+
+    /** The sample values, indexed by channel and then by pixel. */
+    final float[][] samples;
+
+    /** Indicates which pixels have been set. */
+    final BitSet written;
+
+    /** The number of pixels that have been set. */
+    int numWritten = 0;
+
+    /**
+     * Creates a new, empty <code>Tile</code>.
+     * @param index The index of the tile in the offset table.
+     */
+    Tile(int index) {
+      this.index = index;
+      this.tx = index % numTilesX;
+      this.ty = index / numTilesX;
+      this.x0 = tx * tileWidth;
+      this.y0 = ty * tileHeight;
+      this.w = Math.min(tileWidth, width - x0);
+      this.h = Math.min(tileHeight, height - y0);
+      this.samples = new float[channelSource.length][w * h];
+      this.written = new BitSet(w * h);
+    }
+
+    /**
+     * Sets a pixel in this tile.
+     * @param x The x-coordinate of the pixel, in image coordinates.
+     * @param y The y-coordinate of the pixel, in image coordinates.
+     * @param color The <code>Color</code> of the pixel.
+     * @param rgb The RGB value of the pixel (may be <code>null</code> if
+     *     RGB data is not being written).
+     */
+    void set(int x, int y, Color color, RGB rgb) {
+      int i = (y - y0) * w + (x - x0);
+      int n = colorModel.getNumChannels();
+      for (int c = 0; c < channelSource.length; c++) {
+        int source = channelSource[c];
+        double value;
+        if (source < n) {
+          value = color.getValue(source);
+        } else if (source == n) {
+          value = rgb.r();
+        } else if (source == n + 1) {
+          value = rgb.g();
+        } else {
+          value = rgb.b();
+        }
+        samples[c][i] = (float) value;
+      }
+      if (!written.get(i)) {
+        written.set(i);
+        numWritten++;
+      }
+    }
+
+    /**
+     * Determines if all pixels in this tile have been set.
+     * @return A value indicating if all pixels in this tile have been set.
+     */
+    boolean isComplete() {
+      return numWritten == w * h;
+    }
+
+    /**
+     * Gets the size of the uncompressed pixel data for this tile.
+     * @return The size of the pixel data, in bytes.
+     */
+    int getDataSize() {
+      int size = 0;
+      for (PixelType type : channelType) {
+        size += w * h * type.getSampleSize();
+      }
+      return size;
+    }
+
+    /**
+     * Gets the bounds of this tile, in image coordinates.
+     * @return The bounds of this tile.
+     */
+    Box2i getBounds() {
+      return new Box2i(x0, y0, x0 + w - 1, y0 + h - 1);
+    }
+
+  }
+
+}
@@ -25,11 +25,8 @@
  */
 package ca.eandb.jmist.framework.geometry;
 
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import ca.eandb.jmist.framework.Intersection;
 import ca.eandb.jmist.framework.IntersectionDecorator;
@@ -49,27 +46,39 @@ public abstract class ConstructiveSolidGeometry extends CompositeGeometry {
   /** Serialization version ID. */
   private static final long serialVersionUID = 2972169138865609527L;
 
+  /**
+   * The per-thread <code>CsgIntersectionRecorder</code>s.  Nested
+   * <code>ConstructiveSolidGeometry</code>s on the same thread use
+   * successive recorders in the chain.
+   */
+  private static final ThreadLocal<CsgIntersectionRecorder> recorders =
+      ThreadLocal.withInitial(CsgIntersectionRecorder::new);
+
   @Override
   public void intersect(Ray3 ray, IntersectionRecorder recorder) {
     /* Use a special intersection recorder that knows how to combine the
      * results of multiple sets of intersections.
      */
-    CsgIntersectionRecorder csg = new CsgIntersectionRecorder();
+    CsgIntersectionRecorder csg = recorders.get().acquire();
 
-    /* Compute the ray-geometry intersections for each child geometry in
-     * turn.
-     */
-    for (SceneElement geometry : this.children()) {
-      geometry.intersect(ray, csg);
+    try {
+      /* Compute the ray-geometry intersections for each child geometry in
+       * turn.
+       */
+      for (SceneElement geometry : this.children()) {
+        geometry.intersect(ray, csg);
 
-      /* Advance to next argument. */
-      csg.advance();
-    }
+        /* Advance to next argument. */
+        csg.advance();
+      }
 
-    /* combine the results and transfer the resulting intesections to the
-     * provided intersection recorder.
-     */
-    csg.transfer(recorder);
+      /* combine the results and transfer the resulting intesections to the
+       * provided intersection recorder.
+       */
+      csg.transfer(this, recorder);
+    } finally {
+      csg.release();
+    }
   }
 
   /**
@@ -88,10 +97,22 @@ public abstract class ConstructiveSolidGeometry extends CompositeGeometry {
 
   /**
    * An <code>IntersectionRecorder</code> that combines the results of
-   * multiple sets of intersections using a boolean expression.
+   * multiple sets of intersections using a boolean expression.  The
+   * intersections are collected into arrays that are reused from one ray to
+   * the next, so that only the intersections at the boundary of the combined
+   * geometry need to be allocated.
    * @author Brad Kimmel
    */
-  private final class CsgIntersectionRecorder implements IntersectionRecorder {
+  private static final class CsgIntersectionRecorder implements IntersectionRecorder {
+
+    /** The initial capacity of the intersection arrays. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The number of intersections at or below which insertion sort is
+     * used.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
 
     /**
      * The index of the component geometry whose intersections are
@@ -99,12 +120,68 @@ public abstract class ConstructiveSolidGeometry extends CompositeGeometry {
      */
     private int argumentIndex = 0;
 
+    /** The number of intersections recorded. */
+    private int size = 0;
+
+    /** The intersections recorded by each of the component geometries. */
+    private Intersection[] intersections = new Intersection[INITIAL_CAPACITY];
+
+    /** The distance to each intersection in {@link #intersections}. */
+    private double[] distances = new double[INITIAL_CAPACITY];
+
     /**
-     * The set of all the intersections recorded by each of the component
-     * geometries, sorted by distance (least to greatest).
+     * The index of the component geometry that recorded each intersection
+     * in {@link #intersections}.
      */
-    private final SortedSet<CsgIntersection> intersectionSet = new TreeSet<>(
-        Comparator.comparingDouble(IntersectionDecorator::getDistance));
+    private int[] arguments = new int[INITIAL_CAPACITY];
+
+    /**
+     * The indices into {@link #intersections}, sorted by distance (least to
+     * greatest) by {@link #sort()}.
+     */
+    private int[] order = new int[INITIAL_CAPACITY];
+
+    /** The values indicating whether the ray is inside each argument. */
+    private final BitSet args = new BitSet();
+
+    /** A value indicating if this recorder is currently in use. */
+    private boolean busy = false;
+
+    /**
+     * The recorder to use for a nested <code>ConstructiveSolidGeometry</code>
+     * while this one is in use.
+     */
+    private CsgIntersectionRecorder next = null;
+
+    /**
+     * Gets the first recorder in the chain starting at this one that is not
+     * in use, and marks it as in use.
+     * @return A <code>CsgIntersectionRecorder</code> that is ready for use.
+     */
+    public CsgIntersectionRecorder acquire() {
+      CsgIntersectionRecorder csg = this;
+      while (csg.busy) {
+        if (csg.next == null) {
+          csg.next = new CsgIntersectionRecorder();
+        }
+        csg = csg.next;
+      }
+      csg.busy = true;
+      return csg;
+    }
+
+    /**
+     * Clears this recorder and marks it as no longer in use.
+     */
+    public void release() {
+      for (int i = 0; i < size; i++) {
+        intersections[i] = null;
+      }
+      size = 0;
+      argumentIndex = 0;
+      args.clear();
+      busy = false;
+    }
 
     @Override
     public boolean needAllIntersections() {
@@ -113,7 +190,7 @@ public abstract class ConstructiveSolidGeometry extends CompositeGeometry {
 
     @Override
     public boolean isEmpty() {
-      return this.intersectionSet.isEmpty();
+      return size == 0;
     }
 
     @Override
@@ -123,32 +200,100 @@ public abstract class ConstructiveSolidGeometry extends CompositeGeometry {
 
     @Override
     public void record(Intersection intersection) {
-      this.intersectionSet.add(new CsgIntersection(this.argumentIndex, intersection));
+      if (size == intersections.length) {
+        int capacity = 2 * size;
+        intersections = Arrays.copyOf(intersections, capacity);
+        distances = Arrays.copyOf(distances, capacity);
+        arguments = Arrays.copyOf(arguments, capacity);
+        order = new int[capacity];
+      }
+      intersections[size] = intersection;
+      distances[size] = intersection.getDistance();
+      arguments[size] = argumentIndex;
+      size++;
+    }
+
+    /**
+     * Sorts {@link #order} by the distances to the intersections.
+     */
+    private void sort() {
+      int[] order = this.order;
+      double[] distances = this.distances;
+      int n = size;
+
+      for (int i = 0; i < n; i++) {
+        order[i] = i;
+      }
+
+      if (n <= INSERTION_SORT_THRESHOLD) {
+        for (int i = 1; i < n; i++) {
+          int x = order[i];
+          double d = distances[x];
+          int j = i - 1;
+          while (j >= 0 && distances[order[j]] > d) {
+            order[j + 1] = order[j];
+            j--;
+          }
+          order[j + 1] = x;
+        }
+      } else {
+        /* Shell sort, with gaps based on Ciura's sequence. */
+        int gap = 1;
+        while (gap < n / 2) {
+          gap = (gap < 4) ? 4 : (gap < 10) ? 10 : (gap < 23) ? 23
+              : (gap < 57) ? 57 : (int) (2.25 * gap);
+        }
+        for (; gap > 0; gap = (gap == 1) ? 0 : Math.max((int) (gap / 2.25), 1)) {
+          for (int i = gap; i < n; i++) {
+            int x = order[i];
+            double d = distances[x];
+            int j = i;
+            while (j >= gap && distances[order[j - gap]] > d) {
+              order[j] = order[j - gap];
+              j -= gap;
+            }
+            order[j] = x;
+          }
+        }
+      }
     }
 
     /**
      * Combines the results of each set of intersections and transfers the
      * resulting intersections to the specified
      * <code>IntersectionRecorder</code>.
+     * @param geometry The <code>ConstructiveSolidGeometry</code> whose
+     *     boolean expression to use to combine the intersections.
      * @param recorder The <code>IntersectionRecorder</code> to transfer
      *     the resulting intersections to.
      */
-    public void transfer(IntersectionRecorder recorder) {
+    public void transfer(ConstructiveSolidGeometry geometry,
+        IntersectionRecorder recorder) {
+      sort();
+
       int nArgs = this.argumentIndex;
-      BitSet args = new BitSet(nArgs);
-      Iterator<CsgIntersection> i = this.intersectionSet.iterator();
+      Interval I = recorder.interval();
+      double tmax = I.maximum();
+      boolean all = recorder.needAllIntersections();
       boolean fromInside = false;
       boolean toInside;
 
       /* Loop through each intersection. */
-      while (i.hasNext()) {
-        CsgIntersection x = i.next();
-        Intersection inner = x.getInnerIntersection();
+      for (int k = 0; k < size; k++) {
+        int i = order[k];
+        Intersection inner = intersections[i];
+
+        assert(arguments[i] < nArgs);
 
-        assert(x.getArgumentIndex() < nArgs);
+        /* The intersections are sorted, so none of the remaining ones can
+         * be within the range expected by the recorder.
+         */
+        if (distances[i] - inner.getTolerance() > tmax) {
+          break;
+        }
 
-        args.set(x.getArgumentIndex(), inner.isFront());
-        toInside = isInside(nArgs, args);
+        args.set(arguments[i], inner.isFront());
+        toInside = geometry.isInside(nArgs, args);
 
         /* If the intersection represents the traversal from
          * outside the geometry to inside, or vice versa, then the
@@ -157,22 +302,21 @@ public abstract class ConstructiveSolidGeometry extends CompositeGeometry {
          * range expected by the recorder.
          */
         if (fromInside != toInside
-            && recorder.interval().contains(inner.getDistance(), inner.getTolerance())) {
+            && I.contains(distances[i], inner.getTolerance())) {
           /* The intersection is a front intersection if the ray
            * is passing into the geometry.
            */
-          x.setFront(toInside);
-          recorder.record(x);
+          recorder.record(new CsgIntersection(inner, toInside));
 
           /* If we don't need all intersections, then we're
            * done.
            */
-          if (!recorder.needAllIntersections()) {
+          if (!all) {
             break;
           }
         }
         fromInside = toInside;
-      } /* i.hasNext() */
+      }
     }
 
     /**
@@ -183,83 +327,48 @@ public abstract class ConstructiveSolidGeometry extends CompositeGeometry {
       this.argumentIndex++;
     }
 
-    /**
-     * An <code>Intersection</code> decorator that adds functionality
-     * needed to support constructive solid geometry.  This decorator
-     * keeps track of which child geometry the intersection is for, and it
-     * can be flipped, which toggles the {@link Intersection#isFront()}
-     * property and negates the basis and normal.
-     * @author Brad Kimmel
-     */
-    private final class CsgIntersection extends IntersectionDecorator {
-
-      /**
-       * A value indicating if this <code>CsgIntersection</code> was
-       * flipped from the underlying <code>Intersection</code>.
-       */
-      private boolean flipped = false;
-
-      /**
-       * A value indicating which component geometry the inner
-       * <code>Intersection</code> came from.
-       */
-      private final int argumentIndex;
-
-      /**
-       * Creates a new <code>CsgIntersection</code>.
-       * @param argumentIndex The
-       * @param inner
-       */
-      public CsgIntersection(int argumentIndex, Intersection inner) {
-        super(inner);
-        this.argumentIndex = argumentIndex;
-      }
+  }
 
-      @Override
-      public boolean isFront() {
-        return this.flipped ? !this.inner.isFront() : this.inner.isFront();
-      }
+  /**
+   * An <code>Intersection</code> decorator that adds functionality
+   * needed to support constructive solid geometry.  This decorator
+   * can be flipped, which toggles the {@link Intersection#isFront()}
+   * property and negates the basis and normal.
+   * @author Brad Kimmel
+   */
+  private static final class CsgIntersection extends IntersectionDecorator {
 
-      @Override
-      protected void transformShadingContext(ShadingContext context) {
-        context.setPrimitiveIndex(0);
-        if (flipped) {
-          context.setBasis(context.getBasis().opposite());
-          context.setShadingBasis(context.getShadingBasis().opposite());
-        }
-      }
+    /**
+     * A value indicating if this <code>CsgIntersection</code> was
+     * flipped from the underlying <code>Intersection</code>.
+     */
+    private final boolean flipped;
 
-      /**
-       * Gets the value identifying which of the component geometries
-       * this <code>Intersection</code> came from.
-       * @return The value identifying which of the component geometries
-       *     this <code>Intersection</code> came from.
-       */
-      public int getArgumentIndex() {
-        return this.argumentIndex;
-      }
+    /**
+     * Creates a new <code>CsgIntersection</code>.
+     * @param inner The <code>Intersection</code> recorded by the component
+     *     geometry.
+     * @param front A value indicating if this
+     *     <code>CsgIntersection</code> represents an intersection with the
+     *     outside of the combined geometry.
+     */
+    public CsgIntersection(Intersection inner, boolean front) {
+      super(inner);
+      this.flipped = (front != inner.isFront());
+    }
 
-      /**
-       * Gets the <code>Intersection</code> that was recorded by the
-       * component geometry.
-       * @return The <code>Intersection</code> that was recorded by the
-       *     component geometry.
-       */
-      public Intersection getInnerIntersection() {
-        return this.inner;
-      }
+    @Override
+    public boolean isFront() {
+      return this.flipped ? !this.inner.isFront() : this.inner.isFront();
+    }
 
-      /**
-       * Sets whether this <code>CsgIntersection</code> is an entry point
-       * or an exit point from the geometry.
-       * @param front A value indicating if this
-       *     <code>CsgIntersection</code> represents an intersection
-       *     with the outside of the geometry.
-       */
-      public void setFront(boolean front) {
-        this.flipped = (front != inner.isFront());
+    @Override
+    protected void transformShadingContext(ShadingContext context) {
+      context.setPrimitiveIndex(0);
+      if (flipped) {
+        context.setBasis(context.getBasis().opposite());
+        context.setShadingBasis(context.getShadingBasis().opposite());
       }
-
     }
 
   }
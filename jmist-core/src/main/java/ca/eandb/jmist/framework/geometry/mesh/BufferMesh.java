@@ -92,19 +92,19 @@ public final class BufferMesh implements Mesh {
           vertexCoordReader, vertexNormalReader, vertexUVReader);
     }
     public Builder setCommonBuffer(ByteBuffer buffer) {
-      faceBuffer = loopBuffer = vertexBuffer = buffer.duplicate();
+      faceBuffer = loopBuffer = vertexBuffer = buffer.duplicate().order(buffer.order());
       return this;
     }
     public Builder setFaceBuffer(ByteBuffer faceBuffer) {
-      this.faceBuffer = faceBuffer.duplicate();
+      this.faceBuffer = faceBuffer.duplicate().order(faceBuffer.order());
       return this;
     }
     public Builder setLoopBuffer(ByteBuffer loopBuffer) {
-      this.loopBuffer = loopBuffer.duplicate();
+      this.loopBuffer = loopBuffer.duplicate().order(loopBuffer.order());
       return this;
     }
     public Builder setVertexBuffer(ByteBuffer vertexBuffer) {
-      this.vertexBuffer = vertexBuffer.duplicate();
+      this.vertexBuffer = vertexBuffer.duplicate().order(vertexBuffer.order());
       return this;
     }
     public Builder setMaxFaceVertexCount(int maxFaceVertexCount) {
@@ -419,9 +419,11 @@ public final class BufferMesh implements Mesh {
 
     @Override
     public Iterable<Vertex> getVertices() {
-      int loopLimit = loopOffset + getVertexCount() * loopStride;
+      int loopStart = loopOffset
+          + faceLoopStartReader.read(faceBuffer, faceBase) * loopStride;
+      int loopLimit = loopStart + getVertexCount() * loopStride;
       return () -> new Iterator<Vertex>() {
-        int offset = loopOffset;
+        int offset = loopStart;
         @Override
         public boolean hasNext() {
           return offset != loopLimit;
@@ -0,0 +1,19 @@
+/**
+ *
+ */
+package ca.eandb.jmist.framework.geometry.mesh;
+
+import java.nio.ByteBuffer;
+
+import ca.eandb.jmist.math.Point2;
+
+public final class FloatPoint2Reader implements MeshElementReader<Point2> {
+
+  @Override
+  public Point2 read(ByteBuffer buffer, int offset) {
+    return new Point2(
+        buffer.getFloat(offset + 0 * Float.SIZE / 8),
+        buffer.getFloat(offset + 1 * Float.SIZE / 8));
+  }
+
+}
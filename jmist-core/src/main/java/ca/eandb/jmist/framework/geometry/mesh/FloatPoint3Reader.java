@@ -0,0 +1,20 @@
+/**
+ *
+ */
+package ca.eandb.jmist.framework.geometry.mesh;
+
+import java.nio.ByteBuffer;
+
+import ca.eandb.jmist.math.Point3;
+
+public final class FloatPoint3Reader implements MeshElementReader<Point3> {
+
+  @Override
+  public Point3 read(ByteBuffer buffer, int offset) {
+    return new Point3(
+        buffer.getFloat(offset + 0 * Float.SIZE / 8),
+        buffer.getFloat(offset + 1 * Float.SIZE / 8),
+        buffer.getFloat(offset + 2 * Float.SIZE / 8));
+  }
+
+}
@@ -0,0 +1,20 @@
+/**
+ *
+ */
+package ca.eandb.jmist.framework.geometry.mesh;
+
+import java.nio.ByteBuffer;
+
+import ca.eandb.jmist.math.Vector3;
+
+public final class FloatVector3Reader implements MeshElementReader<Vector3> {
+
+  @Override
+  public Vector3 read(ByteBuffer buffer, int offset) {
+    return new Vector3(
+        buffer.getFloat(offset + 0 * Float.SIZE / 8),
+        buffer.getFloat(offset + 1 * Float.SIZE / 8),
+        buffer.getFloat(offset + 2 * Float.SIZE / 8));
+  }
+
+}
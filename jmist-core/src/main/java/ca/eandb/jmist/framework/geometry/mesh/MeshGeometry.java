@@ -47,12 +47,11 @@ import ca.eandb.jmist.framework.path.LightNode;
 import ca.eandb.jmist.framework.path.PathInfo;
 import ca.eandb.jmist.framework.path.ScaledLightNode;
 import ca.eandb.jmist.framework.path.SurfaceLightNode;
-import ca.eandb.jmist.framework.random.CategoricalRandom;
+import ca.eandb.jmist.framework.random.AliasCategoricalRandom;
 import ca.eandb.jmist.framework.random.SeedReference;
 import ca.eandb.jmist.framework.shader.MinimalShadingContext;
 import ca.eandb.jmist.math.Basis3;
 import ca.eandb.jmist.math.Box3;
-import ca.eandb.jmist.math.GeometryUtil;
 import ca.eandb.jmist.math.MathUtil;
 import ca.eandb.jmist.math.Plane3;
 import ca.eandb.jmist.math.Point2;
@@ -64,6 +63,17 @@ import ca.eandb.jmist.math.Vector3;
 
 /**
  * A polyhedron <code>SceneElement</code>.
+ *
+ * For fast intersection, the vertex positions of each triangle are copied
+ * into a flat array on the heap the first time the geometry is used.  If
+ * every coordinate is exactly representable as a <code>float</code> (as is
+ * the case for meshes read from <code>float</code> PLY or OBJ data), the
+ * copy takes 36 bytes per triangle; otherwise it takes 72 bytes per
+ * triangle.  The area of each triangle and a table for sampling triangles
+ * by area take roughly another 20 bytes per triangle.  This memory is in
+ * addition to that of the <code>Mesh</code> itself, so very large meshes
+ * should be split into several <code>MeshGeometry</code>s.
+ *
  * @author Brad Kimmel
  */
 public final class MeshGeometry extends AbstractGeometry {
@@ -71,6 +81,9 @@ public final class MeshGeometry extends AbstractGeometry {
   /** Serialization version ID. */
   private static final long serialVersionUID = 262374288661771750L;
 
+  /** The maximum number of triangles in a <code>MeshGeometry</code>. */
+  private static final int MAX_FACE_COUNT = (Integer.MAX_VALUE - 8) / 9;
+
   /**
    * Creates a new <code>MeshGeometry</code>.
    * @param mesh The <code>Mesh</code> to create the geometry from.
@@ -80,6 +93,11 @@ public final class MeshGeometry extends AbstractGeometry {
   public MeshGeometry(Mesh mesh, List<Material> materials) {
     this.mesh = MeshUtil.triangulate(mesh);
     this.materials = materials;
+    if (this.mesh.getFaceCount() > MAX_FACE_COUNT) {
+      throw new IllegalArgumentException(String.format(
+          "Mesh has too many triangles (%d, maximum is %d)",
+          this.mesh.getFaceCount(), MAX_FACE_COUNT));
+    }
   }
 
   /**
@@ -91,48 +109,219 @@ public final class MeshGeometry extends AbstractGeometry {
   }
 
   @Override
-  public void intersect(final int index, final Ray3 ray,
-                        IntersectionRecorder recorder) {
-    Mesh.Face face = mesh.getFace(index);
-    Mesh.Vertex va = face.getVertex(0);
-    Mesh.Vertex vb = face.getVertex(1);
-    Mesh.Vertex vc = face.getVertex(2);
-    Point3 a = va.getPosition();
-    Point3 b = vb.getPosition();
-    Point3 c = vc.getPosition();
-    final Plane3 plane = Plane3.throughPoints(a, b, c);
-    final double t = plane.intersect(ray);
+  public void intersect(int index, Ray3 ray, IntersectionRecorder recorder) {
+    ensureReady();
+
+    /* Watertight ray-triangle intersection.  See:
+     * S. Woop, C. Benthin, I. Wald, "Watertight Ray/Triangle Intersection",
+     * Journal of Computer Graphics Techniques 2(1), 2013.
+     */
+    Point3 o = ray.origin();
+    Vector3 d = ray.direction();
+    double dx = d.x(), dy = d.y(), dz = d.z();
+
+    /* Permute the axes so that the direction has its largest component in
+     * z, preserving the winding of the triangle.
+     */
+    int kz = Math.abs(dx) > Math.abs(dy)
+        ? (Math.abs(dx) > Math.abs(dz) ? 0 : 2)
+        : (Math.abs(dy) > Math.abs(dz) ? 1 : 2);
+    int kx = (kz + 1) % 3;
+    int ky = (kx + 1) % 3;
+    double dkz = (kz == 0) ? dx : (kz == 1) ? dy : dz;
+    if (dkz < 0.0) {
+      int k = kx;
+      kx = ky;
+      ky = k;
+    }
+    double dkx = (kx == 0) ? dx : (kx == 1) ? dy : dz;
+    double dky = (ky == 0) ? dx : (ky == 1) ? dy : dz;
+    double sx = dkx / dkz;
+    double sy = dky / dkz;
+    double sz = 1.0 / dkz;
+
+    int i = 9 * index;
+    double okx = (kx == 0) ? o.x() : (kx == 1) ? o.y() : o.z();
+    double oky = (ky == 0) ? o.x() : (ky == 1) ? o.y() : o.z();
+    double okz = (kz == 0) ? o.x() : (kz == 1) ? o.y() : o.z();
+
+    /* Translate the vertices to the ray origin and shear them so that the
+     * ray points along the z-axis.
+     */
+    double az = coord(i + kz) - okz;
+    double bz = coord(i + 3 + kz) - okz;
+    double cz = coord(i + 6 + kz) - okz;
+    double ax = coord(i + kx) - okx - sx * az;
+    double ay = coord(i + ky) - oky - sy * az;
+    double bx = coord(i + 3 + kx) - okx - sx * bz;
+    double by = coord(i + 3 + ky) - oky - sy * bz;
+    double cx = coord(i + 6 + kx) - okx - sx * cz;
+    double cy = coord(i + 6 + ky) - oky - sy * cz;
+
+    /* Scaled barycentric coordinates, using the signs of the 2D edge
+     * functions to classify the origin.
+     */
+    double e0 = cx * by - cy * bx;
+    double e1 = ax * cy - ay * cx;
+    double e2 = bx * ay - by * ax;
+    if ((e0 < 0.0 || e1 < 0.0 || e2 < 0.0)
+        && (e0 > 0.0 || e1 > 0.0 || e2 > 0.0)) {
+      return;
+    }
 
+    double det = e0 + e1 + e2;
+    if (det == 0.0) {
+      return;
+    }
+
+    double inv = 1.0 / det;
+    double t = sz * (e0 * az + e1 * bz + e2 * cz) * inv;
     if (recorder.interval().contains(t)) {
-      Point3 p = ray.pointAt(t);
-      Point2 uv = GeometryUtil.barycentric(p, a, b, c);
-      final double u = uv.x();
-      final double v = uv.y();
-
-      if (u > 0.0 && v > 0.0 && (u + v) < 1.0) {
-        recorder.record(new Intersection() {
-          @Override
-          public double getDistance() {
-            return t;
-          }
+      recorder.record(new MeshIntersection(ray, t, index, e1 * inv, e2 * inv));
+    }
+  }
 
-          @Override
-          public double getTolerance() {
-            return MathUtil.EPSILON;
-          }
+  /** An <code>Intersection</code> of a ray with a triangle of the mesh. */
+  private final class MeshIntersection implements Intersection {
+
+    /** The <code>Ray3</code> that hit the triangle. */
+    private final Ray3 ray;
+
+    /** The distance along the ray to the intersection. */
+    private final double t;
+
+    /** The index of the triangle that was hit. */
+    private final int index;
+
+    /** The barycentric coordinate of the second vertex of the triangle. */
+    private final double u;
+
+    /** The barycentric coordinate of the third vertex of the triangle. */
+    private final double v;
+
+    /**
+     * Creates a new <code>MeshIntersection</code>.
+     * @param ray The <code>Ray3</code> that hit the triangle.
+     * @param t The distance along the ray to the intersection.
+     * @param index The index of the triangle that was hit.
+     * @param u The barycentric coordinate of the second vertex.
+     * @param v The barycentric coordinate of the third vertex.
+     */
+    public MeshIntersection(Ray3 ray, double t, int index, double u,
+        double v) {
+      this.ray = ray;
+      this.t = t;
+      this.index = index;
+      this.u = u;
+      this.v = v;
+    }
 
-          @Override
-          public boolean isFront() {
-            return ray.direction().dot(plane.normal()) < 0.0;
-          }
+    @Override
+    public double getDistance() {
+      return t;
+    }
+
+    @Override
+    public double getTolerance() {
+      return MathUtil.EPSILON;
+    }
+
+    @Override
+    public boolean isFront() {
+      int i = 9 * index;
+      double ax = coord(i), ay = coord(i + 1), az = coord(i + 2);
+      double abx = coord(i + 3) - ax, aby = coord(i + 4) - ay, abz = coord(i + 5) - az;
+      double acx = coord(i + 6) - ax, acy = coord(i + 7) - ay, acz = coord(i + 8) - az;
+      Vector3 d = ray.direction();
+      return d.x() * (aby * acz - abz * acy)
+          + d.y() * (abz * acx - abx * acz)
+          + d.z() * (abx * acy - aby * acx) < 0.0;
+    }
+
+    @Override
+    public void prepareShadingContext(ShadingContext context) {
+      MeshGeometry.this.prepareShadingContext(context, index, u, v);
+    }
+
+  }
+
+  /**
+   * Builds the flat triangle array and the area table if they have not
+   * already been built.
+   */
+  private void ensureReady() {
+    if (!ready) {
+      build();
+    }
+  }
 
-          @Override
-          public void prepareShadingContext(ShadingContext context) {
-            MeshGeometry.this.prepareShadingContext(context, index, u, v);
+  /**
+   * Gets a coordinate from the flat triangle array.
+   * @param i The index of the coordinate.
+   * @return The coordinate.
+   */
+  private double coord(int i) {
+    float[] f = floatTriangles;
+    return f != null ? f[i] : doubleTriangles[i];
+  }
+
+  /**
+   * Copies the vertex positions of each triangle into
+   * {@link #floatTriangles}, or into {@link #doubleTriangles} if any of them
+   * cannot be stored exactly as a <code>float</code>, and tabulates the areas
+   * of the triangles.
+   */
+  private synchronized void build() {
+    if (ready) { // double check inside synchronized method
+      return;
+    }
+    int numFaces = mesh.getFaceCount();
+    float[] fv = new float[9 * numFaces];
+    double[] dv = null;
+    for (int f = 0, i = 0; f < numFaces; f++) {
+      Mesh.Face face = mesh.getFace(f);
+      for (int k = 0; k < 3; k++) {
+        Point3 p = face.getVertex(k).getPosition();
+        if (dv == null && ((float) p.x() != p.x() || (float) p.y() != p.y()
+            || (float) p.z() != p.z())) {
+          dv = new double[9 * numFaces];
+          for (int j = 0; j < i; j++) {
+            dv[j] = fv[j];
           }
-        });
+          fv = null;
+        }
+        if (dv == null) {
+          fv[i++] = (float) p.x();
+          fv[i++] = (float) p.y();
+          fv[i++] = (float) p.z();
+        } else {
+          dv[i++] = p.x();
+          dv[i++] = p.y();
+          dv[i++] = p.z();
+        }
       }
     }
+    floatTriangles = fv;
+    doubleTriangles = dv;
+
+    double[] area = new double[numFaces];
+    double total = 0.0;
+    for (int f = 0; f < numFaces; f++) {
+      int i = 9 * f;
+      double ax = coord(i), ay = coord(i + 1), az = coord(i + 2);
+      double abx = coord(i + 3) - ax, aby = coord(i + 4) - ay, abz = coord(i + 5) - az;
+      double acx = coord(i + 6) - ax, acy = coord(i + 7) - ay, acz = coord(i + 8) - az;
+      double nx = aby * acz - abz * acy;
+      double ny = abz * acx - abx * acz;
+      double nz = abx * acy - aby * acx;
+      area[f] = 0.5 * Math.sqrt(nx * nx + ny * ny + nz * nz);
+      total += area[f];
+    }
+
+    faceAreas = area;
+    surfaceArea = total;
+    faceSampler = (total > 0.0) ? new AliasCategoricalRandom(area) : null;
+    ready = true;
   }
 
   @Override
@@ -173,44 +362,25 @@ public final class MeshGeometry extends AbstractGeometry {
   @Override
   public void generateRandomSurfacePoint(ShadingContext context, double ru,
       double rv, double rj) {
-    double base = 0.0;
-    double x = ru * getSurfaceArea();
-    int index = 0;
-    for (Mesh.Face face : mesh.getFaces()) {
-      double area = getSurfaceArea(face);
-      if (x < base + area) {
-        generateRandomSurfacePoint(index, context, (x - base) / area, rv, rj);
-        return;
-      }
-      base += area;
-      index++;
+    ensureReady();
+    if (faceSampler == null) {
+      super.generateRandomSurfacePoint(context, ru, rv, rj);
+      return;
     }
-    super.generateRandomSurfacePoint(context, ru, rv, rj);
+    SeedReference ref = new SeedReference(ru);
+    int index = faceSampler.next(ref);
+    generateRandomSurfacePoint(index, context, ref.seed, rv, rj);
   }
 
   @Override
   public double getSurfaceArea(int index) {
-    return getSurfaceArea(mesh.getFace(index));
-  }
-
-  private double getSurfaceArea(Mesh.Face face) {
-    Point3 a = face.getVertex(0).getPosition();
-    Point3 b = face.getVertex(1).getPosition();
-    Point3 c = face.getVertex(2).getPosition();
-    return GeometryUtil.areaOfTriangle(a, b, c);
+    ensureReady();
+    return faceAreas[index];
   }
 
   @Override
   public double getSurfaceArea() {
-    if (surfaceArea < 0.0) {
-      synchronized (this) {
-        double area = 0.0;
-        for (Mesh.Face face : mesh.getFaces()) {
-          area += getSurfaceArea(face);
-        }
-        surfaceArea = area;
-      }
-    }
+    ensureReady();
     return surfaceArea;
   }
 
@@ -218,7 +388,7 @@ public final class MeshGeometry extends AbstractGeometry {
   public Light createLight() {
     int emissiveCount = 0;
     for (Material m : materials) {
-      if (m.isEmissive()) {
+      if (m != null && m.isEmissive()) {
         emissiveCount++;
       }
     }
@@ -229,7 +399,10 @@ public final class MeshGeometry extends AbstractGeometry {
     int numFaces = mesh.getFaceCount();
     ArrayList<Integer> emissive = new ArrayList<>();
     for (int i = 0; i < numFaces; i++) {
-      if (materials.get(mesh.getFace(i).getMaterialIndex()).isEmissive()) {
+      int materialIndex = mesh.getFace(i).getMaterialIndex();
+      if (materialIndex >= 0 && materialIndex < materials.size()
+          && materials.get(materialIndex) != null
+          && materials.get(materialIndex).isEmissive()) {
         emissive.add(i);
       }
     }
@@ -250,7 +423,13 @@ public final class MeshGeometry extends AbstractGeometry {
 
     final double totalWeight = totalSurfaceArea;
 
-    final CategoricalRandom rnd = new CategoricalRandom(weight);
+    /* If every face is emissive, the table used for surface sampling
+     * already has the right distribution.
+     */
+    final AliasCategoricalRandom rnd =
+        (emissive.size() == numFaces && faceSampler != null)
+            ? faceSampler
+            : new AliasCategoricalRandom(weight);
 
     return new AbstractLight() {
 
@@ -371,7 +550,36 @@ public final class MeshGeometry extends AbstractGeometry {
 
   private final List<Material> materials;
 
-  /** The surface area of this polyhedron. */
-  private double surfaceArea = -1.0;
+  /** The surface area of this mesh. */
+  private transient double surfaceArea;
+
+  /** The area of each triangle. */
+  private transient double[] faceAreas;
+
+  /**
+   * Selects a triangle with probability proportional to its area, or
+   * <code>null</code> if the mesh has no area.
+   */
+  private transient AliasCategoricalRandom faceSampler;
+
+  /**
+   * The vertex positions of each triangle, stored as nine values per
+   * triangle (the x, y, and z coordinates of each of its three vertices),
+   * or <code>null</code> if they are stored in {@link #doubleTriangles}.
+   */
+  private transient float[] floatTriangles;
+
+  /**
+   * The vertex positions of each triangle, in the same layout as
+   * {@link #floatTriangles}, used if any coordinate is not exactly
+   * representable as a <code>float</code>.
+   */
+  private transient double[] doubleTriangles;
+
+  /**
+   * A value indicating if the triangle array and the area table have been
+   * built.
+   */
+  private transient volatile boolean ready = false;
 
 }
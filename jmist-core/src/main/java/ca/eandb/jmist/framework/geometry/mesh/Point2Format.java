@@ -6,7 +6,8 @@ package ca.eandb.jmist.framework.geometry.mesh;
 import ca.eandb.jmist.math.Point2;
 
 public enum Point2Format {
-  DOUBLE_XY(new DoublePoint2Reader());
+  DOUBLE_XY(new DoublePoint2Reader()),
+  FLOAT_XY(new FloatPoint2Reader());
 
   private final MeshElementReader<Point2> reader;
 
@@ -6,7 +6,8 @@ package ca.eandb.jmist.framework.geometry.mesh;
 import ca.eandb.jmist.math.Point3;
 
 public enum Point3Format {
-  DOUBLE_XYZ(new DoublePoint3Reader());
+  DOUBLE_XYZ(new DoublePoint3Reader()),
+  FLOAT_XYZ(new FloatPoint3Reader());
 
   private final MeshElementReader<Point3> reader;
 
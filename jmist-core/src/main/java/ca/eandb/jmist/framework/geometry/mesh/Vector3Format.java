@@ -6,7 +6,8 @@ package ca.eandb.jmist.framework.geometry.mesh;
 import ca.eandb.jmist.math.Vector3;
 
 public enum Vector3Format {
-  DOUBLE_XYZ(new DoubleVector3Reader());
+  DOUBLE_XYZ(new DoubleVector3Reader()),
+  FLOAT_XYZ(new FloatVector3Reader());
 
   private final MeshElementReader<Vector3> reader;
 
@@ -41,7 +41,7 @@ import ca.eandb.jmist.framework.IntersectionRecorder;
 import ca.eandb.jmist.framework.ShadingContext;
 import ca.eandb.jmist.framework.SurfacePoint;
 import ca.eandb.jmist.framework.geometry.AbstractGeometry;
-import ca.eandb.jmist.framework.random.CategoricalRandom;
+import ca.eandb.jmist.framework.random.AliasCategoricalRandom;
 import ca.eandb.jmist.framework.random.RandomUtil;
 import ca.eandb.jmist.framework.random.SeedReference;
 import ca.eandb.jmist.math.AffineMatrix2;
@@ -84,7 +84,19 @@ public final class PolyhedronGeometry extends AbstractGeometry {
   private final List<Face> faces = new ArrayList<>();
 
   /** The surface area of this polyhedron. */
-  private double surfaceArea = -1.0;
+  private transient double surfaceArea;
+
+  /**
+   * Selects a face with probability proportional to its area, or
+   * <code>null</code> if this polyhedron has no area.
+   */
+  private transient AliasCategoricalRandom faceSampler;
+
+  /**
+   * A value indicating if {@link #surfaceArea} and {@link #faceSampler}
+   * are up to date.
+   */
+  private transient volatile boolean areaTableReady = false;
 
   /**
    * The cosine of the maximum angle to accept between a vertex normal and
@@ -176,6 +188,7 @@ public final class PolyhedronGeometry extends AbstractGeometry {
 
   public PolyhedronGeometry addFace(int[] vi, int[] vti, int[] vni) {
     faces.add(new Face(vi, vti, vni));
+    areaTableReady = false;
     return this;
   }
 
@@ -467,18 +480,14 @@ public final class PolyhedronGeometry extends AbstractGeometry {
   @Override
   public void generateRandomSurfacePoint(ShadingContext context, double ru,
       double rv, double rj) {
-    double base = 0.0;
-    double x = ru * getSurfaceArea();
-    for (int i = 0; i < faces.size(); i++) {
-      Face face = faces.get(i);
-      double area = face.getSurfaceArea();
-      if (x < base + area) {
-        generateRandomSurfacePoint(i, context, (x - base) / area, rv, rj);
-        return;
-      }
-      base += area;
+    AliasCategoricalRandom sampler = getFaceSampler();
+    if (sampler == null) {
+      super.generateRandomSurfacePoint(context, ru, rv, rj);
+      return;
     }
-    super.generateRandomSurfacePoint(context, ru, rv, rj);
+    SeedReference ref = new SeedReference(ru);
+    int index = sampler.next(ref);
+    generateRandomSurfacePoint(index, context, ref.seed, rv, rj);
   }
 
   @Override
@@ -488,18 +497,49 @@ public final class PolyhedronGeometry extends AbstractGeometry {
 
   @Override
   public double getSurfaceArea() {
-    if (surfaceArea < 0.0) {
-      synchronized (this) {
-        double area = 0.0;
-        for (Face face : faces) {
-          area += face.getSurfaceArea();
-        }
-        surfaceArea = area;
-      }
-    }
+    ensureAreaTable();
     return surfaceArea;
   }
 
+  /**
+   * Gets the table used to select a face with probability proportional to
+   * its area.
+   * @return The <code>AliasCategoricalRandom</code> over the faces, or
+   *     <code>null</code> if this polyhedron has no area.
+   */
+  private AliasCategoricalRandom getFaceSampler() {
+    ensureAreaTable();
+    return faceSampler;
+  }
+
+  /**
+   * Builds the area table if it has not already been built.
+   */
+  private void ensureAreaTable() {
+    if (!areaTableReady) {
+      buildAreaTable();
+    }
+  }
+
+  /**
+   * Computes the surface area and builds the table used to select a face
+   * with probability proportional to its area.
+   */
+  private synchronized void buildAreaTable() {
+    if (areaTableReady) { // double check inside synchronized method
+      return;
+    }
+    double[] weight = new double[faces.size()];
+    double area = 0.0;
+    for (int i = 0; i < weight.length; i++) {
+      weight[i] = faces.get(i).getSurfaceArea();
+      area += weight[i];
+    }
+    surfaceArea = area;
+    faceSampler = (area > 0.0) ? new AliasCategoricalRandom(weight) : null;
+    areaTableReady = true;
+  }
+
   @Override
   protected Point2 getTextureCoordinates(GeometryIntersection x) {
     Face face = faces.get(x.getTag());
@@ -517,7 +557,7 @@ public final class PolyhedronGeometry extends AbstractGeometry {
 
     private int[] decomp = null;
 
-    private CategoricalRandom rnd;
+    private AliasCategoricalRandom rnd;
 
     /** The <code>Plane3</code> in which this face lies. */
     public Plane3 plane;
@@ -856,7 +896,7 @@ public final class PolyhedronGeometry extends AbstractGeometry {
             vertices.get(indices[i + 1]),
             vertices.get(indices[i + 2]));
       }
-      rnd = new CategoricalRandom(weight);
+      rnd = new AliasCategoricalRandom(weight);
       decomp = res;
     }
 
@@ -91,6 +91,9 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
 
   private final boolean displayPartialResults;
 
+  /** A value indicating whether task results are compressed. */
+  private boolean compressResults = false;
+
   private transient int tasksProvided = 0;
 
   private transient int tasksSubmitted = 0;
@@ -127,6 +130,17 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
         displayPartialResults);
   }
 
+  /**
+   * Sets whether task results should be deflated before they are returned
+   * to the master.  Compression trades worker time for network bandwidth,
+   * and is disabled by default.
+   * @param compressResults A value indicating whether task results should be
+   *     compressed.
+   */
+  public void setCompressResults(boolean compressResults) {
+    this.compressResults = compressResults;
+  }
+
   @Override
   public synchronized Object getNextTask() {
     if (tasksProvided < tasks) {
@@ -146,27 +160,16 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
   public synchronized void submitTaskResults(Object task, Object results,
       ProgressMonitor monitor) {
     int taskPasses = (Integer) task;
-    Raster taskRaster = (Raster) results;
 
     monitor.notifyStatusChanged("Accumulating partial results...");
 
     passesSubmitted += taskPasses;
     if (displayPartialResults) {
       double alpha = (double) taskPasses / (double) passesSubmitted;
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          raster.setPixel(x, y, raster.getPixel(x, y).times(
-              1.0 - alpha).plus(
-              taskRaster.getPixel(x, y).times(alpha)));
-        }
-      }
+      RasterUtil.accumulate(raster, 1.0 - alpha, results, alpha);
       display.setPixels(0, 0, raster);
     } else {
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          raster.setPixel(x, y, raster.getPixel(x, y).plus(taskRaster.getPixel(x, y)));
-        }
-      }
+      RasterUtil.accumulate(raster, 1.0, results, 1.0);
     }
 
     writeContribList();
@@ -205,11 +208,7 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
   @Override
   public void finish() {
     if (!displayPartialResults) {
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          raster.setPixel(x, y, raster.getPixel(x, y).divide(eyePathsPerPixel));
-        }
-      }
+      RasterUtil.scale(raster, 1.0 / (double) eyePathsPerPixel);
       display.initialize(width, height, colorModel);
       display.setPixels(0, 0, raster);
     }
@@ -283,7 +282,7 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
       monitor.notifyProgress(numPixels, numPixels);
       monitor.notifyComplete();
 
-      return raster.get();
+      return RasterUtil.getTaskResults(raster.get(), compressResults);
     }
 
 //
@@ -120,6 +120,9 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
 
   private final boolean displayPartialResults;
 
+  /** A value indicating whether task results are compressed. */
+  private boolean compressResults = false;
+
   private transient int tasksProvided = 0;
 
   private transient int tasksSubmitted = 0;
@@ -147,6 +150,17 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
     this.displayPartialResults = displayPartialResults;
   }
 
+  /**
+   * Sets whether task results should be deflated before they are returned
+   * to the master.  Compression trades worker time for network bandwidth,
+   * and is disabled by default.
+   * @param compressResults A value indicating whether task results should be
+   *     compressed.
+   */
+  public void setCompressResults(boolean compressResults) {
+    this.compressResults = compressResults;
+  }
+
   @Override
   public synchronized Object getNextTask() {
     if (tasksProvided < tasks) {
@@ -166,27 +180,16 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
   public synchronized void submitTaskResults(Object task, Object results,
       ProgressMonitor monitor) {
     int taskMutations = (Integer) task;
-    Raster taskRaster = (Raster) results;
 
     monitor.notifyStatusChanged("Accumulating partial results...");
 
     mutationsSubmitted += taskMutations;
     if (displayPartialResults) {
       double alpha = (double) taskMutations / (double) mutationsSubmitted;
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          raster.setPixel(x, y, raster.getPixel(x, y).times(
-              1.0 - alpha).plus(
-              taskRaster.getPixel(x, y).times(alpha)));
-        }
-      }
+      RasterUtil.accumulate(raster, 1.0 - alpha, results, alpha);
       display.setPixels(0, 0, raster);
     } else {
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          raster.setPixel(x, y, raster.getPixel(x, y).plus(taskRaster.getPixel(x, y)));
-        }
-      }
+      RasterUtil.accumulate(raster, 1.0, results, 1.0);
     }
 
     monitor.notifyProgress(++tasksSubmitted, tasks);
@@ -210,11 +213,7 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
     if (!displayPartialResults) {
       double mutationsPerPixel = (double) mutations
           / (double) (width * height);
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          raster.setPixel(x, y, raster.getPixel(x, y).divide(mutationsPerPixel));
-        }
-      }
+      RasterUtil.scale(raster, 1.0 / mutationsPerPixel);
       display.initialize(width, height, colorModel);
       display.setPixels(0, 0, raster);
     }
@@ -429,7 +428,7 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
       monitor.notifyProgress(numPixels, numPixels);
       monitor.notifyComplete();
 
-      return raster.get();
+      return RasterUtil.getTaskResults(raster.get(), compressResults);
     }
 
 //
@@ -163,6 +163,9 @@ public final class MetropolisLightTransportJob extends
    */
   private final boolean displayPartialResults;
 
+  /** A value indicating whether task results are compressed. */
+  private boolean compressResults = false;
+
   /** The <code>Raster</code> to write to as task results are submitted. */
   private transient Raster image = null;
 
@@ -199,6 +202,17 @@ public final class MetropolisLightTransportJob extends
     this.extraSeeds = numberOfSeeds % seedTasks;
   }
 
+  /**
+   * Sets whether task results should be deflated before they are returned
+   * to the master.  Compression trades worker time for network bandwidth,
+   * and is disabled by default.
+   * @param compressResults A value indicating whether task results should be
+   *     compressed.
+   */
+  public void setCompressResults(boolean compressResults) {
+    this.compressResults = compressResults;
+  }
+
   private final PathNode generateLightPath(Random rnd, WavelengthPacket lambda) {
     Light light = scene.getLight();
     PathInfo pathInfo = new PathInfo(scene, lambda);
@@ -274,7 +288,7 @@ public final class MetropolisLightTransportJob extends
       ProgressMonitor monitor) {
 
     if (task instanceof PathSeed) {
-      submitTaskResults_MLT((Raster) results);
+      submitTaskResults_MLT(results);
     } else if (task instanceof SeedTaskInfo) {
       submitTaskResults_generateSeeds((Collection<PathSeed>) results);
     } else {
@@ -284,24 +298,14 @@ public final class MetropolisLightTransportJob extends
     monitor.notifyProgress(++tasksSubmitted, seedTasks + numberOfSeeds);
   }
 
-  private void submitTaskResults_MLT(Raster results) {
+  private void submitTaskResults_MLT(Object results) {
     mltTasksSubmitted++;
     if (displayPartialResults) {
       double alpha = 1.0 / (double) mltTasksSubmitted;
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          image.setPixel(x, y, image.getPixel(x, y).times(
-              1.0 - alpha).plus(
-              results.getPixel(x, y).times(alpha)));
-        }
-      }
+      RasterUtil.accumulate(image, 1.0 - alpha, results, alpha);
       display.setPixels(0, 0, image);
     } else {
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          image.addPixel(x, y, results.getPixel(x, y));
-        }
-      }
+      RasterUtil.accumulate(image, 1.0, results, 1.0);
     }
   }
 
@@ -465,6 +469,8 @@ public final class MetropolisLightTransportJob extends
       Path y;
       Color c = null;
 
+      raster.get().clear();
+
       for (int i = 0; i < mutations; i++) {
         if (--nextCallback <= 0) {
           if (!monitor.notifyProgress(i, mutations)) {
@@ -486,7 +492,7 @@ public final class MetropolisLightTransportJob extends
       monitor.notifyProgress(mutations, mutations);
       monitor.notifyComplete();
 
-      return raster.get();
+      return RasterUtil.getTaskResults(raster.get(), compressResults);
     }
 
     private void record(Path x, Raster image, Color c) {
@@ -28,6 +28,13 @@ package ca.eandb.jmist.framework.job;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import ca.eandb.jdcp.job.AbstractParallelizableJob;
 import ca.eandb.jdcp.job.TaskWorker;
@@ -36,12 +43,33 @@ import ca.eandb.jmist.framework.PixelShader;
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.color.Color;
 import ca.eandb.jmist.framework.color.ColorModel;
+import ca.eandb.jmist.framework.shader.pixel.PacketPixelShader;
 import ca.eandb.jmist.math.Box2;
 import ca.eandb.util.io.Archive;
 import ca.eandb.util.progress.ProgressMonitor;
 
 /**
  * A <code>ParallelizableJob</code> that renders a <code>Raster</code> image.
+ *
+ * By default, the image is divided into a fixed grid of tiles which are
+ * handed out in scanline order.  If adaptive tiling is enabled (see
+ * {@link Builder#setAdaptiveTiling(int, int)}), the tiles of that grid are
+ * instead handed out in Hilbert curve order, and are subdivided as the job
+ * nears completion: once fewer tiles remain than are in progress, the
+ * remaining tiles are split before being handed out, and once none remain,
+ * tiles that have been running much longer than expected (based on the
+ * observed time per pixel) are split and their pieces re-issued to idle
+ * workers.  Whichever result covers a region first is kept.
+ *
+ * If progressive rendering is enabled (see
+ * {@link Builder#setProgressive(int, int)}), the image is rendered in
+ * multiple passes over the tile grid.  Each task adds a fixed number of
+ * samples per pixel to an accumulation <code>Raster</code>, and the
+ * <code>Display</code> is updated with the running average as each tile is
+ * submitted.  The accumulated samples and per-pixel sample counts are part
+ * of the archived job state, so a progressive job may be stopped and
+ * resumed without losing completed passes.
+ *
  * @author Brad Kimmel
  */
 public final class RasterJob extends AbstractParallelizableJob {
@@ -82,6 +110,71 @@ public final class RasterJob extends AbstractParallelizableJob {
   /** The number of tasks that have been completed. */
   private transient int tasksComplete = 0;
 
+  /** A value indicating whether tiles are to be scheduled adaptively. */
+  private final boolean adaptive;
+
+  /** The minimum width of a subdivided tile, in pixels. */
+  private final int minTileWidth;
+
+  /** The minimum height of a subdivided tile, in pixels. */
+  private final int minTileHeight;
+
+  /**
+   * A value indicating, for each tile in the initial grid (in row-major
+   * order), whether that tile has been completed.  Only used if adaptive
+   * tiling is enabled.
+   */
+  private transient boolean[] tileComplete = null;
+
+  /** The <code>TileScheduler</code> used if adaptive tiling is enabled. */
+  private transient TileScheduler scheduler = null;
+
+  /**
+   * The number of passes to render in progressive mode, or zero if
+   * progressive rendering is disabled.
+   */
+  private final int passes;
+
+  /** The number of samples per pixel to render in each task. */
+  private final int samplesPerPass;
+
+  /**
+   * The sum of the samples rendered for each pixel, if progressive
+   * rendering is enabled.
+   */
+  private transient Raster accumulator = null;
+
+  /**
+   * The number of samples rendered for each pixel (in row-major order), if
+   * progressive rendering is enabled.
+   */
+  private transient int[] sampleCounts = null;
+
+  /**
+   * The number of passes completed for each tile (in row-major order), if
+   * progressive rendering is enabled.
+   */
+  private transient int[] passesComplete = null;
+
+  /**
+   * The number of passes issued for each tile (in row-major order).  This is
+   * rebuilt from {@link #passesComplete} when the job is restored, so that
+   * passes that were in progress are issued again.
+   */
+  private transient int[] passesIssued = null;
+
+  /** The pass currently being issued. */
+  private transient int nextPass = 0;
+
+  /** The index of the next tile to consider issuing in the current pass. */
+  private transient int nextTile = 0;
+
+  /** The total number of tile passes that have been completed. */
+  private transient long tilePassesComplete = 0;
+
+  /** The index of each tile in the grid, keyed by region. */
+  private transient Map<Cell, Integer> tileIndex = null;
+
   /** The first step in building a <code>RasterJob</code>. */
   public interface Builder1 {
     /**
@@ -121,16 +214,28 @@ public final class RasterJob extends AbstractParallelizableJob {
     private int height = 1;
     private int cols = 1;
     private int rows = 1;
+    private boolean adaptive = false;
+    private int minTileWidth = 1;
+    private int minTileHeight = 1;
+    private int passes = 0;
+    private int samplesPerPass = 1;
 
     private Builder() {}
 
     /**
      * Builds the new <code>RasterJob</code>.
      * @return The new <code>RasterJob</code>.
+     * @throws IllegalStateException If both adaptive tiling and progressive
+     *     rendering are enabled.
      */
     public RasterJob build() {
+      if (adaptive && passes > 0) {
+        throw new IllegalStateException(
+            "Adaptive tiling cannot be combined with progressive rendering");
+      }
       return new RasterJob(colorModel, pixelShader, display, width, height,
-                           cols, rows);
+                           cols, rows, adaptive, minTileWidth, minTileHeight,
+                           passes, samplesPerPass);
     }
 
     /**
@@ -205,6 +310,54 @@ public final class RasterJob extends AbstractParallelizableJob {
       this.rows = rows;
       return this;
     }
+
+    /**
+     * Enables adaptive tiling.  The tiles specified by
+     * {@link #setTileSize(int, int)} or {@link #setTileCount(int, int)} are
+     * handed out in Hilbert curve order, and are subdivided as the job nears
+     * completion, down to the specified minimum size.
+     * @param minTileWidth The minimum width of a subdivided tile, in pixels.
+     * @param minTileHeight The minimum height of a subdivided tile, in
+     *     pixels.
+     * @return This <code>Builder</code>.
+     * @throws IllegalArgumentException If minTileWidth &lt;= 0 or
+     *     minTileHeight &lt;= 0.
+     */
+    public Builder setAdaptiveTiling(int minTileWidth, int minTileHeight) {
+      if (minTileWidth <= 0) {
+        throw new IllegalArgumentException("minTileWidth <= 0");
+      }
+      if (minTileHeight <= 0) {
+        throw new IllegalArgumentException("minTileHeight <= 0");
+      }
+      this.adaptive = true;
+      this.minTileWidth = minTileWidth;
+      this.minTileHeight = minTileHeight;
+      return this;
+    }
+
+    /**
+     * Enables progressive rendering.  The image is rendered in the specified
+     * number of passes over all tiles, each adding
+     * <code>samplesPerPass</code> samples to every pixel.
+     * @param passes The number of passes to render.
+     * @param samplesPerPass The number of samples per pixel to add in each
+     *     pass.
+     * @return This <code>Builder</code>.
+     * @throws IllegalArgumentException If passes &lt;= 0 or
+     *     samplesPerPass &lt;= 0.
+     */
+    public Builder setProgressive(int passes, int samplesPerPass) {
+      if (passes <= 0) {
+        throw new IllegalArgumentException("passes <= 0");
+      }
+      if (samplesPerPass <= 0) {
+        throw new IllegalArgumentException("samplesPerPass <= 0");
+      }
+      this.passes = passes;
+      this.samplesPerPass = samplesPerPass;
+      return this;
+    }
   }
 
   /**
@@ -228,9 +381,19 @@ public final class RasterJob extends AbstractParallelizableJob {
    * @param height The height of the rendered image, in pixels.
    * @param cols The number of columns to divide the image into.
    * @param rows The number of rows to divide the image into.
+   * @param adaptive A value indicating whether tiles are to be scheduled
+   *     adaptively.
+   * @param minTileWidth The minimum width of a subdivided tile, in pixels.
+   * @param minTileHeight The minimum height of a subdivided tile, in pixels.
+   * @param passes The number of passes to render in progressive mode, or
+   *     zero to disable progressive rendering.
+   * @param samplesPerPass The number of samples per pixel to render in each
+   *     task.
    */
   private RasterJob(ColorModel colorModel, PixelShader pixelShader,
-      Display display, int width, int height, int cols, int rows) {
+      Display display, int width, int height, int cols, int rows,
+      boolean adaptive, int minTileWidth, int minTileHeight, int passes,
+      int samplesPerPass) {
     this.pixelShader = pixelShader;
     this.colorModel = colorModel;
     this.width = width;
@@ -238,21 +401,155 @@ public final class RasterJob extends AbstractParallelizableJob {
     this.cols = cols;
     this.rows = rows;
     this.display = display;
+    this.adaptive = adaptive;
+    this.minTileWidth = minTileWidth;
+    this.minTileHeight = minTileHeight;
+    this.passes = passes;
+    this.samplesPerPass = samplesPerPass;
   }
 
   @Override
   public void initialize() throws IOException {
     display.initialize(width, height, colorModel);
+
+    if (passes > 0) {
+      if (accumulator == null) {
+        accumulator = colorModel.createRaster(width, height);
+        sampleCounts = new int[width * height];
+        passesComplete = new int[rows * cols];
+      } else {
+        /* Resuming: show what has been accumulated so far. */
+        for (int row = 0; row < rows; row++) {
+          for (int col = 0; col < cols; col++) {
+            refreshDisplay(getCell(col, row));
+          }
+        }
+      }
+      passesIssued = null;
+    }
   }
 
   @Override
   public void restoreState(ObjectInput input) throws Exception {
     super.restoreState(input);
+    this.scheduler = null;
     this.initialize();
   }
 
+  /**
+   * Prepares the state used to issue progressive passes, if necessary.
+   * After the job is restored, passes that were issued but not completed
+   * are issued again.
+   */
+  private void ensureProgressiveReady() {
+    if (passesIssued == null) {
+      passesIssued = passesComplete.clone();
+      nextPass = Integer.MAX_VALUE;
+      tilePassesComplete = 0;
+      for (int n : passesComplete) {
+        nextPass = Math.min(nextPass, n);
+        tilePassesComplete += n;
+      }
+      nextTile = 0;
+
+      tileIndex = new HashMap<>();
+      for (int row = 0; row < rows; row++) {
+        for (int col = 0; col < cols; col++) {
+          tileIndex.put(getCell(col, row), row * cols + col);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the next tile to render in progressive mode.
+   * @return The next <code>Cell</code> to render, or <code>null</code> if
+   *     all passes have been issued.
+   */
+  private Cell getNextProgressiveTask() {
+    ensureProgressiveReady();
+    int numTiles = rows * cols;
+    while (nextPass < passes) {
+      while (nextTile < numTiles) {
+        int index = nextTile++;
+        if (passesIssued[index] == nextPass) {
+          passesIssued[index]++;
+          return getCell(index % cols, index / cols);
+        }
+      }
+      nextTile = 0;
+      nextPass++;
+    }
+    return null;
+  }
+
+  /**
+   * Adds the results of a progressive pass over a tile to the accumulated
+   * image.
+   * @param cell The <code>Cell</code> that was rendered.
+   * @param pixels The sum of the samples rendered for each pixel in the
+   *     cell.
+   * @param monitor The <code>ProgressMonitor</code> to report progress to.
+   */
+  private void submitProgressiveResults(Cell cell, Raster pixels, ProgressMonitor monitor) {
+    ensureProgressiveReady();
+    for (int y = 0; y < cell.height; y++) {
+      int index = (cell.y + y) * width + cell.x;
+      for (int x = 0; x < cell.width; x++, index++) {
+        accumulator.addPixel(cell.x + x, cell.y + y, pixels.getPixel(x, y));
+        sampleCounts[index] += samplesPerPass;
+      }
+    }
+    passesComplete[tileIndex.get(cell)]++;
+    tilePassesComplete++;
+
+    refreshDisplay(cell);
+    monitor.notifyProgress((double) tilePassesComplete
+        / ((double) passes * (double) (rows * cols)));
+  }
+
+  /**
+   * Writes the average of the accumulated samples for a cell to the
+   * <code>Display</code>.
+   * @param cell The <code>Cell</code> to write.
+   */
+  private void refreshDisplay(Cell cell) {
+    Raster average = colorModel.createRaster(cell.width, cell.height);
+    for (int y = 0; y < cell.height; y++) {
+      int index = (cell.y + y) * width + cell.x;
+      for (int x = 0; x < cell.width; x++, index++) {
+        int n = sampleCounts[index];
+        if (n > 0) {
+          average.setPixel(x, y,
+              accumulator.getPixel(cell.x + x, cell.y + y).divide(n));
+        }
+      }
+    }
+    display.setPixels(cell.x, cell.y, average);
+  }
+
+  /**
+   * Gets the <code>TileScheduler</code>, creating it if necessary.
+   * @return The <code>TileScheduler</code>.
+   */
+  private TileScheduler getScheduler() {
+    if (scheduler == null) {
+      if (tileComplete == null) {
+        tileComplete = new boolean[rows * cols];
+      }
+      scheduler = new TileScheduler();
+    }
+    return scheduler;
+  }
+
   @Override
   public Object getNextTask() {
+    if (adaptive) {
+      return getScheduler().next();
+    }
+    if (passes > 0) {
+      return getNextProgressiveTask();
+    }
     if (this.nextRow < this.rows) {
       /* Get the next cell. */
       Cell cell = this.getCell(this.nextCol++, this.nextRow);
@@ -305,8 +602,362 @@ public final class RasterJob extends AbstractParallelizableJob {
       this.height = height;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Cell)) {
+        return false;
+      }
+      Cell other = (Cell) obj;
+      return x == other.x && y == other.y && width == other.width
+          && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+      return ((x * 31 + y) * 31 + width) * 31 + height;
+    }
+
   };
 
+  /**
+   * A node in the tree of tiles managed by a <code>TileScheduler</code>.
+   */
+  private static final class Tile {
+
+    /** The region of the image covered by this tile. */
+    final Cell cell;
+
+    /** The <code>Tile</code> that this tile was split from, if any. */
+    final Tile parent;
+
+    /**
+     * The index of this tile in the initial grid, or -1 if this tile was
+     * split from another.
+     */
+    final int index;
+
+    /** The tiles that this tile was split into, if any. */
+    Tile[] children = null;
+
+    /** A value indicating whether this tile has been completed. */
+    boolean done = false;
+
+    /** The time (in nanoseconds) at which this tile was last issued. */
+    long issued = 0;
+
+    /**
+     * Creates a new <code>Tile</code>.
+     * @param cell The region of the image covered by this tile.
+     * @param parent The <code>Tile</code> that this tile was split from, if
+     *     any.
+     * @param index The index of this tile in the initial grid, or -1 if this
+     *     tile was split from another.
+     */
+    Tile(Cell cell, Tile parent, int index) {
+      this.cell = cell;
+      this.parent = parent;
+      this.index = index;
+    }
+
+    /**
+     * Gets the number of pixels covered by this tile.
+     * @return The number of pixels covered by this tile.
+     */
+    long area() {
+      return (long) cell.width * (long) cell.height;
+    }
+
+    /**
+     * Determines whether this tile, or a tile that it was split from, has
+     * been completed.
+     * @return A value indicating whether the region covered by this tile
+     *     has been rendered.
+     */
+    boolean covered() {
+      for (Tile t = this; t != null; t = t.parent) {
+        if (t.done) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Gets the number of pixels of this tile covered by completed tiles
+     * that it was split into.
+     * @return The number of pixels already rendered within this tile.
+     */
+    long completedArea() {
+      if (done) {
+        return area();
+      }
+      long sum = 0;
+      if (children != null) {
+        for (Tile child : children) {
+          sum += child.completedArea();
+        }
+      }
+      return sum;
+    }
+
+  }
+
+  /**
+   * Hands out tiles for adaptive tiling.  The state of this scheduler is not
+   * persisted, other than the set of completed tiles from the initial grid.
+   * @see Builder#setAdaptiveTiling(int, int)
+   */
+  private final class TileScheduler {
+
+    /**
+     * The factor by which a tile must exceed its expected running time
+     * before it is split and re-issued.
+     */
+    private static final double STRAGGLER_FACTOR = 2.0;
+
+    /** The tiles that have yet to be issued, in the order to issue them. */
+    private final Deque<Tile> pending = new ArrayDeque<>();
+
+    /** The tiles that have been issued but not completed. */
+    private final List<Tile> outstanding = new ArrayList<>();
+
+    /** The tiles that have been created, keyed by region. */
+    private final Map<Cell, Tile> tiles = new HashMap<>();
+
+    /** The number of pixels that have been completed. */
+    private long pixelsComplete = 0;
+
+    /** The total time spent on completed tiles, in nanoseconds. */
+    private long totalTime = 0;
+
+    /** The total number of pixels in completed, timed tiles. */
+    private long totalTimedPixels = 0;
+
+    /**
+     * Creates a new <code>TileScheduler</code>, queueing the incomplete
+     * tiles of the initial grid in Hilbert curve order.
+     */
+    public TileScheduler() {
+      int n = 1;
+      while (n < rows || n < cols) {
+        n <<= 1;
+      }
+
+      long[] order = new long[rows * cols];
+      for (int row = 0; row < rows; row++) {
+        for (int col = 0; col < cols; col++) {
+          int index = row * cols + col;
+          order[index] = (hilbertIndex(n, col, row) << 32) | index;
+        }
+      }
+      Arrays.sort(order);
+
+      for (long key : order) {
+        int index = (int) key;
+        Tile tile = new Tile(getCell(index % cols, index / cols), null, index);
+        tiles.put(tile.cell, tile);
+        if (tileComplete[index]) {
+          tile.done = true;
+          pixelsComplete += tile.area();
+        } else {
+          pending.addLast(tile);
+        }
+      }
+    }
+
+    /**
+     * Gets the next tile to render.
+     * @return The <code>Cell</code> to render, or <code>null</code> if
+     *     there is no work to hand out at this time.
+     */
+    public Cell next() {
+      Tile tile;
+      do {
+        tile = pending.pollFirst();
+      } while (tile != null && tile.covered());
+
+      if (tile == null) {
+        /* Nothing left in the queue, so help out with the slowest tile. */
+        tile = findStraggler();
+        if (tile == null) {
+          return null;
+        }
+        tile = split(tile);
+      } else if (pending.size() < outstanding.size() && canSplit(tile)) {
+        /* The queue is draining, so hand out smaller pieces to keep more
+         * workers busy until the end of the job.
+         */
+        tile = split(tile);
+      }
+
+      tile.issued = System.nanoTime();
+      outstanding.add(tile);
+      return tile.cell;
+    }
+
+    /**
+     * Finds the outstanding tile that has been running the longest relative
+     * to its expected running time, if it has exceeded its expected running
+     * time by {@link #STRAGGLER_FACTOR}.
+     * @return The slowest outstanding tile, or <code>null</code> if there is
+     *     none that warrants re-issuing.
+     */
+    private Tile findStraggler() {
+      if (totalTimedPixels == 0) {
+        return null;
+      }
+      double nanosPerPixel = (double) totalTime / (double) totalTimedPixels;
+      long now = System.nanoTime();
+      Tile slowest = null;
+      double worst = STRAGGLER_FACTOR;
+      for (int i = outstanding.size() - 1; i >= 0; i--) {
+        Tile tile = outstanding.get(i);
+        if (tile.covered()) {
+          outstanding.remove(i);
+          continue;
+        }
+        if (tile.children != null || !canSplit(tile)) {
+          continue;
+        }
+        double ratio = (double) (now - tile.issued)
+            / (nanosPerPixel * (double) tile.area());
+        if (ratio > worst) {
+          worst = ratio;
+          slowest = tile;
+        }
+      }
+      return slowest;
+    }
+
+    /**
+     * Determines whether a tile is large enough to be split.
+     * @param tile The <code>Tile</code> to check.
+     * @return A value indicating whether the tile may be split.
+     */
+    private boolean canSplit(Tile tile) {
+      return tile.cell.width >= 2 * minTileWidth
+          || tile.cell.height >= 2 * minTileHeight;
+    }
+
+    /**
+     * Splits a tile into two or four pieces, queueing all but the first.
+     * @param tile The <code>Tile</code> to split.
+     * @return The first piece.
+     */
+    private Tile split(Tile tile) {
+      Cell cell = tile.cell;
+      int nx = cell.width >= 2 * minTileWidth ? 2 : 1;
+      int ny = cell.height >= 2 * minTileHeight ? 2 : 1;
+      int w0 = cell.width / nx;
+      int h0 = cell.height / ny;
+
+      tile.children = new Tile[nx * ny];
+      for (int j = 0, k = 0; j < ny; j++) {
+        for (int i = 0; i < nx; i++, k++) {
+          int x = cell.x + i * w0;
+          int y = cell.y + j * h0;
+          int w = (i == nx - 1) ? cell.width - i * w0 : w0;
+          int h = (j == ny - 1) ? cell.height - j * h0 : h0;
+          Tile child = new Tile(new Cell(x, y, w, h), tile, -1);
+          tiles.put(child.cell, child);
+          tile.children[k] = child;
+        }
+      }
+
+      for (int k = tile.children.length - 1; k > 0; k--) {
+        pending.addFirst(tile.children[k]);
+      }
+      return tile.children[0];
+    }
+
+    /**
+     * Records the results of a completed tile.
+     * @param cell The <code>Cell</code> that was rendered.
+     * @param pixels The rendered <code>Raster</code>.
+     * @param monitor The <code>ProgressMonitor</code> to report progress
+     *     to.
+     */
+    public void submit(Cell cell, Raster pixels, ProgressMonitor monitor) {
+      Tile tile = tiles.get(cell);
+      if (tile == null) {
+        return;
+      }
+      outstanding.remove(tile);
+      if (tile.covered()) {
+        /* Another worker already rendered this region. */
+        return;
+      }
+
+      if (tile.issued != 0) {
+        totalTime += System.nanoTime() - tile.issued;
+        totalTimedPixels += tile.area();
+      }
+
+      display.setPixels(cell.x, cell.y, pixels);
+      pixelsComplete += tile.area() - tile.completedArea();
+      markDone(tile);
+
+      monitor.notifyProgress((int) pixelsComplete, width * height);
+    }
+
+    /**
+     * Marks a tile as completed, along with any tile it was split from
+     * whose pieces are now all complete.
+     * @param tile The <code>Tile</code> to mark as completed.
+     */
+    private void markDone(Tile tile) {
+      tile.done = true;
+      if (tile.index >= 0) {
+        tileComplete[tile.index] = true;
+      }
+      Tile parent = tile.parent;
+      if (parent != null && !parent.done) {
+        for (Tile sibling : parent.children) {
+          if (!sibling.done) {
+            return;
+          }
+        }
+        markDone(parent);
+      }
+    }
+
+    /**
+     * Determines whether all tiles have been completed.
+     * @return A value indicating whether the image has been rendered.
+     */
+    public boolean isComplete() {
+      return pixelsComplete >= (long) width * (long) height;
+    }
+
+  }
+
+  /**
+   * Computes the position of a point along a Hilbert curve.
+   * @param n The size of the grid covered by the curve (must be a power of
+   *     two).
+   * @param x The x-coordinate of the point (0 &lt;= x &lt; n).
+   * @param y The y-coordinate of the point (0 &lt;= y &lt; n).
+   * @return The distance along the curve to <code>(x, y)</code>.
+   */
+  private static long hilbertIndex(int n, int x, int y) {
+    long d = 0;
+    for (int s = n / 2; s > 0; s /= 2) {
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      d += (long) s * (long) s * ((3 * rx) ^ ry);
+      if (ry == 0) {
+        if (rx == 1) {
+          x = s - 1 - x;
+          y = s - 1 - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+
   /**
    * Gets the bounds of the cell at the specified row and column.
    * @param col The column index.
@@ -369,6 +1020,15 @@ public final class RasterJob extends AbstractParallelizableJob {
     Cell cell = (Cell) task;
     Raster pixels = (Raster) results;
 
+    if (adaptive) {
+      getScheduler().submit(cell, pixels, monitor);
+      return;
+    }
+    if (passes > 0) {
+      submitProgressiveResults(cell, pixels, monitor);
+      return;
+    }
+
     /* Write the submitted results to the raster. */
     display.setPixels(cell.x, cell.y, pixels);
 
@@ -378,6 +1038,13 @@ public final class RasterJob extends AbstractParallelizableJob {
 
   @Override
   public boolean isComplete() {
+    if (adaptive) {
+      return getScheduler().isComplete();
+    }
+    if (passes > 0) {
+      ensureProgressiveReady();
+      return tilePassesComplete >= (long) passes * (long) (rows * cols);
+    }
     return this.tasksComplete >= (this.rows * this.cols);
   }
 
@@ -387,15 +1054,24 @@ public final class RasterJob extends AbstractParallelizableJob {
   }
 
   @Override
-  protected void archiveState(Archive ar) throws IOException {
+  protected void archiveState(Archive ar) throws IOException, ClassNotFoundException {
     nextCol = ar.archiveInt(nextCol);
     nextRow = ar.archiveInt(nextRow);
     tasksComplete = ar.archiveInt(tasksComplete);
+    if (adaptive) {
+      tileComplete = (boolean[]) ar.archiveObject(tileComplete);
+    }
+    if (passes > 0) {
+      accumulator = (Raster) ar.archiveObject(accumulator);
+      sampleCounts = (int[]) ar.archiveObject(sampleCounts);
+      passesComplete = (int[]) ar.archiveObject(passesComplete);
+    }
   }
 
   @Override
   public TaskWorker worker() {
-    return new RasterTaskWorker(colorModel, pixelShader, width, height);
+    return new RasterTaskWorker(colorModel, pixelShader, width, height,
+        passes > 0 ? samplesPerPass : 1);
   }
 
   /**
@@ -420,6 +1096,9 @@ public final class RasterJob extends AbstractParallelizableJob {
     /** The height of the image to render, in pixels. */
     private final int height;
 
+    /** The number of samples to render for each pixel. */
+    private final int samples;
+
     /**
      * Creates a new <code>RasterTaskWorker</code>.
      * @param colorModel The <code>ColorModel</code> to use to render this
@@ -428,17 +1107,24 @@ public final class RasterJob extends AbstractParallelizableJob {
      *     the values of individual <code>Pixel</code>s.
      * @param width The width of the image to render, in pixels.
      * @param height The height of the image to render, in pixels.
+     * @param samples The number of samples to render for each pixel.  The
+     *     resulting <code>Raster</code> holds the sum of the samples.
      */
     public RasterTaskWorker(ColorModel colorModel, PixelShader pixelShader,
-        int width, int height) {
+        int width, int height, int samples) {
       this.colorModel = colorModel;
       this.pixelShader = pixelShader;
       this.width = width;
       this.height = height;
+      this.samples = samples;
     }
 
     @Override
     public Object performTask(Object task, ProgressMonitor monitor) {
+      if (pixelShader instanceof PacketPixelShader) {
+        return performPacketTask((Cell) task, (PacketPixelShader) pixelShader, monitor);
+      }
+
       Cell cell = (Cell) task;
       int numPixels = cell.width * cell.height;
       Color pixel;
@@ -459,8 +1145,62 @@ public final class RasterJob extends AbstractParallelizableJob {
           x1 = (x + 1) / w;
           bounds = new Box2(x0, y0, x1, y1);
 
-          pixel = pixelShader.shadePixel(bounds);
-          raster.addPixel(x - cell.x, y - cell.y, pixel);
+          for (int s = 0; s < samples; s++) {
+            pixel = pixelShader.shadePixel(bounds);
+            raster.addPixel(x - cell.x, y - cell.y, pixel);
+          }
+        }
+      }
+
+      monitor.notifyProgress(numPixels, numPixels);
+      monitor.notifyComplete();
+      return raster;
+    }
+
+    /**
+     * Renders a cell using a <code>PacketPixelShader</code>.  The cell is
+     * divided into small blocks of pixels (two rows high, where possible),
+     * each of which is shaded as a single packet.
+     * @param cell The <code>Cell</code> to render.
+     * @param shader The <code>PacketPixelShader</code> to use.
+     * @param monitor The <code>ProgressMonitor</code> to report progress to.
+     * @return The rendered <code>Raster</code>, or <code>null</code> if the
+     *     task was cancelled.
+     */
+    private Raster performPacketTask(Cell cell, PacketPixelShader shader, ProgressMonitor monitor) {
+      int numPixels = cell.width * cell.height;
+      int packetSize = shader.getPacketSize();
+      int blockHeight = (packetSize >= 4) ? 2 : 1;
+      int blockWidth = packetSize / blockHeight;
+      double w = width;
+      double h = height;
+      Box2[] bounds = new Box2[packetSize];
+      Color[] pixels = new Color[packetSize];
+      Raster raster = colorModel.createRaster(cell.width, cell.height);
+
+      for (int by = cell.y; by < cell.y + cell.height; by += blockHeight) {
+        if (!monitor.notifyProgress((by - cell.y) * cell.width, numPixels))
+          return null;
+        int yEnd = Math.min(by + blockHeight, cell.y + cell.height);
+
+        for (int bx = cell.x; bx < cell.x + cell.width; bx += blockWidth) {
+          int xEnd = Math.min(bx + blockWidth, cell.x + cell.width);
+          int n = 0;
+          for (int y = by; y < yEnd; y++) {
+            for (int x = bx; x < xEnd; x++) {
+              bounds[n++] = new Box2(x / w, y / h, (x + 1) / w, (y + 1) / h);
+            }
+          }
+
+          for (int s = 0; s < samples; s++) {
+            shader.shadePixels(bounds, pixels, n);
+
+            for (int y = by, k = 0; y < yEnd; y++) {
+              for (int x = bx; x < xEnd; x++) {
+                raster.addPixel(x - cell.x, y - cell.y, pixels[k++]);
+              }
+            }
+          }
         }
       }
 
@@ -0,0 +1,322 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.light;
+
+import ca.eandb.jmist.framework.Illuminable;
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.jmist.framework.RayShader;
+import ca.eandb.jmist.framework.SurfacePoint;
+import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorModel;
+import ca.eandb.jmist.framework.color.WavelengthPacket;
+import ca.eandb.jmist.framework.random.RandomAdapter;
+import ca.eandb.jmist.math.Basis3;
+import ca.eandb.jmist.math.MathUtil;
+import ca.eandb.jmist.math.Point3;
+import ca.eandb.jmist.math.Ray3;
+import ca.eandb.jmist.math.SphericalCoordinates;
+import ca.eandb.jmist.math.Vector3;
+
+/**
+ * An environment light that samples directions in proportion to the
+ * luminance of the environment.  The environment is tabulated on a
+ * latitude-longitude grid (parameterized as in
+ * {@link ca.eandb.jmist.framework.shader.ray.SphericalEnvironmentRayShader}),
+ * from which a piecewise-constant distribution (a marginal distribution over
+ * rows and a conditional distribution over the cells of each row) is built.
+ * Directions are sampled in O(log n) time, and the probability density of
+ * any direction may be evaluated exactly using
+ * {@link #getDirectionPDF(Vector3)}, for use in multiple importance sampling.
+ *
+ * @author Brad Kimmel
+ */
+public final class ImportanceSampledEnvironmentLight extends AbstractLight {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -3542816046137417227L;
+
+  /**
+   * The fraction of the mean cell weight added to every cell, so that no
+   * direction has zero probability even if the tabulated luminance
+   * underestimates the environment there.
+   */
+  private static final double MINIMUM_WEIGHT_FRACTION = 1e-3;
+
+  /** The <code>RayShader</code> describing the environment. */
+  private final RayShader env;
+
+  /** The <code>Basis3</code> representing the map orientation. */
+  private final Basis3 basis;
+
+  /** A value indicating whether shadow rays should be cast. */
+  private final boolean shadows;
+
+  /** The number of cells along the azimuthal direction. */
+  private final int width;
+
+  /** The number of cells along the polar direction. */
+  private final int height;
+
+  /**
+   * The cumulative distribution of rows, <code>height + 1</code> entries
+   * starting at zero and ending at one.
+   */
+  private final double[] marginal;
+
+  /**
+   * The cumulative distribution of the cells within each row,
+   * <code>width + 1</code> consecutive entries per row.
+   */
+  private final double[] conditional;
+
+  /**
+   * The probability density of each cell with respect to the unit square
+   * parameterization of the map.
+   */
+  private final double[] density;
+
+  /**
+   * Creates a new <code>ImportanceSampledEnvironmentLight</code>.
+   * @param env The <code>RayShader</code> describing the environment.
+   * @param basis The <code>Basis3</code> representing the map orientation.
+   * @param colorModel The <code>ColorModel</code> to use to evaluate the
+   *     luminance of the environment.
+   * @param width The number of cells along the azimuthal direction.
+   * @param height The number of cells along the polar direction.
+   * @param shadows A value indicating whether shadow rays should be cast.
+   */
+  public ImportanceSampledEnvironmentLight(RayShader env, Basis3 basis,
+      ColorModel colorModel, int width, int height, boolean shadows) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("width and height must be positive");
+    }
+    this.env = env;
+    this.basis = basis;
+    this.shadows = shadows;
+    this.width = width;
+    this.height = height;
+    this.marginal = new double[height + 1];
+    this.conditional = new double[height * (width + 1)];
+    this.density = new double[width * height];
+    initialize(colorModel);
+  }
+
+  /**
+   * Creates a new <code>ImportanceSampledEnvironmentLight</code> in the
+   * standard orientation.
+   * @param env The <code>RayShader</code> describing the environment.
+   * @param colorModel The <code>ColorModel</code> to use to evaluate the
+   *     luminance of the environment.
+   * @param width The number of cells along the azimuthal direction.
+   * @param height The number of cells along the polar direction.
+   * @param shadows A value indicating whether shadow rays should be cast.
+   */
+  public ImportanceSampledEnvironmentLight(RayShader env,
+      ColorModel colorModel, int width, int height, boolean shadows) {
+    this(env, Basis3.STANDARD, colorModel, width, height, shadows);
+  }
+
+  /**
+   * Tabulates the environment and builds the sampling distribution.
+   * @param colorModel The <code>ColorModel</code> to use to evaluate the
+   *     luminance of the environment.
+   */
+  private void initialize(ColorModel colorModel) {
+    Random rnd = new RandomAdapter(new java.util.Random(0));
+
+    /* Evaluate the environment at the corners, edge midpoints, and center of
+     * each cell, and take the maximum over each cell.  Taking the maximum
+     * (rather than, e.g., the value at the center) ensures that cells only
+     * partially covered by a small, bright source (e.g., the sun) are still
+     * sampled often enough to keep the variance bounded.
+     */
+    int gw = 2 * width + 1;
+    int gh = 2 * height + 1;
+    double[] grid = new double[gw * gh];
+    for (int gj = 0; gj < gh; gj++) {
+      double theta = Math.PI * (double) gj / (double) (gh - 1);
+      for (int gi = 0; gi < gw; gi++) {
+        double phi = 2.0 * Math.PI * (double) gi / (double) (gw - 1) - Math.PI;
+        Vector3 v = new SphericalCoordinates(theta, phi).toCartesian(basis);
+        WavelengthPacket lambda = colorModel.sample(rnd).getWavelengthPacket();
+        double lum = env.shadeRay(new Ray3(Point3.ORIGIN, v), lambda).luminance();
+        grid[gj * gw + gi] = Math.max(lum, 0.0);
+      }
+    }
+
+    double[] weight = density;
+    double total = 0.0;
+    for (int j = 0; j < height; j++) {
+      double area = Math.cos(Math.PI * (double) j / (double) height)
+          - Math.cos(Math.PI * (double) (j + 1) / (double) height);
+      for (int i = 0; i < width; i++) {
+        double lum = 0.0;
+        for (int dj = 0; dj < 3; dj++) {
+          for (int di = 0; di < 3; di++) {
+            lum = Math.max(lum, grid[(2 * j + dj) * gw + 2 * i + di]);
+          }
+        }
+        weight[j * width + i] = lum * area;
+        total += weight[j * width + i];
+      }
+    }
+
+    /* The cell areas (in units of 2 pi / width) sum to 2 * width. */
+    double floor = total > 0.0
+        ? MINIMUM_WEIGHT_FRACTION * total / (2.0 * (double) width)
+        : 1.0;
+    double rowTotal = 0.0;
+    for (int j = 0; j < height; j++) {
+      double area = Math.cos(Math.PI * (double) j / (double) height)
+          - Math.cos(Math.PI * (double) (j + 1) / (double) height);
+      int row = j * (width + 1);
+      conditional[row] = 0.0;
+      for (int i = 0; i < width; i++) {
+        weight[j * width + i] += floor * area;
+        conditional[row + i + 1] = conditional[row + i] + weight[j * width + i];
+      }
+      rowTotal += conditional[row + width];
+      marginal[j + 1] = rowTotal;
+    }
+
+    double cellsPerUnit = (double) (width * height);
+    for (int j = 0; j < height; j++) {
+      int row = j * (width + 1);
+      double sum = conditional[row + width];
+      for (int i = 1; i <= width; i++) {
+        conditional[row + i] /= sum;
+      }
+      conditional[row + width] = 1.0;
+      marginal[j + 1] /= rowTotal;
+    }
+    marginal[height] = 1.0;
+
+    for (int k = 0; k < width * height; k++) {
+      density[k] = weight[k] * cellsPerUnit / rowTotal;
+    }
+  }
+
+  /**
+   * Finds the interval of a cumulative distribution containing a value.
+   * @param cdf The array containing the cumulative distribution.
+   * @param offset The index of the first entry (zero) of the distribution.
+   * @param n The number of intervals in the distribution.
+   * @param x The value to locate.
+   * @return The index (relative to <code>offset</code>) of the interval
+   *     containing <code>x</code>, skipping empty intervals.
+   */
+  private static int find(double[] cdf, int offset, int n, double x) {
+    int lo = 0;
+    int hi = n - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (cdf[offset + mid] <= x) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    while (lo > 0 && cdf[offset + lo + 1] <= cdf[offset + lo]) {
+      lo--;
+    }
+    return lo;
+  }
+
+  /**
+   * Samples a direction in proportion to the tabulated luminance of the
+   * environment.
+   * @param ru The first random variable (must be in [0, 1]).
+   * @param rv The second random variable (must be in [0, 1]).
+   * @return The sampled direction.
+   * @see #getDirectionPDF(Vector3)
+   */
+  public Vector3 sampleDirection(double ru, double rv) {
+    return sampleDirection(ru, rv, null);
+  }
+
+  /**
+   * Samples a direction in proportion to the tabulated luminance of the
+   * environment.
+   * @param ru The first random variable (must be in [0, 1]).
+   * @param rv The second random variable (must be in [0, 1]).
+   * @param pdf An array to receive the probability density (with respect to
+   *     solid angle) of the sampled direction in its first element, or
+   *     <code>null</code>.
+   * @return The sampled direction.
+   */
+  private Vector3 sampleDirection(double ru, double rv, double[] pdf) {
+    int j = find(marginal, 0, height, rv);
+    double dv = marginal[j + 1] - marginal[j];
+    double tv = dv > 0.0 ? Math.min((rv - marginal[j]) / dv, 1.0) : 0.5;
+
+    int row = j * (width + 1);
+    int i = find(conditional, row, width, ru);
+    double du = conditional[row + i + 1] - conditional[row + i];
+    double tu = du > 0.0 ? Math.min((ru - conditional[row + i]) / du, 1.0) : 0.5;
+
+    double theta = Math.PI * ((double) j + tv) / (double) height;
+    double phi = 2.0 * Math.PI * ((double) i + tu) / (double) width - Math.PI;
+    if (pdf != null) {
+      double sinTheta = Math.sin(theta);
+      pdf[0] = sinTheta > 0.0
+          ? density[j * width + i] / (2.0 * Math.PI * Math.PI * sinTheta)
+          : 0.0;
+    }
+    return new SphericalCoordinates(theta, phi).toCartesian(basis);
+  }
+
+  /**
+   * Gets the probability density (with respect to solid angle) that
+   * {@link #sampleDirection(double, double)} generates the specified
+   * direction.
+   * @param v The direction (must be a unit vector).
+   * @return The probability density of <code>v</code>.
+   */
+  public double getDirectionPDF(Vector3 v) {
+    SphericalCoordinates sc = SphericalCoordinates.fromCartesian(v, basis);
+    double sinTheta = Math.sin(sc.polar());
+    if (!(sinTheta > 0.0)) {
+      return 0.0;
+    }
+    int i = MathUtil.clamp((int) Math.floor((sc.azimuthal() + Math.PI)
+        * (double) width / (2.0 * Math.PI)), 0, width - 1);
+    int j = MathUtil.clamp((int) Math.floor(sc.polar() * (double) height
+        / Math.PI), 0, height - 1);
+    return density[j * width + i] / (2.0 * Math.PI * Math.PI * sinTheta);
+  }
+
+  @Override
+  public void illuminate(SurfacePoint x, WavelengthPacket lambda, Random rnd, Illuminable target) {
+    double[] pdf = new double[1];
+    Vector3 v = sampleDirection(rnd.next(), rnd.next(), pdf);
+    if (pdf[0] > 0.0 && x.getNormal().dot(v) > 0.0) {
+      Ray3 ray = new Ray3(x.getPosition(), v);
+      Color color = env.shadeRay(ray, lambda).divide(4.0 * Math.PI * pdf[0]);
+      target.addLightSample(new DirectionalLightSample(x, v, color, shadows));
+    }
+  }
+
+}
@@ -0,0 +1,440 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.light;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.eandb.jmist.framework.Illuminable;
+import ca.eandb.jmist.framework.Light;
+import ca.eandb.jmist.framework.LightSample;
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.jmist.framework.SurfacePoint;
+import ca.eandb.jmist.framework.color.WavelengthPacket;
+import ca.eandb.jmist.framework.path.LightNode;
+import ca.eandb.jmist.framework.path.PathInfo;
+import ca.eandb.jmist.framework.path.ScaledLightNode;
+import ca.eandb.jmist.framework.random.AliasCategoricalRandom;
+import ca.eandb.jmist.framework.random.SeedReference;
+import ca.eandb.jmist.math.Box3;
+import ca.eandb.jmist.math.MathUtil;
+import ca.eandb.jmist.math.Point3;
+import ca.eandb.util.DoubleArray;
+
+/**
+ * A <code>CompositeLight</code> for scenes with many light sources.  Child
+ * lights with known bounds are organized into a binary tree.  When
+ * illuminating a point, the tree is descended stochastically, choosing
+ * between the two children of a node according to their estimated
+ * contribution at that point (power over squared distance).  Lights without
+ * bounds (e.g., directional or environment lights) are selected in
+ * proportion to their power.
+ *
+ * <p>Light paths generated by {@link #sample(PathInfo, double, double, double)}
+ * select child lights in proportion to power alone, as there is no shading
+ * point to consider.  {@link #getSamplePDF(SurfacePoint, PathInfo)} matches
+ * that distribution, and uses the tree to consider only those lights whose
+ * bounds contain the given point.  The bounds supplied for each light must
+ * therefore contain every point that light may generate.</p>
+ *
+ * @author Brad Kimmel
+ */
+public final class LightTree extends CompositeLight {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 1287340416744315787L;
+
+  /** The estimated power of each child light. */
+  private final DoubleArray powers = new DoubleArray();
+
+  /**
+   * The bounds of each child light, or <code>null</code> for lights without
+   * bounds.
+   */
+  private final List<Box3> bounds = new ArrayList<>();
+
+  /**
+   * A value indicating if the tree has been built.
+   * @see #ensureReady()
+   */
+  private transient volatile boolean ready = false;
+
+  /**
+   * Selects a child light in proportion to its power, for light paths.
+   */
+  private transient AliasCategoricalRandom powerSelector;
+
+  /**
+   * Selects between the tree ({@link #ROOT} if there are bounded lights)
+   * and each unbounded light, in proportion to power.
+   */
+  private transient AliasCategoricalRandom topSelector;
+
+  /**
+   * The index of the child light associated with each choice made by
+   * {@link #topSelector}, or {@link #ROOT} for the tree.
+   */
+  private transient int[] topLights;
+
+  /** The bounds of each node, as six consecutive values per node. */
+  private transient double[] nodeBounds;
+
+  /** The total power of the lights below each node. */
+  private transient double[] nodePower;
+
+  /**
+   * The index of the right child of each interior node (the left child
+   * immediately follows its parent), or the bitwise complement of the index
+   * of the child light at each leaf.
+   */
+  private transient int[] nodeNext;
+
+  /** The number of nodes in the tree. */
+  private transient int numNodes;
+
+  /** Marks the tree as an entry in {@link #topLights}. */
+  private static final int ROOT = -1;
+
+  /**
+   * Creates a new <code>LightTree</code> with no light sources.
+   */
+  public LightTree() {
+    super();
+  }
+
+  /**
+   * Adds an unbounded child <code>Light</code> with unit power.
+   * @param child The child <code>Light</code> to add.
+   * @return A reference to this <code>LightTree</code> so that calls to this
+   *     method may be chained.
+   */
+  @Override
+  public LightTree addChild(Light child) {
+    return addChild(child, null, 1.0);
+  }
+
+  /**
+   * Adds an unbounded child <code>Light</code>.
+   * @param child The child <code>Light</code> to add.
+   * @param power The estimated power emitted by <code>child</code>.
+   * @return A reference to this <code>LightTree</code> so that calls to this
+   *     method may be chained.
+   */
+  public LightTree addChild(Light child, double power) {
+    return addChild(child, null, power);
+  }
+
+  /**
+   * Adds a child <code>Light</code>.
+   * @param child The child <code>Light</code> to add.
+   * @param bounds A <code>Box3</code> containing every point that
+   *     <code>child</code> may generate, or <code>null</code> if the light is
+   *     unbounded.
+   * @param power The estimated power emitted by <code>child</code>.
+   * @return A reference to this <code>LightTree</code> so that calls to this
+   *     method may be chained.
+   * @throws IllegalArgumentException If <code>power</code> is negative.
+   */
+  public synchronized LightTree addChild(Light child, Box3 bounds,
+      double power) {
+    if (!(power >= 0.0)) {
+      throw new IllegalArgumentException("power must be non-negative");
+    }
+    super.addChild(child);
+    this.powers.add(power);
+    this.bounds.add(bounds != null && !bounds.isEmpty() ? bounds : null);
+    ready = false;
+    return this;
+  }
+
+  /** Builds the tree if it has not already been built. */
+  private void ensureReady() {
+    if (!ready) {
+      synchronized (this) {
+        if (!ready) {
+          build();
+          ready = true;
+        }
+      }
+    }
+  }
+
+  /** Builds the tree. */
+  private void build() {
+    int n = powers.size();
+    powerSelector = new AliasCategoricalRandom(powers);
+
+    int numBounded = 0;
+    for (Box3 box : bounds) {
+      if (box != null) {
+        numBounded++;
+      }
+    }
+
+    int[] lights = new int[numBounded];
+    int numTop = n - numBounded + (numBounded > 0 ? 1 : 0);
+    double[] topWeights = new double[numTop];
+    topLights = new int[numTop];
+    double boundedPower = 0.0;
+    for (int i = 0, j = 0, k = (numBounded > 0 ? 1 : 0); i < n; i++) {
+      if (bounds.get(i) != null) {
+        lights[j++] = i;
+        boundedPower += powers.get(i);
+      } else {
+        topWeights[k] = powers.get(i);
+        topLights[k++] = i;
+      }
+    }
+    if (numBounded > 0) {
+      topWeights[0] = boundedPower;
+      topLights[0] = ROOT;
+    }
+    topSelector = new AliasCategoricalRandom(topWeights);
+
+    int maxNodes = Math.max(2 * numBounded - 1, 0);
+    nodeBounds = new double[6 * maxNodes];
+    nodePower = new double[maxNodes];
+    nodeNext = new int[maxNodes];
+    numNodes = 0;
+    if (numBounded > 0) {
+      double[] centers = new double[3 * n];
+      for (int i : lights) {
+        Point3 c = bounds.get(i).center();
+        centers[3 * i] = c.x();
+        centers[3 * i + 1] = c.y();
+        centers[3 * i + 2] = c.z();
+      }
+      buildNode(lights, 0, numBounded, centers);
+    }
+  }
+
+  /**
+   * Builds the subtree for a range of bounded lights.
+   * @param lights The indices of the bounded lights.
+   * @param start The index into <code>lights</code> of the first light in the
+   *     subtree (inclusive).
+   * @param end The index into <code>lights</code> of the last light in the
+   *     subtree (exclusive).
+   * @param centers The center of the bounds of each light.
+   * @return The index of the new node.
+   */
+  private int buildNode(int[] lights, int start, int end, double[] centers) {
+    int node = numNodes++;
+    double[] box = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+    double[] span = box.clone();
+    double power = 0.0;
+    for (int i = start; i < end; i++) {
+      int light = lights[i];
+      Box3 b = bounds.get(light);
+      for (int axis = 0; axis < 3; axis++) {
+        box[axis] = Math.min(box[axis], b.minimum(axis) - MathUtil.EPSILON);
+        box[axis + 3] = Math.max(box[axis + 3], b.maximum(axis) + MathUtil.EPSILON);
+        span[axis] = Math.min(span[axis], centers[3 * light + axis]);
+        span[axis + 3] = Math.max(span[axis + 3], centers[3 * light + axis]);
+      }
+      power += powers.get(light);
+    }
+    System.arraycopy(box, 0, nodeBounds, 6 * node, 6);
+    nodePower[node] = power;
+
+    if (end - start == 1) {
+      nodeNext[node] = ~lights[start];
+      return node;
+    }
+
+    int axis = 0;
+    for (int i = 1; i < 3; i++) {
+      if (span[i + 3] - span[i] > span[axis + 3] - span[axis]) {
+        axis = i;
+      }
+    }
+
+    int mid = (start + end) >>> 1;
+    select(lights, start, end - 1, mid, centers, axis);
+
+    buildNode(lights, start, mid, centers);
+    nodeNext[node] = buildNode(lights, mid, end, centers);
+    return node;
+  }
+
+  /**
+   * Partially sorts a range of lights so that the light at <code>k</code> is
+   * the one that would be there if the range were sorted by the center of
+   * its bounds along the specified axis.
+   */
+  private static void select(int[] lights, int lo, int hi, int k,
+      double[] centers, int axis) {
+    while (lo < hi) {
+      double pivot = centers[3 * lights[(lo + hi) >>> 1] + axis];
+      int i = lo, j = hi;
+      while (i <= j) {
+        while (centers[3 * lights[i] + axis] < pivot) i++;
+        while (centers[3 * lights[j] + axis] > pivot) j--;
+        if (i <= j) {
+          int temp = lights[i];
+          lights[i++] = lights[j];
+          lights[j--] = temp;
+        }
+      }
+      if (k <= j) {
+        hi = j;
+      } else if (k >= i) {
+        lo = i;
+      } else {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Estimates the contribution of the lights below a node to a point.
+   * @param node The index of the node.
+   * @param p The <code>Point3</code> being illuminated.
+   * @return The estimated contribution.
+   */
+  private double importance(int node, Point3 p) {
+    int i = 6 * node;
+    double dx = nodeBounds[i + 3] - nodeBounds[i];
+    double dy = nodeBounds[i + 4] - nodeBounds[i + 1];
+    double dz = nodeBounds[i + 5] - nodeBounds[i + 2];
+    double cx = nodeBounds[i] + 0.5 * dx - p.x();
+    double cy = nodeBounds[i + 1] + 0.5 * dy - p.y();
+    double cz = nodeBounds[i + 2] + 0.5 * dz - p.z();
+    double d2 = cx * cx + cy * cy + cz * cz;
+    double r2 = 0.25 * (dx * dx + dy * dy + dz * dz);
+    return nodePower[node] / Math.max(d2, r2);
+  }
+
+  @Override
+  public void illuminate(SurfacePoint x, WavelengthPacket lambda, Random rng, final Illuminable target) {
+    ensureReady();
+    if (topLights.length == 0) {
+      return;
+    }
+
+    int choice = topSelector.next(rng);
+    double probability = topSelector.getProbability(choice);
+    int light = topLights[choice];
+
+    if (light == ROOT) {
+      Point3 p = x.getPosition();
+      int node = 0;
+      while (nodeNext[node] >= 0) {
+        int left = node + 1;
+        int right = nodeNext[node];
+        double wl = importance(left, p);
+        double wr = importance(right, p);
+        double pl = (wl + wr > 0.0) ? wl / (wl + wr) : 0.5;
+        if (rng.next() < pl) {
+          node = left;
+          probability *= pl;
+        } else {
+          node = right;
+          probability *= 1.0 - pl;
+        }
+      }
+      light = ~nodeNext[node];
+    }
+
+    final double scale = 1.0 / probability;
+    children().get(light).illuminate(x, lambda, rng, new Illuminable() {
+      public void addLightSample(LightSample sample) {
+        target.addLightSample(ScaledLightSample.create(scale, sample));
+      }
+    });
+  }
+
+  @Override
+  public LightNode sample(PathInfo pathInfo, double ru, double rv, double rj) {
+    ensureReady();
+    SeedReference ref = new SeedReference(rj);
+    int index = powerSelector.next(ref);
+    return ScaledLightNode.create(powerSelector.getProbability(index),
+        children().get(index).sample(pathInfo, ru, rv, ref.seed), rj);
+  }
+
+  @Override
+  public double getSamplePDF(SurfacePoint x, PathInfo pathInfo) {
+    ensureReady();
+    double pdf = 0.0;
+
+    for (int light : topLights) {
+      if (light != ROOT) {
+        pdf += lightPDF(light, x, pathInfo);
+      }
+    }
+
+    if (numNodes > 0) {
+      pdf += nodePDF(0, x.getPosition(), x, pathInfo);
+    }
+
+    return pdf;
+  }
+
+  /**
+   * Computes the contribution of the bounded lights in a subtree to the value
+   * of {@link #getSamplePDF(SurfacePoint, PathInfo)}.  The tree is split at
+   * the median, so the recursion depth is logarithmic in the number of
+   * lights.
+   * @param node The index of the root of the subtree.
+   * @param p The position of <code>x</code>.
+   * @param x The <code>SurfacePoint</code> at which to evaluate the PDF.
+   * @param pathInfo The <code>PathInfo</code> describing the context in which
+   *     the path is generated.
+   * @return The sum of the contributions of the lights in the subtree whose
+   *     bounds contain <code>p</code>.
+   */
+  private double nodePDF(int node, Point3 p, SurfacePoint x, PathInfo pathInfo) {
+    int i = 6 * node;
+    if (p.x() < nodeBounds[i] || p.x() > nodeBounds[i + 3]
+        || p.y() < nodeBounds[i + 1] || p.y() > nodeBounds[i + 4]
+        || p.z() < nodeBounds[i + 2] || p.z() > nodeBounds[i + 5]) {
+      return 0.0;
+    }
+    if (nodeNext[node] < 0) {
+      return lightPDF(~nodeNext[node], x, pathInfo);
+    }
+    return nodePDF(node + 1, p, x, pathInfo)
+        + nodePDF(nodeNext[node], p, x, pathInfo);
+  }
+
+  /**
+   * Computes the contribution of a child light to the value of
+   * {@link #getSamplePDF(SurfacePoint, PathInfo)}.
+   * @param light The index of the child light.
+   * @param x The <code>SurfacePoint</code> at which to evaluate the PDF.
+   * @param pathInfo The <code>PathInfo</code> describing the context in which
+   *     the path is generated.
+   * @return The probability of selecting the light, times the light's PDF.
+   */
+  private double lightPDF(int light, SurfacePoint x, PathInfo pathInfo) {
+    double p = powerSelector.getProbability(light);
+    return p > 0.0 ? p * children().get(light).getSamplePDF(x, pathInfo) : 0.0;
+  }
+
+}
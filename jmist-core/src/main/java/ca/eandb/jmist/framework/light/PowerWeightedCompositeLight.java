@@ -0,0 +1,174 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.light;
+
+import java.util.Collection;
+
+import ca.eandb.jmist.framework.Illuminable;
+import ca.eandb.jmist.framework.Light;
+import ca.eandb.jmist.framework.LightSample;
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.jmist.framework.SurfacePoint;
+import ca.eandb.jmist.framework.color.WavelengthPacket;
+import ca.eandb.jmist.framework.path.LightNode;
+import ca.eandb.jmist.framework.path.PathInfo;
+import ca.eandb.jmist.framework.path.ScaledLightNode;
+import ca.eandb.jmist.framework.random.AliasCategoricalRandom;
+import ca.eandb.jmist.framework.random.SeedReference;
+import ca.eandb.util.DoubleArray;
+
+/**
+ * A <code>CompositeLight</code> that selects one child light at random, with
+ * probability proportional to a weight associated with each child (typically
+ * an estimate of its emitted power).
+ * @author Brad Kimmel
+ */
+public final class PowerWeightedCompositeLight extends CompositeLight {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -2160516413781346447L;
+
+  /** The weight associated with each child light. */
+  private final DoubleArray weights = new DoubleArray();
+
+  /**
+   * The <code>AliasCategoricalRandom</code> used to select child lights, or
+   * <code>null</code> if it has not yet been built.
+   */
+  private transient AliasCategoricalRandom selector = null;
+
+  /**
+   * Creates a new <code>PowerWeightedCompositeLight</code> with no light
+   * sources.
+   */
+  public PowerWeightedCompositeLight() {
+    super();
+  }
+
+  /**
+   * Creates a new <code>PowerWeightedCompositeLight</code>.
+   * @param children The <code>Collection</code> of lights making up this
+   *     light.
+   * @param weights The weight associated with each child light.
+   * @throws IllegalArgumentException If <code>weights</code> does not have
+   *     one entry for each light in <code>children</code>, or if any weight
+   *     is negative.
+   */
+  public PowerWeightedCompositeLight(Collection<? extends Light> children,
+      double[] weights) {
+    if (children.size() != weights.length) {
+      throw new IllegalArgumentException("Wrong number of weights");
+    }
+    int i = 0;
+    for (Light child : children) {
+      addChild(child, weights[i++]);
+    }
+  }
+
+  /**
+   * Adds a child <code>Light</code> with unit weight.
+   * @param child The child <code>Light</code> to add.
+   * @return A reference to this <code>PowerWeightedCompositeLight</code> so
+   *     that calls to this method may be chained.
+   */
+  @Override
+  public PowerWeightedCompositeLight addChild(Light child) {
+    return addChild(child, 1.0);
+  }
+
+  /**
+   * Adds a child <code>Light</code>.
+   * @param child The child <code>Light</code> to add.
+   * @param weight The weight associated with <code>child</code> (typically
+   *     an estimate of its emitted power).
+   * @return A reference to this <code>PowerWeightedCompositeLight</code> so
+   *     that calls to this method may be chained.
+   * @throws IllegalArgumentException If <code>weight</code> is negative.
+   */
+  public synchronized PowerWeightedCompositeLight addChild(Light child,
+      double weight) {
+    if (!(weight >= 0.0)) {
+      throw new IllegalArgumentException("weight must be non-negative");
+    }
+    super.addChild(child);
+    weights.add(weight);
+    selector = null;
+    return this;
+  }
+
+  /**
+   * Gets the <code>AliasCategoricalRandom</code> used to select child lights,
+   * building it if necessary.
+   * @return The <code>AliasCategoricalRandom</code> used to select child lights.
+   */
+  private AliasCategoricalRandom getSelector() {
+    AliasCategoricalRandom result = selector;
+    if (result == null) {
+      synchronized (this) {
+        if (selector == null) {
+          selector = new AliasCategoricalRandom(weights);
+        }
+        result = selector;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void illuminate(SurfacePoint x, WavelengthPacket lambda, Random rng, final Illuminable target) {
+    AliasCategoricalRandom rnd = getSelector();
+    int index = rnd.next(rng);
+    final double scale = 1.0 / rnd.getProbability(index);
+    children().get(index).illuminate(x, lambda, rng, new Illuminable() {
+      public void addLightSample(LightSample sample) {
+        target.addLightSample(ScaledLightSample.create(scale, sample));
+      }
+    });
+  }
+
+  @Override
+  public LightNode sample(PathInfo pathInfo, double ru, double rv, double rj) {
+    AliasCategoricalRandom rnd = getSelector();
+    SeedReference ref = new SeedReference(rj);
+    int index = rnd.next(ref);
+    return ScaledLightNode.create(rnd.getProbability(index),
+        children().get(index).sample(pathInfo, ru, rv, ref.seed), rj);
+  }
+
+  @Override
+  public double getSamplePDF(SurfacePoint x, PathInfo pathInfo) {
+    AliasCategoricalRandom rnd = getSelector();
+    double pdf = 0.0;
+    for (int i = 0, n = children().size(); i < n; i++) {
+      double p = rnd.getProbability(i);
+      if (p > 0.0) {
+        pdf += p * children().get(i).getSamplePDF(x, pathInfo);
+      }
+    }
+    return pdf;
+  }
+
+}
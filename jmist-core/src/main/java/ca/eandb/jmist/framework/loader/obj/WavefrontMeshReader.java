@@ -0,0 +1,980 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.loader.obj;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ca.eandb.jmist.framework.Material;
+import ca.eandb.jmist.framework.geometry.mesh.BufferMesh;
+import ca.eandb.jmist.framework.geometry.mesh.IndexFormat;
+import ca.eandb.jmist.framework.geometry.mesh.MeshGeometry;
+import ca.eandb.jmist.framework.geometry.mesh.Point2Format;
+import ca.eandb.jmist.framework.geometry.mesh.Point3Format;
+import ca.eandb.jmist.framework.geometry.mesh.Vector3Format;
+import ca.eandb.util.UnexpectedException;
+
+/**
+ * Reads the polygonal geometry from a Wavefront OBJ file into a
+ * <code>BufferMesh</code>.  The file is split into chunks at line boundaries
+ * and the chunks are parsed in parallel, without creating a
+ * <code>String</code> per token.  Once all chunks are parsed, the vertex
+ * positions, texture coordinates and normals are concatenated and the face
+ * indices of each chunk are offset by the number of elements preceding the
+ * chunk (which also resolves relative indices).
+ *
+ * Only the <code>v</code>, <code>vt</code>, <code>vn</code>, <code>f</code>
+ * and <code>usemtl</code> commands are interpreted.  All other commands
+ * (groups, material libraries, free-form geometry, etc.) are ignored.  Use
+ * <code>WavefrontObjectReader</code> if these are required.
+ *
+ * @see WavefrontObjectReader
+ * @author Brad Kimmel
+ */
+public final class WavefrontMeshReader {
+
+  /** The default approximate number of bytes in each chunk. */
+  private static final int DEFAULT_CHUNK_SIZE = 1 << 24;
+
+  /** The number of bytes to read at a time when locating line boundaries. */
+  private static final int SCAN_SIZE = 1 << 12;
+
+  /** The value stored for a missing texture coordinate or normal index. */
+  private static final int MISSING = Integer.MIN_VALUE;
+
+  /** The largest mantissa that may be converted exactly to a double. */
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  /** Powers of ten that are exactly representable as doubles. */
+  private static final double[] POW10 = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+      1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /** The size of a <code>float</code>, in bytes. */
+  private static final int FLOAT_SIZE = Float.SIZE / 8;
+
+  /** The size of an <code>int</code>, in bytes. */
+  private static final int INT_SIZE = Integer.SIZE / 8;
+
+  /** The approximate number of bytes in each chunk. */
+  private final int chunkSize;
+
+  /** Creates a new <code>WavefrontMeshReader</code>. */
+  public WavefrontMeshReader() {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a new <code>WavefrontMeshReader</code>.
+   * @param chunkSize The approximate number of bytes in each chunk.
+   */
+  WavefrontMeshReader(int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be positive");
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Reads an OBJ file.
+   * @param file The OBJ <code>File</code> to read.
+   * @return The <code>MeshGeometry</code> read from the file.
+   * @throws IOException If an error occurs while reading from the file.
+   */
+  public MeshGeometry read(File file) throws IOException {
+    return read(file, 1.0);
+  }
+
+  /**
+   * Reads an OBJ file.
+   * @param file The OBJ <code>File</code> to read.
+   * @param scale The factor by which to scale the vertex positions.
+   * @return The <code>MeshGeometry</code> read from the file.
+   * @throws IOException If an error occurs while reading from the file.
+   */
+  public MeshGeometry read(File file, double scale) throws IOException {
+    return read(file, scale, Collections.emptyMap());
+  }
+
+  /**
+   * Reads an OBJ file.
+   * @param file The OBJ <code>File</code> to read.
+   * @param scale The factor by which to scale the vertex positions.
+   * @param materials The <code>Material</code>s to apply to faces, keyed by
+   *     the name given in the <code>usemtl</code> command.  Faces using a
+   *     material not in this map, or appearing before the first
+   *     <code>usemtl</code> command, will not have a material.
+   * @return The <code>MeshGeometry</code> read from the file.
+   * @throws IOException If an error occurs while reading from the file.
+   */
+  public MeshGeometry read(File file, double scale,
+      Map<String, Material> materials) throws IOException {
+    List<String> materialNames = new ArrayList<>();
+    BufferMesh mesh = readMesh(file, scale, materialNames);
+    List<Material> faceMaterials = new ArrayList<>(materialNames.size());
+    for (String name : materialNames) {
+      faceMaterials.add(materials.get(name));
+    }
+    return new MeshGeometry(mesh, faceMaterials);
+  }
+
+  /**
+   * Reads an OBJ file into a <code>BufferMesh</code>.
+   * @param file The OBJ <code>File</code> to read.
+   * @param scale The factor by which to scale the vertex positions.
+   * @param materialNames The <code>List</code> to which to add the names of
+   *     the materials referenced by the <code>usemtl</code> command.  The
+   *     material index of each face is the position of the name of its
+   *     material in this list, or <code>-1</code> if the face appears before
+   *     the first <code>usemtl</code> command.
+   * @return The <code>BufferMesh</code> read from the file.
+   * @throws IOException If an error occurs while reading from the file.
+   */
+  public BufferMesh readMesh(File file, double scale,
+      List<String> materialNames) throws IOException {
+    List<Chunk> chunks = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.READ)) {
+      long[] bounds = findChunkBoundaries(channel);
+      for (int i = 0; i + 1 < bounds.length; i++) {
+        chunks.add(new Chunk(channel, bounds[i], bounds[i + 1], scale));
+      }
+      invokeAll(chunks, Chunk::parse);
+    }
+
+    Target target = new Target();
+    Map<String, Integer> materialIndices = new HashMap<>();
+    int material = -1;
+    long vertexCount = 0;
+    long texCoordCount = 0;
+    long normalCount = 0;
+    long faceCount = 0;
+    long loopCount = 0;
+    int minFaceVertexCount = Integer.MAX_VALUE;
+    int maxFaceVertexCount = 0;
+    boolean texCoords = true;
+    boolean normals = true;
+
+    for (Chunk chunk : chunks) {
+      chunk.vertexBase = (int) vertexCount;
+      chunk.texCoordBase = (int) texCoordCount;
+      chunk.normalBase = (int) normalCount;
+      chunk.faceBase = (int) faceCount;
+      chunk.loopBase = (int) loopCount;
+      vertexCount += chunk.vertexCount / 3;
+      texCoordCount += chunk.texCoordCount / 2;
+      normalCount += chunk.normalCount / 3;
+      faceCount += chunk.faceCount;
+      loopCount += chunk.loopCount;
+      checkLimit(3 * vertexCount * FLOAT_SIZE, "vertices");
+      checkLimit(2 * texCoordCount, "texture coordinates");
+      checkLimit(3 * normalCount, "normals");
+
+      if (chunk.faceCount > 0) {
+        minFaceVertexCount = Math.min(minFaceVertexCount, chunk.minFaceVertexCount);
+        maxFaceVertexCount = Math.max(maxFaceVertexCount, chunk.maxFaceVertexCount);
+        texCoords &= !chunk.missingTexCoords;
+        normals &= !chunk.missingNormals;
+      }
+
+      chunk.materialMap = new int[chunk.materialNames.size()];
+      for (int i = 0; i < chunk.materialMap.length; i++) {
+        String name = chunk.materialNames.get(i);
+        Integer index = materialIndices.get(name);
+        if (index == null) {
+          index = materialNames.size();
+          materialIndices.put(name, index);
+          materialNames.add(name);
+        }
+        chunk.materialMap[i] = index;
+      }
+      chunk.initialMaterial = material;
+      if (chunk.material >= 0) {
+        material = chunk.materialMap[chunk.material];
+      }
+    }
+
+    if (faceCount == 0) {
+      texCoords = normals = false;
+    }
+
+    target.vertexCount = (int) vertexCount;
+    target.texCoordCount = (int) texCoordCount;
+    target.normalCount = (int) normalCount;
+    target.fixed = faceCount == 0 || minFaceVertexCount == maxFaceVertexCount;
+    target.materials = !materialNames.isEmpty();
+    target.faceStride = (target.fixed ? 1 : 2) * INT_SIZE;
+    if (target.materials) {
+      target.faceMaterialOffset = target.faceStride;
+      target.faceStride += INT_SIZE;
+    }
+    target.loopStride = INT_SIZE;
+    if (normals) {
+      target.loopNormalOffset = target.loopStride;
+      target.loopStride += 3 * FLOAT_SIZE;
+      target.normals = new float[(int) (3 * normalCount)];
+    }
+    if (texCoords) {
+      target.loopUVOffset = target.loopStride;
+      target.loopStride += 2 * FLOAT_SIZE;
+      target.texCoords = new float[(int) (2 * texCoordCount)];
+    }
+    checkLimit(faceCount * target.faceStride, "faces");
+    checkLimit(loopCount * target.loopStride, "face vertices");
+
+    target.vertices = ByteBuffer.allocateDirect((int) (3 * vertexCount * FLOAT_SIZE))
+        .order(ByteOrder.nativeOrder());
+    target.faces = ByteBuffer.allocateDirect((int) faceCount * target.faceStride)
+        .order(ByteOrder.nativeOrder());
+    target.loops = ByteBuffer.allocateDirect((int) loopCount * target.loopStride)
+        .order(ByteOrder.nativeOrder());
+
+    for (Chunk chunk : chunks) {
+      if (normals) {
+        System.arraycopy(chunk.normals, 0, target.normals,
+            3 * chunk.normalBase, chunk.normalCount);
+      }
+      if (texCoords) {
+        System.arraycopy(chunk.texCoords, 0, target.texCoords,
+            2 * chunk.texCoordBase, chunk.texCoordCount);
+      }
+    }
+
+    invokeAll(chunks, chunk -> chunk.fill(target));
+
+    BufferMesh.Builder builder = BufferMesh.newBuilder()
+        .setVertexBuffer(target.vertices)
+        .setVertexCount((int) vertexCount)
+        .setVertexOffset(0)
+        .setVertexStride(3 * FLOAT_SIZE)
+        .setVertexCoordSpec(0, Point3Format.FLOAT_XYZ)
+        .setFaceBuffer(target.faces)
+        .setFaceCount((int) faceCount)
+        .setFaceOffset(0)
+        .setFaceStride(target.faceStride)
+        .setFaceLoopStartSpec(0, IndexFormat.INT32)
+        .setMaxFaceVertexCount(maxFaceVertexCount)
+        .setLoopBuffer(target.loops)
+        .setLoopCount((int) loopCount)
+        .setLoopOffset(0)
+        .setLoopStride(target.loopStride)
+        .setLoopVertexIndexSpec(0, IndexFormat.INT32);
+    if (!target.fixed) {
+      builder.setFaceLoopCountSpec(INT_SIZE, IndexFormat.INT32);
+    }
+    if (target.materials) {
+      builder.setFaceMaterialIndexSpec(target.faceMaterialOffset, IndexFormat.INT32);
+    }
+    if (normals) {
+      builder.setLoopNormalSpec(target.loopNormalOffset, Vector3Format.FLOAT_XYZ);
+    }
+    if (texCoords) {
+      builder.setLoopUVSpec(target.loopUVOffset, Point2Format.FLOAT_XY);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Ensures that the size of a buffer does not exceed the limits of a
+   * <code>BufferMesh</code>.
+   * @param size The size of the buffer.
+   * @param what A description of the buffer contents (for error reporting).
+   */
+  private static void checkLimit(long size, String what) {
+    if (size > Integer.MAX_VALUE) {
+      throw new RuntimeException(String.format(
+          "Too many %s in OBJ file", what));
+    }
+  }
+
+  /**
+   * Splits a file into chunks at line boundaries.
+   * @param channel The <code>FileChannel</code> to split.
+   * @return The positions of the chunk boundaries, including the start and
+   *     end of the file.
+   * @throws IOException If an error occurs while reading from the channel.
+   */
+  private long[] findChunkBoundaries(FileChannel channel) throws IOException {
+    long size = channel.size();
+    List<Long> bounds = new ArrayList<>();
+    bounds.add(0L);
+    long pos = chunkSize;
+    while (pos < size) {
+      long start = findLineStart(channel, pos, size);
+      if (start >= size) {
+        break;
+      }
+      bounds.add(start);
+      pos = start + chunkSize;
+    }
+    bounds.add(size);
+
+    long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = bounds.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Finds the start of the first line beginning at or after the specified
+   * position.  Lines ending with a backslash are continued on the next line.
+   * @param channel The <code>FileChannel</code> to read from.
+   * @param pos The position at which to start searching.
+   * @param size The size of the file.
+   * @return The position of the start of the next line, or <code>size</code>
+   *     if there are no more lines.
+   * @throws IOException If an error occurs while reading from the channel.
+   */
+  private static long findLineStart(FileChannel channel, long pos, long size)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+
+    /* Start a few bytes early so that a continuation immediately preceding
+     * pos is recognized.
+     */
+    long q = Math.max(0, pos - 3);
+    byte prev1 = 0, prev2 = 0;
+    while (q < size) {
+      buffer.clear();
+      int n = channel.read(buffer, q);
+      if (n <= 0) {
+        break;
+      }
+      for (int i = 0; i < n; i++, q++) {
+        byte b = buffer.get(i);
+        if (b == '\n' && q >= pos - 1 && prev1 != '\\'
+            && !(prev1 == '\r' && prev2 == '\\')) {
+          return q + 1;
+        }
+        prev2 = prev1;
+        prev1 = b;
+      }
+    }
+    return size;
+  }
+
+  /** An operation to perform on a <code>Chunk</code>. */
+  private interface ChunkTask {
+    void run(Chunk chunk) throws IOException;
+  }
+
+  /**
+   * Performs an operation on each chunk in parallel and waits for them to
+   * complete.
+   * @param chunks The <code>Chunk</code>s to process.
+   * @param task The <code>ChunkTask</code> to perform.
+   * @throws IOException If the task throws an <code>IOException</code>.
+   */
+  private static void invokeAll(List<Chunk> chunks, ChunkTask task) throws IOException {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    List<Future<?>> futures = new ArrayList<>(chunks.size());
+    for (Chunk chunk : chunks) {
+      futures.add(pool.submit(() -> {
+        task.run(chunk);
+        return null;
+      }));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException ex = new InterruptedIOException();
+      ex.initCause(e);
+      throw ex;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new UnexpectedException(cause);
+    } finally {
+      /* Cancel any chunks that have not yet been processed if we are
+       * abandoning the read.  This has no effect on completed chunks.
+       */
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Ensures that an array has at least the specified length.
+   * @param array The array.
+   * @param length The required length.
+   * @return The array, or a larger copy of it.
+   */
+  private static float[] ensureCapacity(float[] array, int length) {
+    return length <= array.length ? array
+        : Arrays.copyOf(array, Math.max(length, 2 * array.length));
+  }
+
+  /**
+   * Ensures that an array has at least the specified length.
+   * @param array The array.
+   * @param length The required length.
+   * @return The array, or a larger copy of it.
+   */
+  private static int[] ensureCapacity(int[] array, int length) {
+    return length <= array.length ? array
+        : Arrays.copyOf(array, Math.max(length, 2 * array.length));
+  }
+
+  /** The merged mesh data that the chunks are copied into. */
+  private static final class Target {
+    ByteBuffer vertices;
+    ByteBuffer faces;
+    ByteBuffer loops;
+    float[] normals;
+    float[] texCoords;
+    int vertexCount;
+    int texCoordCount;
+    int normalCount;
+    boolean fixed;
+    boolean materials;
+    int faceStride;
+    int faceMaterialOffset;
+    int loopStride;
+    int loopNormalOffset;
+    int loopUVOffset;
+  }
+
+  /** A range of lines in the OBJ file. */
+  private static final class Chunk {
+
+    /** The <code>FileChannel</code> to read from. */
+    private final FileChannel channel;
+
+    /** The position in the file of the start of this chunk. */
+    private final long start;
+
+    /** The position in the file of the end of this chunk. */
+    private final long end;
+
+    /** The factor by which to scale vertex positions. */
+    private final double scale;
+
+    /** The contents of this chunk (only while parsing). */
+    private byte[] buf;
+
+    /** The current position in <code>buf</code>. */
+    private int pos;
+
+    /** The end of the current line in <code>buf</code>. */
+    private int limit;
+
+    float[] vertices = new float[0];
+    int vertexCount;
+    float[] texCoords = new float[0];
+    int texCoordCount;
+    float[] normals = new float[0];
+    int normalCount;
+
+    int[] faceSizes = new int[0];
+    int[] faceMaterials = new int[0];
+    int faceCount;
+    int minFaceVertexCount = Integer.MAX_VALUE;
+    int maxFaceVertexCount;
+
+    int[] loopVertices = new int[0];
+    int[] loopTexCoords = new int[0];
+    int[] loopNormals = new int[0];
+    int loopCount;
+    boolean missingTexCoords;
+    boolean missingNormals;
+
+    /** Loops whose indices are relative to the start of this chunk. */
+    final BitSet relativeVertices = new BitSet();
+    final BitSet relativeTexCoords = new BitSet();
+    final BitSet relativeNormals = new BitSet();
+
+    /** The names of the materials used in this chunk. */
+    final List<String> materialNames = new ArrayList<>();
+
+    /** The local index of the current material, or <code>-1</code>. */
+    int material = -1;
+
+    /* Assigned when the chunks are merged. */
+    int vertexBase;
+    int texCoordBase;
+    int normalBase;
+    int faceBase;
+    int loopBase;
+    int[] materialMap;
+    int initialMaterial;
+
+    /**
+     * Creates a new <code>Chunk</code>.
+     * @param channel The <code>FileChannel</code> to read from.
+     * @param start The position in the file of the start of the chunk.
+     * @param end The position in the file of the end of the chunk.
+     * @param scale The factor by which to scale vertex positions.
+     */
+    Chunk(FileChannel channel, long start, long end, double scale) {
+      this.channel = channel;
+      this.start = start;
+      this.end = end;
+      this.scale = scale;
+    }
+
+    /**
+     * Reads and parses this chunk.
+     * @throws IOException If an error occurs while reading from the file.
+     */
+    void parse() throws IOException {
+      int length = (int) (end - start);
+      buf = new byte[length];
+      ByteBuffer buffer = ByteBuffer.wrap(buf);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, start + buffer.position()) < 0) {
+          throw new EOFException();
+        }
+      }
+
+      int p = 0;
+      while (p < length) {
+        int eol = p;
+        int comment = -1;
+        for (; eol < length; eol++) {
+          byte b = buf[eol];
+          if (b == '#' && comment < 0) {
+            comment = eol;
+          } else if (b == '\n' && !isContinued(p, eol)) {
+            break;
+          }
+        }
+        parseLine(p, comment >= 0 ? comment : eol);
+        p = eol + 1;
+      }
+
+      buf = null;
+    }
+
+    /**
+     * Determines if the line ending at the specified position is continued
+     * on the next line.
+     * @param lineStart The position of the start of the line.
+     * @param eol The position of the line feed character.
+     * @return A value indicating if the line ends with a backslash.
+     */
+    private boolean isContinued(int lineStart, int eol) {
+      int i = eol - 1;
+      if (i >= lineStart && buf[i] == '\r') {
+        i--;
+      }
+      return i >= lineStart && buf[i] == '\\';
+    }
+
+    /**
+     * Determines if a character separates tokens.
+     * @param b The character.
+     * @return A value indicating if <code>b</code> is whitespace or a line
+     *     continuation.
+     */
+    private static boolean isSpace(byte b) {
+      return (b >= 0 && b <= ' ') || b == '\\';
+    }
+
+    /**
+     * Determines if a character is a decimal digit.
+     * @param b The character.
+     * @return A value indicating if <code>b</code> is a decimal digit.
+     */
+    private static boolean isDigit(byte b) {
+      return b >= '0' && b <= '9';
+    }
+
+    /** Advances past any whitespace. */
+    private void skipSpace() {
+      while (pos < limit && isSpace(buf[pos])) {
+        pos++;
+      }
+    }
+
+    /**
+     * Creates an exception indicating that the data is malformed.
+     * @return The <code>RuntimeException</code>.
+     */
+    private RuntimeException malformed() {
+      return new RuntimeException(String.format(
+          "Malformed OBJ data at offset %d", start + pos));
+    }
+
+    /**
+     * Parses a line.
+     * @param lineStart The position of the start of the line.
+     * @param lineEnd The position of the end of the line, excluding any
+     *     comment.
+     */
+    private void parseLine(int lineStart, int lineEnd) {
+      pos = lineStart;
+      limit = lineEnd;
+      skipSpace();
+
+      int keyword = pos;
+      while (pos < limit && !isSpace(buf[pos])) {
+        pos++;
+      }
+
+      switch (pos - keyword) {
+      case 1:
+        if (buf[keyword] == 'v') {
+          parseVertex();
+        } else if (buf[keyword] == 'f') {
+          parseFace();
+        }
+        break;
+      case 2:
+        if (buf[keyword] == 'v' && buf[keyword + 1] == 't') {
+          parseTexCoord();
+        } else if (buf[keyword] == 'v' && buf[keyword + 1] == 'n') {
+          parseNormal();
+        }
+        break;
+      case 6:
+        if (new String(buf, keyword, 6, StandardCharsets.US_ASCII).equals("usemtl")) {
+          parseUseMaterial();
+        }
+        break;
+      default: /* ignore. */
+      }
+    }
+
+    /** Parses a vertex position (<code>v x y z [w]</code>). */
+    private void parseVertex() {
+      vertices = ensureCapacity(vertices, vertexCount + 3);
+      vertices[vertexCount++] = (float) (readDouble() * scale);
+      vertices[vertexCount++] = (float) (readDouble() * scale);
+      vertices[vertexCount++] = (float) (readDouble() * scale);
+    }
+
+    /** Parses a texture coordinate (<code>vt u [v [w]]</code>). */
+    private void parseTexCoord() {
+      texCoords = ensureCapacity(texCoords, texCoordCount + 2);
+      texCoords[texCoordCount++] = (float) readDouble();
+      skipSpace();
+      texCoords[texCoordCount++] = pos < limit ? (float) readDouble() : 0.0f;
+    }
+
+    /** Parses a vertex normal (<code>vn x y z</code>). */
+    private void parseNormal() {
+      normals = ensureCapacity(normals, normalCount + 3);
+      normals[normalCount++] = (float) readDouble();
+      normals[normalCount++] = (float) readDouble();
+      normals[normalCount++] = (float) readDouble();
+    }
+
+    /** Parses a face (<code>f v[/[vt][/vn]] ...</code>). */
+    private void parseFace() {
+      int first = loopCount;
+      while (true) {
+        skipSpace();
+        if (pos >= limit) {
+          break;
+        }
+
+        int loop = loopCount;
+        loopVertices = ensureCapacity(loopVertices, loop + 1);
+        loopTexCoords = ensureCapacity(loopTexCoords, loop + 1);
+        loopNormals = ensureCapacity(loopNormals, loop + 1);
+
+        int vt = MISSING;
+        int vn = MISSING;
+        loopVertices[loop] = toLocalIndex(readInt(), vertexCount / 3,
+            relativeVertices, loop);
+        if (pos < limit && buf[pos] == '/') {
+          pos++;
+          if (pos < limit && buf[pos] != '/' && !isSpace(buf[pos])) {
+            vt = toLocalIndex(readInt(), texCoordCount / 2,
+                relativeTexCoords, loop);
+          }
+          if (pos < limit && buf[pos] == '/') {
+            pos++;
+            vn = toLocalIndex(readInt(), normalCount / 3,
+                relativeNormals, loop);
+          }
+        }
+        if (pos < limit && !isSpace(buf[pos])) {
+          throw malformed();
+        }
+
+        loopTexCoords[loop] = vt;
+        loopNormals[loop] = vn;
+        missingTexCoords |= (vt == MISSING);
+        missingNormals |= (vn == MISSING);
+        loopCount++;
+      }
+
+      int n = loopCount - first;
+      if (n < 3) {
+        throw malformed();
+      }
+      faceSizes = ensureCapacity(faceSizes, faceCount + 1);
+      faceMaterials = ensureCapacity(faceMaterials, faceCount + 1);
+      faceSizes[faceCount] = n;
+      faceMaterials[faceCount] = material;
+      faceCount++;
+      minFaceVertexCount = Math.min(minFaceVertexCount, n);
+      maxFaceVertexCount = Math.max(maxFaceVertexCount, n);
+    }
+
+    /**
+     * Converts an OBJ index to a zero-based index.  Positive indices are
+     * absolute.  Negative indices are relative to the number of elements
+     * read so far, and are resolved relative to the start of this chunk.
+     * @param index The one-based or negative index from the file.
+     * @param count The number of elements read so far in this chunk.
+     * @param relative The <code>BitSet</code> in which to mark relative
+     *     indices.
+     * @param loop The index of the loop within this chunk.
+     * @return The zero-based index.
+     */
+    private int toLocalIndex(int index, int count, BitSet relative, int loop) {
+      if (index > 0) {
+        return index - 1;
+      } else if (index < 0) {
+        relative.set(loop);
+        return count + index;
+      }
+      throw malformed();
+    }
+
+    /** Parses a material selection (<code>usemtl name</code>). */
+    private void parseUseMaterial() {
+      skipSpace();
+      int name = pos;
+      while (pos < limit && !isSpace(buf[pos])) {
+        pos++;
+      }
+      if (pos == name) {
+        throw malformed();
+      }
+      String materialName = new String(buf, name, pos - name,
+          StandardCharsets.UTF_8);
+      material = materialNames.indexOf(materialName);
+      if (material < 0) {
+        material = materialNames.size();
+        materialNames.add(materialName);
+      }
+    }
+
+    /**
+     * Reads a decimal integer.
+     * @return The value read.
+     */
+    private int readInt() {
+      boolean negative = false;
+      if (pos < limit && (buf[pos] == '-' || buf[pos] == '+')) {
+        negative = (buf[pos] == '-');
+        pos++;
+      }
+      if (pos >= limit || !isDigit(buf[pos])) {
+        throw malformed();
+      }
+      long value = 0;
+      while (pos < limit && isDigit(buf[pos])) {
+        value = value * 10 + (buf[pos++] - '0');
+        if (value > Integer.MAX_VALUE) {
+          throw malformed();
+        }
+      }
+      return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Reads a floating point number.  Numbers whose digits fit in the
+     * mantissa of a double and whose exponent is small are converted with
+     * a single rounding, without creating a <code>String</code>.  Anything
+     * else is delegated to <code>Double.parseDouble</code>.
+     * @return The value read.
+     */
+    private double readDouble() {
+      skipSpace();
+      int token = pos;
+      boolean negative = false;
+      if (pos < limit && (buf[pos] == '-' || buf[pos] == '+')) {
+        negative = (buf[pos] == '-');
+        pos++;
+      }
+
+      long mantissa = 0;
+      int exponent = 0;
+      boolean digits = false;
+      boolean exact = true;
+      while (pos < limit && isDigit(buf[pos])) {
+        mantissa = mantissa * 10 + (buf[pos++] - '0');
+        exact &= mantissa < MAX_EXACT_MANTISSA;
+        digits = true;
+      }
+      if (pos < limit && buf[pos] == '.') {
+        pos++;
+        while (pos < limit && isDigit(buf[pos])) {
+          mantissa = mantissa * 10 + (buf[pos++] - '0');
+          exact &= mantissa < MAX_EXACT_MANTISSA;
+          exponent--;
+          digits = true;
+        }
+      }
+      if (digits && pos < limit && (buf[pos] == 'e' || buf[pos] == 'E')) {
+        pos++;
+        boolean negativeExponent = false;
+        if (pos < limit && (buf[pos] == '-' || buf[pos] == '+')) {
+          negativeExponent = (buf[pos] == '-');
+          pos++;
+        }
+        int e = 0;
+        digits = false;
+        while (pos < limit && isDigit(buf[pos])) {
+          e = Math.min(e * 10 + (buf[pos++] - '0'), 1000);
+          digits = true;
+        }
+        exponent += negativeExponent ? -e : e;
+      }
+
+      if (!digits || !exact || (pos < limit && !isSpace(buf[pos]))
+          || exponent < -22 || exponent > 22) {
+        return parseDouble(token);
+      }
+
+      double value = exponent >= 0
+          ? mantissa * POW10[exponent]
+          : mantissa / POW10[-exponent];
+      return negative ? -value : value;
+    }
+
+    /**
+     * Reads a floating point number using <code>Double.parseDouble</code>.
+     * @param token The position of the start of the number.
+     * @return The value read.
+     */
+    private double parseDouble(int token) {
+      pos = token;
+      while (pos < limit && !isSpace(buf[pos])) {
+        pos++;
+      }
+      try {
+        return Double.parseDouble(new String(buf, token, pos - token,
+            StandardCharsets.US_ASCII));
+      } catch (NumberFormatException e) {
+        pos = token;
+        throw malformed();
+      }
+    }
+
+    /**
+     * Resolves an index parsed from this chunk to an index into the merged
+     * mesh.
+     * @param index The index returned by <code>toLocalIndex</code>.
+     * @param relative A value indicating if the index is relative to the
+     *     start of this chunk.
+     * @param base The number of elements preceding this chunk.
+     * @param count The total number of elements.
+     * @return The index into the merged mesh.
+     */
+    private int toGlobalIndex(int index, boolean relative, int base, int count) {
+      int result = relative ? base + index : index;
+      if (result < 0 || result >= count) {
+        throw new IndexOutOfBoundsException(String.format(
+            "Index out of range (%d) in OBJ data after offset %d",
+            result, start));
+      }
+      return result;
+    }
+
+    /**
+     * Copies this chunk into the merged mesh.
+     * @param target The <code>Target</code> to copy into.
+     */
+    void fill(Target target) {
+      ByteBuffer vertexBuffer = target.vertices.duplicate()
+          .order(ByteOrder.nativeOrder());
+      vertexBuffer.position(3 * vertexBase * FLOAT_SIZE);
+      vertexBuffer.asFloatBuffer().put(vertices, 0, vertexCount);
+      vertices = null;
+
+      ByteBuffer loops = target.loops.duplicate().order(ByteOrder.nativeOrder());
+      for (int i = 0; i < loopCount; i++) {
+        int offset = (loopBase + i) * target.loopStride;
+        loops.putInt(offset, toGlobalIndex(loopVertices[i],
+            relativeVertices.get(i), vertexBase, target.vertexCount));
+        if (target.normals != null) {
+          int n = 3 * toGlobalIndex(loopNormals[i], relativeNormals.get(i),
+              normalBase, target.normalCount);
+          int at = offset + target.loopNormalOffset;
+          loops.putFloat(at, target.normals[n]);
+          loops.putFloat(at + FLOAT_SIZE, target.normals[n + 1]);
+          loops.putFloat(at + 2 * FLOAT_SIZE, target.normals[n + 2]);
+        }
+        if (target.texCoords != null) {
+          int t = 2 * toGlobalIndex(loopTexCoords[i], relativeTexCoords.get(i),
+              texCoordBase, target.texCoordCount);
+          int at = offset + target.loopUVOffset;
+          loops.putFloat(at, target.texCoords[t]);
+          loops.putFloat(at + FLOAT_SIZE, target.texCoords[t + 1]);
+        }
+      }
+
+      ByteBuffer faces = target.faces.duplicate().order(ByteOrder.nativeOrder());
+      int loopStart = loopBase;
+      for (int i = 0; i < faceCount; i++) {
+        int offset = (faceBase + i) * target.faceStride;
+        faces.putInt(offset, loopStart);
+        if (!target.fixed) {
+          faces.putInt(offset + INT_SIZE, faceSizes[i]);
+        }
+        if (target.materials) {
+          faces.putInt(offset + target.faceMaterialOffset,
+              faceMaterials[i] >= 0 ? materialMap[faceMaterials[i]]
+                  : initialMaterial);
+        }
+        loopStart += faceSizes[i];
+      }
+    }
+
+  }
+
+}
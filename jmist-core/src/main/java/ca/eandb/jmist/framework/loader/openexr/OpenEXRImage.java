@@ -27,17 +27,24 @@ package ca.eandb.jmist.framework.loader.openexr;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.IIOByteBuffer;
@@ -61,7 +68,6 @@ import ca.eandb.jmist.framework.loader.openexr.attribute.V2f;
 import ca.eandb.jmist.framework.loader.openexr.attribute.V2i;
 import ca.eandb.jmist.math.MathUtil;
 import ca.eandb.util.UnexpectedException;
-import ca.eandb.util.UnimplementedException;
 import ca.eandb.util.io.StreamUtil;
 
 public final class OpenEXRImage {
@@ -113,7 +119,7 @@ public final class OpenEXRImage {
 
   private OpenEXRImage(ImageInputStream source) throws IOException {
 
-    FileOutputStream f = new FileOutputStream("/home/brad/test.dat");
+    long start = source.getStreamPosition();
     source.setByteOrder(ByteOrder.LITTLE_ENDIAN);
 
     if (source.readInt() != MAGIC) {
@@ -209,15 +215,64 @@ public final class OpenEXRImage {
       default:
         throw new UnexpectedException("Invalid level mode.");
       }
-      source.seek(source.getFlushedPosition() + 8 * numTiles);
-      source.flush();
 
-      throw new UnimplementedException();
+      /* Only the full resolution level is read.  Its tiles come first in
+       * the offset table for every level mode.  Tiles may appear in the
+       * file in any order, so visit them in order of position to avoid
+       * seeking backwards past data that has already been flushed.
+       */
+      int tw = td.getXSize();
+      int th = td.getYSize();
+      int numTilesX = 1 + (dw.getXSize() - 1) / tw;
+      int numTilesY = 1 + (dw.getYSize() - 1) / th;
+      long[] offsets = new long[numTiles];
+      source.readFully(offsets, 0, numTiles);
+
+      Integer[] order = new Integer[numTilesX * numTilesY];
+      for (int i = 0; i < order.length; i++) {
+        if (offsets[i] <= 0) {
+          throw new IOException("Missing tile");
+        }
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> Long.compare(offsets[a], offsets[b]));
+
+      ChannelList chlist = getChannelList();
+      for (int i : order) {
+        source.seek(start + offsets[i]);
+        source.flush();
+
+        int tx = source.readInt();
+        int ty = source.readInt();
+        int lx = source.readInt();
+        int ly = source.readInt();
+        if (lx != 0 || ly != 0 || tx != i % numTilesX || ty != i / numTilesX) {
+          throw new IOException("Unexpected tile coordinates");
+        }
+
+        int x0 = dw.getXMin() + tx * tw;
+        int y0 = dw.getYMin() + ty * th;
+        Box2i tile = new Box2i(x0, y0,
+            Math.min(x0 + tw - 1, dw.getXMax()),
+            Math.min(y0 + th - 1, dw.getYMax()));
+        int size = source.readInt();
+        int tileSize = computeTileSize(tile);
+
+        IIOByteBuffer buf = new IIOByteBuffer(null, 0, 0);
+        source.readBytes(buf, size);
+        if (size < tileSize) {
+          cm.decompress(buf, tile, chlist);
+          if (buf.getLength() < tileSize) {
+            throw new RuntimeException("Undersized tile");
+          }
+        }
+
+        readBlock(ByteBuffer.wrap(buf.getData(), buf.getOffset(), buf.getLength())
+            .order(ByteOrder.LITTLE_ENDIAN), tile);
+      }
 
     } else { // scan lines
-      int w = dw.getXSize();
       int h = dw.getYSize();
-      int ymin = dw.getYMin();
       int ymax = dw.getYMax();
       int blockHeight = cm.getScanLinesPerBlock();
       int numBlocks = 1 + (h - 1) / blockHeight;
@@ -239,61 +294,75 @@ public final class OpenEXRImage {
         IIOByteBuffer buf = new IIOByteBuffer(null, 0, 0);
         source.readBytes(buf, size);
         if (size < blockSize) {
-          cm.decompress(buf, block);
+          cm.decompress(buf, block, chlist);
           if (buf.getLength() < blockSize) {
             throw new RuntimeException("Undersized block");
           }
         }
-        f.write(buf.getData(), buf.getOffset(), buf.getLength());
-
-        ByteBuffer inBuf = ByteBuffer.wrap(buf.getData(), buf.getOffset(), buf.getLength())
-            .order(ByteOrder.LITTLE_ENDIAN);
-
-        for (int y = y0; y <= y1; y++) {
-          for (Channel channel : chlist.channels()) {
-            String name = channel.getName();
-            int sx = channel.getxSampling();
-            int sy = channel.getySampling();
-
-            if ((y % sy) == 0) {
-              int numElem = 1 + (w - 1) / sx;
-              PixelType pt = channel.getPixelType();
-              switch (pt) {
-              case UINT:
-                {
-                  IntBuffer chBuf = (IntBuffer) getChannelBuffer(name);
-                  chBuf.position(((y - ymin) / sy) * numElem);
-                  chBuf.put((IntBuffer) inBuf.asIntBuffer().limit(numElem));
-                  break;
-                }
-
-              case HALF:
-                {
-                  ShortBuffer chBuf = (ShortBuffer) getChannelBuffer(name);
-                  chBuf.position(((y - ymin) / sy) * numElem);
-                  chBuf.put((ShortBuffer) inBuf.asShortBuffer().limit(numElem));
-                  break;
-                }
-
-              case FLOAT:
-                {
-                  FloatBuffer chBuf = (FloatBuffer) getChannelBuffer(name);
-                  chBuf.position(((y - ymin) / sy) * numElem);
-                  chBuf.put((FloatBuffer) inBuf.asFloatBuffer().limit(numElem));
-                  break;
-                }
-
-              } // switch (channel.getPixelType())
-
-              inBuf.position(inBuf.position() + numElem * pt.getSampleSize());
-            } // if ((y % sy) == 0)
-          } // for (c)
-        } // for (y)
+
+        readBlock(ByteBuffer.wrap(buf.getData(), buf.getOffset(), buf.getLength())
+            .order(ByteOrder.LITTLE_ENDIAN), block);
       } // for (i)
     } // if (tiled)
 
     source.flush();
-    f.close();
+  }
+
+  /**
+   * Copies the uncompressed pixel data for a scan line block or tile into
+   * the channel buffers.
+   * @param inBuf The <code>ByteBuffer</code> containing the pixel data.
+   * @param block The <code>Box2i</code> covered by the pixel data.
+   */
+  private void readBlock(ByteBuffer inBuf, Box2i block) {
+    Box2i dw = getDataWindow();
+    int w = dw.getXSize();
+    int xmin = dw.getXMin();
+    int ymin = dw.getYMin();
+    ChannelList chlist = getChannelList();
+
+    for (int y = block.getYMin(); y <= block.getYMax(); y++) {
+      for (Channel channel : chlist.channels()) {
+        String name = channel.getName();
+        int sx = channel.getxSampling();
+        int sy = channel.getySampling();
+
+        if ((y % sy) == 0) {
+          int rowElem = 1 + (w - 1) / sx;
+          int numElem = 1 + (block.getXSize() - 1) / sx;
+          int pos = ((y - ymin) / sy) * rowElem + (block.getXMin() - xmin) / sx;
+          PixelType pt = channel.getPixelType();
+          switch (pt) {
+          case UINT:
+            {
+              IntBuffer chBuf = (IntBuffer) getChannelBuffer(name);
+              chBuf.position(pos);
+              chBuf.put((IntBuffer) inBuf.asIntBuffer().limit(numElem));
+              break;
+            }
+
+          case HALF:
+            {
+              ShortBuffer chBuf = (ShortBuffer) getChannelBuffer(name);
+              chBuf.position(pos);
+              chBuf.put((ShortBuffer) inBuf.asShortBuffer().limit(numElem));
+              break;
+            }
+
+          case FLOAT:
+            {
+              FloatBuffer chBuf = (FloatBuffer) getChannelBuffer(name);
+              chBuf.position(pos);
+              chBuf.put((FloatBuffer) inBuf.asFloatBuffer().limit(numElem));
+              break;
+            }
+
+          } // switch (channel.getPixelType())
+
+          inBuf.position(inBuf.position() + numElem * pt.getSampleSize());
+        } // if ((y % sy) == 0)
+      } // for (c)
+    } // for (y)
   }
 
   private static int round(double x, TileDescription.RoundingMode mode) {
@@ -383,17 +452,33 @@ public final class OpenEXRImage {
     return size;
   }
 
-  public void write(ImageOutputStream out) throws IOException {
-    ChannelList chlist = getChannelList();
-    long start = out.getStreamPosition();
+  /**
+   * Writes the magic number, version field, and attributes of this image.
+   * The stream is left positioned at the start of the offset table.
+   * @param out The <code>ImageOutputStream</code> to write to.
+   * @param tiled A value indicating whether the pixel data that follows is
+   *     stored in tiles.  If so, the version field has the tiled flag set and
+   *     this image must have a <code>tiles</code> attribute.  Otherwise, any
+   *     <code>tiles</code> attribute is omitted.
+   * @throws IOException If an I/O error occurs.
+   * @throws IllegalStateException If <code>tiled</code> is set and this
+   *     image has no <code>tiles</code> attribute.
+   */
+  public void writeHeader(ImageOutputStream out, boolean tiled) throws IOException {
+    if (tiled && !attributes.containsKey("tiles")) {
+      throw new IllegalStateException("Tiled image requires tiles attribute");
+    }
 
     out.setByteOrder(ByteOrder.LITTLE_ENDIAN);
     out.writeInt(MAGIC);
-    out.writeInt(VERSION);
+    out.writeInt(tiled ? VERSION | TILE_FLAG : VERSION);
 
     for (Map.Entry<String, Attribute> entry : attributes.entrySet()) {
       Attribute attr = entry.getValue();
       String name = entry.getKey();
+      if (!tiled && name.equals("tiles")) {
+        continue;
+      }
       String type = attr.getClass().getAnnotation(OpenEXRAttributeType.class).value();
       out.writeBytes(name);
       out.writeByte(0);
@@ -410,23 +495,31 @@ public final class OpenEXRImage {
       out.flush();
     }
     out.writeByte(0);
+  }
+
+  public void write(ImageOutputStream out) throws IOException {
+    long start = out.getStreamPosition();
+
+    /* Pixel data is always written as scan line blocks, even if this image
+     * was read from a tiled file.
+     */
+    writeHeader(out, false);
 
     CompressionMethod cm = getCompressionMethod();
     Box2i dw = getDataWindow();
-    int xmin = dw.getXMin();
-    int ymin = dw.getYMin();
-    int xmax = dw.getXMax();
-    int ymax = dw.getYMax();
-
-    int numBlocks = dw.getYSize() / cm.getScanLinesPerBlock();
+    int blockHeight = cm.getScanLinesPerBlock();
+    int numBlocks = 1 + (dw.getYSize() - 1) / blockHeight;
     long blockPtrPos = out.getStreamPosition();
     long blockPos = blockPtrPos + 8 * numBlocks;
 
-    int maximumBlockSize = computeMaximumTileSize(new V2i(dw.getXSize(),
-        Math.min(dw.getYSize(), cm.getScanLinesPerBlock())));
-    byte[] blockData = new byte[maximumBlockSize];
-    IIOByteBuffer buf = new IIOByteBuffer(null, 0, 0);
-    ByteBuffer bytes = ByteBuffer.wrap(blockData).order(ByteOrder.LITTLE_ENDIAN);
+    /* Resolve the channel buffers here so that blocks may be encoded
+     * concurrently without touching the buffer map.
+     */
+    List<Channel> channels = getChannelList().channels();
+    Buffer[] buffers = new Buffer[channels.size()];
+    for (int c = 0; c < buffers.length; c++) {
+      buffers[c] = getChannelBuffer(channels.get(c).getName());
+    }
 
     int firstBlock;
     int lastBlock;
@@ -449,75 +542,113 @@ public final class OpenEXRImage {
       throw new UnexpectedException("Invalid line order");
     }
 
-    for (int i = firstBlock; i != lastBlock; i += blockIncr) {
-      out.seek(blockPtrPos + 8 * i);
-      out.writeLong(blockPos - start);
-      out.seek(blockPos);
-      bytes.rewind();
-
-      // TODO write the next block here
-      int x0 = dw.getXMin();
-      int x1 = dw.getXMax();
-      int y0 = dw.getYMin() + i * cm.getScanLinesPerBlock();
-      int y1 = Math.min(y0 + cm.getScanLinesPerBlock() - 1, dw.getYMax());
-      Box2i block = new Box2i(x0, y0, x1, y1);
-      int blockSize = computeTileSize(block);
-
-      for (int y = y0; y <= y1; y++) {
-        for (Channel channel : chlist.channels()) {
-          String name = channel.getName();
-          int sx = channel.getxSampling();
-          int sy = channel.getySampling();
-          if (y % sy == 0) {
-            int nx = 1 + (x1 - x0 - (x1 % sx)) / sx;
-            int offset = ((y - ymin) / sy) * nx;
-            Buffer chBuf = getChannelBuffer(name);
-            PixelType pt = channel.getPixelType();
-
-            switch (pt) {
-            case UINT:
-              bytes.asIntBuffer().put((IntBuffer)
-                  ((IntBuffer) chBuf).duplicate().position(offset).limit(offset + nx));
-              break;
+    /* Blocks are encoded and compressed on the common pool and written back
+     * in order.  Only a bounded window of blocks is in flight at any time.
+     */
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int window = 2 * pool.getParallelism() + 1;
+    Deque<Future<IIOByteBuffer>> pending = new ArrayDeque<>();
+    long[] blockPtrs = new long[numBlocks];
+    int next = firstBlock;
 
-            case HALF:
-              bytes.asShortBuffer().put((ShortBuffer)
-                  ((ShortBuffer) chBuf).duplicate().position(offset).limit(offset + nx));
-              break;
+    out.seek(blockPos);
+    try {
+      for (int i = firstBlock; i != lastBlock; i += blockIncr) {
+        while (next != lastBlock && pending.size() < window) {
+          int block = next;
+          pending.add(pool.submit(() -> encodeBlock(block, channels, buffers)));
+          next += blockIncr;
+        }
 
-            case FLOAT:
-              bytes.asFloatBuffer().put((FloatBuffer)
-                  ((FloatBuffer) chBuf).duplicate().position(offset).limit(offset + nx));
-              break;
+        IIOByteBuffer buf;
+        try {
+          buf = pending.remove().get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          InterruptedIOException ex = new InterruptedIOException();
+          ex.initCause(e);
+          throw ex;
+        } catch (ExecutionException e) {
+          throw new UnexpectedException(e.getCause());
+        }
 
-            default:
-              throw new UnexpectedException("Invalid pixel type");
-            }
+        blockPtrs[i] = out.getStreamPosition() - start;
+        out.writeInt(dw.getYMin() + i * blockHeight);
+        out.writeInt(buf.getLength());
+        out.write(buf.getData(), buf.getOffset(), buf.getLength());
+      }
+    } finally {
+      /* Only non-empty if writing failed or was interrupted. */
+      for (Future<IIOByteBuffer> future : pending) {
+        future.cancel(true);
+      }
+    }
+
+    out.seek(blockPtrPos);
+    out.writeLongs(blockPtrs, 0, numBlocks);
 
-            bytes.position(bytes.position() + nx * pt.getSampleSize());
+    out.flush();
+    out.close();
+  }
+
+  private IIOByteBuffer encodeBlock(int i, List<Channel> channels, Buffer[] buffers) {
+    CompressionMethod cm = getCompressionMethod();
+    Box2i dw = getDataWindow();
+    int ymin = dw.getYMin();
+    int x0 = dw.getXMin();
+    int x1 = dw.getXMax();
+    int y0 = ymin + i * cm.getScanLinesPerBlock();
+    int y1 = Math.min(y0 + cm.getScanLinesPerBlock() - 1, dw.getYMax());
+    Box2i block = new Box2i(x0, y0, x1, y1);
+    int blockSize = computeTileSize(block);
+
+    byte[] blockData = new byte[blockSize];
+    ByteBuffer bytes = ByteBuffer.wrap(blockData).order(ByteOrder.LITTLE_ENDIAN);
+
+    for (int y = y0; y <= y1; y++) {
+      for (int c = 0; c < buffers.length; c++) {
+        Channel channel = channels.get(c);
+        int sx = channel.getxSampling();
+        int sy = channel.getySampling();
+        if (y % sy == 0) {
+          int nx = 1 + (x1 - x0 - (x1 % sx)) / sx;
+          int offset = ((y - ymin) / sy) * nx;
+          Buffer chBuf = buffers[c];
+          PixelType pt = channel.getPixelType();
+
+          switch (pt) {
+          case UINT:
+            bytes.asIntBuffer().put((IntBuffer)
+                ((IntBuffer) chBuf).duplicate().position(offset).limit(offset + nx));
+            break;
+
+          case HALF:
+            bytes.asShortBuffer().put((ShortBuffer)
+                ((ShortBuffer) chBuf).duplicate().position(offset).limit(offset + nx));
+            break;
+
+          case FLOAT:
+            bytes.asFloatBuffer().put((FloatBuffer)
+                ((FloatBuffer) chBuf).duplicate().position(offset).limit(offset + nx));
+            break;
+
+          default:
+            throw new UnexpectedException("Invalid pixel type");
           }
+
+          bytes.position(bytes.position() + nx * pt.getSampleSize());
         }
       }
+    }
 
+    IIOByteBuffer buf = new IIOByteBuffer(blockData, 0, blockSize);
+    cm.compress(buf, block, getChannelList());
+    if (buf.getLength() >= blockSize) {
       buf.setData(blockData);
       buf.setOffset(0);
       buf.setLength(blockSize);
-      cm.compress(buf, block);
-
-      out.writeInt(y0);
-      if (buf.getLength() < blockSize) {
-        out.writeInt(buf.getLength());
-        out.write(buf.getData(), buf.getOffset(), buf.getLength());
-      } else {
-        out.writeInt(blockSize);
-        out.write(blockData);
-      }
-
-      blockPos = out.getStreamPosition();
     }
-
-    out.flush();
-    out.close();
+    return buf;
   }
 
   public Attribute getAttribute(String name) {
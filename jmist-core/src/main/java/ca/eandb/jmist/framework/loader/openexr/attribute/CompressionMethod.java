@@ -35,16 +35,17 @@ import ca.eandb.jmist.framework.loader.openexr.codec.Codec;
 import ca.eandb.jmist.framework.loader.openexr.codec.FlateCodec;
 import ca.eandb.jmist.framework.loader.openexr.codec.IdentityCodec;
 import ca.eandb.jmist.framework.loader.openexr.codec.PizCodec;
+import ca.eandb.jmist.framework.loader.openexr.codec.RleCodec;
 import ca.eandb.jmist.framework.loader.openexr.codec.UnimplementedCodec;
 
 @OpenEXRAttributeType("compression")
 public enum CompressionMethod implements Attribute {
 
   NONE(0, 1, IdentityCodec.getInstance()),
-  RLE(1, 1, UnimplementedCodec.getInstance()),
+  RLE(1, 1, RleCodec.getInstance()),
   ZIPS(2, 1, FlateCodec.getInstance()),
   ZIP(3, 16, FlateCodec.getInstance()),
-  PIZ(4, 32, new PizCodec()),
+  PIZ(4, 32, PizCodec.getInstance()),
   PXR24(5, 16, UnimplementedCodec.getInstance()),
   B44(6, 32, UnimplementedCodec.getInstance()),
   B44A(7, 32, UnimplementedCodec.getInstance());
@@ -80,12 +81,12 @@ public enum CompressionMethod implements Attribute {
     out.writeByte(key);
   }
 
-  public void compress(IIOByteBuffer buf, Box2i range) {
-    codec.compress(buf, range);
+  public void compress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
+    codec.compress(buf, range, channels);
   }
 
-  public void decompress(IIOByteBuffer buf, Box2i range) {
-    codec.decompress(buf, range);
+  public void decompress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
+    codec.decompress(buf, range, channels);
   }
 
 }
@@ -28,11 +28,12 @@ package ca.eandb.jmist.framework.loader.openexr.codec;
 import javax.imageio.stream.IIOByteBuffer;
 
 import ca.eandb.jmist.framework.loader.openexr.attribute.Box2i;
+import ca.eandb.jmist.framework.loader.openexr.attribute.ChannelList;
 
 public interface Codec {
 
-  void compress(IIOByteBuffer buf, Box2i range);
+  void compress(IIOByteBuffer buf, Box2i range, ChannelList channels);
 
-  void decompress(IIOByteBuffer buf, Box2i range);
+  void decompress(IIOByteBuffer buf, Box2i range, ChannelList channels);
 
 }
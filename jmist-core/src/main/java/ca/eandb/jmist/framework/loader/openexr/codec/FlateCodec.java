@@ -33,6 +33,7 @@ import java.util.zip.InflaterOutputStream;
 import javax.imageio.stream.IIOByteBuffer;
 
 import ca.eandb.jmist.framework.loader.openexr.attribute.Box2i;
+import ca.eandb.jmist.framework.loader.openexr.attribute.ChannelList;
 import ca.eandb.util.UnexpectedException;
 
 public final class FlateCodec implements Codec {
@@ -46,40 +47,12 @@ public final class FlateCodec implements Codec {
   private FlateCodec() {}
 
   @Override
-  public void compress(IIOByteBuffer buf, Box2i range) {
+  public void compress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
     try {
       ByteArrayOutputStream bytes = new ByteArrayOutputStream();
       DeflaterOutputStream inf = new DeflaterOutputStream(bytes);
 
-      int n = buf.getLength();
-      byte[] data = buf.getData();
-      byte[] pred = new byte[n];
-
-      int t1 = 0;
-      int t2 = (n + 1) / 2;
-      int s = buf.getOffset();
-      int stop = s + n;
-
-      while (true) {
-        if (s < stop) {
-          pred[t1++] = data[s++];
-        } else {
-          break;
-        }
-
-        if (s < stop) {
-          pred[t2++] = data[s++];
-        } else {
-          break;
-        }
-      }
-
-      int p = pred[0];
-      for (int i = 1; i < n; i++) {
-        int d = (int) pred[i] - p + (128 + 256);
-        p = pred[i];
-        pred[i] = (byte) d;
-      }
+      byte[] pred = Predictor.encode(buf.getData(), buf.getOffset(), buf.getLength());
 
       inf.write(pred);
       inf.close();
@@ -92,37 +65,15 @@ public final class FlateCodec implements Codec {
   }
 
   @Override
-  public void decompress(IIOByteBuffer buf, Box2i range) {
+  public void decompress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
     try {
       ByteArrayOutputStream bytes = new ByteArrayOutputStream();
       InflaterOutputStream inf = new InflaterOutputStream(bytes);
       inf.write(buf.getData(), buf.getOffset(), buf.getLength());
       inf.close();
 
-      byte[] data = bytes.toByteArray();
-      for (int i = 1, n = bytes.size(); i < n; i++) {
-        data[i] = (byte) (((int) data[i - 1]) + ((int) data[i]) - 128);
-      }
-
       int n = bytes.size();
-      int t1 = 0;
-      int t2 = (n + 1) / 2;
-      int s = 0;
-      byte[] out = new byte[n];
-
-      while (true) {
-        if (s < n) {
-          out[s++] = data[t1++];
-        } else {
-          break;
-        }
-
-        if (s < n) {
-          out[s++] = data[t2++];
-        } else {
-          break;
-        }
-      }
+      byte[] out = Predictor.decode(bytes.toByteArray(), n);
 
       buf.setData(out);
       buf.setOffset(0);
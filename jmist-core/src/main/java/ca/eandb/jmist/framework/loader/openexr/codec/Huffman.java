@@ -0,0 +1,773 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.loader.openexr.codec;
+
+import java.util.Arrays;
+
+import ca.eandb.util.UnexpectedException;
+
+/**
+ * The Huffman coder used by the PIZ compression method.  Symbols are
+ * unsigned 16-bit values.  The code table is transmitted as a list of code
+ * lengths from which a canonical code is reconstructed, and runs of a
+ * repeated symbol are encoded using a pseudo-symbol followed by an 8-bit
+ * repeat count.
+ *
+ * The compressed format consists of a 20 byte header (the minimum and
+ * maximum symbols, the size of the packed table, the number of bits of
+ * encoded data, and a reserved word, all little-endian), followed by the
+ * packed code table and the encoded data.
+ *
+ * @author Brad Kimmel
+ */
+/* package */ final class Huffman {
+
+  /** The number of bits in a symbol. */
+  private static final int ENCBITS = 16;
+
+  /** The number of bits resolved by the primary decoding table. */
+  private static final int DECBITS = 14;
+
+  /** The size of the encoding table (including the run pseudo-symbol). */
+  private static final int ENCSIZE = (1 << ENCBITS) + 1;
+
+  /** The size of the primary decoding table. */
+  private static final int DECSIZE = 1 << DECBITS;
+
+  /** The mask used to index the primary decoding table. */
+  private static final int DECMASK = DECSIZE - 1;
+
+  /** The maximum length of a code, in bits. */
+  private static final int MAX_CODE_LENGTH = 58;
+
+  /** The packed table entry indicating a short run of unused symbols. */
+  private static final int SHORT_ZEROCODE_RUN = 59;
+
+  /** The packed table entry indicating a long run of unused symbols. */
+  private static final int LONG_ZEROCODE_RUN = 63;
+
+  /** The length of the shortest run encoded using LONG_ZEROCODE_RUN. */
+  private static final int SHORTEST_LONG_RUN = 2 + LONG_ZEROCODE_RUN - SHORT_ZEROCODE_RUN;
+
+  /** The length of the longest run encoded using LONG_ZEROCODE_RUN. */
+  private static final int LONGEST_LONG_RUN = 255 + SHORTEST_LONG_RUN;
+
+  /** The size of the header of the compressed data, in bytes. */
+  private static final int HEADER_SIZE = 20;
+
+  /**
+   * Compresses an array of symbols.
+   * @param raw The symbols to compress.
+   * @param n The number of symbols to compress.
+   * @return The compressed data.
+   */
+  public static byte[] compress(char[] raw, int n) {
+    if (n == 0) {
+      return new byte[0];
+    }
+
+    long[] hcode = new long[ENCSIZE];
+    for (int i = 0; i < n; i++) {
+      hcode[raw[i]]++;
+    }
+
+    int im = 0;
+    while (hcode[im] == 0) {
+      im++;
+    }
+    int iM = buildEncodingTable(hcode, im);
+
+    BitWriter out = new BitWriter(HEADER_SIZE + n);
+    out.skip(HEADER_SIZE);
+    packEncodingTable(hcode, im, iM, out);
+    out.align();
+    int tableLength = out.size() - HEADER_SIZE;
+
+    long nBits = encode(hcode, raw, n, iM, out);
+    out.align();
+
+    byte[] result = out.toByteArray();
+    writeInt(result, 0, im);
+    writeInt(result, 4, iM);
+    writeInt(result, 8, tableLength);
+    writeInt(result, 12, (int) nBits);
+    writeInt(result, 16, 0);
+    return result;
+  }
+
+  /**
+   * Decompresses an array of symbols.
+   * @param data The array containing the compressed data.
+   * @param offset The index of the first byte of compressed data.
+   * @param length The length of the compressed data, in bytes.
+   * @param raw The array to write the decompressed symbols to.
+   * @param n The expected number of symbols.
+   */
+  public static void decompress(byte[] data, int offset, int length, char[] raw, int n) {
+    if (length == 0) {
+      if (n != 0) {
+        throw new UnexpectedException("Not enough Huffman data");
+      }
+      return;
+    }
+    if (length < HEADER_SIZE) {
+      throw new UnexpectedException("Truncated Huffman data");
+    }
+
+    int im = readInt(data, offset);
+    int iM = readInt(data, offset + 4);
+    int nBits = readInt(data, offset + 12);
+    if (im < 0 || im >= ENCSIZE || iM < 0 || iM >= ENCSIZE) {
+      throw new UnexpectedException("Invalid Huffman table size");
+    }
+
+    int end = offset + length;
+    BitReader in = new BitReader(data, offset + HEADER_SIZE, end);
+    long[] hcode = new long[ENCSIZE];
+    unpackEncodingTable(in, im, iM, hcode);
+
+    if (nBits < 0 || (long) nBits > 8L * (end - in.pos)) {
+      throw new UnexpectedException("Invalid number of Huffman bits");
+    }
+
+    Decoder decoder = new Decoder(hcode, im, iM);
+    decoder.decode(data, in.pos, nBits, iM, raw, n);
+  }
+
+  /**
+   * Builds a Huffman code from the symbol frequencies.
+   * @param frq On input, the frequency of each symbol.  On output, the code
+   *     for each symbol (see {@link #canonicalCodeTable(long[])}).
+   * @param im The smallest symbol with a non-zero frequency.
+   * @return The run pseudo-symbol (one greater than the largest symbol with
+   *     a non-zero frequency).
+   */
+  private static int buildEncodingTable(long[] frq, int im) {
+    int[] hlink = new int[ENCSIZE];
+    int[] heap = new int[ENCSIZE];
+    int nf = 0;
+    int iM = im;
+
+    for (int i = im; i < ENCSIZE; i++) {
+      hlink[i] = i;
+      if (frq[i] != 0) {
+        heap[nf++] = i;
+        iM = i;
+      }
+    }
+
+    /* Add the pseudo-symbol used for run-length encoding. */
+    iM++;
+    frq[iM] = 1;
+    heap[nf++] = iM;
+
+    for (int i = nf / 2 - 1; i >= 0; i--) {
+      siftDown(heap, nf, i, frq);
+    }
+
+    /* Repeatedly merge the two least frequent nodes, lengthening the codes
+     * of all of the symbols beneath them.  The symbols beneath each node
+     * are kept in a linked list (via hlink) that starts at the node's
+     * representative symbol.
+     */
+    long[] scode = new long[ENCSIZE];
+    while (nf > 1) {
+      int mm = heap[0];
+      heap[0] = heap[--nf];
+      siftDown(heap, nf, 0, frq);
+
+      int m = heap[0];
+      frq[m] += frq[mm];
+      siftDown(heap, nf, 0, frq);
+
+      for (int j = m; ; j = hlink[j]) {
+        scode[j]++;
+        if (hlink[j] == j) {
+          hlink[j] = mm;
+          break;
+        }
+      }
+
+      for (int j = mm; ; j = hlink[j]) {
+        scode[j]++;
+        if (hlink[j] == j) {
+          break;
+        }
+      }
+    }
+
+    canonicalCodeTable(scode);
+    System.arraycopy(scode, 0, frq, 0, ENCSIZE);
+    return iM;
+  }
+
+  /**
+   * Restores the heap property for the subtree rooted at the specified
+   * position of a min-heap of symbols ordered by frequency.
+   * @param heap The heap of symbols.
+   * @param n The number of symbols in the heap.
+   * @param i The position of the root of the subtree.
+   * @param frq The symbol frequencies.
+   */
+  private static void siftDown(int[] heap, int n, int i, long[] frq) {
+    int s = heap[i];
+    long f = frq[s];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= n) {
+        break;
+      }
+      if (child + 1 < n && frq[heap[child + 1]] < frq[heap[child]]) {
+        child++;
+      }
+      if (frq[heap[child]] >= f) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = s;
+  }
+
+  /**
+   * Replaces code lengths with canonical codes.  On output, each non-zero
+   * entry holds the code in bits 6-63 and its length in bits 0-5.  Shorter
+   * codes are numerically higher than longer codes (when padded with zeros
+   * on the right), and codes of the same length increase with the symbol.
+   * @param hcode On input, the length of the code for each symbol.  On
+   *     output, the code for each symbol.
+   */
+  private static void canonicalCodeTable(long[] hcode) {
+    long[] n = new long[MAX_CODE_LENGTH + 1];
+    for (int i = 0; i < ENCSIZE; i++) {
+      n[(int) hcode[i]]++;
+    }
+
+    long c = 0;
+    for (int i = MAX_CODE_LENGTH; i > 0; i--) {
+      long nc = (c + n[i]) >> 1;
+      n[i] = c;
+      c = nc;
+    }
+
+    for (int i = 0; i < ENCSIZE; i++) {
+      int l = (int) hcode[i];
+      if (l > 0) {
+        hcode[i] = l | (n[l]++ << 6);
+      }
+    }
+  }
+
+  /**
+   * Writes the code lengths for the symbols in the specified range.
+   * @param hcode The code table.
+   * @param im The first symbol to write.
+   * @param iM The last symbol to write.
+   * @param out The <code>BitWriter</code> to write to.
+   */
+  private static void packEncodingTable(long[] hcode, int im, int iM, BitWriter out) {
+    for (; im <= iM; im++) {
+      int l = length(hcode[im]);
+
+      if (l == 0) {
+        int zerun = 1;
+        while (im < iM && zerun < LONGEST_LONG_RUN) {
+          if (length(hcode[im + 1]) > 0) {
+            break;
+          }
+          im++;
+          zerun++;
+        }
+
+        if (zerun >= 2) {
+          if (zerun >= SHORTEST_LONG_RUN) {
+            out.write(6, LONG_ZEROCODE_RUN);
+            out.write(8, zerun - SHORTEST_LONG_RUN);
+          } else {
+            out.write(6, SHORT_ZEROCODE_RUN + zerun - 2);
+          }
+          continue;
+        }
+      }
+
+      out.write(6, l);
+    }
+  }
+
+  /**
+   * Reads the code lengths for the symbols in the specified range and
+   * builds the canonical code table.
+   * @param in The <code>BitReader</code> to read from.
+   * @param im The first symbol to read.
+   * @param iM The last symbol to read.
+   * @param hcode The array to write the code table to.
+   */
+  private static void unpackEncodingTable(BitReader in, int im, int iM, long[] hcode) {
+    for (; im <= iM; im++) {
+      long l = hcode[im] = in.read(6);
+
+      if (l == LONG_ZEROCODE_RUN) {
+        int zerun = (int) in.read(8) + SHORTEST_LONG_RUN;
+        if (im + zerun > iM + 1) {
+          throw new UnexpectedException("Huffman table too long");
+        }
+        Arrays.fill(hcode, im, im + zerun, 0L);
+        im += zerun - 1;
+      } else if (l >= SHORT_ZEROCODE_RUN) {
+        int zerun = (int) l - SHORT_ZEROCODE_RUN + 2;
+        if (im + zerun > iM + 1) {
+          throw new UnexpectedException("Huffman table too long");
+        }
+        Arrays.fill(hcode, im, im + zerun, 0L);
+        im += zerun - 1;
+      }
+    }
+    canonicalCodeTable(hcode);
+  }
+
+  /**
+   * Encodes an array of symbols.
+   * @param hcode The code table.
+   * @param in The symbols to encode.
+   * @param n The number of symbols to encode.
+   * @param rlc The run pseudo-symbol.
+   * @param out The <code>BitWriter</code> to write to.
+   * @return The number of bits written.
+   */
+  private static long encode(long[] hcode, char[] in, int n, int rlc, BitWriter out) {
+    long start = out.bitCount();
+    int s = in[0];
+    int cs = 0;
+
+    for (int i = 1; i < n; i++) {
+      if (s == in[i] && cs < 255) {
+        cs++;
+      } else {
+        sendCode(hcode[s], cs, hcode[rlc], out);
+        cs = 0;
+      }
+      s = in[i];
+    }
+    sendCode(hcode[s], cs, hcode[rlc], out);
+
+    return out.bitCount() - start;
+  }
+
+  /**
+   * Writes a symbol followed by a number of repetitions, either explicitly
+   * or using the run pseudo-symbol, whichever is shorter.
+   * @param sCode The code for the symbol.
+   * @param runCount The number of additional repetitions of the symbol.
+   * @param runCode The code for the run pseudo-symbol.
+   * @param out The <code>BitWriter</code> to write to.
+   */
+  private static void sendCode(long sCode, int runCount, long runCode, BitWriter out) {
+    int sl = length(sCode);
+    if (sl + length(runCode) + 8 < sl * runCount) {
+      out.write(sl, code(sCode));
+      out.write(length(runCode), code(runCode));
+      out.write(8, runCount);
+    } else {
+      while (runCount-- >= 0) {
+        out.write(sl, code(sCode));
+      }
+    }
+  }
+
+  /**
+   * Gets the length of a code table entry.
+   * @param code The code table entry.
+   * @return The length of the code, in bits.
+   */
+  private static int length(long code) {
+    return (int) (code & 63);
+  }
+
+  /**
+   * Gets the code from a code table entry.
+   * @param code The code table entry.
+   * @return The code.
+   */
+  private static long code(long code) {
+    return code >>> 6;
+  }
+
+  /**
+   * Writes an integer in little-endian byte order.
+   * @param buf The array to write to.
+   * @param pos The position at which to write.
+   * @param value The value to write.
+   */
+  private static void writeInt(byte[] buf, int pos, int value) {
+    buf[pos] = (byte) value;
+    buf[pos + 1] = (byte) (value >> 8);
+    buf[pos + 2] = (byte) (value >> 16);
+    buf[pos + 3] = (byte) (value >> 24);
+  }
+
+  /**
+   * Reads an integer in little-endian byte order.
+   * @param buf The array to read from.
+   * @param pos The position at which to read.
+   * @return The value read.
+   */
+  private static int readInt(byte[] buf, int pos) {
+    return (buf[pos] & 0xff)
+        | ((buf[pos + 1] & 0xff) << 8)
+        | ((buf[pos + 2] & 0xff) << 16)
+        | ((buf[pos + 3] & 0xff) << 24);
+  }
+
+  /**
+   * Writes a stream of bits, most significant bit first, to a growable
+   * byte array.
+   */
+  private static final class BitWriter {
+
+    /** The bytes written so far. */
+    private byte[] data;
+
+    /** The number of bytes written. */
+    private int pos = 0;
+
+    /** Bits that have not yet been written to <code>data</code>. */
+    private long c = 0;
+
+    /** The number of valid bits in <code>c</code>. */
+    private int lc = 0;
+
+    /**
+     * Creates a new <code>BitWriter</code>.
+     * @param capacity The initial capacity, in bytes.
+     */
+    BitWriter(int capacity) {
+      data = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Writes bits to the stream.
+     * @param nBits The number of bits to write (at most 58).
+     * @param bits The bits to write, in the least significant bits.
+     */
+    void write(int nBits, long bits) {
+      c = (c << nBits) | bits;
+      lc += nBits;
+      while (lc >= 8) {
+        lc -= 8;
+        put((byte) (c >> lc));
+      }
+    }
+
+    /**
+     * Writes any pending bits, padded with zeros to a byte boundary.
+     */
+    void align() {
+      if (lc > 0) {
+        put((byte) (c << (8 - lc)));
+        lc = 0;
+      }
+    }
+
+    /**
+     * Reserves space at the current position (which must be byte aligned).
+     * @param n The number of bytes to skip.
+     */
+    void skip(int n) {
+      for (int i = 0; i < n; i++) {
+        put((byte) 0);
+      }
+    }
+
+    /**
+     * Gets the number of bits written.
+     * @return The number of bits written.
+     */
+    long bitCount() {
+      return 8L * pos + lc;
+    }
+
+    /**
+     * Gets the number of complete bytes written.
+     * @return The number of bytes written.
+     */
+    int size() {
+      return pos;
+    }
+
+    /**
+     * Gets the complete bytes written.
+     * @return A new array containing the bytes written.
+     */
+    byte[] toByteArray() {
+      return Arrays.copyOf(data, pos);
+    }
+
+    /**
+     * Appends a byte.
+     * @param b The byte to append.
+     */
+    private void put(byte b) {
+      if (pos == data.length) {
+        data = Arrays.copyOf(data, 2 * data.length);
+      }
+      data[pos++] = b;
+    }
+
+  }
+
+  /**
+   * Reads a stream of bits, most significant bit first, from a byte array.
+   */
+  private static final class BitReader {
+
+    /** The array to read from. */
+    private final byte[] data;
+
+    /** The position of the next byte to read. */
+    private int pos;
+
+    /** The position following the last byte available. */
+    private final int end;
+
+    /** Bits that have been read from <code>data</code> but not consumed. */
+    private long c = 0;
+
+    /** The number of valid bits in <code>c</code>. */
+    private int lc = 0;
+
+    /**
+     * Creates a new <code>BitReader</code>.
+     * @param data The array to read from.
+     * @param pos The position of the first byte to read.
+     * @param end The position following the last byte available.
+     */
+    BitReader(byte[] data, int pos, int end) {
+      this.data = data;
+      this.pos = pos;
+      this.end = end;
+    }
+
+    /**
+     * Reads bits from the stream.
+     * @param nBits The number of bits to read (at most 32).
+     * @return The bits read.
+     */
+    long read(int nBits) {
+      while (nBits > lc) {
+        if (pos >= end) {
+          throw new UnexpectedException("Truncated Huffman table");
+        }
+        c = (c << 8) | (data[pos++] & 0xff);
+        lc += 8;
+      }
+      lc -= nBits;
+      return (c >> lc) & ((1L << nBits) - 1);
+    }
+
+  }
+
+  /**
+   * Decodes a stream of Huffman codes.  Codes of up to {@link #DECBITS}
+   * bits are resolved by a single lookup in the primary table; longer codes
+   * are resolved by testing each of the candidates sharing the same prefix.
+   */
+  private static final class Decoder {
+
+    /** The code table. */
+    private final long[] hcode;
+
+    /** The length of the short code for each prefix (zero if long). */
+    private final int[] len = new int[DECSIZE];
+
+    /** The symbol for each short prefix, or the number of long codes. */
+    private final int[] lit = new int[DECSIZE];
+
+    /** The symbols with long codes sharing each prefix. */
+    private final int[][] candidates = new int[DECSIZE][];
+
+    /** Bits that have been read but not consumed. */
+    private long c = 0;
+
+    /** The number of valid bits in <code>c</code>. */
+    private int lc = 0;
+
+    /** The position of the next byte to read. */
+    private int in;
+
+    /** The position of the next symbol to write. */
+    private int out;
+
+    /**
+     * Builds the decoding tables.
+     * @param hcode The code table.
+     * @param im The smallest symbol in the code table.
+     * @param iM The largest symbol in the code table.
+     */
+    Decoder(long[] hcode, int im, int iM) {
+      this.hcode = hcode;
+      for (; im <= iM; im++) {
+        long c = code(hcode[im]);
+        int l = length(hcode[im]);
+
+        if ((c >> l) != 0) {
+          throw new UnexpectedException("Invalid Huffman table entry");
+        }
+
+        if (l > DECBITS) {
+          int p = (int) (c >> (l - DECBITS));
+          if (len[p] != 0) {
+            throw new UnexpectedException("Invalid Huffman table entry");
+          }
+          int[] list = candidates[p];
+          list = (list == null) ? new int[1] : Arrays.copyOf(list, list.length + 1);
+          list[list.length - 1] = im;
+          candidates[p] = list;
+          lit[p]++;
+        } else if (l > 0) {
+          int p = (int) (c << (DECBITS - l));
+          for (int i = 1 << (DECBITS - l); i > 0; i--, p++) {
+            if (len[p] != 0 || candidates[p] != null) {
+              throw new UnexpectedException("Invalid Huffman table entry");
+            }
+            len[p] = l;
+            lit[p] = im;
+          }
+        }
+      }
+    }
+
+    /**
+     * Decodes the symbols.
+     * @param data The array containing the encoded data.
+     * @param start The position of the first byte of encoded data.
+     * @param nBits The number of bits of encoded data.
+     * @param rlc The run pseudo-symbol.
+     * @param raw The array to write the decoded symbols to.
+     * @param no The expected number of symbols.
+     */
+    void decode(byte[] data, int start, int nBits, int rlc, char[] raw, int no) {
+      in = start;
+      out = 0;
+      int ie = start + (nBits + 7) / 8;
+
+      while (in < ie) {
+        getChar(data);
+
+        while (lc >= DECBITS) {
+          int p = (int) ((c >> (lc - DECBITS)) & DECMASK);
+          if (len[p] != 0) {
+            lc -= len[p];
+            getCode(lit[p], rlc, data, raw, no);
+          } else {
+            int[] list = candidates[p];
+            if (list == null) {
+              throw new UnexpectedException("Invalid Huffman code");
+            }
+
+            int j;
+            for (j = 0; j < list.length; j++) {
+              long entry = hcode[list[j]];
+              int l = length(entry);
+              while (lc < l && in < ie) {
+                getChar(data);
+              }
+              if (lc >= l && code(entry) == ((c >> (lc - l)) & ((1L << l) - 1))) {
+                lc -= l;
+                getCode(list[j], rlc, data, raw, no);
+                break;
+              }
+            }
+            if (j == list.length) {
+              throw new UnexpectedException("Invalid Huffman code");
+            }
+          }
+        }
+      }
+
+      /* Decode the remaining short codes, discarding the padding bits. */
+      int i = (8 - nBits) & 7;
+      c >>= i;
+      lc -= i;
+
+      while (lc > 0) {
+        int p = (int) ((c << (DECBITS - lc)) & DECMASK);
+        if (len[p] != 0) {
+          lc -= len[p];
+          getCode(lit[p], rlc, data, raw, no);
+        } else {
+          throw new UnexpectedException("Invalid Huffman code");
+        }
+      }
+
+      if (out != no) {
+        throw new UnexpectedException("Not enough Huffman data");
+      }
+    }
+
+    /**
+     * Reads the next byte of encoded data.
+     * @param data The array containing the encoded data.
+     */
+    private void getChar(byte[] data) {
+      c = (c << 8) | (data[in++] & 0xff);
+      lc += 8;
+    }
+
+    /**
+     * Outputs a decoded symbol, expanding runs.
+     * @param po The decoded symbol.
+     * @param rlc The run pseudo-symbol.
+     * @param data The array containing the encoded data.
+     * @param raw The array to write the decoded symbols to.
+     * @param no The expected number of symbols.
+     */
+    private void getCode(int po, int rlc, byte[] data, char[] raw, int no) {
+      if (po == rlc) {
+        if (lc < 8) {
+          getChar(data);
+        }
+        lc -= 8;
+        int cs = (int) ((c >> lc) & 0xff);
+        if (out == 0 || out + cs > no) {
+          throw new UnexpectedException("Too much Huffman data");
+        }
+        char s = raw[out - 1];
+        while (cs-- > 0) {
+          raw[out++] = s;
+        }
+      } else if (out < no) {
+        raw[out++] = (char) po;
+      } else {
+        throw new UnexpectedException("Too much Huffman data");
+      }
+    }
+
+  }
+
+  /** This class contains only static utility methods. */
+  private Huffman() {}
+
+}
@@ -28,6 +28,7 @@ package ca.eandb.jmist.framework.loader.openexr.codec;
 import javax.imageio.stream.IIOByteBuffer;
 
 import ca.eandb.jmist.framework.loader.openexr.attribute.Box2i;
+import ca.eandb.jmist.framework.loader.openexr.attribute.ChannelList;
 
 public final class IdentityCodec implements Codec {
 
@@ -40,12 +41,12 @@ public final class IdentityCodec implements Codec {
   private IdentityCodec() {}
 
   @Override
-  public void compress(IIOByteBuffer buf, Box2i range) {
+  public void compress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
     /* nothing to do. */
   }
 
   @Override
-  public void decompress(IIOByteBuffer buf, Box2i range) {
+  public void decompress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
     /* nothing to do. */
   }
 
@@ -25,23 +25,260 @@
  */
 package ca.eandb.jmist.framework.loader.openexr.codec;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
 import javax.imageio.stream.IIOByteBuffer;
 
 import ca.eandb.jmist.framework.loader.openexr.attribute.Box2i;
-import ca.eandb.util.UnimplementedException;
+import ca.eandb.jmist.framework.loader.openexr.attribute.Channel;
+import ca.eandb.jmist.framework.loader.openexr.attribute.ChannelList;
+import ca.eandb.util.UnexpectedException;
 
+/**
+ * A <code>Codec</code> implementing OpenEXR's PIZ compression method.  The
+ * pixel data is split into 16-bit values (32-bit samples are treated as two
+ * values) and gathered into one plane per channel.  The set of values that
+ * occur is recorded in a bitmap and the values are remapped to a dense
+ * range, each plane is transformed with a Haar wavelet, and the result is
+ * Huffman coded.
+ * @author Brad Kimmel
+ */
 public final class PizCodec implements Codec {
 
+  /** The number of distinct 16-bit values. */
+  private static final int USHORT_RANGE = 1 << 16;
+
+  /** The size of the bitmap of values present, in bytes. */
+  private static final int BITMAP_SIZE = USHORT_RANGE >> 3;
+
+  private static final PizCodec INSTANCE = new PizCodec();
+
+  public static PizCodec getInstance() {
+    return INSTANCE;
+  }
+
+  private PizCodec() {}
+
   @Override
-  public void compress(IIOByteBuffer buf, Box2i range) {
-    // TODO Auto-generated method stub
-    throw new UnimplementedException();
+  public void compress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
+    if (buf.getLength() == 0) {
+      return;
+    }
+
+    Layout layout = new Layout(range, channels);
+    char[] tmp = new char[layout.total];
+    if (buf.getLength() < 2 * layout.total) {
+      throw new UnexpectedException("Undersized block");
+    }
+
+    /* Gather the samples into one plane per channel. */
+    ByteBuffer in = ByteBuffer.wrap(buf.getData(), buf.getOffset(), buf.getLength())
+        .order(ByteOrder.LITTLE_ENDIAN);
+    int[] end = layout.start.clone();
+    for (int y = range.getYMin(); y <= range.getYMax(); y++) {
+      for (int c = 0; c < layout.numChannels; c++) {
+        if (Math.floorMod(y, layout.ys[c]) != 0) {
+          continue;
+        }
+        for (int x = layout.nx[c] * layout.size[c]; x > 0; x--) {
+          tmp[end[c]++] = in.getChar();
+        }
+      }
+    }
+
+    /* Record which values are present and remap them to a dense range.
+     * Zero is always assumed to be present and is not stored.
+     */
+    byte[] bitmap = new byte[BITMAP_SIZE];
+    for (char value : tmp) {
+      bitmap[value >> 3] |= (1 << (value & 7));
+    }
+    bitmap[0] &= ~1;
+
+    int minNonZero = BITMAP_SIZE - 1;
+    int maxNonZero = 0;
+    for (int i = 0; i < BITMAP_SIZE; i++) {
+      if (bitmap[i] != 0) {
+        minNonZero = Math.min(minNonZero, i);
+        maxNonZero = Math.max(maxNonZero, i);
+      }
+    }
+
+    char[] lut = new char[USHORT_RANGE];
+    int k = 0;
+    for (int i = 0; i < USHORT_RANGE; i++) {
+      if (i == 0 || (bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+        lut[i] = (char) k++;
+      }
+    }
+    int maxValue = k - 1;
+
+    for (int i = 0; i < tmp.length; i++) {
+      tmp[i] = lut[tmp[i]];
+    }
+
+    for (int c = 0; c < layout.numChannels; c++) {
+      for (int j = 0; j < layout.size[c]; j++) {
+        Wavelet.encode(tmp, layout.start[c] + j, layout.nx[c], layout.size[c],
+            layout.ny[c], layout.nx[c] * layout.size[c], maxValue);
+      }
+    }
+
+    byte[] huf = Huffman.compress(tmp, tmp.length);
+
+    int bitmapLength = (minNonZero <= maxNonZero) ? maxNonZero - minNonZero + 1 : 0;
+    ByteBuffer out = ByteBuffer.allocate(8 + bitmapLength + huf.length)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    out.putShort((short) minNonZero);
+    out.putShort((short) maxNonZero);
+    out.put(bitmap, minNonZero, bitmapLength);
+    out.putInt(huf.length);
+    out.put(huf);
+
+    buf.setData(out.array());
+    buf.setOffset(0);
+    buf.setLength(out.position());
   }
 
   @Override
-  public void decompress(IIOByteBuffer buf, Box2i range) {
-    // TODO Auto-generated method stub
-    throw new UnimplementedException();
+  public void decompress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
+    if (buf.getLength() == 0) {
+      return;
+    }
+
+    Layout layout = new Layout(range, channels);
+    ByteBuffer in = ByteBuffer.wrap(buf.getData(), buf.getOffset(), buf.getLength())
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    int minNonZero = in.getChar();
+    int maxNonZero = in.getChar();
+    if (maxNonZero >= BITMAP_SIZE) {
+      throw new UnexpectedException("Invalid bitmap size");
+    }
+
+    byte[] bitmap = new byte[BITMAP_SIZE];
+    if (minNonZero <= maxNonZero) {
+      in.get(bitmap, minNonZero, maxNonZero - minNonZero + 1);
+    }
+
+    char[] lut = new char[USHORT_RANGE];
+    int k = 0;
+    for (int i = 0; i < USHORT_RANGE; i++) {
+      if (i == 0 || (bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+        lut[k++] = (char) i;
+      }
+    }
+    int maxValue = k - 1;
+
+    int length = in.getInt();
+    if (length < 0 || length > in.remaining()) {
+      throw new UnexpectedException("Truncated PIZ data");
+    }
+
+    char[] tmp = new char[layout.total];
+    Huffman.decompress(in.array(), in.arrayOffset() + in.position(), length,
+        tmp, tmp.length);
+
+    for (int c = 0; c < layout.numChannels; c++) {
+      for (int j = 0; j < layout.size[c]; j++) {
+        Wavelet.decode(tmp, layout.start[c] + j, layout.nx[c], layout.size[c],
+            layout.ny[c], layout.nx[c] * layout.size[c], maxValue);
+      }
+    }
+
+    for (int i = 0; i < tmp.length; i++) {
+      tmp[i] = lut[tmp[i]];
+    }
+
+    /* Scatter the planes back into scan line order. */
+    ByteBuffer out = ByteBuffer.allocate(2 * layout.total)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    int[] end = layout.start.clone();
+    for (int y = range.getYMin(); y <= range.getYMax(); y++) {
+      for (int c = 0; c < layout.numChannels; c++) {
+        if (Math.floorMod(y, layout.ys[c]) != 0) {
+          continue;
+        }
+        for (int x = layout.nx[c] * layout.size[c]; x > 0; x--) {
+          out.putChar(tmp[end[c]++]);
+        }
+      }
+    }
+
+    buf.setData(out.array());
+    buf.setOffset(0);
+    buf.setLength(out.position());
+  }
+
+  /**
+   * The arrangement of the per-channel planes of 16-bit values for a block.
+   */
+  private static final class Layout {
+
+    /** The number of channels. */
+    final int numChannels;
+
+    /** The index of the first value of each channel's plane. */
+    final int[] start;
+
+    /** The number of samples in each row of each channel. */
+    final int[] nx;
+
+    /** The number of rows of each channel. */
+    final int[] ny;
+
+    /** The vertical sampling rate of each channel. */
+    final int[] ys;
+
+    /** The number of 16-bit values per sample of each channel. */
+    final int[] size;
+
+    /** The total number of 16-bit values. */
+    final int total;
+
+    /**
+     * Computes the layout for a block.
+     * @param range The bounds of the block.
+     * @param channels The channels in the image.
+     */
+    Layout(Box2i range, ChannelList channels) {
+      List<Channel> list = channels.channels();
+      numChannels = list.size();
+      start = new int[numChannels];
+      nx = new int[numChannels];
+      ny = new int[numChannels];
+      ys = new int[numChannels];
+      size = new int[numChannels];
+
+      int n = 0;
+      for (int c = 0; c < numChannels; c++) {
+        Channel channel = list.get(c);
+        start[c] = n;
+        nx[c] = numSamples(channel.getxSampling(), range.getXMin(), range.getXMax());
+        ny[c] = numSamples(channel.getySampling(), range.getYMin(), range.getYMax());
+        ys[c] = channel.getySampling();
+        size[c] = channel.getPixelType().getSampleSize() / 2;
+        n += nx[c] * ny[c] * size[c];
+      }
+      total = n;
+    }
+
+    /**
+     * Computes the number of samples of a subsampled channel in a range.
+     * @param s The sampling rate.
+     * @param a The first coordinate of the range.
+     * @param b The last coordinate of the range.
+     * @return The number of multiples of <code>s</code> in
+     *     <code>[a, b]</code>.
+     */
+    private static int numSamples(int s, int a, int b) {
+      int a1 = Math.floorDiv(a, s);
+      int b1 = Math.floorDiv(b, s);
+      return b1 - a1 + ((a1 * s < a) ? 0 : 1);
+    }
+
   }
 
 }
@@ -0,0 +1,117 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.loader.openexr.codec;
+
+/**
+ * The byte reordering and delta predictor shared by the ZIP and RLE
+ * compression methods.  Encoding splits the bytes at odd and even positions
+ * into two halves and then replaces each byte with its difference from the
+ * previous one, which tends to produce long runs of similar values for
+ * smooth images.
+ * @author Brad Kimmel
+ */
+/* package */ final class Predictor {
+
+  /**
+   * Reorders and applies the predictor to a range of bytes.
+   * @param data The array containing the bytes to encode.
+   * @param offset The index of the first byte to encode.
+   * @param n The number of bytes to encode.
+   * @return A new array containing the encoded bytes.
+   */
+  public static byte[] encode(byte[] data, int offset, int n) {
+    byte[] pred = new byte[n];
+
+    int t1 = 0;
+    int t2 = (n + 1) / 2;
+    int s = offset;
+    int stop = s + n;
+
+    while (true) {
+      if (s < stop) {
+        pred[t1++] = data[s++];
+      } else {
+        break;
+      }
+
+      if (s < stop) {
+        pred[t2++] = data[s++];
+      } else {
+        break;
+      }
+    }
+
+    if (n > 0) {
+      int p = pred[0];
+      for (int i = 1; i < n; i++) {
+        int d = (int) pred[i] - p + (128 + 256);
+        p = pred[i];
+        pred[i] = (byte) d;
+      }
+    }
+
+    return pred;
+  }
+
+  /**
+   * Reverses the predictor and reordering applied by
+   * {@link #encode(byte[], int, int)}.  The contents of <code>data</code>
+   * are destroyed.
+   * @param data The array containing the encoded bytes.
+   * @param n The number of bytes to decode.
+   * @return A new array containing the decoded bytes.
+   */
+  public static byte[] decode(byte[] data, int n) {
+    for (int i = 1; i < n; i++) {
+      data[i] = (byte) (((int) data[i - 1]) + ((int) data[i]) - 128);
+    }
+
+    int t1 = 0;
+    int t2 = (n + 1) / 2;
+    int s = 0;
+    byte[] out = new byte[n];
+
+    while (true) {
+      if (s < n) {
+        out[s++] = data[t1++];
+      } else {
+        break;
+      }
+
+      if (s < n) {
+        out[s++] = data[t2++];
+      } else {
+        break;
+      }
+    }
+
+    return out;
+  }
+
+  /** This class contains only static utility methods. */
+  private Predictor() {}
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.loader.openexr.codec;
+
+import java.util.Arrays;
+
+import javax.imageio.stream.IIOByteBuffer;
+
+import ca.eandb.jmist.framework.loader.openexr.attribute.Box2i;
+import ca.eandb.jmist.framework.loader.openexr.attribute.ChannelList;
+import ca.eandb.util.UnexpectedException;
+
+/**
+ * A <code>Codec</code> implementing OpenEXR's RLE compression method.  The
+ * data is reordered and differenced as for ZIP compression, and the result
+ * is run-length encoded.  Each run begins with a signed count byte: a
+ * non-negative count <code>n</code> is followed by a single byte to be
+ * repeated <code>n + 1</code> times, and a negative count <code>-n</code>
+ * is followed by <code>n</code> literal bytes.
+ * @author Brad Kimmel
+ */
+public final class RleCodec implements Codec {
+
+  /** The minimum length of a run that is worth encoding as a repeat. */
+  private static final int MIN_RUN_LENGTH = 3;
+
+  /** The maximum length of a run. */
+  private static final int MAX_RUN_LENGTH = 127;
+
+  private static final RleCodec INSTANCE = new RleCodec();
+
+  public static RleCodec getInstance() {
+    return INSTANCE;
+  }
+
+  private RleCodec() {}
+
+  @Override
+  public void compress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
+    int n = buf.getLength();
+    byte[] in = Predictor.encode(buf.getData(), buf.getOffset(), n);
+    byte[] out = new byte[n + n / MAX_RUN_LENGTH + 2];
+    int pos = 0;
+
+    int runStart = 0;
+    int runEnd = 1;
+    while (runStart < n) {
+      while (runEnd < n && in[runStart] == in[runEnd]
+          && runEnd - runStart - 1 < MAX_RUN_LENGTH) {
+        runEnd++;
+      }
+
+      if (runEnd - runStart >= MIN_RUN_LENGTH) {
+        out[pos++] = (byte) (runEnd - runStart - 1);
+        out[pos++] = in[runStart];
+        runStart = runEnd;
+      } else {
+        while (runEnd < n
+            && ((runEnd + 1 >= n || in[runEnd] != in[runEnd + 1])
+                || (runEnd + 2 >= n || in[runEnd + 1] != in[runEnd + 2]))
+            && runEnd - runStart < MAX_RUN_LENGTH) {
+          runEnd++;
+        }
+        out[pos++] = (byte) (runStart - runEnd);
+        System.arraycopy(in, runStart, out, pos, runEnd - runStart);
+        pos += runEnd - runStart;
+        runStart = runEnd;
+      }
+
+      runEnd++;
+    }
+
+    buf.setData(out);
+    buf.setOffset(0);
+    buf.setLength(pos);
+  }
+
+  @Override
+  public void decompress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
+    byte[] in = buf.getData();
+    int pos = buf.getOffset();
+    int end = pos + buf.getLength();
+    byte[] out = new byte[Math.max(4 * buf.getLength(), 16)];
+    int n = 0;
+
+    while (pos < end) {
+      int count = in[pos++];
+      if (count < 0) {
+        count = -count;
+        if (pos + count > end) {
+          throw new UnexpectedException("Truncated RLE data");
+        }
+        out = ensureCapacity(out, n + count);
+        System.arraycopy(in, pos, out, n, count);
+        pos += count;
+        n += count;
+      } else {
+        if (pos >= end) {
+          throw new UnexpectedException("Truncated RLE data");
+        }
+        out = ensureCapacity(out, n + count + 1);
+        Arrays.fill(out, n, n + count + 1, in[pos++]);
+        n += count + 1;
+      }
+    }
+
+    buf.setData(Predictor.decode(out, n));
+    buf.setOffset(0);
+    buf.setLength(n);
+  }
+
+  /**
+   * Ensures that an array has at least the specified length.
+   * @param array The array.
+   * @param length The required length.
+   * @return <code>array</code>, or a larger copy of it.
+   */
+  private static byte[] ensureCapacity(byte[] array, int length) {
+    return (length <= array.length) ? array
+        : Arrays.copyOf(array, Math.max(length, 2 * array.length));
+  }
+
+}
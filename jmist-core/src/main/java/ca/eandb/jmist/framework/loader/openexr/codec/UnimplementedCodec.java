@@ -28,6 +28,7 @@ package ca.eandb.jmist.framework.loader.openexr.codec;
 import javax.imageio.stream.IIOByteBuffer;
 
 import ca.eandb.jmist.framework.loader.openexr.attribute.Box2i;
+import ca.eandb.jmist.framework.loader.openexr.attribute.ChannelList;
 import ca.eandb.util.UnimplementedException;
 
 public final class UnimplementedCodec implements Codec {
@@ -41,12 +42,12 @@ public final class UnimplementedCodec implements Codec {
   private UnimplementedCodec() {}
 
   @Override
-  public void compress(IIOByteBuffer buf, Box2i range) {
+  public void compress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
     throw new UnimplementedException("Unimplemented codec");
   }
 
   @Override
-  public void decompress(IIOByteBuffer buf, Box2i range) {
+  public void decompress(IIOByteBuffer buf, Box2i range, ChannelList channels) {
     throw new UnimplementedException("Unimplemented codec");
   }
 
@@ -0,0 +1,244 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.loader.openexr.codec;
+
+/**
+ * The two-dimensional Haar wavelet transform used by the PIZ compression
+ * method.  Values are treated as unsigned 16-bit integers.  If all values
+ * are less than <code>2<sup>14</sup></code>, a transform on signed 16-bit
+ * integers is used that is slightly more compressible; otherwise a modulo
+ * 2<sup>16</sup> variant is used that is lossless for all inputs.
+ * @author Brad Kimmel
+ */
+/* package */ final class Wavelet {
+
+  /** The number of bits in a value. */
+  private static final int NBITS = 16;
+
+  /** The offset applied to the first value of a pair (16-bit variant). */
+  private static final int A_OFFSET = 1 << (NBITS - 1);
+
+  /** The offset applied to the mean of a pair (16-bit variant). */
+  private static final int M_OFFSET = 1 << (NBITS - 1);
+
+  /** The mask to apply for arithmetic modulo 2<sup>16</sup>. */
+  private static final int MOD_MASK = (1 << NBITS) - 1;
+
+  /**
+   * Applies the forward transform to a two-dimensional array of values.
+   * @param in The array containing the values to transform.
+   * @param base The index of the first value.
+   * @param nx The number of columns.
+   * @param ox The distance between adjacent columns.
+   * @param ny The number of rows.
+   * @param oy The distance between adjacent rows.
+   * @param mx The maximum value in the array.
+   */
+  public static void encode(char[] in, int base, int nx, int ox, int ny, int oy, int mx) {
+    boolean w14 = (mx < (1 << 14));
+    int n = Math.min(nx, ny);
+    int p = 1;
+    int p2 = 2;
+
+    while (p2 <= n) {
+      int py = base;
+      int ey = base + oy * (ny - p2);
+      int oy1 = oy * p;
+      int oy2 = oy * p2;
+      int ox1 = ox * p;
+      int ox2 = ox * p2;
+
+      for (; py <= ey; py += oy2) {
+        int px = py;
+        int ex = py + ox * (nx - p2);
+
+        for (; px <= ex; px += ox2) {
+          int p01 = px + ox1;
+          int p10 = px + oy1;
+          int p11 = p10 + ox1;
+
+          int r0 = encode(w14, in[px], in[p01]);
+          int r1 = encode(w14, in[p10], in[p11]);
+          int r2 = encode(w14, r0 >>> 16, r1 >>> 16);
+          int r3 = encode(w14, r0 & 0xffff, r1 & 0xffff);
+          in[px] = (char) (r2 >>> 16);
+          in[p10] = (char) r2;
+          in[p01] = (char) (r3 >>> 16);
+          in[p11] = (char) r3;
+        }
+
+        if ((nx & p) != 0) {
+          int p10 = px + oy1;
+          int r = encode(w14, in[px], in[p10]);
+          in[px] = (char) (r >>> 16);
+          in[p10] = (char) r;
+        }
+      }
+
+      if ((ny & p) != 0) {
+        int px = py;
+        int ex = py + ox * (nx - p2);
+        for (; px <= ex; px += ox2) {
+          int p01 = px + ox1;
+          int r = encode(w14, in[px], in[p01]);
+          in[px] = (char) (r >>> 16);
+          in[p01] = (char) r;
+        }
+      }
+
+      p = p2;
+      p2 <<= 1;
+    }
+  }
+
+  /**
+   * Applies the inverse transform to a two-dimensional array of values.
+   * @param in The array containing the values to transform.
+   * @param base The index of the first value.
+   * @param nx The number of columns.
+   * @param ox The distance between adjacent columns.
+   * @param ny The number of rows.
+   * @param oy The distance between adjacent rows.
+   * @param mx The maximum value in the original (untransformed) array.
+   */
+  public static void decode(char[] in, int base, int nx, int ox, int ny, int oy, int mx) {
+    boolean w14 = (mx < (1 << 14));
+    int n = Math.min(nx, ny);
+    int p = 1;
+
+    while (p <= n) {
+      p <<= 1;
+    }
+    p >>= 1;
+    int p2 = p;
+    p >>= 1;
+
+    while (p >= 1) {
+      int py = base;
+      int ey = base + oy * (ny - p2);
+      int oy1 = oy * p;
+      int oy2 = oy * p2;
+      int ox1 = ox * p;
+      int ox2 = ox * p2;
+
+      for (; py <= ey; py += oy2) {
+        int px = py;
+        int ex = py + ox * (nx - p2);
+
+        for (; px <= ex; px += ox2) {
+          int p01 = px + ox1;
+          int p10 = px + oy1;
+          int p11 = p10 + ox1;
+
+          int r0 = decode(w14, in[px], in[p10]);
+          int r1 = decode(w14, in[p01], in[p11]);
+          int r2 = decode(w14, r0 >>> 16, r1 >>> 16);
+          int r3 = decode(w14, r0 & 0xffff, r1 & 0xffff);
+          in[px] = (char) (r2 >>> 16);
+          in[p01] = (char) r2;
+          in[p10] = (char) (r3 >>> 16);
+          in[p11] = (char) r3;
+        }
+
+        if ((nx & p) != 0) {
+          int p10 = px + oy1;
+          int r = decode(w14, in[px], in[p10]);
+          in[px] = (char) (r >>> 16);
+          in[p10] = (char) r;
+        }
+      }
+
+      if ((ny & p) != 0) {
+        int px = py;
+        int ex = py + ox * (nx - p2);
+        for (; px <= ex; px += ox2) {
+          int p01 = px + ox1;
+          int r = decode(w14, in[px], in[p01]);
+          in[px] = (char) (r >>> 16);
+          in[p01] = (char) r;
+        }
+      }
+
+      p2 = p;
+      p >>= 1;
+    }
+  }
+
+  /**
+   * Transforms a pair of values.
+   * @param w14 A value indicating whether to use the 14-bit variant.
+   * @param a The first value.
+   * @param b The second value.
+   * @return The low-pass value in the upper 16 bits and the high-pass value
+   *     in the lower 16 bits.
+   */
+  private static int encode(boolean w14, int a, int b) {
+    int l, h;
+    if (w14) {
+      short as = (short) a;
+      short bs = (short) b;
+      l = ((as + bs) >> 1) & MOD_MASK;
+      h = (as - bs) & MOD_MASK;
+    } else {
+      int ao = (a + A_OFFSET) & MOD_MASK;
+      int m = (ao + b) >> 1;
+      int d = ao - b;
+      if (d < 0) {
+        m = (m + M_OFFSET) & MOD_MASK;
+      }
+      l = m & MOD_MASK;
+      h = d & MOD_MASK;
+    }
+    return (l << 16) | h;
+  }
+
+  /**
+   * Reverses the transform of a pair of values.
+   * @param w14 A value indicating whether to use the 14-bit variant.
+   * @param l The low-pass value.
+   * @param h The high-pass value.
+   * @return The first value in the upper 16 bits and the second value in
+   *     the lower 16 bits.
+   */
+  private static int decode(boolean w14, int l, int h) {
+    int a, b;
+    if (w14) {
+      short ls = (short) l;
+      int hi = (short) h;
+      int ai = ls + (hi & 1) + (hi >> 1);
+      a = ai & MOD_MASK;
+      b = (ai - hi) & MOD_MASK;
+    } else {
+      b = (l - (h >> 1)) & MOD_MASK;
+      a = (h + b - A_OFFSET) & MOD_MASK;
+    }
+    return (a << 16) | b;
+  }
+
+  /** This class contains only static utility methods. */
+  private Wavelet() {}
+
+}
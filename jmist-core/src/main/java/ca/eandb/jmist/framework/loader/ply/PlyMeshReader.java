@@ -0,0 +1,1009 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.loader.ply;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ca.eandb.jmist.framework.SceneElement;
+import ca.eandb.jmist.framework.geometry.mesh.BufferMesh;
+import ca.eandb.jmist.framework.geometry.mesh.IndexFormat;
+import ca.eandb.jmist.framework.geometry.mesh.MeshGeometry;
+import ca.eandb.jmist.framework.geometry.mesh.Point2Format;
+import ca.eandb.jmist.framework.geometry.mesh.Point3Format;
+import ca.eandb.jmist.framework.geometry.mesh.Vector3Format;
+import ca.eandb.jmist.framework.scene.MergeSceneElement;
+
+/**
+ * Reads a binary PLY-file directly into <code>BufferMesh</code>es.  Unlike
+ * <code>PlyReader</code>, no objects are created per element.  The vertex
+ * section of the file is memory-mapped and, when the position, normal and
+ * texture coordinate properties are stored as contiguous <code>float</code>
+ * or <code>double</code> triples (pairs for texture coordinates), the mesh
+ * reads them straight out of the mapped file.  Otherwise the vertex data is
+ * compacted into a direct buffer of doubles.  Face lists are variable length
+ * records, so the face section is scanned through a sliding mapped window
+ * and the vertex indices are copied into direct buffers of
+ * <code>int</code>s.
+ *
+ * A <code>BufferMesh</code> cannot address more than 2GB in any one
+ * buffer, so large files are split into several meshes (parts), each
+ * holding a contiguous range of the faces.  If the vertex data fits in a
+ * single buffer, it is shared by all parts.  Otherwise, each part gets a
+ * copy of just the vertices that its faces reference.
+ *
+ * Only the <code>binary_little_endian</code> and
+ * <code>binary_big_endian</code> formats are supported.  Use
+ * <code>PlyReader</code> for ASCII files.
+ *
+ * @see PlyReader
+ * @see <a href="http://paulbourke.net/dataformats/ply/">PLY - Polygon File Format</a>
+ * @author Brad Kimmel
+ */
+public final class PlyMeshReader {
+
+  /** The latest version of the PLY format supported. */
+  private static final String PLY_VERSION = "1.0";
+
+  /** The maximum number of bytes to map at a time when scanning faces. */
+  private static final long WINDOW_SIZE = 1L << 28;
+
+  /** The maximum size of the header. */
+  private static final int MAX_HEADER_SIZE = 1 << 16;
+
+  /** The names of the vertex position properties. */
+  private static final String[] COORD_PROPERTIES = { "x", "y", "z" };
+
+  /** The names of the vertex normal properties. */
+  private static final String[] NORMAL_PROPERTIES = { "nx", "ny", "nz" };
+
+  /** The alternative names of the texture coordinate properties. */
+  private static final String[][] UV_PROPERTIES = {
+      { "u", "v" }, { "s", "t" }, { "texture_u", "texture_v" } };
+
+  /** The size of an <code>int</code>, in bytes. */
+  private static final int INT_SIZE = Integer.SIZE / 8;
+
+  /** The size of a <code>double</code>, in bytes. */
+  private static final int DOUBLE_SIZE = Double.SIZE / 8;
+
+  /** The alternative names of the face vertex index list property. */
+  private static final String[] VERTEX_INDEX_PROPERTIES = {
+      "vertex_indices", "vertex_index" };
+
+  /** The maximum size of any buffer of a part, in bytes. */
+  private final int maxBufferSize;
+
+  /** Creates a new <code>PlyMeshReader</code>. */
+  public PlyMeshReader() {
+    this(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates a new <code>PlyMeshReader</code> that limits the size of the
+   * buffers of each part.  This constructor is internal to this package
+   * (it allows small meshes to be split into parts for testing).
+   * @param maxBufferSize The maximum size of any buffer of a part, in
+   *     bytes.
+   */
+  PlyMeshReader(int maxBufferSize) {
+    this.maxBufferSize = maxBufferSize;
+  }
+
+  /**
+   * Reads the PLY-file at the specified file into a
+   * <code>SceneElement</code>.
+   * @param file The <code>File</code> containing the PLY data.
+   * @return A <code>MeshGeometry</code>, or a <code>MergeSceneElement</code>
+   *     of <code>MeshGeometry</code>s if the mesh was split into parts.
+   * @throws IOException If an error occurs while reading from the specified
+   *     file.
+   */
+  public SceneElement createSceneElement(File file) throws IOException {
+    List<BufferMesh> parts = read(file);
+    if (parts.size() == 1) {
+      return new MeshGeometry(parts.get(0));
+    }
+    MergeSceneElement merge = new MergeSceneElement();
+    for (BufferMesh part : parts) {
+      merge.addChild(new MeshGeometry(part));
+    }
+    return merge;
+  }
+
+  /**
+   * Reads the PLY-file at the specified file.
+   * @param file The <code>File</code> containing the PLY data.
+   * @return The parts of the mesh.  Together, the parts hold the faces of
+   *     the file in order.
+   * @throws IOException If an error occurs while reading from the specified
+   *     file.
+   */
+  public List<BufferMesh> read(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.READ)) {
+      return read(channel);
+    }
+  }
+
+  /**
+   * Reads a PLY-file from the specified <code>FileChannel</code>.  The
+   * returned meshes remain valid after the channel is closed.
+   * @param channel The <code>FileChannel</code> to read the PLY data from.
+   * @return The parts of the mesh.  Together, the parts hold the faces of
+   *     the file in order.
+   * @throws IOException If an error occurs while reading from the channel.
+   */
+  public List<BufferMesh> read(FileChannel channel) throws IOException {
+    long size = channel.size();
+    ByteBuffer headerBuffer = channel.map(MapMode.READ_ONLY, 0,
+        Math.min(size, MAX_HEADER_SIZE));
+
+    List<ElementDescriptor> elements = new ArrayList<>();
+    ByteOrder order = readHeader(headerBuffer, elements);
+
+    ElementDescriptor vertexElement = null;
+    ElementDescriptor faceElement = null;
+    long vertexStart = -1;
+    long faceStart = -1;
+    long position = headerBuffer.position();
+
+    for (ElementDescriptor element : elements) {
+      switch (element.getName()) {
+      case "vertex":
+        vertexElement = element;
+        vertexStart = position;
+        break;
+      case "face":
+        faceElement = element;
+        faceStart = position;
+        break;
+      default: /* nothing to do. */
+      }
+      if (vertexElement != null && faceElement != null) {
+        break;
+      }
+      position = skipSection(channel, order, position, element);
+    }
+
+    if (vertexElement == null || faceElement == null) {
+      throw new RuntimeException("PLY-file must contain vertex and face elements");
+    }
+
+    Vertices vertices = new Vertices(channel, order, vertexStart,
+        vertexElement, maxBufferSize);
+    return readFaces(channel, order, faceStart, faceElement, vertices);
+  }
+
+  /**
+   * Parses the PLY header.
+   * @param buffer The <code>ByteBuffer</code> containing the start of the
+   *     file.  On return, the buffer is positioned at the start of the data.
+   * @param elements The <code>List</code> to add the element descriptors to.
+   * @return The <code>ByteOrder</code> of the data.
+   */
+  private ByteOrder readHeader(ByteBuffer buffer, List<ElementDescriptor> elements) {
+    List<PropertyDescriptor> properties = null;
+    ByteOrder order = null;
+    int lineNumber = 0;
+
+    while (true) {
+      lineNumber++;
+      String line = readLine(buffer, lineNumber).trim();
+      if (line.isEmpty()) {
+        continue;
+      }
+
+      String args[] = line.split("\\s+");
+
+      if (lineNumber == 1) {
+        if (!args[0].equals("ply")) {
+          throw new RuntimeException(
+              "File format indicator missing, is this a PLY file?");
+        }
+        continue;
+      }
+
+      switch (args[0].toLowerCase()) {
+
+      case "format":
+        checkArgs(args, 2);
+        if (args[2].compareTo(PLY_VERSION) > 0) {
+          throw new RuntimeException(String.format(
+              "Unsupported PLY version (%s)", args[2]));
+        }
+        switch (args[1].toLowerCase()) {
+        case "binary_little_endian":
+          order = ByteOrder.LITTLE_ENDIAN;
+          break;
+        case "binary_big_endian":
+          order = ByteOrder.BIG_ENDIAN;
+          break;
+        default:
+          throw new RuntimeException(String.format(
+              "Unsupported format (%s), use PlyReader instead", args[1]));
+        }
+        break;
+
+      case "comment":
+      case "obj_info":
+        /* nothing to do. */
+        break;
+
+      case "element":
+        checkArgs(args, 2);
+        properties = new ArrayList<>();
+        elements.add(new ElementDescriptor(args[1],
+            Integer.valueOf(args[2]), properties));
+        break;
+
+      case "property":
+        if (properties == null) {
+          throw new RuntimeException(String.format(
+              "Element command required before property on line %d",
+              lineNumber));
+        }
+        if (args.length > 1 && args[1].toLowerCase().equals("list")) {
+          checkArgs(args, 4);
+          properties.add(PropertyDescriptor.list(args[4],
+              PlyDataType.fromString(args[2]),
+              PlyDataType.fromString(args[3])));
+        } else {
+          checkArgs(args, 2);
+          properties.add(PropertyDescriptor.singleton(args[2],
+              PlyDataType.fromString(args[1])));
+        }
+        break;
+
+      case "end_header":
+        if (order == null) {
+          throw new RuntimeException("Format not specified");
+        }
+        return order;
+
+      default:
+        throw new RuntimeException(String.format(
+            "Unrecognized command (%s) on line %d", args[0], lineNumber));
+      }
+    }
+  }
+
+  /**
+   * Reads a line of the header.
+   * @param buffer The <code>ByteBuffer</code> to read from.
+   * @param lineNumber The current line number (for error reporting).
+   * @return The line, excluding the line terminator.
+   */
+  private String readLine(ByteBuffer buffer, int lineNumber) {
+    int start = buffer.position();
+    while (buffer.hasRemaining()) {
+      if (buffer.get() == '\n') {
+        byte[] line = new byte[buffer.position() - start - 1];
+        buffer.position(start);
+        buffer.get(line);
+        buffer.get();
+        return new String(line, StandardCharsets.US_ASCII);
+      }
+    }
+    throw new RuntimeException(String.format(
+        "Unexpected end of header at line %d", lineNumber));
+  }
+
+  /**
+   * Ensure the provided header command has the specified number of
+   * parameters.
+   * @param args The tokens in the header command (including the keyword).
+   * @param count The expected number of arguments (excluding the keyword).
+   */
+  private void checkArgs(String[] args, int count) {
+    if (args.length - 1 != count) {
+      throw new RuntimeException(String.format(
+          "Unexpected number of arguments for %s (expected %d, got %d)",
+          args[0], count, args.length - 1));
+    }
+  }
+
+  /**
+   * Gets the size of an element that has no list properties.
+   * @param element The <code>ElementDescriptor</code>.
+   * @return The size of the element, in bytes, or <code>-1</code> if the
+   *     element has list properties.
+   */
+  private static int getFixedSize(ElementDescriptor element) {
+    int size = 0;
+    for (PropertyDescriptor property : element.getProperties()) {
+      if (property.isList()) {
+        return -1;
+      }
+      size += property.getDataType().getSize();
+    }
+    return size;
+  }
+
+  /**
+   * Determines the position of the end of a section.
+   * @param channel The <code>FileChannel</code> to read from.
+   * @param order The <code>ByteOrder</code> of the data.
+   * @param start The position of the start of the section.
+   * @param element The <code>ElementDescriptor</code> for the section.
+   * @return The position of the end of the section.
+   * @throws IOException If an error occurs while reading from the channel.
+   */
+  private static long skipSection(FileChannel channel, ByteOrder order,
+      long start, ElementDescriptor element) throws IOException {
+    int fixedSize = getFixedSize(element);
+    if (fixedSize >= 0) {
+      return start + (long) fixedSize * element.getCount();
+    }
+
+    Cursor cursor = new Cursor(channel, order, start);
+    for (int i = 0, n = element.getCount(); i < n; i++) {
+      for (PropertyDescriptor property : element.getProperties()) {
+        cursor.skipProperty(property);
+      }
+    }
+    return cursor.position();
+  }
+
+  /**
+   * Finds the index of the named property.
+   * @param element The <code>ElementDescriptor</code> to search.
+   * @param name The name of the property.
+   * @return The index of the property, or <code>-1</code> if there is no
+   *     such property.
+   */
+  private static int indexOf(ElementDescriptor element, String name) {
+    List<PropertyDescriptor> properties = element.getProperties();
+    for (int i = 0, n = properties.size(); i < n; i++) {
+      if (properties.get(i).getName().equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the indices of a group of properties.
+   * @param element The <code>ElementDescriptor</code> to search.
+   * @param names The names of the properties.
+   * @return The indices of the properties, or <code>null</code> if any of
+   *     the properties are missing.
+   */
+  private static int[] indicesOf(ElementDescriptor element, String[] names) {
+    int[] indices = new int[names.length];
+    for (int i = 0; i < names.length; i++) {
+      indices[i] = indexOf(element, names[i]);
+      if (indices[i] < 0) {
+        return null;
+      }
+    }
+    return indices;
+  }
+
+  /**
+   * Determines if a group of properties may be read in place.  This is the
+   * case if the properties are consecutive and all have the same floating
+   * point type.
+   * @param element The <code>ElementDescriptor</code>.
+   * @param indices The indices of the properties in the group.
+   * @return The common <code>PlyDataType</code> of the properties, or
+   *     <code>null</code> if the group cannot be read in place.
+   */
+  private static PlyDataType getPackedType(ElementDescriptor element, int[] indices) {
+    List<PropertyDescriptor> properties = element.getProperties();
+    PlyDataType type = properties.get(indices[0]).getDataType();
+    if (!type.isFloatingPoint()) {
+      return null;
+    }
+    for (int i = 1; i < indices.length; i++) {
+      if (indices[i] != indices[0] + i
+          || properties.get(indices[i]).getDataType() != type) {
+        return null;
+      }
+    }
+    return type;
+  }
+
+  /**
+   * Describes the vertex section of the file and the layout of the vertex
+   * buffers created from it.  When the properties of the vertices may be
+   * read in place, vertex records are used as-is.  Otherwise, each vertex is
+   * converted into a record of doubles: position, then normal, then texture
+   * coordinates.
+   */
+  private static final class Vertices {
+
+    /** The number of vertices. */
+    final int count;
+
+    /** The size of a vertex record in the file. */
+    private final int recordSize;
+
+    /** A value indicating whether records are used as-is. */
+    private final boolean packed;
+
+    /** The size of a vertex record in a vertex buffer. */
+    final int stride;
+
+    /** The byte order of the vertex buffers. */
+    private final ByteOrder order;
+
+    /**
+     * The offsets within a file record of the properties to convert (when
+     * not <code>packed</code>).
+     */
+    private final int[] sourceOffsets;
+
+    /** The types of the properties to convert (when not <code>packed</code>). */
+    private final PlyDataType[] sourceTypes;
+
+    private final int coordOffset;
+    private final Point3Format coordFormat;
+    private final int normalOffset;
+    private final Vector3Format normalFormat;
+    private final int uvOffset;
+    private final Point2Format uvFormat;
+
+    /** The number of records in each mapped window of the vertex section. */
+    private final int windowRecords;
+
+    /** The mapped windows of the vertex section. */
+    private final MappedByteBuffer[] windows;
+
+    /**
+     * Maps the vertex section of a PLY-file.
+     * @param channel The <code>FileChannel</code> to read from.
+     * @param order The <code>ByteOrder</code> of the data.
+     * @param start The position of the start of the vertex section.
+     * @param element The <code>ElementDescriptor</code> for vertices.
+     * @param maxBufferSize The maximum size of a mapped window, in bytes.
+     * @throws IOException If an error occurs while mapping the file.
+     */
+    Vertices(FileChannel channel, ByteOrder order, long start,
+        ElementDescriptor element, int maxBufferSize) throws IOException {
+      recordSize = getFixedSize(element);
+      if (recordSize <= 0) {
+        throw new RuntimeException("List properties on vertices are not supported");
+      }
+      count = element.getCount();
+
+      int[] coords = indicesOf(element, COORD_PROPERTIES);
+      if (coords == null) {
+        throw new RuntimeException("Vertex element requires x, y and z properties");
+      }
+      int[] normals = indicesOf(element, NORMAL_PROPERTIES);
+      int[] uvs = null;
+      for (int i = 0; uvs == null && i < UV_PROPERTIES.length; i++) {
+        uvs = indicesOf(element, UV_PROPERTIES[i]);
+      }
+
+      PlyDataType coordType = getPackedType(element, coords);
+      PlyDataType normalType = normals != null ? getPackedType(element, normals) : null;
+      PlyDataType uvType = uvs != null ? getPackedType(element, uvs) : null;
+      int[] offsets = getPropertyOffsets(element);
+
+      packed = coordType != null && (normals == null || normalType != null)
+          && (uvs == null || uvType != null);
+
+      if (packed) {
+        this.order = order;
+        stride = recordSize;
+        sourceOffsets = null;
+        sourceTypes = null;
+        coordOffset = offsets[coords[0]];
+        coordFormat = coordType == PlyDataType.DOUBLE
+            ? Point3Format.DOUBLE_XYZ : Point3Format.FLOAT_XYZ;
+        normalOffset = normals != null ? offsets[normals[0]] : -1;
+        normalFormat = normals == null ? null
+            : normalType == PlyDataType.DOUBLE
+                ? Vector3Format.DOUBLE_XYZ : Vector3Format.FLOAT_XYZ;
+        uvOffset = uvs != null ? offsets[uvs[0]] : -1;
+        uvFormat = uvs == null ? null
+            : uvType == PlyDataType.DOUBLE
+                ? Point2Format.DOUBLE_XY : Point2Format.FLOAT_XY;
+      } else {
+        int[] properties = concat(coords, normals, uvs);
+        this.order = ByteOrder.nativeOrder();
+        stride = properties.length * DOUBLE_SIZE;
+        sourceOffsets = new int[properties.length];
+        sourceTypes = new PlyDataType[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+          sourceOffsets[i] = offsets[properties[i]];
+          sourceTypes[i] = element.getProperties().get(properties[i]).getDataType();
+        }
+        coordOffset = 0;
+        coordFormat = Point3Format.DOUBLE_XYZ;
+        normalOffset = normals != null ? 3 * DOUBLE_SIZE : -1;
+        normalFormat = normals != null ? Vector3Format.DOUBLE_XYZ : null;
+        uvOffset = uvs != null ? (normals != null ? 6 : 3) * DOUBLE_SIZE : -1;
+        uvFormat = uvs != null ? Point2Format.DOUBLE_XY : null;
+      }
+
+      windowRecords = Math.max(1, Math.min(count, maxBufferSize / recordSize));
+      windows = new MappedByteBuffer[(count + windowRecords - 1) / windowRecords];
+      for (int i = 0; i < windows.length; i++) {
+        long first = (long) i * windowRecords;
+        long n = Math.min(windowRecords, count - first);
+        windows[i] = channel.map(MapMode.READ_ONLY,
+            start + first * recordSize, n * recordSize);
+        windows[i].order(order);
+      }
+    }
+
+    /**
+     * Determines if all of the vertices fit in a single vertex buffer.
+     * @param maxBufferSize The maximum size of a buffer, in bytes.
+     * @return A value indicating whether all of the vertices fit in a
+     *     single vertex buffer.
+     */
+    boolean fitsInBuffer(int maxBufferSize) {
+      return (long) count * stride <= maxBufferSize;
+    }
+
+    /**
+     * Creates a vertex buffer holding all of the vertices.  If records are
+     * used as-is, this is the mapped vertex section itself.
+     * @return The vertex buffer.
+     */
+    ByteBuffer createBuffer() {
+      if (packed && windows.length == 1) {
+        return windows[0];
+      }
+      int[] all = new int[count];
+      for (int i = 0; i < count; i++) {
+        all[i] = i;
+      }
+      return createBuffer(all, count);
+    }
+
+    /**
+     * Creates a vertex buffer holding the specified vertices.
+     * @param indices The indices of the vertices to copy.
+     * @param n The number of vertices to copy.
+     * @return The vertex buffer.
+     */
+    ByteBuffer createBuffer(int[] indices, int n) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(n * stride).order(order);
+      for (int i = 0, pos = 0; i < n; i++, pos += stride) {
+        MappedByteBuffer window = windows[indices[i] / windowRecords];
+        int base = (indices[i] % windowRecords) * recordSize;
+        if (packed) {
+          for (int j = 0; j < recordSize; j++) {
+            buffer.put(pos + j, window.get(base + j));
+          }
+        } else {
+          for (int j = 0; j < sourceOffsets.length; j++) {
+            buffer.putDouble(pos + j * DOUBLE_SIZE,
+                getDouble(window, base + sourceOffsets[j], sourceTypes[j]));
+          }
+        }
+      }
+      return buffer;
+    }
+
+    /**
+     * Configures the vertex buffer of a mesh.
+     * @param builder The <code>BufferMesh.Builder</code> to configure.
+     * @param buffer The vertex buffer.
+     * @param n The number of vertices in the buffer.
+     */
+    void configure(BufferMesh.Builder builder, ByteBuffer buffer, int n) {
+      builder.setVertexBuffer(buffer)
+          .setVertexCount(n)
+          .setVertexOffset(0)
+          .setVertexStride(stride)
+          .setVertexCoordSpec(coordOffset, coordFormat);
+      if (normalFormat != null) {
+        builder.setVertexNormalSpec(normalOffset, normalFormat);
+      }
+      if (uvFormat != null) {
+        builder.setVertexUVSpec(uvOffset, uvFormat);
+      }
+    }
+
+  }
+
+  /**
+   * Computes the offset of each property within an element that has no list
+   * properties.
+   * @param element The <code>ElementDescriptor</code>.
+   * @return The offsets, in bytes, of each property.
+   */
+  private static int[] getPropertyOffsets(ElementDescriptor element) {
+    List<PropertyDescriptor> properties = element.getProperties();
+    int[] offsets = new int[properties.size()];
+    int offset = 0;
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = offset;
+      offset += properties.get(i).getDataType().getSize();
+    }
+    return offsets;
+  }
+
+  /**
+   * Concatenates arrays of indices, ignoring <code>null</code>s.
+   * @param arrays The arrays to concatenate.
+   * @return The concatenated array.
+   */
+  private static int[] concat(int[]... arrays) {
+    int length = 0;
+    for (int[] array : arrays) {
+      length += array != null ? array.length : 0;
+    }
+    int[] result = new int[length];
+    int pos = 0;
+    for (int[] array : arrays) {
+      if (array != null) {
+        System.arraycopy(array, 0, result, pos, array.length);
+        pos += array.length;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reads a scalar value as a <code>double</code>.
+   * @param buffer The <code>ByteBuffer</code> to read from.
+   * @param index The position in the buffer to read from.
+   * @param type The <code>PlyDataType</code> of the value.
+   * @return The value.
+   */
+  private static double getDouble(ByteBuffer buffer, int index, PlyDataType type) {
+    switch (type) {
+    case FLOAT: return buffer.getFloat(index);
+    case DOUBLE: return buffer.getDouble(index);
+    default: return getLong(buffer, index, type);
+    }
+  }
+
+  /**
+   * Reads a scalar value as a <code>long</code>.
+   * @param buffer The <code>ByteBuffer</code> to read from.
+   * @param index The position in the buffer to read from.
+   * @param type The <code>PlyDataType</code> of the value.
+   * @return The value.
+   */
+  private static long getLong(ByteBuffer buffer, int index, PlyDataType type) {
+    switch (type) {
+    case CHAR: return buffer.get(index);
+    case UCHAR: return buffer.get(index) & 0xFF;
+    case SHORT: return buffer.getShort(index);
+    case USHORT: return buffer.getShort(index) & 0xFFFF;
+    case INT: return buffer.getInt(index);
+    case UINT: return buffer.getInt(index) & 0xFFFFFFFFL;
+    case FLOAT: return (long) buffer.getFloat(index);
+    case DOUBLE: return (long) buffer.getDouble(index);
+    default:
+      throw new IllegalArgumentException(String.format(
+          "Unknown data type (%s)", type));
+    }
+  }
+
+  /** A contiguous range of faces that is read into one mesh. */
+  private static final class Part {
+
+    /** The position in the file of the first face. */
+    final long position;
+
+    int faceCount;
+    int loopCount;
+    int minFaceVertexCount = Integer.MAX_VALUE;
+    int maxFaceVertexCount;
+
+    /**
+     * Creates a new <code>Part</code>.
+     * @param position The position in the file of the first face.
+     */
+    Part(long position) {
+      this.position = position;
+    }
+
+    /**
+     * Adds a face to this part.
+     * @param n The number of vertices of the face.
+     */
+    void add(int n) {
+      faceCount++;
+      loopCount += n;
+      minFaceVertexCount = Math.min(minFaceVertexCount, n);
+      maxFaceVertexCount = Math.max(maxFaceVertexCount, n);
+    }
+
+  }
+
+  /**
+   * Reads the face section into one or more meshes.  The section is scanned
+   * twice: once to divide the faces into parts that fit the buffer size
+   * limit, and once to copy the vertex indices of each part.
+   * @param channel The <code>FileChannel</code> to read from.
+   * @param order The <code>ByteOrder</code> of the data.
+   * @param start The position of the start of the face section.
+   * @param element The <code>ElementDescriptor</code> for faces.
+   * @param vertices The <code>Vertices</code> of the mesh.
+   * @return The meshes.
+   * @throws IOException If an error occurs while reading from the channel.
+   */
+  private List<BufferMesh> readFaces(FileChannel channel, ByteOrder order,
+      long start, ElementDescriptor element, Vertices vertices)
+      throws IOException {
+    List<PropertyDescriptor> properties = element.getProperties();
+    int indexProperty = -1;
+    for (int i = 0; indexProperty < 0 && i < VERTEX_INDEX_PROPERTIES.length; i++) {
+      indexProperty = indexOf(element, VERTEX_INDEX_PROPERTIES[i]);
+    }
+    if (indexProperty < 0 || !properties.get(indexProperty).isList()) {
+      throw new RuntimeException("Face element requires a vertex index list");
+    }
+
+    PropertyDescriptor indices = properties.get(indexProperty);
+    PlyDataType indexType = indices.getDataType();
+    int faceCount = element.getCount();
+
+    /* If the vertices do not fit in one buffer, each part gets a copy of the
+     * vertices it references, of which there are at most as many as there
+     * are loops.
+     */
+    boolean shared = vertices.fitsInBuffer(maxBufferSize);
+    int maxLoops = maxBufferSize / (shared ? INT_SIZE : Math.max(INT_SIZE, vertices.stride));
+    int maxFaces = maxBufferSize / (2 * INT_SIZE);
+
+    List<Part> parts = new ArrayList<>();
+    Part part = new Part(start);
+    Cursor cursor = new Cursor(channel, order, start);
+    for (int i = 0; i < faceCount; i++) {
+      long position = cursor.position();
+      int n = 0;
+      for (PropertyDescriptor property : properties) {
+        if (property == indices) {
+          n = cursor.readCount(property);
+          cursor.skip((long) n * indexType.getSize());
+        } else {
+          cursor.skipProperty(property);
+        }
+      }
+      if (n > maxLoops) {
+        throw new RuntimeException(String.format(
+            "Face %d has too many vertices (%d)", i, n));
+      }
+      if (part.faceCount > 0 && (part.loopCount + n > maxLoops
+          || part.faceCount >= maxFaces)) {
+        parts.add(part);
+        part = new Part(position);
+      }
+      part.add(n);
+    }
+    parts.add(part);
+
+    ByteBuffer sharedVertices = shared ? vertices.createBuffer() : null;
+    int[] localIndex = null;
+    if (!shared) {
+      localIndex = new int[vertices.count];
+      Arrays.fill(localIndex, -1);
+    }
+
+    List<BufferMesh> meshes = new ArrayList<>(parts.size());
+    for (Part p : parts) {
+      boolean fixed = p.faceCount == 0
+          || p.minFaceVertexCount == p.maxFaceVertexCount;
+      int faceStride = (fixed ? 1 : 2) * INT_SIZE;
+      ByteBuffer faces = ByteBuffer.allocateDirect(p.faceCount * faceStride)
+          .order(ByteOrder.nativeOrder());
+      ByteBuffer loops = ByteBuffer.allocateDirect(p.loopCount * INT_SIZE)
+          .order(ByteOrder.nativeOrder());
+      int[] used = shared ? null : new int[p.loopCount];
+      int usedCount = 0;
+
+      cursor = new Cursor(channel, order, p.position);
+      for (int i = 0; i < p.faceCount; i++) {
+        for (PropertyDescriptor property : properties) {
+          if (property == indices) {
+            int n = cursor.readCount(property);
+            faces.putInt(loops.position() / INT_SIZE);
+            if (!fixed) {
+              faces.putInt(n);
+            }
+            for (int j = 0; j < n; j++) {
+              long index = cursor.read(indexType);
+              if (index < 0 || index >= vertices.count) {
+                throw new RuntimeException(String.format(
+                    "Vertex index out of range (%d)", index));
+              }
+              int vertex = (int) index;
+              if (!shared) {
+                if (localIndex[vertex] < 0) {
+                  localIndex[vertex] = usedCount;
+                  used[usedCount++] = vertex;
+                }
+                vertex = localIndex[vertex];
+              }
+              loops.putInt(vertex);
+            }
+          } else {
+            cursor.skipProperty(property);
+          }
+        }
+      }
+
+      faces.flip();
+      loops.flip();
+
+      BufferMesh.Builder builder = BufferMesh.newBuilder()
+          .setFaceBuffer(faces)
+          .setFaceCount(p.faceCount)
+          .setFaceOffset(0)
+          .setFaceStride(faceStride)
+          .setFaceLoopStartSpec(0, IndexFormat.INT32)
+          .setMaxFaceVertexCount(p.maxFaceVertexCount)
+          .setLoopBuffer(loops)
+          .setLoopCount(p.loopCount)
+          .setLoopOffset(0)
+          .setLoopStride(INT_SIZE)
+          .setLoopVertexIndexSpec(0, IndexFormat.INT32);
+      if (!fixed) {
+        builder.setFaceLoopCountSpec(INT_SIZE, IndexFormat.INT32);
+      }
+
+      if (shared) {
+        vertices.configure(builder, sharedVertices, vertices.count);
+      } else {
+        vertices.configure(builder, vertices.createBuffer(used, usedCount), usedCount);
+        for (int i = 0; i < usedCount; i++) {
+          localIndex[used[i]] = -1;
+        }
+      }
+
+      meshes.add(builder.build());
+    }
+    return meshes;
+  }
+
+  /**
+   * Reads sequentially through a section of a file by mapping a window of
+   * the file at a time.  Sections with variable length records may exceed
+   * the 2GB limit of a single mapping.
+   */
+  private static final class Cursor {
+
+    /** The <code>FileChannel</code> to read from. */
+    private final FileChannel channel;
+
+    /** The <code>ByteOrder</code> of the data. */
+    private final ByteOrder order;
+
+    /** The position in the file of the start of the current window. */
+    private long base;
+
+    /** The currently mapped window, or <code>null</code> if none. */
+    private MappedByteBuffer window;
+
+    /** The position within the current window. */
+    private int pos;
+
+    /**
+     * Creates a new <code>Cursor</code>.
+     * @param channel The <code>FileChannel</code> to read from.
+     * @param order The <code>ByteOrder</code> of the data.
+     * @param start The position in the file to start reading from.
+     */
+    public Cursor(FileChannel channel, ByteOrder order, long start) {
+      this.channel = channel;
+      this.order = order;
+      this.base = start;
+    }
+
+    /**
+     * Gets the current position in the file.
+     * @return The current position in the file.
+     */
+    public long position() {
+      return base + pos;
+    }
+
+    /**
+     * Ensures that the specified number of bytes are available in the
+     * current window, mapping a new window if necessary.
+     * @param n The number of bytes required.
+     * @throws IOException If an error occurs while mapping the file.
+     */
+    private void require(int n) throws IOException {
+      if (window == null || pos + n > window.limit()) {
+        base += pos;
+        pos = 0;
+        long length = Math.min(WINDOW_SIZE, channel.size() - base);
+        if (length < n) {
+          throw new RuntimeException("Unexpected end of file");
+        }
+        window = channel.map(MapMode.READ_ONLY, base, length);
+        window.order(order);
+      }
+    }
+
+    /**
+     * Advances the cursor.
+     * @param n The number of bytes to skip.
+     */
+    public void skip(long n) {
+      if (window != null && pos + n <= window.limit()) {
+        pos += (int) n;
+      } else {
+        base += pos + n;
+        pos = 0;
+        window = null;
+      }
+    }
+
+    /**
+     * Reads an integral value.
+     * @param type The <code>PlyDataType</code> of the value.
+     * @return The value.
+     * @throws IOException If an error occurs while mapping the file.
+     */
+    public long read(PlyDataType type) throws IOException {
+      int size = type.getSize();
+      require(size);
+      long value = getLong(window, pos, type);
+      pos += size;
+      return value;
+    }
+
+    /**
+     * Reads the length of a list property.
+     * @param property The <code>PropertyDescriptor</code> for the list.
+     * @return The length of the list.
+     * @throws IOException If an error occurs while mapping the file.
+     */
+    public int readCount(PropertyDescriptor property) throws IOException {
+      long count = read(property.getCountType());
+      if (count < 0 || count > Integer.MAX_VALUE) {
+        throw new RuntimeException("List count must be non-negative");
+      }
+      return (int) count;
+    }
+
+    /**
+     * Skips over a property.
+     * @param property The <code>PropertyDescriptor</code> for the property.
+     * @throws IOException If an error occurs while mapping the file.
+     */
+    public void skipProperty(PropertyDescriptor property) throws IOException {
+      long n = property.isList() ? readCount(property) : 1;
+      skip(n * property.getDataType().getSize());
+    }
+
+  }
+
+}
+
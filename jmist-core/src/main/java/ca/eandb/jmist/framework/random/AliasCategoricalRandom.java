@@ -0,0 +1,256 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.random;
+
+import java.io.Serializable;
+import java.util.List;
+
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.util.DoubleArray;
+
+/**
+ * A categorical random variable (i.e., a discrete random variable that selects
+ * a value with probability proportional to specified weights), sampled in
+ * constant time using Walker's alias method (with Vose's construction).
+ *
+ * <p>Unlike {@link CategoricalRandom}, which inverts the cumulative
+ * distribution, the mapping from seeds to values is not monotonic.  Prefer
+ * <code>CategoricalRandom</code> where nearby seeds should map to nearby
+ * values (e.g., in primary sample space Metropolis algorithms).</p>
+ *
+ * @author Brad Kimmel
+ */
+public final class AliasCategoricalRandom implements Serializable {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -5410316069468045745L;
+
+  /** The probability of each value. */
+  private final double[] pmf;
+
+  /**
+   * The probability of accepting a value rather than its alias, given that
+   * its column of the table has been selected.
+   */
+  private final double[] threshold;
+
+  /** The alternative value for each column of the table. */
+  private final int[] alias;
+
+  /**
+   * The <code>Random</code> number generator to use to seed this
+   * <code>AliasCategoricalRandom</code>.
+   */
+  private final Random source;
+
+  /**
+   * Creates a new <code>AliasCategoricalRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   * @param source The <code>Random</code> number generator to use to seed
+   *     this <code>AliasCategoricalRandom</code>.
+   */
+  public AliasCategoricalRandom(DoubleArray weights, Random source) {
+    this(weights.toDoubleArray(), source);
+  }
+
+  /**
+   * Creates a new <code>AliasCategoricalRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   */
+  public AliasCategoricalRandom(DoubleArray weights) {
+    this(weights, null);
+  }
+
+  /**
+   * Creates a new <code>AliasCategoricalRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   * @param source The <code>Random</code> number generator to use to seed
+   *     this <code>AliasCategoricalRandom</code>.
+   */
+  public AliasCategoricalRandom(List<Double> weights, Random source) {
+    this(toArray(weights), source);
+  }
+
+  /**
+   * Creates a new <code>AliasCategoricalRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   */
+  public AliasCategoricalRandom(List<Double> weights) {
+    this(weights, null);
+  }
+
+  /**
+   * Creates a new <code>AliasCategoricalRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   * @param source The <code>Random</code> number generator to use to seed
+   *     this <code>AliasCategoricalRandom</code>.
+   */
+  public AliasCategoricalRandom(double[] weights, Random source) {
+    int n = weights.length;
+    this.source = source;
+    this.pmf = new double[n];
+    this.threshold = new double[n];
+    this.alias = new int[n];
+    initialize(weights);
+  }
+
+  /**
+   * Creates a new <code>AliasCategoricalRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   */
+  public AliasCategoricalRandom(double[] weights) {
+    this(weights, null);
+  }
+
+  /**
+   * Copies a list of weights to an array.
+   * @param weights The <code>List</code> of weights.
+   * @return The array of weights.
+   */
+  private static double[] toArray(List<Double> weights) {
+    double[] result = new double[weights.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = weights.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Builds the alias table.
+   * @param weights The weight associated with each value.
+   */
+  private void initialize(double[] weights) {
+    int n = weights.length;
+    double total = 0.0;
+    for (double w : weights) {
+      total += w;
+    }
+
+    /* Partition the columns into those with less than the average
+     * probability (small) and those with at least the average (large).  Both
+     * work lists share one array: small from the front, large from the back.
+     */
+    int[] work = new int[n];
+    int numSmall = 0;
+    int numLarge = 0;
+    for (int i = 0; i < n; i++) {
+      pmf[i] = weights[i] / total;
+      threshold[i] = pmf[i] * n;
+      alias[i] = i;
+      if (threshold[i] < 1.0) {
+        work[numSmall++] = i;
+      } else {
+        work[n - ++numLarge] = i;
+      }
+    }
+
+    /* Fill each small column with its deficit taken from a large column. */
+    while (numSmall > 0 && numLarge > 0) {
+      int small = work[--numSmall];
+      int large = work[n - numLarge];
+      alias[small] = large;
+      threshold[large] -= 1.0 - threshold[small];
+      if (threshold[large] < 1.0) {
+        numLarge--;
+        work[numSmall++] = large;
+      }
+    }
+
+    /* Whatever remains is full up to round-off error. */
+    while (numLarge > 0) {
+      threshold[work[n - numLarge--]] = 1.0;
+    }
+    while (numSmall > 0) {
+      threshold[work[--numSmall]] = 1.0;
+    }
+  }
+
+  /**
+   * Generates a new sample of this <code>AliasCategoricalRandom</code>
+   * variable.
+   * @param random The <code>Random</code> to use to generate random number
+   *     samples.
+   * @return The next sample.
+   */
+  public int next(Random random) {
+    return next(source != null ? source.next() : RandomUtil.canonical(random));
+  }
+
+  /**
+   * Generates a new sample of this <code>AliasCategoricalRandom</code>
+   * variable.
+   * @param seed The seed value.  This method is guaranteed to return the
+   *     same value given the same seed.
+   * @return The next sample.
+   */
+  public int next(double seed) {
+    int n = alias.length;
+    double u = seed * n;
+    int column = Math.min((int) u, n - 1);
+    return (u - column) < threshold[column] ? column : alias[column];
+  }
+
+  /**
+   * Generates a new sample of this <code>AliasCategoricalRandom</code>
+   * variable, and updates the seed so that it may be reused to generate
+   * further samples.
+   * @param ref A reference to the seed value.  On return, the seed is
+   *     replaced with a new value, uniformly distributed in [0, 1] and
+   *     independent of the returned sample.
+   * @return The next sample.
+   */
+  public int next(SeedReference ref) {
+    int n = alias.length;
+    double u = ref.seed * n;
+    int column = Math.min((int) u, n - 1);
+    double f = Math.min(u - column, 1.0);
+    double t = threshold[column];
+    if (f < t || t >= 1.0) {
+      ref.seed = f / t;
+      return column;
+    } else {
+      ref.seed = (f - t) / (1.0 - t);
+      return alias[column];
+    }
+  }
+
+  /**
+   * Gets the probability that this <code>AliasCategoricalRandom</code>
+   * yields the specified number.
+   * @param value The value to get the probability of.
+   * @return The probability for the specified value.
+   */
+  public double getProbability(int value) {
+    return (value >= 0 && value < pmf.length) ? pmf[value] : 0.0;
+  }
+
+}
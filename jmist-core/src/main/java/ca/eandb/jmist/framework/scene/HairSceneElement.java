@@ -26,14 +26,18 @@
 package ca.eandb.jmist.framework.scene;
 
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.IntStream;
 
-import ca.eandb.jmist.framework.Bounded3;
-import ca.eandb.jmist.framework.BoundingBoxBuilder3;
 import ca.eandb.jmist.framework.Intersection;
 import ca.eandb.jmist.framework.IntersectionRecorder;
 import ca.eandb.jmist.framework.Light;
 import ca.eandb.jmist.framework.Material;
+import ca.eandb.jmist.framework.Medium;
+import ca.eandb.jmist.framework.Modifier;
 import ca.eandb.jmist.framework.SceneElement;
+import ca.eandb.jmist.framework.Shader;
 import ca.eandb.jmist.framework.ShadingContext;
 import ca.eandb.jmist.framework.SurfacePoint;
 import ca.eandb.jmist.framework.random.RandomAdapter;
@@ -41,14 +45,13 @@ import ca.eandb.jmist.framework.random.RandomUtil;
 import ca.eandb.jmist.framework.shader.MinimalShadingContext;
 import ca.eandb.jmist.math.Basis3;
 import ca.eandb.jmist.math.Box3;
-import ca.eandb.jmist.math.GeometryUtil;
+import ca.eandb.jmist.math.Interval;
 import ca.eandb.jmist.math.MathUtil;
-import ca.eandb.jmist.math.Plane3;
+import ca.eandb.jmist.math.Point2;
 import ca.eandb.jmist.math.Point3;
 import ca.eandb.jmist.math.Ray3;
 import ca.eandb.jmist.math.Sphere;
 import ca.eandb.jmist.math.Vector3;
-import ca.eandb.util.UnimplementedException;
 
 /**
  * A <code>SceneElement</code> decorator that adds hair to the underlying
@@ -60,6 +63,13 @@ public final class HairSceneElement implements SceneElement {
   /** Serialization version ID. */
   private static final long serialVersionUID = 7426131707749501794L;
 
+  /**
+   * Storage reused by each thread to receive the distance to, and strand
+   * index of, the nearest hit found while tracing a ray.
+   */
+  private static final ThreadLocal<double[]> hits =
+      ThreadLocal.withInitial(() -> new double[2]);
+
   private final SceneElement emitter;
 
   private final Material hairMaterial;
@@ -82,6 +92,50 @@ public final class HairSceneElement implements SceneElement {
 
   private final double tipWidth;
 
+  /**
+   * The number of vertices in each strand.  Strand <code>i</code> occupies
+   * vertices <code>[i * verticesPerStrand, (i + 1) * verticesPerStrand)</code>
+   * of {@link #vertices}.
+   */
+  private transient int verticesPerStrand;
+
+  /** The packed vertex coordinates of the strands, three per vertex. */
+  private transient float[] vertices;
+
+  /**
+   * The texture coordinates at the root of each strand, two per strand, or
+   * <code>NaN</code> if the emitter did not provide texture coordinates.
+   */
+  private transient float[] uvs;
+
+  /** The shading attributes at the root of each strand. */
+  private transient StrandAttributes[] attributes;
+
+  /** The bounding boxes of the strands, six values per strand. */
+  private transient float[] strandBounds;
+
+  /**
+   * The bounding boxes of the nodes in the strand hierarchy, stored as six
+   * values per node (minimum x, y, z followed by maximum x, y, z).  Nodes
+   * are stored in depth-first order.
+   */
+  private transient float[] nodeBounds;
+
+  /** The strand at each leaf node, or -1 for internal nodes. */
+  private transient int[] nodeStrands;
+
+  /**
+   * The index of the node following the subtree rooted at each node, which
+   * is where traversal resumes if the ray misses the node.
+   */
+  private transient int[] nodeSkip;
+
+  /** The number of nodes in the strand hierarchy. */
+  private transient int numNodes;
+
+  /** A value indicating if the strands have been generated. */
+  private transient volatile boolean ready = false;
+
   public interface Builder1 {
     Builder setEmitter(SceneElement emitter);
   }
@@ -178,87 +232,317 @@ public final class HairSceneElement implements SceneElement {
     this.base = renderEmitter ? emitter.getNumPrimitives() : 0;
   }
 
-  private class Strand implements Bounded3 {
+  /**
+   * The material, modifier, shader, and ambient medium at the root of a
+   * strand.  Strands rooted at the same part of the emitter share a single
+   * instance.
+   */
+  private static final class StrandAttributes {
+
+    /** The <code>Material</code> at the root of the strand. */
+    private final Material material;
+
+    /** The <code>Modifier</code> at the root of the strand. */
+    private final Modifier modifier;
+
+    /** The <code>Shader</code> at the root of the strand. */
+    private final Shader shader;
+
+    /** The ambient <code>Medium</code> at the root of the strand. */
+    private final Medium ambientMedium;
+
+    /**
+     * Creates a new <code>StrandAttributes</code>.
+     * @param context The <code>ShadingContext</code> at the root of the
+     *     strand.
+     */
+    public StrandAttributes(ShadingContext context) {
+      this.material = context.getMaterial();
+      this.modifier = context.getModifier();
+      this.shader = context.getShader();
+      this.ambientMedium = context.getAmbientMedium();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof StrandAttributes)) {
+        return false;
+      }
+      StrandAttributes other = (StrandAttributes) obj;
+      return material == other.material && modifier == other.modifier
+          && shader == other.shader && ambientMedium == other.ambientMedium;
+    }
 
-    private Point3[] vertices;
+    @Override
+    public int hashCode() {
+      int hash = System.identityHashCode(material);
+      hash = 31 * hash + System.identityHashCode(modifier);
+      hash = 31 * hash + System.identityHashCode(shader);
+      hash = 31 * hash + System.identityHashCode(ambientMedium);
+      return hash;
+    }
 
-    private ShadingContext emitterContext;
+  }
 
-    private int strandIndex;
+  /** An <code>Intersection</code> with a triangle of a strand. */
+  private final class StrandIntersection implements Intersection {
+
+    /** The <code>Ray3</code> that hit the strand. */
+    private final Ray3 ray;
+
+    /** The distance along the ray to the hit. */
+    private final double t;
+
+    /** The index of the strand that was hit. */
+    private final int strand;
+
+    /** The index of the first vertex of the triangle that was hit. */
+    private final int vertex;
+
+    /**
+     * Creates a new <code>StrandIntersection</code>.
+     * @param ray The <code>Ray3</code> that hit the strand.
+     * @param t The distance along the ray to the hit.
+     * @param strand The index of the strand that was hit.
+     * @param vertex The index (into {@link HairSceneElement#vertices}) of
+     *     the first vertex of the triangle that was hit.
+     */
+    public StrandIntersection(Ray3 ray, double t, int strand, int vertex) {
+      this.ray = ray;
+      this.t = t;
+      this.strand = strand;
+      this.vertex = vertex;
+    }
 
-    public Box3 boundingBox() {
-      BoundingBoxBuilder3 bound = new BoundingBoxBuilder3();
-      for (Point3 vertex : vertices) {
-        bound.add(vertex);
-      }
-      return bound.getBoundingBox();
+    public double getDistance() {
+      return t;
     }
 
-    public Sphere boundingSphere() {
-      Box3 box = boundingBox();
-      return new Sphere(box.center(), box.diagonal() / 2.0);
+    public double getTolerance() {
+      return MathUtil.SMALL_EPSILON;
     }
 
-    public void intersect(final Ray3 ray, IntersectionRecorder recorder) {
-      for (int i = 0; i < vertices.length - 3; i++) {
-        final double t = GeometryUtil.rayIntersectTriangle(ray, vertices[i], vertices[i+1], vertices[i+2]);
-        final int vertexIndex = i;
-        if (!Double.isNaN(t)) {
-          recorder.record(new Intersection() {
-            public double getDistance() {
-              return t;
-            }
-            public double getTolerance() {
-              return MathUtil.SMALL_EPSILON;
-            }
-            public boolean isFront() {
-              return true;
-            }
-            public void prepareShadingContext(ShadingContext context) {
-              Plane3 plane = Plane3.throughPoints(vertices[vertexIndex], vertices[vertexIndex+1], vertices[vertexIndex+2]);
-              Vector3 n = plane.normal();
-              Vector3 v = ray.direction();
-              context.setPosition(ray.pointAt(t));
-              context.setNormal(v.dot(n) > 0.0 ? n.opposite() : n);
-              context.setMaterial(hairMaterial != null ? hairMaterial : emitterContext.getMaterial());
-              context.setModifier(emitterContext.getModifier());
-              context.setPrimitiveIndex(base + strandIndex);
-              context.setShader(emitterContext.getShader());
-              context.setUV(emitterContext.getUV());
-              context.setAmbientMedium(emitterContext.getAmbientMedium());
-            }
+    public boolean isFront() {
+      return true;
+    }
+
+    public void prepareShadingContext(ShadingContext context) {
+      float[] v = vertices;
+      int a = 3 * vertex;
+      double e1x = v[a + 3] - v[a];
+      double e1y = v[a + 4] - v[a + 1];
+      double e1z = v[a + 5] - v[a + 2];
+      double e2x = v[a + 6] - v[a];
+      double e2y = v[a + 7] - v[a + 1];
+      double e2z = v[a + 8] - v[a + 2];
+      Vector3 n = new Vector3(
+          e1y * e2z - e1z * e2y,
+          e1z * e2x - e1x * e2z,
+          e1x * e2y - e1y * e2x).unit();
+      StrandAttributes attr = attributes[strand];
+
+      context.setPosition(ray.pointAt(t));
+      context.setNormal(ray.direction().dot(n) > 0.0 ? n.opposite() : n);
+      context.setMaterial(hairMaterial != null ? hairMaterial : attr.material);
+      context.setModifier(attr.modifier);
+      context.setPrimitiveIndex(base + strand);
+      context.setShader(attr.shader);
+      float u = uvs[2 * strand];
+      context.setUV(Float.isNaN(u) ? null : new Point2(u, uvs[2 * strand + 1]));
+      context.setAmbientMedium(attr.ambientMedium);
+    }
+
+  }
 
-          });
+  /**
+   * Generates the strands and builds the hierarchy over them if that has not
+   * already been done.
+   */
+  private void ensureReady() {
+    if (!ready) {
+      build();
+    }
+  }
+
+  /**
+   * Generates the strands and builds the bounding box hierarchy over them.
+   */
+  private synchronized void build() {
+    if (ready) { // double check inside synchronized method
+      return;
+    }
+
+    int verticesPerStrand = 2 * (segments + 1);
+    float[] vertices = new float[3 * verticesPerStrand * amount];
+    float[] uvs = new float[2 * amount];
+    float[] strandBounds = new float[6 * amount];
+    StrandAttributes[] attributes = new StrandAttributes[amount];
+    ConcurrentMap<StrandAttributes, StrandAttributes> pool =
+        new ConcurrentHashMap<StrandAttributes, StrandAttributes>();
+
+    IntStream.range(0, amount).parallel().forEach(i -> {
+      ShadingContext context = generateStrand(i, vertices);
+      Point2 uv = context.getUV();
+      if (uv != null) {
+        uvs[2 * i] = (float) uv.x();
+        uvs[2 * i + 1] = (float) uv.y();
+      } else {
+        uvs[2 * i] = Float.NaN;
+        uvs[2 * i + 1] = Float.NaN;
+      }
+      StrandAttributes attr = new StrandAttributes(context);
+      StrandAttributes shared = pool.putIfAbsent(attr, attr);
+      attributes[i] = (shared != null) ? shared : attr;
+
+      int b = 6 * i;
+      for (int k = 0; k < 3; k++) {
+        strandBounds[b + k] = Float.POSITIVE_INFINITY;
+        strandBounds[b + k + 3] = Float.NEGATIVE_INFINITY;
+      }
+      for (int j = 3 * verticesPerStrand * i,
+          end = j + 3 * verticesPerStrand; j < end; j += 3) {
+        for (int k = 0; k < 3; k++) {
+          strandBounds[b + k] = Math.min(strandBounds[b + k], vertices[j + k]);
+          strandBounds[b + k + 3] =
+              Math.max(strandBounds[b + k + 3], vertices[j + k]);
         }
       }
+    });
+
+    int[] order = new int[amount];
+    float[] center = new float[3 * amount];
+    for (int i = 0; i < amount; i++) {
+      order[i] = i;
+      for (int k = 0; k < 3; k++) {
+        center[3 * i + k] =
+            0.5f * (strandBounds[6 * i + k] + strandBounds[6 * i + k + 3]);
+      }
+    }
+
+    int maxNodes = Math.max(2 * amount - 1, 0);
+    this.nodeBounds = new float[6 * maxNodes];
+    this.nodeStrands = new int[maxNodes];
+    this.nodeSkip = new int[maxNodes];
+    this.numNodes = 0;
+    if (amount > 0) {
+      buildNode(order, 0, amount, strandBounds, center);
     }
 
-    public boolean visibility(Ray3 ray) {
-      for (int i = 0; i < vertices.length - 3; i++) {
-        final double t = GeometryUtil.rayIntersectTriangle(ray, vertices[i], vertices[i+1], vertices[i+1]);
-        if (!Double.isNaN(t) && t > MathUtil.SMALL_EPSILON) {
-          return false;
+    this.vertices = vertices;
+    this.uvs = uvs;
+    this.strandBounds = strandBounds;
+    this.attributes = attributes;
+    this.verticesPerStrand = verticesPerStrand;
+    ready = true;
+  }
+
+  /**
+   * Builds the subtree for a range of strands, appending its nodes in
+   * depth-first order.
+   * @param order The array of strand indices.  The range
+   *     <code>[from, to)</code> will be reordered.
+   * @param from The first index into <code>order</code> of the range.
+   * @param to One past the last index into <code>order</code> of the range.
+   * @param box The bounding boxes of the strands, six values per strand.
+   * @param center The centers of the bounding boxes, three values per
+   *     strand.
+   */
+  private void buildNode(int[] order, int from, int to, float[] box,
+      float[] center) {
+    int node = numNodes++;
+    int b = 6 * node;
+
+    if (to - from == 1) {
+      int i = order[from];
+      System.arraycopy(box, 6 * i, nodeBounds, b, 6);
+      nodeStrands[node] = i;
+    } else {
+      for (int k = 0; k < 3; k++) {
+        nodeBounds[b + k] = Float.POSITIVE_INFINITY;
+        nodeBounds[b + k + 3] = Float.NEGATIVE_INFINITY;
+      }
+      for (int j = from; j < to; j++) {
+        int c = 6 * order[j];
+        for (int k = 0; k < 3; k++) {
+          nodeBounds[b + k] = Math.min(nodeBounds[b + k], box[c + k]);
+          nodeBounds[b + k + 3] = Math.max(nodeBounds[b + k + 3], box[c + k + 3]);
         }
       }
-      return true;
-    }
 
-    public boolean intersects(Box3 box) {
-      throw new UnimplementedException();
+      /* Split the range in half along the axis in which the bounding box of
+       * the range is the longest.
+       */
+      double lx = nodeBounds[b + 3] - nodeBounds[b];
+      double ly = nodeBounds[b + 4] - nodeBounds[b + 1];
+      double lz = nodeBounds[b + 5] - nodeBounds[b + 2];
+      int axis = (lx > ly && lx > lz) ? 0 : (ly > lz) ? 1 : 2;
+      int mid = (from + to) >>> 1;
+      select(order, from, to, mid, center, axis);
+
+      buildNode(order, from, mid, box, center);
+      buildNode(order, mid, to, box, center);
+      nodeStrands[node] = -1;
     }
 
-  };
+    nodeSkip[node] = numNodes;
+  }
+
+  /**
+   * Partially sorts a range of strands so that the strand at index
+   * <code>k</code> is the one that would be there if the range were sorted
+   * by the centers of the bounding boxes along the specified axis, and so
+   * that no strand before (after) it has a greater (lesser) center.
+   * @param order The array of strand indices.
+   * @param from The first index into <code>order</code> of the range.
+   * @param to One past the last index into <code>order</code> of the range.
+   * @param k The index into <code>order</code> to select.
+   * @param center The centers of the bounding boxes, three values per
+   *     strand.
+   * @param axis The axis along which to compare the centers.
+   */
+  private static void select(int[] order, int from, int to, int k,
+      float[] center, int axis) {
+    int lo = from;
+    int hi = to - 1;
+    while (lo < hi) {
+      float pivot = center[3 * order[(lo + hi) >>> 1] + axis];
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (center[3 * order[i] + axis] < pivot) i++;
+        while (center[3 * order[j] + axis] > pivot) j--;
+        if (i <= j) {
+          int t = order[i];
+          order[i] = order[j];
+          order[j] = t;
+          i++;
+          j--;
+        }
+      }
+      if (k <= j) {
+        hi = j;
+      } else if (k >= i) {
+        lo = i;
+      } else {
+        break;
+      }
+    }
+  }
 
-  private Strand createStrand(int index) {
+  /**
+   * Generates the vertices of a strand.  The strand is a ribbon of
+   * <code>2 * (segments + 1)</code> vertices, alternating between the two
+   * edges of the ribbon.
+   * @param index The index of the strand to generate.
+   * @param vertices The array to write the vertices of the strand to.
+   * @return The <code>ShadingContext</code> at the root of the strand.
+   */
+  private ShadingContext generateStrand(int index, float[] vertices) {
     Random tempRnd = new Random(index);
     Random rnd = new Random(tempRnd.nextLong());
     RandomAdapter adapter = new RandomAdapter(rnd);
     MinimalShadingContext context = new MinimalShadingContext();
     emitter.generateRandomSurfacePoint(context, rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble());
-    Strand strand = new Strand();
-    strand.vertices = new Point3[2 * (segments + 1)];
-    strand.emitterContext = context;
-    strand.strandIndex = index;
 
     Point3 pos = context.getPosition();
     Vector3 vel = context.getBasis().toStandard(meanInitialVelocity).plus(
@@ -271,13 +555,13 @@ public final class HairSceneElement implements SceneElement {
     Basis3 basis = Basis3.fromWU(vel, context.getTangent());
 
     int segment = 0;
-    int i = 0;
+    int i = 6 * (segments + 1) * index;
     while (true) {
       double t = (double) segment / (double) segments;
       double width = MathUtil.interpolate(baseWidth, tipWidth, t);
 
-      strand.vertices[i++] = pos.plus(basis.toStandard(-0.5 * width * co, -0.5 * width * so, 0.0));
-      strand.vertices[i++] = pos.plus(basis.toStandard(0.5 * width * co, 0.5 * width * so, 0.0));
+      i = putVertex(vertices, i, pos.plus(basis.toStandard(-0.5 * width * co, -0.5 * width * so, 0.0)));
+      i = putVertex(vertices, i, pos.plus(basis.toStandard(0.5 * width * co, 0.5 * width * so, 0.0)));
 
       if (++segment > segments) {
         break;
@@ -287,7 +571,230 @@ public final class HairSceneElement implements SceneElement {
       pos = pos.plus(RandomUtil.uniformInsideSphere(roughness, adapter).toCartesian());
     }
 
-    return strand;
+    return context;
+  }
+
+  /**
+   * Writes a vertex to a packed array of coordinates.
+   * @param vertices The array to write to.
+   * @param i The index into <code>vertices</code> at which to write.
+   * @param p The <code>Point3</code> to write.
+   * @return The index into <code>vertices</code> following the written
+   *     vertex.
+   */
+  private static int putVertex(float[] vertices, int i, Point3 p) {
+    vertices[i++] = (float) p.x();
+    vertices[i++] = (float) p.y();
+    vertices[i++] = (float) p.z();
+    return i;
+  }
+
+  /**
+   * Finds the nearest intersection of a ray with a strand.
+   * @param strand The index of the strand.
+   * @param ox The x-coordinate of the origin of the ray.
+   * @param oy The y-coordinate of the origin of the ray.
+   * @param oz The z-coordinate of the origin of the ray.
+   * @param dx The x-component of the direction of the ray.
+   * @param dy The y-component of the direction of the ray.
+   * @param dz The z-component of the direction of the ray.
+   * @param tmin The start of the interval along the ray in which to look
+   *     for intersections.
+   * @param tmax The end of the interval along the ray in which to look for
+   *     intersections.
+   * @param hit An array to receive the distance to the intersection (at
+   *     index 0), if one is found.
+   * @param anyHit A value indicating whether to stop at the first
+   *     intersection found rather than the nearest one.
+   * @return The index (into {@link #vertices}) of the first vertex of the
+   *     triangle that was hit, or -1 if there is no intersection in
+   *     <code>(tmin, tmax)</code>.
+   */
+  private int intersectStrand(int strand, double ox, double oy, double oz,
+      double dx, double dy, double dz, double tmin, double tmax,
+      double[] hit, boolean anyHit) {
+    float[] v = vertices;
+    int first = verticesPerStrand * strand;
+    int end = first + verticesPerStrand - 2;
+    int result = -1;
+    for (int j = first; j < end; j++) {
+      double t = intersectTriangle(v, 3 * j, ox, oy, oz, dx, dy, dz);
+      if (t > tmin && t < tmax) {
+        result = j;
+        hit[0] = tmax = t;
+        if (anyHit) {
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Computes the intersection of a ray with a triangle using the
+   * M&ouml;ller-Trumbore algorithm.
+   * @param v The packed array of vertex coordinates.
+   * @param a The index into <code>v</code> of the first vertex of the
+   *     triangle.  The remaining two vertices immediately follow it.
+   * @param ox The x-coordinate of the origin of the ray.
+   * @param oy The y-coordinate of the origin of the ray.
+   * @param oz The z-coordinate of the origin of the ray.
+   * @param dx The x-component of the direction of the ray.
+   * @param dy The y-component of the direction of the ray.
+   * @param dz The z-component of the direction of the ray.
+   * @return The distance along the ray to the intersection, or
+   *     <code>Double.NaN</code> if the ray misses the triangle.
+   */
+  private static double intersectTriangle(float[] v, int a, double ox,
+      double oy, double oz, double dx, double dy, double dz) {
+    double ax = v[a], ay = v[a + 1], az = v[a + 2];
+    double e1x = v[a + 3] - ax, e1y = v[a + 4] - ay, e1z = v[a + 5] - az;
+    double e2x = v[a + 6] - ax, e2y = v[a + 7] - ay, e2z = v[a + 8] - az;
+
+    double px = dy * e2z - dz * e2y;
+    double py = dz * e2x - dx * e2z;
+    double pz = dx * e2y - dy * e2x;
+    double det = e1x * px + e1y * py + e1z * pz;
+    if (det == 0.0) {
+      return Double.NaN;
+    }
+    double inv = 1.0 / det;
+
+    double sx = ox - ax, sy = oy - ay, sz = oz - az;
+    double u = (sx * px + sy * py + sz * pz) * inv;
+    if (u < 0.0 || u > 1.0) {
+      return Double.NaN;
+    }
+
+    double qx = sy * e1z - sz * e1y;
+    double qy = sz * e1x - sx * e1z;
+    double qz = sx * e1y - sy * e1x;
+    double w = (dx * qx + dy * qy + dz * qz) * inv;
+    if (w < 0.0 || u + w > 1.0) {
+      return Double.NaN;
+    }
+
+    return (e2x * qx + e2y * qy + e2z * qz) * inv;
+  }
+
+  /**
+   * Gets the bounding box of a strand.
+   * @param strand The index of the strand.
+   * @return The bounding <code>Box3</code> of the strand.
+   */
+  private Box3 getStrandBoundingBox(int strand) {
+    ensureReady();
+    int b = 6 * strand;
+    return new Box3(strandBounds[b], strandBounds[b + 1], strandBounds[b + 2],
+        strandBounds[b + 3], strandBounds[b + 4], strandBounds[b + 5]);
+  }
+
+  /**
+   * Records the intersections of a ray with a strand.
+   * @param strand The index of the strand.
+   * @param ray The <code>Ray3</code> to intersect with the strand.
+   * @param recorder The <code>IntersectionRecorder</code> to record the
+   *     intersections to.
+   */
+  private void intersectStrand(int strand, Ray3 ray,
+      IntersectionRecorder recorder) {
+    ensureReady();
+    Point3 o = ray.origin();
+    Vector3 d = ray.direction();
+    Interval I = recorder.interval();
+    if (recorder.needAllIntersections()) {
+      int first = verticesPerStrand * strand;
+      int end = first + verticesPerStrand - 2;
+      for (int j = first; j < end; j++) {
+        double t = intersectTriangle(vertices, 3 * j, o.x(), o.y(), o.z(),
+            d.x(), d.y(), d.z());
+        if (I.contains(t)) {
+          recorder.record(new StrandIntersection(ray, t, strand, j));
+        }
+      }
+    } else {
+      double[] hit = hits.get();
+      int j = intersectStrand(strand, o.x(), o.y(), o.z(), d.x(), d.y(),
+          d.z(), I.minimum(), I.maximum(), hit, false);
+      if (j >= 0) {
+        recorder.record(new StrandIntersection(ray, hit[0], strand, j));
+      }
+    }
+  }
+
+  /**
+   * Determines if a ray is unobstructed by a strand.
+   * @param strand The index of the strand.
+   * @param ray The <code>Ray3</code> to test.
+   * @return A value indicating whether the ray misses the strand.
+   */
+  private boolean strandVisibility(int strand, Ray3 ray) {
+    ensureReady();
+    Point3 o = ray.origin();
+    Vector3 d = ray.direction();
+    return intersectStrand(strand, o.x(), o.y(), o.z(), d.x(), d.y(), d.z(),
+        MathUtil.SMALL_EPSILON, ray.limit(), hits.get(), true) < 0;
+  }
+
+  /**
+   * Traverses the bounding box hierarchy over the strands to find the
+   * nearest strand hit by a ray, or any strand hit by the ray.
+   * @param ray The <code>Ray3</code> to trace.
+   * @param tmin The start of the interval along the ray in which to look
+   *     for intersections.
+   * @param tmax The end of the interval along the ray in which to look for
+   *     intersections.
+   * @param hit An array to receive the distance to the intersection (at
+   *     index 0) and the index of the strand that was hit (at index 1).
+   * @param anyHit A value indicating whether to stop at the first
+   *     intersection found rather than the nearest one.
+   * @return The index (into {@link #vertices}) of the first vertex of the
+   *     triangle that was hit, or -1 if there is no intersection in
+   *     <code>(tmin, tmax)</code>.
+   */
+  private int traverse(Ray3 ray, double tmin, double tmax, double[] hit,
+      boolean anyHit) {
+    ensureReady();
+
+    Point3 o = ray.origin();
+    Vector3 d = ray.direction();
+    double ox = o.x(), oy = o.y(), oz = o.z();
+    double dx = d.x(), dy = d.y(), dz = d.z();
+    double ix = ray.reciprocalDirectionX();
+    double iy = ray.reciprocalDirectionY();
+    double iz = ray.reciprocalDirectionZ();
+
+    float[] nodeBounds = this.nodeBounds;
+    int[] nodeStrands = this.nodeStrands;
+    int[] nodeSkip = this.nodeSkip;
+    int n = this.numNodes;
+    int result = -1;
+
+    int node = 0;
+    while (node < n) {
+      int b = 6 * node;
+      if (Box3.intersect(nodeBounds[b], nodeBounds[b + 1], nodeBounds[b + 2],
+          nodeBounds[b + 3], nodeBounds[b + 4], nodeBounds[b + 5],
+          ox, oy, oz, ix, iy, iz, tmin, tmax, null, 0)) {
+        int strand = nodeStrands[node];
+        if (strand >= 0) {
+          int j = intersectStrand(strand, ox, oy, oz, dx, dy, dz, tmin, tmax,
+              hit, anyHit);
+          if (j >= 0) {
+            result = j;
+            tmax = hit[0];
+            hit[1] = strand;
+            if (anyHit) {
+              break;
+            }
+          }
+        }
+        node++;
+      } else {
+        node = nodeSkip[node];
+      }
+    }
+    return result;
   }
 
   @Override
@@ -322,12 +829,16 @@ public final class HairSceneElement implements SceneElement {
 
   @Override
   public Box3 getBoundingBox(int index) {
-    return index < base ? emitter.getBoundingBox(index) : createStrand(index - base).boundingBox();
+    return index < base ? emitter.getBoundingBox(index) : getStrandBoundingBox(index - base);
   }
 
   @Override
   public Sphere getBoundingSphere(int index) {
-    return index < base ? emitter.getBoundingSphere(index) : createStrand(index - base).boundingSphere();
+    if (index < base) {
+      return emitter.getBoundingSphere(index);
+    }
+    Box3 box = getStrandBoundingBox(index - base);
+    return new Sphere(box.center(), box.diagonal() / 2.0);
   }
 
   @Override
@@ -350,15 +861,23 @@ public final class HairSceneElement implements SceneElement {
     if (index < base) {
       emitter.intersect(index, ray, recorder);
     } else {
-      createStrand(index - base).intersect(ray, recorder);
+      intersectStrand(index - base, ray, recorder);
     }
   }
 
   @Override
   public void intersect(Ray3 ray, IntersectionRecorder recorder) {
-    // Warning: EXTREMELY SLOW - ALWAYS combine with an accelerator
-    for (int i = 0; i < amount; i++) {
-      intersect(base + i, ray, recorder);
+    if (recorder.needAllIntersections()) {
+      for (int i = 0; i < amount; i++) {
+        intersectStrand(i, ray, recorder);
+      }
+    } else {
+      Interval I = recorder.interval();
+      double[] hit = hits.get();
+      int j = traverse(ray, I.minimum(), I.maximum(), hit, false);
+      if (j >= 0) {
+        recorder.record(new StrandIntersection(ray, hit[0], (int) hit[1], j));
+      }
     }
     if (renderEmitter) {
       emitter.intersect(ray, recorder);
@@ -367,14 +886,14 @@ public final class HairSceneElement implements SceneElement {
 
   @Override
   public boolean intersects(int index, Box3 box) {
-    return index < base ? emitter.intersects(index, box) : createStrand(
-        index - base).intersects(box);
+    return index < base ? emitter.intersects(index, box)
+        : getStrandBoundingBox(index - base).intersects(box);
   }
 
   @Override
   public boolean visibility(int index, Ray3 ray) {
-    return index < base ? emitter.visibility(index, ray) : createStrand(
-        index - base).visibility(ray);
+    return index < base ? emitter.visibility(index, ray)
+        : strandVisibility(index - base, ray);
   }
 
   @Override
@@ -389,11 +908,9 @@ public final class HairSceneElement implements SceneElement {
 
   @Override
   public boolean visibility(Ray3 ray) {
-    // Warning: EXTREMELY SLOW - ALWAYS combine with an accelerator
-    for (int i = 0, n = amount; i < n; i++) {
-      if (!visibility(base + i, ray)) {
-        return false;
-      }
+    if (traverse(ray, MathUtil.SMALL_EPSILON, ray.limit(), hits.get(),
+        true) >= 0) {
+      return false;
     }
     return renderEmitter ? emitter.visibility(ray) : true;
   }
@@ -26,7 +26,6 @@
 package ca.eandb.jmist.framework.scene;
 
 import ca.eandb.jmist.framework.AffineTransformable3;
-import ca.eandb.jmist.framework.BoundingBoxBuilder3;
 import ca.eandb.jmist.framework.Intersection;
 import ca.eandb.jmist.framework.IntersectionDecorator;
 import ca.eandb.jmist.framework.IntersectionRecorder;
@@ -76,14 +75,7 @@ public final class TransformableSceneElement extends SceneElementDecorator
     if (bound != null) {
       return;
     }
-    BoundingBoxBuilder3 bbox = new BoundingBoxBuilder3();
-    for (int i = 0, n = super.getNumPrimitives(); i < n; i++) {
-      Box3 b = super.getBoundingBox(i);
-      for (int j = 0; j < 8; j++) {
-        bbox.add(t.apply(b.corner(j)));
-      }
-    }
-    bound = bbox.getBoundingBox();
+    bound = t.apply(super.boundingBox());
   }
 
   @Override
@@ -143,12 +135,7 @@ public final class TransformableSceneElement extends SceneElementDecorator
 
   @Override
   public Box3 getBoundingBox(int index) {
-    BoundingBoxBuilder3 bbox = new BoundingBoxBuilder3();
-    Box3 b = super.getBoundingBox(index);
-    for (int j = 0; j < 8; j++) {
-      bbox.add(t.apply(b.corner(j)));
-    }
-    return bbox.getBoundingBox();
+    return t.apply(super.getBoundingBox(index));
   }
 
   @Override
@@ -230,11 +217,7 @@ public final class TransformableSceneElement extends SceneElementDecorator
 
   @Override
   public boolean intersects(int index, Box3 box) {
-    BoundingBoxBuilder3 b = new BoundingBoxBuilder3();
-    for (int i = 0; i < 8; i++) {
-      b.add(t.applyInverse(box.corner(i)));
-    }
-    return super.intersects(index, b.getBoundingBox());
+    return super.intersects(index, t.applyInverse(box));
   }
 
   @Override
@@ -30,6 +30,7 @@ import ca.eandb.jmist.framework.Material;
 import ca.eandb.jmist.framework.Shader;
 import ca.eandb.jmist.framework.ShadingContext;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.WavelengthPacket;
 import ca.eandb.jmist.math.Vector3;
 
@@ -43,17 +44,17 @@ public final class DirectLightingShader implements Shader {
     Material mat = sc.getMaterial();
     WavelengthPacket lambda = sc.getWavelengthPacket();
     Vector3 normal = sc.getShadingNormal();
-    Color sum = sc.getColorModel().getBlack(lambda);
+    ColorAccumulator sum = sc.getColorModel().createAccumulator(lambda);
     for (LightSample sample : sc.getLightSamples()) {
       if (!sample.castShadowRay(sc)) {
         Vector3 in = sample.getDirToLight().opposite();
         Vector3 out = sc.getIncident().opposite();
         Color bsdf = mat.bsdf(sc, in, out, lambda);
         double dot = Math.abs(in.dot(normal));
-        sum = sum.plus(sample.getRadiantIntensity().times(bsdf.times(dot)));
+        sum.mulAdd(sample.getRadiantIntensity(), bsdf, dot);
       }
     }
-    return sum;
+    return sum.toColor();
   }
 
 }
@@ -33,6 +33,7 @@ import ca.eandb.jmist.framework.ScatteredRay;
 import ca.eandb.jmist.framework.Shader;
 import ca.eandb.jmist.framework.ShadingContext;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorUtil;
 import ca.eandb.jmist.framework.color.WavelengthPacket;
 import ca.eandb.jmist.framework.random.NRooksRandom;
@@ -109,15 +110,15 @@ public final class PathTracingShader implements Shader {
     if (firstBounceRays > 0 && sc.getPathDepth() < 1) {
       Random sampler = firstBounceSampler.get();
       WavelengthPacket lambda = sc.getWavelengthPacket();
-      Color shade = sc.getColorModel().getBlack(lambda);
+      ColorAccumulator shade = sc.getColorModel().createAccumulator(lambda);
       Vector3 in = sc.getIncident();
       for (int i = 0; i < firstBounceRays; i++) {
         ScatteredRay ray = sc.getMaterial().scatter(sc, in, true, lambda, sampler.next(), sampler.next(), sampler.next());
         if (ray != null) {
-          shade = shade.plus(sc.castRay(ray).times(ray.getColor()));
+          shade.mulAdd(sc.castRay(ray), ray.getColor());
         }
       }
-      return shade.divide(firstBounceRays);
+      return shade.scale(1.0 / (double) firstBounceRays).toColor();
     } else if (sc.getPathDepth() < maxDepth) {
       ScatteredRay ray = sc.getScatteredRay();
       if (ray != null) {
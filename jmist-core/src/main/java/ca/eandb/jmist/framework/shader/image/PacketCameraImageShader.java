@@ -0,0 +1,149 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.shader.image;
+
+import ca.eandb.jmist.framework.ImageShader;
+import ca.eandb.jmist.framework.Lens;
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.jmist.framework.ScatteredRay;
+import ca.eandb.jmist.framework.accel.RayPacket;
+import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorUtil;
+import ca.eandb.jmist.framework.color.WavelengthPacket;
+import ca.eandb.jmist.framework.shader.ray.SceneRayShader;
+import ca.eandb.jmist.math.Point2;
+
+/**
+ * An image shader that uses a Lens to shade rays corresponding to points on the
+ * image plane, tracing groups of primary rays together as
+ * <code>RayPacket</code>s.
+ * @see CameraImageShader
+ * @author Brad Kimmel
+ */
+public final class PacketCameraImageShader implements ImageShader {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -3196528410478214402L;
+
+  /**
+   * The lens to use to obtain rays corresponding to points on the image plane.
+   */
+  private final Lens lens;
+
+  /** The shader to use to shade rays. */
+  private final SceneRayShader rayShader;
+
+  /** The maximum number of rays to trace together. */
+  private final int packetSize;
+
+  /**
+   * Initializes the lens and ray shader to use to shade points on the image
+   * plane.
+   * @param lens The lens to use to generate rays corresponding to points on the
+   *     image plane.
+   * @param rayShader The shader to use to shade rays.
+   */
+  public PacketCameraImageShader(Lens lens, SceneRayShader rayShader) {
+    this(lens, rayShader, RayPacket.DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Initializes the lens and ray shader to use to shade points on the image
+   * plane.
+   * @param lens The lens to use to generate rays corresponding to points on the
+   *     image plane.
+   * @param rayShader The shader to use to shade rays.
+   * @param packetSize The maximum number of rays to trace together.
+   */
+  public PacketCameraImageShader(Lens lens, SceneRayShader rayShader, int packetSize) {
+    if (packetSize <= 0) {
+      throw new IllegalArgumentException("packetSize must be positive");
+    }
+    this.lens = lens;
+    this.rayShader = rayShader;
+    this.packetSize = packetSize;
+  }
+
+  /**
+   * Gets the maximum number of rays traced together.
+   * @return The maximum number of rays traced together.
+   */
+  public int getPacketSize() {
+    return packetSize;
+  }
+
+  @Override
+  public Color shadeAt(Point2 p, WavelengthPacket lambda) {
+    ScatteredRay sr = lens.rayAt(p, lambda, Random.DEFAULT);
+    if (sr != null) {
+      Color shade = rayShader.shadeRay(sr.getRay(), lambda);
+      return shade.times(sr.getColor());
+    } else {
+      return ColorUtil.getBlack(lambda);
+    }
+  }
+
+  /**
+   * Obtains the camera colour response at several points on the image plane.
+   * Points should be close together, so that the corresponding rays are
+   * coherent.
+   * @param p The points on the image plane in normalized device coordinates
+   *     (must fall within {@code Box2.UNIT}).
+   * @param lambda The <code>WavelengthPacket</code>s to use to sample
+   *     <code>Spectrum</code>s at the corresponding points.
+   * @param result The array to receive the <code>Color</code> responses at
+   *     the corresponding points.
+   * @param count The number of points to shade.
+   */
+  public void shadeAt(Point2[] p, WavelengthPacket[] lambda, Color[] result, int count) {
+    RayPacket packet = new RayPacket(packetSize);
+    int[] index = new int[packetSize];
+    Color[] scale = new Color[packetSize];
+    WavelengthPacket[] packetLambda = new WavelengthPacket[packetSize];
+    Color[] shade = new Color[packetSize];
+
+    for (int i = 0; i < count; i++) {
+      ScatteredRay sr = lens.rayAt(p[i], lambda[i], Random.DEFAULT);
+      if (sr != null) {
+        int k = packet.add(sr.getRay());
+        index[k] = i;
+        scale[k] = sr.getColor();
+        packetLambda[k] = lambda[i];
+      } else {
+        result[i] = ColorUtil.getBlack(lambda[i]);
+      }
+
+      if (packet.isFull() || (i == count - 1 && packet.size() > 0)) {
+        rayShader.shadeRays(packet, packetLambda, shade);
+        for (int k = 0, n = packet.size(); k < n; k++) {
+          result[index[k]] = shade[k].times(scale[k]);
+        }
+        packet.clear();
+      }
+    }
+  }
+
+}
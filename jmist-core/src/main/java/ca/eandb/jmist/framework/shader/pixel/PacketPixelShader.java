@@ -0,0 +1,114 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.shader.pixel;
+
+import ca.eandb.jmist.framework.PixelShader;
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorModel;
+import ca.eandb.jmist.framework.color.WavelengthPacket;
+import ca.eandb.jmist.framework.shader.image.PacketCameraImageShader;
+import ca.eandb.jmist.math.Box2;
+import ca.eandb.jmist.math.Point2;
+
+/**
+ * A pixel shader that shades the center of each pixel (like
+ * <code>SimplePixelShader</code>), but which can shade groups of adjacent
+ * pixels together so that their primary rays are traced as a packet.
+ * @see SimplePixelShader
+ * @see PacketCameraImageShader
+ * @author Brad Kimmel
+ */
+public final class PacketPixelShader implements PixelShader {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 2930587425839405374L;
+
+  /** The <code>PacketCameraImageShader</code> to use for shading points. */
+  private final PacketCameraImageShader shader;
+
+  /**
+   * The <code>ColorModel</code> to use for sampling in the wavelength
+   * domain.
+   */
+  private final ColorModel model;
+
+  /**
+   * Creates a new <code>PacketPixelShader</code>.
+   * @param shader The <code>PacketCameraImageShader</code> to use for
+   *     shading points.
+   * @param model The <code>ColorModel</code> to use for sampling in the
+   *     wavelength domain.
+   */
+  public PacketPixelShader(PacketCameraImageShader shader, ColorModel model) {
+    this.shader = shader;
+    this.model = model;
+  }
+
+  /**
+   * Gets the maximum number of pixels that are shaded together.
+   * @return The maximum number of pixels that are shaded together.
+   */
+  public int getPacketSize() {
+    return shader.getPacketSize();
+  }
+
+  @Override
+  public Color shadePixel(Box2 bounds) {
+    Color sample = model.sample(Random.DEFAULT);
+    WavelengthPacket lambda = sample.getWavelengthPacket();
+    Color shade = shader.shadeAt(bounds.center(), lambda);
+    return shade.times(sample);
+  }
+
+  /**
+   * Computes estimates of the mean channel responses at several pixels.
+   * The pixels should be adjacent, so that their primary rays are coherent.
+   * @param bounds The bounds of the pixels in normalized device coordinates
+   *     (must be bounded by {@code Box2.UNIT}).
+   * @param result The array to receive the <code>Color</code>s of the
+   *     corresponding pixels.
+   * @param count The number of pixels to shade.
+   */
+  public void shadePixels(Box2[] bounds, Color[] result, int count) {
+    Color[] samples = new Color[count];
+    WavelengthPacket[] lambda = new WavelengthPacket[count];
+    Point2[] points = new Point2[count];
+
+    for (int i = 0; i < count; i++) {
+      samples[i] = model.sample(Random.DEFAULT);
+      lambda[i] = samples[i].getWavelengthPacket();
+      points[i] = bounds[i].center();
+    }
+
+    shader.shadeAt(points, lambda, result, count);
+
+    for (int i = 0; i < count; i++) {
+      result[i] = result[i].times(samples[i]);
+    }
+  }
+
+}
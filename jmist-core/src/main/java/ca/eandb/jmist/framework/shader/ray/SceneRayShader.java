@@ -26,12 +26,12 @@
 package ca.eandb.jmist.framework.shader.ray;
 
 import java.util.ArrayList;
-import java.util.EnumMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
 
 import ca.eandb.jmist.framework.Illuminable;
 import ca.eandb.jmist.framework.Intersection;
+import ca.eandb.jmist.framework.IntersectionRecorder;
 import ca.eandb.jmist.framework.Light;
 import ca.eandb.jmist.framework.LightSample;
 import ca.eandb.jmist.framework.Material;
@@ -46,12 +46,14 @@ import ca.eandb.jmist.framework.Scene;
 import ca.eandb.jmist.framework.SceneElement;
 import ca.eandb.jmist.framework.Shader;
 import ca.eandb.jmist.framework.ShadingContext;
+import ca.eandb.jmist.framework.accel.RayPacket;
 import ca.eandb.jmist.framework.color.Color;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.WavelengthPacket;
 import ca.eandb.jmist.framework.random.SimpleRandom;
 import ca.eandb.jmist.framework.random.ThreadLocalRandom;
 import ca.eandb.jmist.math.Basis3;
+import ca.eandb.jmist.math.Interval;
 import ca.eandb.jmist.math.Point2;
 import ca.eandb.jmist.math.Point3;
 import ca.eandb.jmist.math.Ray3;
@@ -74,6 +76,15 @@ public final class SceneRayShader implements RayShader {
 
   private final Random rng;
 
+  /**
+   * The <code>Context</code> reused by each thread for rays that are not
+   * cast from within another call to a <code>SceneRayShader</code>.  The
+   * <code>Context</code> only refers to a shader while it is shading a ray,
+   * so that an idle thread does not keep the shader or its scene alive.
+   */
+  private static final ThreadLocal<Context> contexts =
+      ThreadLocal.withInitial(Context::new);
+
   public SceneRayShader(SceneElement root, Light light, RayShader background, Random rng) {
     this.root = root;
     this.light = light;
@@ -95,15 +106,64 @@ public final class SceneRayShader implements RayShader {
 
   @Override
   public Color shadeRay(Ray3 ray, WavelengthPacket lambda) {
-    Context context = new Context();
-    return context.castPrimaryRay(ray, lambda);
+    Context context = getContext();
+    context.owner = this;
+    try {
+      return context.castPrimaryRay(ray, lambda);
+    } finally {
+      context.owner = null;
+    }
+  }
+
+  /**
+   * Gets a <code>Context</code> to use to shade a primary ray.  The calling
+   * thread's <code>Context</code> is reused unless it is already in use
+   * (i.e., a shader has been reentered, for example by a light or a
+   * background shader), in which case a new one is created.
+   * @return The <code>Context</code> to use.
+   */
+  private static Context getContext() {
+    Context context = contexts.get();
+    return context.isIdle() ? context : new Context();
+  }
+
+  /**
+   * Shades a packet of primary rays.  The rays are intersected with the
+   * scene together (see {@link RayPacket#intersect(SceneElement,
+   * IntersectionRecorder[])}) and then shaded individually.
+   * @param packet The <code>RayPacket</code> containing the rays to shade.
+   * @param lambda The <code>WavelengthPacket</code>s to use for the
+   *     corresponding rays in <code>packet</code>.
+   * @param result The array to receive the shaded <code>Color</code>s of
+   *     the corresponding rays in <code>packet</code>.
+   */
+  public void shadeRays(RayPacket packet, WavelengthPacket[] lambda, Color[] result) {
+    int n = packet.size();
+    NearestIntersectionRecorder[] recorders = new NearestIntersectionRecorder[n];
+    for (int i = 0; i < n; i++) {
+      recorders[i] = new NearestIntersectionRecorder(new Interval(0.0, packet.getRay(i).limit()));
+    }
+
+    packet.intersect(root, recorders);
+
+    Context context = getContext();
+    context.owner = this;
+    try {
+      for (int i = 0; i < n; i++) {
+        result[i] = context.castPrimaryRay(packet.getRay(i),
+            recorders[i].nearestIntersection(), lambda[i]);
+      }
+    } finally {
+      context.owner = null;
+    }
   }
 
-  private final class LocalContext {
+  private static final class LocalContext {
     public double distance;
     public Color importance;
     public Ray3 ray;
-    public List<LightSample> samples;
+    public final List<LightSample> samples = new ArrayList<>();
+    public boolean illuminated;
     public Modifier modifier;
     public ScatteredRay scatteredRay;
     public Shader shader;
@@ -115,94 +175,196 @@ public final class SceneRayShader implements RayShader {
     public Medium medium;
     public Material material;
     public int primitiveIndex;
+
+    /** Clears this <code>LocalContext</code> so that it may be reused. */
+    public void reset() {
+      distance = 0.0;
+      importance = null;
+      ray = null;
+      samples.clear();
+      illuminated = false;
+      modifier = null;
+      scatteredRay = null;
+      shader = null;
+      front = false;
+      basis = null;
+      shadingBasis = null;
+      position = null;
+      uv = Point2.ORIGIN;
+      medium = null;
+      material = null;
+      primitiveIndex = 0;
+    }
   }
 
-  private class Context implements ShadingContext, Illuminable {
+  private static final class Context implements ShadingContext, Illuminable {
 
-    private final Stack<LocalContext> stack = new Stack<>();
-    private final EnumMap<ScatteredRay.Type, Integer> depth = new EnumMap<>(ScatteredRay.Type.class);
+    /** The initial capacity of the stacks. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The <code>SceneRayShader</code> on whose behalf rays are being shaded,
+     * or <code>null</code> if this <code>Context</code> is idle.
+     */
+    private SceneRayShader owner;
+
+    /**
+     * The stack of <code>LocalContext</code>s, one per ray in the current
+     * path.  Entries beyond {@link #top} are retained for reuse.
+     */
+    private LocalContext[] stack = new LocalContext[INITIAL_CAPACITY];
+
+    /** The index of the current <code>LocalContext</code>, or -1 if none. */
+    private int top = -1;
+
+    /** The current path depth for each <code>ScatteredRay.Type</code>. */
+    private final int[] depth = new int[ScatteredRay.Type.values().length];
+
+    /** The total path depth. */
     private int totalDepth = 0;
-    private final Stack<Medium> media = new Stack<>();
+
+    /** The stack of media that the current ray is inside of. */
+    private Medium[] media = new Medium[INITIAL_CAPACITY];
+
+    /** The number of entries in {@link #media}. */
+    private int mediaSize = 0;
+
+    /**
+     * Determines if this <code>Context</code> is not currently shading a
+     * ray.
+     * @return A value indicating if this <code>Context</code> is idle.
+     */
+    public boolean isIdle() {
+      return top < 0;
+    }
+
+    /**
+     * Pushes a cleared <code>LocalContext</code> onto the stack.
+     * @return The new <code>LocalContext</code>.
+     */
+    private LocalContext push() {
+      if (++top == stack.length) {
+        stack = Arrays.copyOf(stack, 2 * stack.length);
+      }
+      LocalContext local = stack[top];
+      if (local == null) {
+        local = new LocalContext();
+        stack[top] = local;
+      }
+      return local;
+    }
+
+    /**
+     * Pops the current <code>LocalContext</code> from the stack, clearing
+     * it so that it does not keep the ray and its intersection reachable.
+     */
+    private void pop() {
+      stack[top--].reset();
+    }
+
+    /**
+     * Gets the current <code>LocalContext</code>.
+     * @return The current <code>LocalContext</code>.
+     */
+    private LocalContext peek() {
+      return stack[top];
+    }
+
+    private void pushMedium(Medium medium) {
+      if (mediaSize == media.length) {
+        media = Arrays.copyOf(media, 2 * media.length);
+      }
+      media[mediaSize++] = medium;
+    }
+
+    private Medium popMedium() {
+      Medium medium = media[--mediaSize];
+      media[mediaSize] = null;
+      return medium;
+    }
 
     public Color castPrimaryRay(Ray3 ray, WavelengthPacket lambda) {
-      Intersection x = NearestIntersectionRecorder.computeNearestIntersection(ray, root);
+      Intersection x = NearestIntersectionRecorder.computeNearestIntersection(ray, owner.root);
+      return castPrimaryRay(ray, x, lambda);
+    }
 
+    public Color castPrimaryRay(Ray3 ray, Intersection x, WavelengthPacket lambda) {
       if (x != null) {
-        LocalContext local = new LocalContext();
+        LocalContext local = push();
         local.ray = ray;
         local.distance = x.getDistance();
         local.front = x.isFront();
         local.medium = Medium.VACUUM;
         local.importance = lambda.getColorModel().getWhite(lambda);
 
-        stack.push(local);
-        x.prepareShadingContext(this);
-
-        Color color = shade();
-
-        stack.pop();
-        return color;
+        try {
+          x.prepareShadingContext(this);
+          return shade();
+        } finally {
+          pop();
+        }
       } else {
-        return background.shadeRay(ray, lambda);
+        return owner.background.shadeRay(ray, lambda);
       }
     }
 
     public Color castRay(ScatteredRay sr) {
       ScatteredRay.Type type = sr.getType();
       Ray3 ray = sr.getRay();
-      Intersection x = NearestIntersectionRecorder.computeNearestIntersection(ray, root);
+      Intersection x = NearestIntersectionRecorder.computeNearestIntersection(ray, owner.root);
 
       if (x != null) {
         totalDepth++;
-        depth.put(type, getPathDepthByType(type) + 1);
+        depth[type.ordinal()]++;
 
         boolean pop = false;
         Medium popped = null;
         if (sr.isTransmitted()) {
           if (isFront()) {
-            media.push(getMaterial());
+            pushMedium(getMaterial());
             pop = true;
-          } else if (!media.isEmpty()) {
-            popped = media.pop();
+          } else if (mediaSize > 0) {
+            popped = popMedium();
           }
         }
 
         Medium ambientMedium;
-        Medium medium = media.isEmpty() ? Medium.VACUUM : media.peek();
+        Medium medium = mediaSize > 0 ? media[mediaSize - 1] : Medium.VACUUM;
         if (x.isFront()) {
           ambientMedium = medium;
         } else {
-          ambientMedium = media.size() > 1 ? media.elementAt(media.size() - 2) : Medium.VACUUM;
+          ambientMedium = mediaSize > 1 ? media[mediaSize - 2] : Medium.VACUUM;
         }
 
-        LocalContext local = new LocalContext();
+        Color importance = sr.getColor().times(peek().importance);
+        LocalContext local = push();
         local.ray = ray;
         local.distance = x.getDistance();
         local.front = x.isFront();
         local.medium = ambientMedium;
-        local.importance = sr.getColor().times(stack.peek().importance);
+        local.importance = importance;
 
-        stack.push(local);
-        x.prepareShadingContext(this);
+        try {
+          x.prepareShadingContext(this);
 
-        Color color = shade();
-        color = color.times(medium.transmittance(local.ray,
-            local.distance, color.getWavelengthPacket()));
+          Color color = shade();
+          return color.times(medium.transmittance(local.ray,
+              local.distance, color.getWavelengthPacket()));
+        } finally {
+          if (popped != null) {
+            pushMedium(popped);
+          }
 
-        if (popped != null) {
-          media.push(popped);
-        }
+          if (pop) {
+            popMedium();
+          }
 
-        if (pop) {
-          media.pop();
+          pop();
+          depth[type.ordinal()]--;
+          totalDepth--;
         }
-
-        stack.pop();
-        depth.put(type, depth.get(type) - 1);
-        totalDepth--;
-        return color;
       } else {
-        return background.shadeRay(ray, getWavelengthPacket());
+        return owner.background.shadeRay(ray, getWavelengthPacket());
       }
     }
 
@@ -220,17 +382,16 @@ public final class SceneRayShader implements RayShader {
     }
 
     public Color getImportance() {
-      return stack.peek().importance;
+      return peek().importance;
     }
 
     public Iterable<LightSample> getLightSamples() {
-      List<LightSample> samples = stack.peek().samples;
-      if (samples == null) {
-        samples = new ArrayList<>();
-        stack.peek().samples = samples;
-        light.illuminate(this, getWavelengthPacket(), rng, this);
+      LocalContext local = peek();
+      if (!local.illuminated) {
+        local.illuminated = true;
+        owner.light.illuminate(this, getWavelengthPacket(), owner.rng, this);
       }
-      return samples;
+      return local.samples;
     }
 
     public int getPathDepth() {
@@ -238,17 +399,16 @@ public final class SceneRayShader implements RayShader {
     }
 
     public int getPathDepthByType(Type type) {
-      Integer d = depth.get(type);
-      return (d != null ? d : 0);
+      return depth[type.ordinal()];
     }
 
     public ScatteredRay getScatteredRay() {
-      if (stack.peek().scatteredRay == null) {
-        stack.peek().scatteredRay = stack.peek().material.scatter(this,
-            getIncident(), true, getWavelengthPacket(), rng.next(),
-            rng.next(), rng.next());
+      if (peek().scatteredRay == null) {
+        peek().scatteredRay = peek().material.scatter(this,
+            getIncident(), true, getWavelengthPacket(), owner.rng.next(),
+            owner.rng.next(), owner.rng.next());
       }
-      return stack.peek().scatteredRay;
+      return peek().scatteredRay;
     }
 
     public Color shade() {
@@ -256,32 +416,32 @@ public final class SceneRayShader implements RayShader {
     }
 
     public double getDistance() {
-      return stack.peek().distance;
+      return peek().distance;
     }
 
     public Vector3 getIncident() {
-      return stack.peek().ray.direction();
+      return peek().ray.direction();
     }
 
     public boolean isFront() {
-      return stack.peek().front;
+      return peek().front;
     }
 
     public Basis3 getBasis() {
-      return stack.peek().basis;
+      return peek().basis;
     }
 
     public Vector3 getNormal() {
-      return stack.peek().basis.w();
+      return peek().basis.w();
     }
 
     public Point3 getPosition() {
-      return stack.peek().position;
+      return peek().position;
     }
 
     public Basis3 getShadingBasis() {
-      Basis3 basis = stack.peek().shadingBasis;
-      return basis != null ? basis : stack.peek().basis;
+      Basis3 basis = peek().shadingBasis;
+      return basis != null ? basis : peek().basis;
     }
 
     public Vector3 getShadingNormal() {
@@ -289,89 +449,89 @@ public final class SceneRayShader implements RayShader {
     }
 
     public Vector3 getTangent() {
-      return stack.peek().basis.u();
+      return peek().basis.u();
     }
 
     public Point2 getUV() {
-      return stack.peek().uv;
+      return peek().uv;
     }
 
     public boolean visibility(Ray3 ray) {
-      return root.visibility(ray);
+      return owner.root.visibility(ray);
     }
 
     public void addLightSample(LightSample sample) {
-      List<LightSample> samples = stack.peek().samples;
-      assert(samples != null);
-      samples.add(sample);
+      LocalContext local = peek();
+      assert(local.illuminated);
+      local.samples.add(sample);
     }
 
     public Modifier getModifier() {
-      return stack.peek().modifier;
+      return peek().modifier;
     }
 
     public Ray3 getRay() {
-      return stack.peek().ray;
+      return peek().ray;
     }
 
     public Shader getShader() {
-      return stack.peek().shader;
+      return peek().shader;
     }
 
     public void setAmbientMedium(Medium medium) {
-      stack.peek().medium = medium;
+      peek().medium = medium;
     }
 
     public void setBasis(Basis3 basis) {
-      stack.peek().basis = basis;
+      peek().basis = basis;
     }
 
     public void setMaterial(Material material) {
-      stack.peek().material = material;
+      peek().material = material;
     }
 
     public void setModifier(Modifier modifier) {
-      stack.peek().modifier = modifier;
+      peek().modifier = modifier;
     }
 
     public void setNormal(Vector3 normal) {
-      stack.peek().basis = Basis3.fromW(normal);
+      peek().basis = Basis3.fromW(normal);
     }
 
     public void setPosition(Point3 position) {
-      stack.peek().position = position;
+      peek().position = position;
     }
 
     public void setPrimitiveIndex(int index) {
-      stack.peek().primitiveIndex = index;
+      peek().primitiveIndex = index;
     }
 
     public void setShader(Shader shader) {
-      stack.peek().shader = shader;
+      peek().shader = shader;
     }
 
     public void setShadingBasis(Basis3 basis) {
-      stack.peek().shadingBasis = basis;
+      peek().shadingBasis = basis;
     }
 
     public void setShadingNormal(Vector3 normal) {
-      stack.peek().shadingBasis = Basis3.fromW(normal);
+      peek().shadingBasis = Basis3.fromW(normal);
     }
 
     public void setUV(Point2 uv) {
-      stack.peek().uv = uv;
+      peek().uv = uv;
     }
 
     public Medium getAmbientMedium() {
-      return stack.peek().medium;
+      return peek().medium;
     }
 
     public Material getMaterial() {
-      return stack.peek().material;
+      return peek().material;
     }
 
     public int getPrimitiveIndex() {
-      return stack.peek().primitiveIndex;
+      return peek().primitiveIndex;
     }
 
   }
@@ -31,9 +31,10 @@ import java.io.InputStream;
 import java.net.URL;
 
 import ca.eandb.jmist.framework.Texture2;
+import ca.eandb.jmist.framework.color.CIEXYZ;
+import ca.eandb.jmist.framework.color.RGB;
 import ca.eandb.jmist.framework.color.Spectrum;
 import ca.eandb.jmist.framework.loader.radiance.RadiancePicture;
-import ca.eandb.jmist.math.MathUtil;
 import ca.eandb.jmist.math.Point2;
 
 public final class RadianceTexture2 implements Texture2 {
@@ -41,10 +42,64 @@ public final class RadianceTexture2 implements Texture2 {
   /** Serialized version ID. */
   private static final long serialVersionUID = -763379510350283868L;
 
-  private final RadiancePicture picture;
+  /** Storage reused by each thread for the result of a texel lookup. */
+  private static final ThreadLocal<float[]> texel =
+      ThreadLocal.withInitial(() -> new float[3]);
+
+  /**
+   * The <code>TiledMipMap</code> holding the pixels of the picture, in the
+   * color space given by {@link #format}.
+   */
+  private final TiledMipMap mipmap;
+
+  /** The pixel format of the picture. */
+  private final RadiancePicture.Format format;
+
+  /** The <code>TextureFilter</code> to apply when looking up the picture. */
+  private TextureFilter filter = TextureFilter.NEAREST;
+
+  /**
+   * The width of the filter footprint, in texture coordinates, for
+   * {@link TextureFilter#TRILINEAR} filtering.
+   */
+  private double filterWidth = 0.0;
+
+  /**
+   * Creates a new <code>RadianceTexture2</code>.  The picture is converted to
+   * a {@link TiledMipMap} and is not retained.
+   * @param picture The <code>RadiancePicture</code> to use as the basis for
+   *     the new <code>Texture2</code>.
+   * @param cache The <code>TextureCache</code> to hold the tiles of the
+   *     picture.
+   */
+  public RadianceTexture2(RadiancePicture picture, TextureCache cache) {
+    this.format = picture.getFormat();
+    this.mipmap = new TiledMipMap(picture.getSizeX(), picture.getSizeY(), 3,
+        false, (x, y, pixel) -> {
+          switch (format) {
+            case RGBE: {
+              RGB rgb = picture.getPixelRGB(x, y);
+              pixel[0] = (float) rgb.r();
+              pixel[1] = (float) rgb.g();
+              pixel[2] = (float) rgb.b();
+              break;
+            }
+            case XYZE: {
+              CIEXYZ xyz = picture.getPixelXYZ(x, y);
+              pixel[0] = (float) xyz.X();
+              pixel[1] = (float) xyz.Y();
+              pixel[2] = (float) xyz.Z();
+              break;
+            }
+            default:
+              pixel[0] = pixel[1] = pixel[2] = 0.0f;
+              break;
+          }
+        }, cache);
+  }
 
   public RadianceTexture2(RadiancePicture picture) {
-    this.picture = picture;
+    this(picture, TextureCache.getDefault());
   }
 
   public RadianceTexture2(File file) throws IOException {
@@ -59,20 +114,38 @@ public final class RadianceTexture2 implements Texture2 {
     this(RadiancePicture.read(stream));
   }
 
+  /**
+   * Sets the filtering to apply when looking up the picture.
+   * @param filter The <code>TextureFilter</code> to apply.
+   * @return A reference to this <code>RadianceTexture2</code>.
+   */
+  public RadianceTexture2 setFilter(TextureFilter filter) {
+    this.filter = filter;
+    return this;
+  }
+
+  /**
+   * Sets the width of the filter footprint used for
+   * {@link TextureFilter#TRILINEAR} filtering.
+   * @param filterWidth The width of the filter footprint, in texture
+   *     coordinates.
+   * @return A reference to this <code>RadianceTexture2</code>.
+   */
+  public RadianceTexture2 setFilterWidth(double filterWidth) {
+    this.filterWidth = filterWidth;
+    return this;
+  }
+
   @Override
   public Spectrum evaluate(Point2 p) {
-    double u = p.x() - Math.floor(p.x());
-    double v = 1.0 - (p.y() - Math.floor(p.y()));
-    int w = picture.getSizeX();
-    int h = picture.getSizeY();
-    int x = MathUtil.clamp((int) Math.floor(u * (double) w), 0, w - 1);
-    int y = MathUtil.clamp((int) Math.floor(v * (double) h), 0, h - 1);
-
-    switch (picture.getFormat()) {
+    float[] t = texel.get();
+    mipmap.lookup(p.x(), 1.0 - p.y(), filter, filterWidth, t);
+
+    switch (format) {
       case RGBE:
-        return picture.getPixelRGB(x, y);
+        return new RGB(t[0], t[1], t[2]);
       case XYZE:
-        return picture.getPixelXYZ(x, y);
+        return new CIEXYZ(t[0], t[1], t[2]);
       default:
         return Spectrum.BLACK;
     }
@@ -29,8 +29,6 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.URL;
 
 import javax.imageio.ImageIO;
@@ -39,7 +37,6 @@ import javax.imageio.stream.ImageInputStream;
 import ca.eandb.jmist.framework.Texture2;
 import ca.eandb.jmist.framework.color.RGB;
 import ca.eandb.jmist.framework.color.Spectrum;
-import ca.eandb.jmist.math.MathUtil;
 import ca.eandb.jmist.math.Point2;
 
 /**
@@ -52,11 +49,16 @@ public final class RasterTexture2 implements Texture2 {
   /** Serialization version ID. */
   private static final long serialVersionUID = -2712131011948642676L;
 
+  /** Storage reused by each thread for the result of a texel lookup. */
+  private static final ThreadLocal<float[]> texel =
+      ThreadLocal.withInitial(() -> new float[4]);
+
   /**
-   * The <code>BufferedImage</code> that serves as the basis for this
-   * <code>Texture2</code>.
+   * The <code>TiledMipMap</code> holding the image that serves as the basis
+   * for this <code>Texture2</code>.  The color channels are premultiplied
+   * by alpha, which is stored in the fourth channel.
    */
-  private transient BufferedImage image;
+  private final TiledMipMap mipmap;
 
   /**
    * The <code>Texture2</code> to render underneath this texture if the image
@@ -64,18 +66,51 @@ public final class RasterTexture2 implements Texture2 {
    */
   private final Texture2 background;
 
+  /** The <code>TextureFilter</code> to apply when looking up the image. */
+  private TextureFilter filter = TextureFilter.NEAREST;
+
   /**
-   * Creates a new <code>RasterTexture2</code>.
+   * The width of the filter footprint, in texture coordinates, for
+   * {@link TextureFilter#TRILINEAR} filtering.
+   */
+  private double filterWidth = 0.0;
+
+  /**
+   * Creates a new <code>RasterTexture2</code>.  The image is converted to a
+   * {@link TiledMipMap} and is not retained.
    * @param image The <code>BufferedImage</code> to use as the basis for the
    *     new <code>Texture2</code>.
    * @param background The <code>Texture2</code> to render underneath if the
    *     image has an alpha channel.
+   * @param cache The <code>TextureCache</code> to hold the tiles of the
+   *     image.
    */
-  public RasterTexture2(BufferedImage image, Texture2 background) {
-    this.image = image;
+  public RasterTexture2(BufferedImage image, Texture2 background,
+      TextureCache cache) {
+    this.mipmap = new TiledMipMap(image.getWidth(), image.getHeight(), 4,
+        true, (x, y, pixel) -> {
+          int c = image.getRGB(x, y);
+          float a = (float) ((c >> 24) & 0xff) / 255.0f;
+          pixel[0] = a * (float) ((c >> 16) & 0xff) / 255.0f;
+          pixel[1] = a * (float) ((c >> 8) & 0xff) / 255.0f;
+          pixel[2] = a * (float) (c & 0xff) / 255.0f;
+          pixel[3] = a;
+        }, cache);
     this.background = background;
   }
 
+  /**
+   * Creates a new <code>RasterTexture2</code> whose tiles are held in the
+   * default {@link TextureCache}.
+   * @param image The <code>BufferedImage</code> to use as the basis for the
+   *     new <code>Texture2</code>.
+   * @param background The <code>Texture2</code> to render underneath if the
+   *     image has an alpha channel.
+   */
+  public RasterTexture2(BufferedImage image, Texture2 background) {
+    this(image, background, TextureCache.getDefault());
+  }
+
   public RasterTexture2(File file, Texture2 background) throws IOException {
     this(ImageIO.read(file), background);
   }
@@ -117,36 +152,45 @@ public final class RasterTexture2 implements Texture2 {
     this(ImageIO.read(input));
   }
 
-  private void writeObject(ObjectOutputStream oos) throws IOException {
-    oos.defaultWriteObject();
-    ImageIO.write(image, "png", oos);
+  /**
+   * Sets the filtering to apply when looking up the image.
+   * @param filter The <code>TextureFilter</code> to apply.
+   * @return A reference to this <code>RasterTexture2</code>.
+   */
+  public RasterTexture2 setFilter(TextureFilter filter) {
+    this.filter = filter;
+    return this;
   }
 
-  private void readObject(ObjectInputStream ois)
-      throws ClassNotFoundException, IOException {
-    ois.defaultReadObject();
-    image = ImageIO.read(ois);
+  /**
+   * Sets the width of the filter footprint used for
+   * {@link TextureFilter#TRILINEAR} filtering.
+   * @param filterWidth The width of the filter footprint, in texture
+   *     coordinates.
+   * @return A reference to this <code>RasterTexture2</code>.
+   */
+  public RasterTexture2 setFilterWidth(double filterWidth) {
+    this.filterWidth = filterWidth;
+    return this;
   }
 
   @Override
   public Spectrum evaluate(Point2 p) {
-    double u = p.x() - Math.floor(p.x());
-    double v = p.y() - Math.floor(p.y());
-    int w = image.getWidth();
-    int h = image.getHeight();
-    int x = MathUtil.clamp((int) Math.floor(u * (double) w), 0, w - 1);
-    int y = MathUtil.clamp((int) Math.floor(v * (double) h), 0, h - 1);
-    int c = image.getRGB(x, y);
-    int a = (c >> 24) & 0xff;
-
-    if (a == 0) {
+    /* Read the texel before evaluating the background, which may be
+     * another texture that reuses the same storage.
+     */
+    float[] t = texel.get();
+    mipmap.lookup(p.x(), p.y(), filter, filterWidth, t);
+    float r = t[0], g = t[1], b = t[2], a = t[3];
+
+    if (a <= 0.0f) {
       return background.evaluate(p);
-    } else if (a == 255) {
-      return RGB.fromR8G8B8(c);
+    } else if (a >= 1.0f) {
+      return new RGB(r, g, b);
     } else {
       Spectrum bg = background.evaluate(p);
-      Spectrum fg = RGB.fromR8G8B8(c);
-      return Spectrum.mix(a / 255.0, bg, fg);
+      Spectrum fg = new RGB(r / a, g / a, b / a);
+      return Spectrum.mix(a, bg, fg);
     }
   }
 
@@ -0,0 +1,294 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.texture;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A shared, memory-bounded cache of the tiles of {@link TiledMipMap}s.  Once
+ * the total size of the cached tiles exceeds the capacity of the cache,
+ * tiles are evicted in approximately least-recently-used order, using the
+ * CLOCK (second chance) algorithm.  Lookups of cached tiles do not take any
+ * locks.
+ * @author Brad Kimmel
+ */
+public final class TextureCache {
+
+  /** The default capacity of the cache, in bytes. */
+  public static final long DEFAULT_CAPACITY = 256L << 20;
+
+  /** The approximate per-tile overhead, in bytes, of a cache entry. */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  /** The <code>TextureCache</code> used by default. */
+  private static final TextureCache DEFAULT = new TextureCache(DEFAULT_CAPACITY);
+
+  /** The cached tiles, keyed by mip-map and tile index. */
+  private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * The cached tiles, in the order in which they are considered for
+   * eviction.  Access to this queue, and to {@link #size}, must be
+   * synchronized on the queue.
+   */
+  private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+
+  /** The number of bytes of tiles in the cache. */
+  private long size = 0;
+
+  /** The number of tile lookups that were found in the cache. */
+  private final LongAdder hits = new LongAdder();
+
+  /** The number of tile lookups that had to be loaded. */
+  private final LongAdder misses = new LongAdder();
+
+  /** The number of tiles evicted from the cache. */
+  private final LongAdder evictions = new LongAdder();
+
+  /** The capacity of the cache, in bytes. */
+  private volatile long capacity;
+
+  /**
+   * Creates a new <code>TextureCache</code>.
+   * @param capacity The maximum number of bytes of tiles to keep in the
+   *     cache.
+   */
+  public TextureCache(long capacity) {
+    setCapacity(capacity);
+  }
+
+  /**
+   * Gets the <code>TextureCache</code> shared by all {@link TiledMipMap}s
+   * that are not given a cache of their own.
+   * @return The default <code>TextureCache</code>.
+   */
+  public static TextureCache getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Sets the maximum number of bytes of tiles to keep in the cache.  If the
+   * cache currently holds more than this, tiles are evicted immediately.
+   * @param capacity The capacity of the cache, in bytes.
+   */
+  public void setCapacity(long capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity must be non-negative");
+    }
+    synchronized (clock) {
+      this.capacity = capacity;
+      evict();
+    }
+  }
+
+  /**
+   * Gets the maximum number of bytes of tiles to keep in the cache.
+   * @return The capacity of the cache, in bytes.
+   */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Gets the number of bytes of tiles currently held in the cache.
+   * @return The size of the cache, in bytes.
+   */
+  public long getSize() {
+    synchronized (clock) {
+      return size;
+    }
+  }
+
+  /**
+   * Gets the number of tile lookups that were satisfied from the cache.
+   * @return The number of cache hits.
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Gets the number of tile lookups for which the tile had to be loaded.
+   * @return The number of cache misses.
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Gets the number of tiles that have been evicted from the cache.
+   * @return The number of evictions.
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * Resets the hit, miss, and eviction counts to zero.
+   */
+  public void resetStatistics() {
+    hits.reset();
+    misses.reset();
+    evictions.reset();
+  }
+
+  /**
+   * Removes all tiles from the cache.
+   */
+  public void clear() {
+    synchronized (clock) {
+      entries.clear();
+      clock.clear();
+      size = 0;
+    }
+  }
+
+  /**
+   * Removes the tiles of a <code>TiledMipMap</code> from the cache.  This is
+   * called when the <code>TiledMipMap</code> is closed, so that its tiles do
+   * not occupy the cache until they are evicted.  Tiles removed this way are
+   * not counted as evictions.
+   * @param id The identifier of the <code>TiledMipMap</code> (see
+   *     {@link TiledMipMap#getId()}).
+   */
+  void invalidate(int id) {
+    synchronized (clock) {
+      Iterator<Entry> it = clock.iterator();
+      while (it.hasNext()) {
+        Entry entry = it.next();
+        if ((int) (entry.key >>> 32) == id) {
+          it.remove();
+          entries.remove(entry.key);
+          size -= entry.size();
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "TextureCache[size=%d, capacity=%d, hits=%d, misses=%d, evictions=%d]",
+        getSize(), getCapacity(), getHitCount(), getMissCount(),
+        getEvictionCount());
+  }
+
+  /**
+   * Gets a tile of a <code>TiledMipMap</code>, loading it if it is not in
+   * the cache.
+   * @param mipmap The <code>TiledMipMap</code> that the tile belongs to.
+   * @param tile The index of the tile within the <code>TiledMipMap</code>.
+   * @return The texel values of the tile.
+   */
+  float[] getTile(TiledMipMap mipmap, int tile) {
+    Long key = ((long) mipmap.getId() << 32) | (tile & 0xffffffffL);
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      if (!entry.referenced) {
+        entry.referenced = true;
+      }
+      hits.increment();
+      return entry.data;
+    }
+
+    /* Load the tile outside of the lock so that other threads are not held
+     * up by the read.  If another thread loads the same tile in the
+     * meantime, use theirs.
+     */
+    misses.increment();
+    entry = new Entry(key, mipmap.loadTile(tile));
+    synchronized (clock) {
+      Entry existing = entries.putIfAbsent(key, entry);
+      if (existing != null) {
+        return existing.data;
+      }
+      clock.addLast(entry);
+      size += entry.size();
+      evict();
+    }
+    return entry.data;
+  }
+
+  /**
+   * Evicts tiles until the cache is within its capacity.  Tiles that have
+   * been used since they were last considered are given a second chance.
+   * The most recently loaded tile is always kept so that the caller can use
+   * it.  This method must be called while synchronized on {@link #clock}.
+   */
+  private void evict() {
+    while (size > capacity && clock.size() > 1) {
+      Entry entry = clock.pollFirst();
+      if (entry.referenced) {
+        entry.referenced = false;
+        clock.addLast(entry);
+      } else {
+        entries.remove(entry.key);
+        size -= entry.size();
+        evictions.increment();
+      }
+    }
+  }
+
+  /** A tile held in the cache. */
+  private static final class Entry {
+
+    /** The key identifying the tile. */
+    private final Long key;
+
+    /** The texel values of the tile. */
+    private final float[] data;
+
+    /**
+     * A value indicating whether the tile has been used since it was last
+     * considered for eviction.
+     */
+    private volatile boolean referenced = true;
+
+    /**
+     * Creates a new <code>Entry</code>.
+     * @param key The key identifying the tile.
+     * @param data The texel values of the tile.
+     */
+    public Entry(Long key, float[] data) {
+      this.key = key;
+      this.data = data;
+    }
+
+    /**
+     * Gets the number of bytes charged against the capacity for this tile.
+     * @return The size of the tile, in bytes.
+     */
+    public long size() {
+      return 4L * data.length + ENTRY_OVERHEAD;
+    }
+
+  }
+
+}
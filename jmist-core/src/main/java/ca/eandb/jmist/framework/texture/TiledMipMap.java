@@ -0,0 +1,775 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.texture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import ca.eandb.jmist.math.MathUtil;
+import ca.eandb.util.UnexpectedException;
+
+/**
+ * An image stored as a pyramid of tiled, mip-mapped levels.  The image is
+ * converted once, when the <code>TiledMipMap</code> is created, and written
+ * to a temporary page file.  Tiles are read back on demand as arrays of
+ * <code>float</code>s and held in a {@link TextureCache}, so that only the
+ * recently used parts of the image are resident in memory.
+ *
+ * Lookups take texture coordinates in <code>[0, 1)</code>, with
+ * <code>(0, 0)</code> at the first pixel of the source image.  Coordinates
+ * outside this range wrap around.
+ *
+ * The page file is closed and deleted by {@link #close()}, or otherwise
+ * once the <code>TiledMipMap</code> has been garbage collected.
+ *
+ * @author Brad Kimmel
+ */
+public final class TiledMipMap implements Serializable, Closeable {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -2318871016399440520L;
+
+  /** The width and height of a tile, in texels. */
+  public static final int TILE_SIZE = 64;
+
+  /** The source for the identifiers used to key tiles in the cache. */
+  private static final AtomicInteger nextId = new AtomicInteger();
+
+  /** Supplies the pixels of the image used to create a mip-map. */
+  public interface PixelSource {
+
+    /**
+     * Gets the value of a pixel.  This method may be called concurrently
+     * from multiple threads.
+     * @param x The x-coordinate of the pixel.
+     * @param y The y-coordinate of the pixel.
+     * @param pixel The array to write the channel values of the pixel to.
+     */
+    void getPixel(int x, int y, float[] pixel);
+
+  }
+
+  /** The width of the full resolution image, in texels. */
+  private final int width;
+
+  /** The height of the full resolution image, in texels. */
+  private final int height;
+
+  /** The number of channels per texel. */
+  private final int channels;
+
+  /**
+   * A value indicating whether texels are stored in the page file as eight
+   * bit values in <code>[0, 1]</code>, rather than as <code>float</code>s.
+   */
+  private final boolean lowDynamicRange;
+
+  /** The <code>TextureCache</code> to hold the tiles of this mip-map. */
+  private transient TextureCache cache;
+
+  /** The identifier that keys the tiles of this mip-map in the cache. */
+  private transient int id;
+
+  /** The number of levels in the mip-map. */
+  private transient int levels;
+
+  /** The width of each level, in texels. */
+  private transient int[] levelWidth;
+
+  /** The height of each level, in texels. */
+  private transient int[] levelHeight;
+
+  /** The number of columns of tiles in each level. */
+  private transient int[] levelTilesX;
+
+  /** The index of the first tile of each level. */
+  private transient int[] levelFirstTile;
+
+  /** The total number of tiles in all levels. */
+  private transient int numTiles;
+
+  /** The page file holding the tiles. */
+  private transient FileChannel pages;
+
+  /** Releases the page file when closed or collected. */
+  private transient PageFile pageFile;
+
+  /**
+   * Creates a new <code>TiledMipMap</code> whose tiles are held in the
+   * default {@link TextureCache}.
+   * @param width The width of the image, in pixels.
+   * @param height The height of the image, in pixels.
+   * @param channels The number of channels per pixel.
+   * @param lowDynamicRange A value indicating whether all channel values
+   *     are in <code>[0, 1]</code> and may be stored with eight bits of
+   *     precision.
+   * @param source The <code>PixelSource</code> to read the image from.
+   */
+  public TiledMipMap(int width, int height, int channels,
+      boolean lowDynamicRange, PixelSource source) {
+    this(width, height, channels, lowDynamicRange, source,
+        TextureCache.getDefault());
+  }
+
+  /**
+   * Creates a new <code>TiledMipMap</code>.
+   * @param width The width of the image, in pixels.
+   * @param height The height of the image, in pixels.
+   * @param channels The number of channels per pixel.
+   * @param lowDynamicRange A value indicating whether all channel values
+   *     are in <code>[0, 1]</code> and may be stored with eight bits of
+   *     precision.
+   * @param source The <code>PixelSource</code> to read the image from.
+   * @param cache The <code>TextureCache</code> to hold the tiles.
+   */
+  public TiledMipMap(int width, int height, int channels,
+      boolean lowDynamicRange, PixelSource source, TextureCache cache) {
+    if (width <= 0 || height <= 0 || channels <= 0) {
+      throw new IllegalArgumentException("empty image");
+    }
+    this.width = width;
+    this.height = height;
+    this.channels = channels;
+    this.lowDynamicRange = lowDynamicRange;
+    this.cache = cache;
+    try {
+      initialize();
+      writeBaseLevel(source);
+      buildLevels();
+    } catch (IOException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  /**
+   * Gets the width of the full resolution image.
+   * @return The width of the image, in texels.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets the height of the full resolution image.
+   * @return The height of the image, in texels.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Gets the number of channels per texel.
+   * @return The number of channels per texel.
+   */
+  public int getChannels() {
+    return channels;
+  }
+
+  /**
+   * Gets the number of levels in the mip-map.
+   * @return The number of levels in the mip-map.
+   */
+  public int getLevelCount() {
+    return levels;
+  }
+
+  /**
+   * Looks up a value in this mip-map.
+   * @param u The first texture coordinate.
+   * @param v The second texture coordinate.
+   * @param filter The <code>TextureFilter</code> to apply.
+   * @param filterWidth The width of the filter footprint, in texture
+   *     coordinates.  This is used only for
+   *     {@link TextureFilter#TRILINEAR} filtering.
+   * @param result The array to write the channel values to.
+   */
+  public void lookup(double u, double v, TextureFilter filter,
+      double filterWidth, float[] result) {
+    switch (filter) {
+      case NEAREST:
+        lookupNearest(u, v, result);
+        break;
+      case BILINEAR:
+        lookupBilinear(0, u, v, result);
+        break;
+      case TRILINEAR:
+        lookupTrilinear(u, v, filterWidth, result);
+        break;
+      default:
+        throw new IllegalArgumentException("filter");
+    }
+  }
+
+  /**
+   * Looks up the value of the nearest texel in the full resolution image.
+   * @param u The first texture coordinate.
+   * @param v The second texture coordinate.
+   * @param result The array to write the channel values to.
+   */
+  public void lookupNearest(double u, double v, float[] result) {
+    u -= Math.floor(u);
+    v -= Math.floor(v);
+    int x = MathUtil.clamp((int) Math.floor(u * (double) width), 0, width - 1);
+    int y = MathUtil.clamp((int) Math.floor(v * (double) height), 0, height - 1);
+    float[] tile = getTile(0, x / TILE_SIZE, y / TILE_SIZE);
+    System.arraycopy(tile, texelOffset(x, y), result, 0, channels);
+  }
+
+  /**
+   * Interpolates bilinearly between the four texels nearest to a point in
+   * the specified level of the mip-map.
+   * @param level The level of the mip-map to look up.
+   * @param u The first texture coordinate.
+   * @param v The second texture coordinate.
+   * @param result The array to write the channel values to.
+   */
+  public void lookupBilinear(int level, double u, double v, float[] result) {
+    for (int c = 0; c < channels; c++) {
+      result[c] = 0.0f;
+    }
+    accumulateBilinear(level, u, v, 1.0f, result);
+  }
+
+  /**
+   * Interpolates bilinearly within the two levels of the mip-map whose
+   * texel size brackets the specified filter width, and linearly between
+   * those levels.
+   * @param u The first texture coordinate.
+   * @param v The second texture coordinate.
+   * @param filterWidth The width of the filter footprint, in texture
+   *     coordinates.
+   * @param result The array to write the channel values to.
+   */
+  public void lookupTrilinear(double u, double v, double filterWidth,
+      float[] result) {
+    double texels = filterWidth * (double) Math.max(width, height);
+    double lod = (texels > 1.0) ? Math.log(texels) / Math.log(2.0) : 0.0;
+    lod = Math.min(lod, (double) (levels - 1));
+
+    int level = (int) Math.floor(lod);
+    float t = (float) (lod - level);
+
+    for (int c = 0; c < channels; c++) {
+      result[c] = 0.0f;
+    }
+    accumulateBilinear(level, u, v, 1.0f - t, result);
+    if (t > 0.0f) {
+      accumulateBilinear(level + 1, u, v, t, result);
+    }
+  }
+
+  /**
+   * Adds the bilinearly interpolated value at a point in the specified
+   * level, scaled by a weight, to an array.
+   * @param level The level of the mip-map to look up.
+   * @param u The first texture coordinate.
+   * @param v The second texture coordinate.
+   * @param weight The weight to apply to the interpolated value.
+   * @param result The array to add the weighted channel values to.
+   */
+  private void accumulateBilinear(int level, double u, double v,
+      float weight, float[] result) {
+    int w = levelWidth[level];
+    int h = levelHeight[level];
+    u -= Math.floor(u);
+    v -= Math.floor(v);
+
+    double fx = u * (double) w - 0.5;
+    double fy = v * (double) h - 0.5;
+    int x0 = (int) Math.floor(fx);
+    int y0 = (int) Math.floor(fy);
+    float tx = (float) (fx - x0);
+    float ty = (float) (fy - y0);
+
+    x0 = (x0 < 0) ? x0 + w : x0;
+    y0 = (y0 < 0) ? y0 + h : y0;
+    int x1 = (x0 + 1 < w) ? x0 + 1 : 0;
+    int y1 = (y0 + 1 < h) ? y0 + 1 : 0;
+
+    /* Usually all four texels lie in the same tile, so only look up each
+     * distinct tile once.
+     */
+    int tx0 = x0 / TILE_SIZE;
+    int tx1 = x1 / TILE_SIZE;
+    int ty0 = y0 / TILE_SIZE;
+    int ty1 = y1 / TILE_SIZE;
+    float[] t00 = getTile(level, tx0, ty0);
+    float[] t10 = (tx1 == tx0) ? t00 : getTile(level, tx1, ty0);
+    float[] t01 = (ty1 == ty0) ? t00 : getTile(level, tx0, ty1);
+    float[] t11 = (tx1 == tx0) ? t01 : (ty1 == ty0) ? t10
+        : getTile(level, tx1, ty1);
+
+    accumulateTexel(t00, x0, y0, weight * (1.0f - tx) * (1.0f - ty), result);
+    accumulateTexel(t10, x1, y0, weight * tx * (1.0f - ty), result);
+    accumulateTexel(t01, x0, y1, weight * (1.0f - tx) * ty, result);
+    accumulateTexel(t11, x1, y1, weight * tx * ty, result);
+  }
+
+  /**
+   * Adds the value of a texel, scaled by a weight, to an array.
+   * @param tile The texel values of the tile containing the texel.
+   * @param x The x-coordinate of the texel within its level.
+   * @param y The y-coordinate of the texel within its level.
+   * @param weight The weight to apply to the texel value.
+   * @param result The array to add the weighted channel values to.
+   */
+  private void accumulateTexel(float[] tile, int x, int y, float weight,
+      float[] result) {
+    int offset = texelOffset(x, y);
+    for (int c = 0; c < channels; c++) {
+      result[c] += weight * tile[offset + c];
+    }
+  }
+
+  /**
+   * Gets the offset of a texel within its tile.
+   * @param x The x-coordinate of the texel within its level.
+   * @param y The y-coordinate of the texel within its level.
+   * @return The index into the tile of the first channel of the texel.
+   */
+  private int texelOffset(int x, int y) {
+    return ((y % TILE_SIZE) * TILE_SIZE + (x % TILE_SIZE)) * channels;
+  }
+
+  /**
+   * Gets a tile from the cache.
+   * @param level The level of the mip-map containing the tile.
+   * @param tx The column of the tile within the level.
+   * @param ty The row of the tile within the level.
+   * @return The texel values of the tile.
+   */
+  private float[] getTile(int level, int tx, int ty) {
+    return cache.getTile(this, levelFirstTile[level] + ty * levelTilesX[level] + tx);
+  }
+
+  /**
+   * Gets the identifier that keys the tiles of this mip-map in the cache.
+   * @return The identifier of this mip-map.
+   */
+  int getId() {
+    return id;
+  }
+
+  /**
+   * Reads a tile from the page file.
+   * @param tile The index of the tile.
+   * @return The texel values of the tile.
+   */
+  float[] loadTile(int tile) {
+    try {
+      ByteBuffer buffer = readTileBytes(tile);
+      float[] data = new float[TILE_SIZE * TILE_SIZE * channels];
+      if (lowDynamicRange) {
+        for (int i = 0; i < data.length; i++) {
+          data[i] = (float) (buffer.get(i) & 0xff) / 255.0f;
+        }
+      } else {
+        buffer.asFloatBuffer().get(data);
+      }
+      return data;
+    } catch (IOException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  /**
+   * Writes a tile to the page file.
+   * @param tile The index of the tile.
+   * @param data The texel values of the tile.
+   * @throws IOException If an error occurs writing to the page file.
+   */
+  private void storeTile(int tile, float[] data) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(getTileBytes());
+    if (lowDynamicRange) {
+      for (int i = 0; i < data.length; i++) {
+        float x = Math.min(Math.max(data[i], 0.0f), 1.0f);
+        buffer.put(i, (byte) Math.round(x * 255.0f));
+      }
+    } else {
+      buffer.asFloatBuffer().put(data);
+    }
+    writeTileBytes(tile, buffer);
+  }
+
+  /**
+   * Reads the raw contents of a tile from the page file.
+   * @param tile The index of the tile.
+   * @return A <code>ByteBuffer</code> holding the contents of the tile.
+   * @throws IOException If an error occurs reading from the page file.
+   */
+  private ByteBuffer readTileBytes(int tile) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(getTileBytes());
+    long position = (long) tile * (long) buffer.capacity();
+    while (buffer.hasRemaining()) {
+      if (pages.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of texture page file");
+      }
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Writes the raw contents of a tile to the page file.
+   * @param tile The index of the tile.
+   * @param buffer A <code>ByteBuffer</code> holding the contents of the
+   *     tile.
+   * @throws IOException If an error occurs writing to the page file.
+   */
+  private void writeTileBytes(int tile, ByteBuffer buffer) throws IOException {
+    long position = (long) tile * (long) buffer.capacity();
+    buffer.clear();
+    while (buffer.hasRemaining()) {
+      pages.write(buffer, position + buffer.position());
+    }
+  }
+
+  /**
+   * Gets the size of a tile in the page file.
+   * @return The number of bytes per tile in the page file.
+   */
+  private int getTileBytes() {
+    return TILE_SIZE * TILE_SIZE * channels * (lowDynamicRange ? 1 : 4);
+  }
+
+  /**
+   * Computes the layout of the levels and tiles, and creates the page file.
+   * @throws IOException If the page file cannot be created.
+   */
+  private void initialize() throws IOException {
+    int w = width;
+    int h = height;
+    int n = 1;
+    while (w > 1 || h > 1) {
+      w = Math.max((w + 1) / 2, 1);
+      h = Math.max((h + 1) / 2, 1);
+      n++;
+    }
+
+    levels = n;
+    levelWidth = new int[n];
+    levelHeight = new int[n];
+    levelTilesX = new int[n];
+    levelFirstTile = new int[n];
+    numTiles = 0;
+
+    w = width;
+    h = height;
+    for (int level = 0; level < n; level++) {
+      levelWidth[level] = w;
+      levelHeight[level] = h;
+      levelTilesX[level] = (w + TILE_SIZE - 1) / TILE_SIZE;
+      levelFirstTile[level] = numTiles;
+      numTiles += levelTilesX[level] * ((h + TILE_SIZE - 1) / TILE_SIZE);
+      w = Math.max((w + 1) / 2, 1);
+      h = Math.max((h + 1) / 2, 1);
+    }
+
+    id = nextId.incrementAndGet();
+
+    File file = File.createTempFile("jmist-texture", ".tiles");
+    try {
+      pages = new RandomAccessFile(file, "rw").getChannel();
+    } catch (IOException e) {
+      file.delete();
+      throw e;
+    }
+
+    /* Where the platform permits it, remove the directory entry right away
+     * so that the file disappears as soon as the channel is closed, even if
+     * the JVM does not exit cleanly.
+     */
+    pageFile = new PageFile(this, pages, file.delete() ? null : file);
+    PageFile.startReaper();
+  }
+
+  /**
+   * Closes and deletes the page file, and removes the tiles of this
+   * <code>TiledMipMap</code> from the cache.  The <code>TiledMipMap</code>
+   * may not be used after it is closed.  If it is not closed explicitly, this
+   * happens after the <code>TiledMipMap</code> is garbage collected.
+   */
+  @Override
+  public void close() {
+    if (pageFile != null) {
+      pageFile.close();
+    }
+  }
+
+  /**
+   * Closes the page file of a <code>TiledMipMap</code> when it is closed or
+   * becomes phantom reachable, and deletes the file if it could not be
+   * deleted when it was opened.
+   */
+  private static final class PageFile extends PhantomReference<TiledMipMap> {
+
+    /** The queue of page files whose <code>TiledMipMap</code> was collected. */
+    private static final ReferenceQueue<TiledMipMap> collected = new ReferenceQueue<>();
+
+    /** The page files that have not yet been closed. */
+    private static final Set<PageFile> open = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The time, in milliseconds, that the reaper waits for a collected
+     * <code>TiledMipMap</code> before checking if it is still needed.
+     */
+    private static final long REAPER_TIMEOUT = 1000;
+
+    /**
+     * The thread that closes page files whose <code>TiledMipMap</code> was
+     * collected, or <code>null</code> if it is not running.
+     */
+    private static Thread reaper = null;
+
+    /** The page file channel. */
+    private final FileChannel channel;
+
+    /** The page file to delete, or <code>null</code> if already deleted. */
+    private final File file;
+
+    /** The <code>TextureCache</code> holding the tiles of the owner. */
+    private final TextureCache cache;
+
+    /** The identifier that keys the tiles of the owner in the cache. */
+    private final int id;
+
+    /**
+     * Creates a new <code>PageFile</code>.
+     * @param owner The <code>TiledMipMap</code> that uses the page file.
+     * @param channel The page file channel.
+     * @param file The page file to delete when closed, or <code>null</code>
+     *     if it has already been deleted.
+     */
+    PageFile(TiledMipMap owner, FileChannel channel, File file) {
+      super(owner, collected);
+      this.channel = channel;
+      this.file = file;
+      this.cache = owner.cache;
+      this.id = owner.id;
+      open.add(this);
+    }
+
+    /**
+     * Starts the reaper thread if it is not already running.  This must be
+     * called after a <code>PageFile</code> is created.
+     */
+    static synchronized void startReaper() {
+      if (reaper == null) {
+        reaper = new Thread(PageFile::reap, "TiledMipMap page file reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+      }
+    }
+
+    /**
+     * Stops the reaper thread if there are no open page files, or if it was
+     * interrupted.
+     * @param interrupted A value indicating if the reaper was interrupted.
+     * @return A value indicating if the reaper should exit.
+     */
+    private static synchronized boolean stopReaper(boolean interrupted) {
+      if (interrupted || open.isEmpty()) {
+        reaper = null;
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Closes page files whose <code>TiledMipMap</code> was collected, until
+     * there are no open page files left.  A new reaper is started when the
+     * next page file is created.
+     */
+    private static void reap() {
+      boolean interrupted = false;
+      while (!stopReaper(interrupted)) {
+        try {
+          PageFile pageFile = (PageFile) collected.remove(REAPER_TIMEOUT);
+          if (pageFile != null) {
+            pageFile.close();
+          }
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+
+    /**
+     * Closes the channel, deletes the file, and removes the tiles of the
+     * owner from the cache, if not already done.
+     */
+    void close() {
+      if (open.remove(this)) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          /* nothing to do. */
+        }
+        if (file != null) {
+          file.delete();
+        }
+        cache.invalidate(id);
+      }
+    }
+
+  }
+
+  /**
+   * Gets the number of tiles in a level.
+   * @param level The level of the mip-map.
+   * @return The number of tiles in the level.
+   */
+  private int getTileCount(int level) {
+    return (level + 1 < levels ? levelFirstTile[level + 1] : numTiles)
+        - levelFirstTile[level];
+  }
+
+  /**
+   * Converts the source image to tiles and writes them to the page file as
+   * the full resolution level.  Texels in the parts of the edge tiles that
+   * lie outside of the image are copied from the nearest edge.
+   * @param source The <code>PixelSource</code> to read the image from.
+   * @throws IOException If an error occurs writing to the page file.
+   */
+  private void writeBaseLevel(PixelSource source) throws IOException {
+    int tilesX = levelTilesX[0];
+    IntStream.range(0, getTileCount(0)).parallel().forEach(tile -> {
+      int x0 = (tile % tilesX) * TILE_SIZE;
+      int y0 = (tile / tilesX) * TILE_SIZE;
+      float[] data = new float[TILE_SIZE * TILE_SIZE * channels];
+      float[] pixel = new float[channels];
+      for (int y = 0, i = 0; y < TILE_SIZE; y++) {
+        int sy = Math.min(y0 + y, height - 1);
+        for (int x = 0; x < TILE_SIZE; x++, i += channels) {
+          int sx = Math.min(x0 + x, width - 1);
+          source.getPixel(sx, sy, pixel);
+          System.arraycopy(pixel, 0, data, i, channels);
+        }
+      }
+      try {
+        storeTile(tile, data);
+      } catch (IOException e) {
+        throw new UnexpectedException(e);
+      }
+    });
+  }
+
+  /**
+   * Builds each level of the mip-map after the first by averaging blocks of
+   * two by two texels of the previous level.
+   * @throws IOException If an error occurs accessing the page file.
+   */
+  private void buildLevels() throws IOException {
+    for (int level = 1; level < levels; level++) {
+      int prev = level - 1;
+      int w = levelWidth[level];
+      int h = levelHeight[level];
+      int tilesX = levelTilesX[level];
+      int first = levelFirstTile[level];
+      int pw = levelWidth[prev];
+      int ph = levelHeight[prev];
+      int ptilesX = levelTilesX[prev];
+      int ptilesY = (ph + TILE_SIZE - 1) / TILE_SIZE;
+
+      IntStream.range(0, getTileCount(level)).parallel().forEach(t -> {
+        int tx = t % tilesX;
+        int ty = t / tilesX;
+
+        /* Each tile covers (at most) a block of two by two tiles of the
+         * previous level.
+         */
+        float[][] src = new float[4][];
+        for (int j = 0; j < 2; j++) {
+          for (int i = 0; i < 2; i++) {
+            int sx = Math.min(2 * tx + i, ptilesX - 1);
+            int sy = Math.min(2 * ty + j, ptilesY - 1);
+            src[2 * j + i] = loadTile(levelFirstTile[prev] + sy * ptilesX + sx);
+          }
+        }
+
+        float[] data = new float[TILE_SIZE * TILE_SIZE * channels];
+        for (int y = 0, k = 0; y < TILE_SIZE; y++) {
+          int gy = Math.min(ty * TILE_SIZE + y, h - 1);
+          for (int x = 0; x < TILE_SIZE; x++, k += channels) {
+            int gx = Math.min(tx * TILE_SIZE + x, w - 1);
+            for (int j = 0; j < 2; j++) {
+              int py = Math.min(2 * gy + j, ph - 1);
+              for (int i = 0; i < 2; i++) {
+                int px = Math.min(2 * gx + i, pw - 1);
+                int block = 2 * Math.min(py / TILE_SIZE - 2 * ty, 1)
+                    + Math.min(px / TILE_SIZE - 2 * tx, 1);
+                int offset = texelOffset(px, py);
+                for (int c = 0; c < channels; c++) {
+                  data[k + c] += 0.25f * src[block][offset + c];
+                }
+              }
+            }
+          }
+        }
+
+        try {
+          storeTile(first + t, data);
+        } catch (IOException e) {
+          throw new UnexpectedException(e);
+        }
+      });
+    }
+  }
+
+  private void writeObject(ObjectOutputStream oos) throws IOException {
+    oos.defaultWriteObject();
+    for (int tile = 0, n = getTileCount(0); tile < n; tile++) {
+      oos.write(readTileBytes(tile).array());
+    }
+  }
+
+  private void readObject(ObjectInputStream ois)
+      throws ClassNotFoundException, IOException {
+    ois.defaultReadObject();
+    cache = TextureCache.getDefault();
+    initialize();
+    byte[] bytes = new byte[getTileBytes()];
+    for (int tile = 0, n = getTileCount(0); tile < n; tile++) {
+      ois.readFully(bytes);
+      writeTileBytes(tile, ByteBuffer.wrap(bytes));
+    }
+    buildLevels();
+  }
+
+}
@@ -265,6 +265,37 @@ public final class AffineMatrix3 implements Serializable {
     );
   }
 
+  /**
+   * Computes the smallest <code>Box3</code> containing the image of the
+   * specified <code>Box3</code> under the transformation represented by this
+   * <code>AffineMatrix3</code>.  This is equivalent to transforming each of
+   * the eight corners of the box and taking the smallest box containing
+   * them, but does so directly from the center and half-extents of the box.
+   * @param box The <code>Box3</code> to transform.
+   * @return The smallest <code>Box3</code> containing the transformed box.
+   */
+  public Box3 times(Box3 box) {
+    if (box.isEmpty()) {
+      return Box3.EMPTY;
+    }
+
+    double cx = 0.5 * (box.minimumX() + box.maximumX());
+    double cy = 0.5 * (box.minimumY() + box.maximumY());
+    double cz = 0.5 * (box.minimumZ() + box.maximumZ());
+    double hx = 0.5 * box.lengthX();
+    double hy = 0.5 * box.lengthY();
+    double hz = 0.5 * box.lengthZ();
+
+    double x = _00 * cx + _01 * cy + _02 * cz + _03;
+    double y = _10 * cx + _11 * cy + _12 * cz + _13;
+    double z = _20 * cx + _21 * cy + _22 * cz + _23;
+    double ex = Math.abs(_00) * hx + Math.abs(_01) * hy + Math.abs(_02) * hz;
+    double ey = Math.abs(_10) * hx + Math.abs(_11) * hy + Math.abs(_12) * hz;
+    double ez = Math.abs(_20) * hx + Math.abs(_21) * hy + Math.abs(_22) * hz;
+
+    return new Box3(x - ex, y - ey, z - ez, x + ex, y + ey, z + ez);
+  }
+
   /**
    * Creates a new <code>AffineMatrix3</code> representing a translation.
    * @param v The <code>Vector3</code> to translate along.
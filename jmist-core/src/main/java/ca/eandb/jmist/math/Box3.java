@@ -435,50 +435,100 @@ public final class Box3 implements Serializable {
    * @see Interval#intersects(Interval)
    */
   public boolean intersects(Ray3 ray, Interval I) {
-    // Check for an empty box.
+    return intersect(ray, I.minimum(), I.maximum(), null);
+  }
+
+  /**
+   * Computes the portion of the specified interval along a ray that lies
+   * within this box.  This method performs a slab test using the reciprocal
+   * direction carried by the ray, and does not allocate any objects.
+   * @param ray The <code>Ray3</code> to intersect with this box.
+   * @param tmin The minimum parametric distance along the ray to consider.
+   * @param tmax The maximum parametric distance along the ray to consider.
+   * @param t An array to receive the parametric distances at which the ray
+   *     enters (<code>t[0]</code>) and exits (<code>t[1]</code>) the box,
+   *     clipped to <code>[tmin, tmax]</code>.  This array is only written to
+   *     if the ray intersects the box.  May be <code>null</code>.
+   * @return A value indicating if the ray intersects this box within
+   *     <code>[tmin, tmax]</code>.
+   * @see Ray3#reciprocalDirectionX()
+   */
+  public boolean intersect(Ray3 ray, double tmin, double tmax, double[] t) {
     if (isEmpty()) {
       return false;
     }
+    Point3 o = ray.origin();
+    return intersect(minimumX, minimumY, minimumZ, maximumX, maximumY,
+        maximumZ, o.x(), o.y(), o.z(), ray.reciprocalDirectionX(),
+        ray.reciprocalDirectionY(), ray.reciprocalDirectionZ(), tmin, tmax,
+        t, 0);
+  }
 
-    double tmin, tmax, tymin, tymax, tzmin, tzmax;
-    double t0 = I.minimum();
-    double t1 = I.maximum();
-
-    if (ray.direction().x() >= 0) {
-      tmin = (minimumX - ray.origin().x()) / ray.direction().x();
-      tmax = (maximumX - ray.origin().x()) / ray.direction().x();
-    } else {
-      tmin = (maximumX - ray.origin().x()) / ray.direction().x();
-      tmax = (minimumX - ray.origin().x()) / ray.direction().x();
-    }
-    if (ray.direction().y() >= 0) {
-      tymin = (minimumY - ray.origin().y()) / ray.direction().y();
-      tymax = (maximumY - ray.origin().y()) / ray.direction().y();
-    } else {
-      tymin = (maximumY - ray.origin().y()) / ray.direction().y();
-      tymax = (minimumY - ray.origin().y()) / ray.direction().y();
-    }
-    if ((tmin > tymax) || (tymin > tmax))
-      return false;
-
-    if (tymin > tmin)
-      tmin = tymin;
-    if (tymax < tmax)
-      tmax = tymax;
-    if (ray.direction().z() >= 0) {
-      tzmin = (minimumZ - ray.origin().z()) / ray.direction().z();
-      tzmax = (maximumZ - ray.origin().z()) / ray.direction().z();
-    } else {
-      tzmin = (maximumZ - ray.origin().z()) / ray.direction().z();
-      tzmax = (minimumZ - ray.origin().z()) / ray.direction().z();
+  /**
+   * Computes the portion of the specified interval along a ray that lies
+   * within an axis-aligned box.  This method performs a slab test on
+   * primitive values only, and does not allocate any objects.  It is
+   * intended for use by acceleration structures that store their bounding
+   * boxes in flat arrays.  The box must not be empty.  Components of the
+   * reciprocal direction may be infinite.
+   * @param minimumX The minimum extent of the box along the x-axis.
+   * @param minimumY The minimum extent of the box along the y-axis.
+   * @param minimumZ The minimum extent of the box along the z-axis.
+   * @param maximumX The maximum extent of the box along the x-axis.
+   * @param maximumY The maximum extent of the box along the y-axis.
+   * @param maximumZ The maximum extent of the box along the z-axis.
+   * @param ox The x-coordinate of the origin of the ray.
+   * @param oy The y-coordinate of the origin of the ray.
+   * @param oz The z-coordinate of the origin of the ray.
+   * @param ix The reciprocal of the x-component of the ray direction.
+   * @param iy The reciprocal of the y-component of the ray direction.
+   * @param iz The reciprocal of the z-component of the ray direction.
+   * @param tmin The minimum parametric distance along the ray to consider.
+   * @param tmax The maximum parametric distance along the ray to consider.
+   * @param t An array to receive the parametric distances at which the ray
+   *     enters and exits the box, clipped to <code>[tmin, tmax]</code>.
+   *     This array is only written to if the ray intersects the box.  May be
+   *     <code>null</code>.
+   * @param offset The index into <code>t</code> at which to write the
+   *     entry distance.  The exit distance is written to
+   *     <code>t[offset + 1]</code>.
+   * @return A value indicating if the ray intersects the box within
+   *     <code>[tmin, tmax]</code>.
+   */
+  public static boolean intersect(double minimumX, double minimumY,
+      double minimumZ, double maximumX, double maximumY, double maximumZ,
+      double ox, double oy, double oz, double ix, double iy, double iz,
+      double tmin, double tmax, double[] t, int offset) {
+    double t0, t1;
+
+    // Comparisons are written so that NaNs (which arise when the ray lies in
+    // the plane of a face) are ignored.
+    t0 = (minimumX - ox) * ix;
+    t1 = (maximumX - ox) * ix;
+    if (t0 > t1) { double tt = t0; t0 = t1; t1 = tt; }
+    if (t0 > tmin) tmin = t0;
+    if (t1 < tmax) tmax = t1;
+
+    t0 = (minimumY - oy) * iy;
+    t1 = (maximumY - oy) * iy;
+    if (t0 > t1) { double tt = t0; t0 = t1; t1 = tt; }
+    if (t0 > tmin) tmin = t0;
+    if (t1 < tmax) tmax = t1;
+
+    t0 = (minimumZ - oz) * iz;
+    t1 = (maximumZ - oz) * iz;
+    if (t0 > t1) { double tt = t0; t0 = t1; t1 = tt; }
+    if (t0 > tmin) tmin = t0;
+    if (t1 < tmax) tmax = t1;
+
+    if (tmin <= tmax) {
+      if (t != null) {
+        t[offset] = tmin;
+        t[offset + 1] = tmax;
+      }
+      return true;
     }
-    if ((tmin > tzmax) || (tzmin > tmax))
-      return false;
-    if (tzmin > tmin)
-      tmin = tzmin;
-    if (tzmax < tmax)
-      tmax = tzmax;
-    return ((tmin < t1) && (tmax > t0));
+    return false;
   }
 
   /**
@@ -494,81 +544,10 @@ public final class Box3 implements Serializable {
    * @see Interval#contains(double)
    */
   public Interval intersect(Ray3 ray) {
-    // Check for an empty box.
-    if (isEmpty()) {
-      return Interval.EMPTY;
-    }
-
-    assert(ray.direction().x() != 0.0 || ray.direction().y() != 0.0 || ray.direction().z() != 0.0);
-
     double[] t = new double[2];
-    int n = 0;
-    Point3 p;
-
-    // Check for intersection with each of the six sides of the box.
-    if (ray.direction().x() != 0.0) {
-      t[n] = (minimumX - ray.origin().x()) / ray.direction().x();
-      if (t[n] > 0.0) {
-        p = ray.pointAt(t[n]);
-        if (minimumY < p.y() && p.y() < maximumY && minimumZ < p.z() && p.z() < maximumZ) {
-          if (++n == 2) return Interval.between(t[0], t[1]);
-        }
-      }
-
-      t[n] = (maximumX - ray.origin().x()) / ray.direction().x();
-      if (t[n] > 0.0) {
-        p = ray.pointAt(t[n]);
-        if (minimumY < p.y() && p.y() < maximumY && minimumZ < p.z() && p.z() < maximumZ) {
-          if (++n == 2) return Interval.between(t[0], t[1]);
-        }
-      }
-    }
-
-    if (ray.direction().y() != 0.0) {
-      t[n] = (minimumY - ray.origin().y()) / ray.direction().y();
-      if (t[n] > 0.0) {
-        p = ray.pointAt(t[n]);
-        if (minimumX < p.x() && p.x() < maximumX && minimumZ < p.z() && p.z() < maximumZ) {
-          if (++n == 2) return Interval.between(t[0], t[1]);
-        }
-      }
-
-      t[n] = (maximumY - ray.origin().y()) / ray.direction().y();
-      if (t[n] > 0.0) {
-        p = ray.pointAt(t[n]);
-        if (minimumX < p.x() && p.x() < maximumX && minimumZ < p.z() && p.z() < maximumZ) {
-          if (++n == 2) return Interval.between(t[0], t[1]);
-        }
-      }
-    }
-
-    if (ray.direction().z() != 0.0) {
-      t[n] = (minimumZ - ray.origin().z()) / ray.direction().z();
-      if (t[n] > 0.0) {
-        p = ray.pointAt(t[n]);
-        if (minimumX < p.x() && p.x() < maximumX && minimumY < p.y() && p.y() < maximumY) {
-          if (++n == 2) return Interval.between(t[0], t[1]);
-        }
-      }
-
-      t[n] = (maximumZ - ray.origin().z()) / ray.direction().z();
-      if (t[n] > 0.0) {
-        p = ray.pointAt(t[n]);
-        if (minimumX < p.x() && p.x() < maximumX && minimumY < p.y() && p.y() < maximumY) {
-          if (++n == 2) return Interval.between(t[0], t[1]);
-        }
-      }
-    }
-
-    // If we found only one intersection point, then the ray originates
-    // from inside the box.
-    if (n == 1) {
-      return new Interval(0.0, t[0]);
-    }
-
-    // If we didn't find any intersection points, then the
-    // ray does not intersect the box.
-    return Interval.EMPTY;
+    return intersect(ray, 0.0, Double.POSITIVE_INFINITY, t)
+        ? new Interval(t[0], t[1])
+        : Interval.EMPTY;
   }
 
   /**
@@ -25,6 +25,8 @@
  */
 package ca.eandb.jmist.math;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
@@ -46,6 +48,13 @@ public final class Ray3 implements Serializable {
   /** The maximum units along the ray. */
   private final double limit;
 
+  /**
+   * The reciprocals of the components of the direction of the ray, used for
+   * slab tests against axis-aligned boxes.
+   * @see Box3#intersect(Ray3, double, double, double[])
+   */
+  private transient double reciprocalX, reciprocalY, reciprocalZ;
+
   /**
    * Creates a <code>Ray3</code>.
    * @param origin The origin of the ray.
@@ -56,6 +65,7 @@ public final class Ray3 implements Serializable {
     this.origin = origin;
     this.direction = direction;
     this.limit = limit;
+    initializeReciprocal();
   }
 
   /**
@@ -76,6 +86,7 @@ public final class Ray3 implements Serializable {
     this.limit = p.distanceTo(q);
     this.origin = p;
     this.direction = p.vectorTo(q).divide(limit);
+    initializeReciprocal();
   }
 
   /**
@@ -98,6 +109,28 @@ public final class Ray3 implements Serializable {
       this.direction = (Vector3) q;
       this.limit = Double.POSITIVE_INFINITY;
     }
+    initializeReciprocal();
+  }
+
+  /**
+   * Computes the reciprocals of the components of the direction of the ray.
+   */
+  private void initializeReciprocal() {
+    reciprocalX = 1.0 / direction.x();
+    reciprocalY = 1.0 / direction.y();
+    reciprocalZ = 1.0 / direction.z();
+  }
+
+  /**
+   * Restores the transient fields after deserialization.
+   * @param in The <code>ObjectInputStream</code> to read from.
+   * @throws IOException If an I/O error occurs.
+   * @throws ClassNotFoundException If the class of a serialized object
+   *     could not be found.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    initializeReciprocal();
   }
 
   /**
@@ -144,6 +177,30 @@ public final class Ray3 implements Serializable {
     return direction;
   }
 
+  /**
+   * Gets the reciprocal of the x-component of the direction of this ray.
+   * @return <code>1.0 / direction().x()</code>.
+   */
+  public double reciprocalDirectionX() {
+    return reciprocalX;
+  }
+
+  /**
+   * Gets the reciprocal of the y-component of the direction of this ray.
+   * @return <code>1.0 / direction().y()</code>.
+   */
+  public double reciprocalDirectionY() {
+    return reciprocalY;
+  }
+
+  /**
+   * Gets the reciprocal of the z-component of the direction of this ray.
+   * @return <code>1.0 / direction().z()</code>.
+   */
+  public double reciprocalDirectionZ() {
+    return reciprocalZ;
+  }
+
   /**
    * Gets the maximum units along the ray.
    * @return The maximum units along the ray.
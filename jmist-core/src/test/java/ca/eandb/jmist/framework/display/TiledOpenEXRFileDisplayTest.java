@@ -0,0 +1,121 @@
+package ca.eandb.jmist.framework.display;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.FileImageOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import ca.eandb.jmist.framework.Display;
+import ca.eandb.jmist.framework.Raster;
+import ca.eandb.jmist.framework.color.ColorModel;
+import ca.eandb.jmist.framework.color.rgb.RGBColorModel;
+import ca.eandb.jmist.framework.loader.openexr.OpenEXRImage;
+import ca.eandb.jmist.framework.loader.openexr.attribute.CompressionMethod;
+import ca.eandb.jmist.framework.loader.openexr.attribute.PixelType;
+
+class TiledOpenEXRFileDisplayTest {
+
+  private static final int WIDTH = 75;
+
+  private static final int HEIGHT = 41;
+
+  private static final int TILED_FLAG = 0x0200;
+
+  @Test
+  void testRoundTripUncompressed() throws IOException {
+    checkRoundTrip(CompressionMethod.NONE);
+  }
+
+  @Test
+  void testRoundTripZip() throws IOException {
+    checkRoundTrip(CompressionMethod.ZIP);
+  }
+
+  private static double value(int x, int y, int c) {
+    return x * 0.25 + y * 8.0 + c;
+  }
+
+  private static void checkRoundTrip(CompressionMethod method) throws IOException {
+    ColorModel cm = RGBColorModel.getInstance();
+    File tiled = File.createTempFile("tiled", ".exr");
+    File scanline = File.createTempFile("scanline", ".exr");
+    tiled.deleteOnExit();
+    scanline.deleteOnExit();
+
+    Display display = new TiledOpenEXRFileDisplay(tiled.getPath(),
+        PixelType.FLOAT, null, 16, 12, method);
+    display.initialize(WIDTH, HEIGHT, cm);
+
+    /* Write the image in blocks that straddle tile boundaries, and write one
+     * block twice so that a flushed tile is rewritten.
+     */
+    for (int pass = 0; pass < 2; pass++) {
+      for (int y0 = 0; y0 < HEIGHT; y0 += 10) {
+        for (int x0 = 0; x0 < WIDTH; x0 += 20) {
+          if (pass > 0 && (x0 != 20 || y0 != 10)) {
+            continue;
+          }
+          int w = Math.min(20, WIDTH - x0);
+          int h = Math.min(10, HEIGHT - y0);
+          Raster raster = cm.createRaster(w, h);
+          for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+              raster.setPixel(x, y, cm.fromRGB(
+                  value(x0 + x, y0 + y, 0),
+                  value(x0 + x, y0 + y, 1),
+                  value(x0 + x, y0 + y, 2)).sample(null));
+            }
+          }
+          display.setPixels(x0, y0, raster);
+        }
+      }
+    }
+    display.finish();
+
+    assertEquals(TILED_FLAG, readVersion(tiled) & TILED_FLAG);
+    OpenEXRImage image;
+    try (FileImageInputStream in = new FileImageInputStream(tiled)) {
+      image = OpenEXRImage.read(in);
+    }
+    assertNotNull(image.getTiles());
+    checkPixels(image, cm);
+
+    /* write() closes the stream. */
+    image.write(new FileImageOutputStream(scanline));
+
+    assertEquals(0, readVersion(scanline) & TILED_FLAG);
+    OpenEXRImage copy;
+    try (FileImageInputStream in = new FileImageInputStream(scanline)) {
+      copy = OpenEXRImage.read(in);
+    }
+    assertNull(copy.getTiles());
+    checkPixels(copy, cm);
+  }
+
+  private static void checkPixels(OpenEXRImage image, ColorModel cm) {
+    for (int c = 0; c < 3; c++) {
+      String name = cm.getChannelName(c);
+      for (int y = 0; y < HEIGHT; y++) {
+        for (int x = 0; x < WIDTH; x++) {
+          assertEquals(value(x, y, c), image.getFloat(x, y, name), 0.0);
+        }
+      }
+    }
+  }
+
+  private static int readVersion(File file) throws IOException {
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      in.seek(4);
+      return Integer.reverseBytes(in.readInt());
+    }
+  }
+
+}
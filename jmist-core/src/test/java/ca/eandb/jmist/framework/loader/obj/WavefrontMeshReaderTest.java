@@ -0,0 +1,240 @@
+package ca.eandb.jmist.framework.loader.obj;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ca.eandb.jmist.framework.geometry.mesh.BufferMesh;
+import ca.eandb.jmist.framework.geometry.mesh.Mesh;
+import ca.eandb.jmist.math.Point2;
+import ca.eandb.jmist.math.Point3;
+import ca.eandb.jmist.math.Vector3;
+
+class WavefrontMeshReaderTest {
+
+  /** Chunk sizes small enough to split every test file many times over. */
+  private static final int[] CHUNK_SIZES = { 1, 7, 33, 100 };
+
+  /** The contents of an OBJ file, along with the expected mesh. */
+  private static final class ObjFile {
+    final StringBuilder text = new StringBuilder();
+    final List<float[]> vertices = new ArrayList<>();
+    final List<float[]> texCoords = new ArrayList<>();
+    final List<float[]> normals = new ArrayList<>();
+    final List<int[][]> faces = new ArrayList<>();
+  }
+
+  @Test
+  void testPositions() throws IOException {
+    checkAllChunkSizes(generate(1, false, false));
+  }
+
+  @Test
+  void testTexCoords() throws IOException {
+    BufferMesh mesh = checkAllChunkSizes(generate(2, true, false));
+    assertTrue(mesh.hasUVs());
+    assertFalse(mesh.hasVertexNormals());
+  }
+
+  @Test
+  void testNormals() throws IOException {
+    BufferMesh mesh = checkAllChunkSizes(generate(3, false, true));
+    assertFalse(mesh.hasUVs());
+    assertTrue(mesh.hasVertexNormals());
+  }
+
+  @Test
+  void testTexCoordsAndNormals() throws IOException {
+    checkAllChunkSizes(generate(4, true, true));
+  }
+
+  @Test
+  void testFloatParsing() throws IOException {
+    String[] tokens = {
+        "0", "-0", "+1", "1.", ".5", "-.5", "0.1", "3.14159",
+        "123456789012345678", "0.30000000000000004", "1e22", "1e23",
+        "1.5e-22", "2.5E-23", "-7.25e+2", "1E0", "9007199254740993",
+        "4.9e-324", "1.7976931348623157e308", "0.000000000000000000001",
+        "123456.789e-3" };
+    ObjFile obj = new ObjFile();
+    for (int i = 0; i + 2 < tokens.length; i++) {
+      addVertex(obj, tokens[i], tokens[i + 1], tokens[i + 2]);
+    }
+    obj.text.append("f 1 2 3\n");
+    obj.faces.add(new int[][] { { 0, -1, -1 }, { 1, -1, -1 }, { 2, -1, -1 } });
+
+    File file = write(obj);
+    BufferMesh mesh = new WavefrontMeshReader(16).readMesh(file, 1.0,
+        new ArrayList<>());
+    assertEquals(obj.vertices.size(), mesh.getVertexCount());
+    for (int i = 0; i < obj.vertices.size(); i++) {
+      Point3 p = mesh.getVertex(i).getPosition();
+      float[] v = obj.vertices.get(i);
+      assertEquals(v[0], p.x(), 0.0);
+      assertEquals(v[1], p.y(), 0.0);
+      assertEquals(v[2], p.z(), 0.0);
+    }
+  }
+
+  private static BufferMesh checkAllChunkSizes(ObjFile obj) throws IOException {
+    File file = write(obj);
+    BufferMesh mesh = new WavefrontMeshReader().readMesh(file, 1.0,
+        new ArrayList<>());
+    check(obj, mesh);
+    for (int chunkSize : CHUNK_SIZES) {
+      check(obj, new WavefrontMeshReader(chunkSize).readMesh(file, 1.0,
+          new ArrayList<>()));
+    }
+    return mesh;
+  }
+
+  private static void check(ObjFile obj, BufferMesh mesh) {
+    assertEquals(obj.vertices.size(), mesh.getVertexCount());
+    assertEquals(obj.faces.size(), mesh.getFaceCount());
+    for (int i = 0; i < obj.faces.size(); i++) {
+      int[][] face = obj.faces.get(i);
+      Mesh.Face f = mesh.getFace(i);
+      assertEquals(face.length, f.getVertexCount());
+      for (int j = 0; j < face.length; j++) {
+        Mesh.Vertex v = f.getVertex(j);
+        Point3 p = v.getPosition();
+        float[] expected = obj.vertices.get(face[j][0]);
+        assertEquals(expected[0], p.x(), 0.0);
+        assertEquals(expected[1], p.y(), 0.0);
+        assertEquals(expected[2], p.z(), 0.0);
+        if (face[j][1] >= 0) {
+          Point2 uv = v.getUV();
+          expected = obj.texCoords.get(face[j][1]);
+          assertEquals(expected[0], uv.x(), 0.0);
+          assertEquals(expected[1], uv.y(), 0.0);
+        }
+        if (face[j][2] >= 0) {
+          Vector3 n = v.getNormal();
+          expected = obj.normals.get(face[j][2]);
+          assertEquals(expected[0], n.x(), 0.0);
+          assertEquals(expected[1], n.y(), 0.0);
+          assertEquals(expected[2], n.z(), 0.0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Generates an OBJ file with interleaved vertices and faces.  Faces mix
+   * absolute and negative indices, where the negative indices may refer to
+   * elements many lines (and hence many chunks) earlier.
+   */
+  private static ObjFile generate(long seed, boolean texCoords,
+      boolean normals) {
+    Random rnd = new Random(seed);
+    ObjFile obj = new ObjFile();
+    obj.text.append("# generated by WavefrontMeshReaderTest\n");
+    obj.text.append("o test\n");
+    for (int group = 0; group < 40; group++) {
+      int n = 1 + rnd.nextInt(4);
+      for (int i = 0; i < n; i++) {
+        addVertex(obj, number(rnd), number(rnd), number(rnd));
+        if (texCoords) {
+          String u = number(rnd), v = number(rnd);
+          obj.text.append("vt ").append(u).append(' ').append(v).append('\n');
+          obj.texCoords.add(new float[] { parse(u), parse(v) });
+        }
+        if (normals) {
+          String x = number(rnd), y = number(rnd), z = number(rnd);
+          obj.text.append("vn ").append(x).append(continuation(rnd))
+              .append(y).append(' ').append(z).append('\n');
+          obj.normals.add(new float[] { parse(x), parse(y), parse(z) });
+        }
+      }
+
+      int faceCount = rnd.nextInt(3);
+      for (int i = 0; i < faceCount; i++) {
+        int[][] face = new int[3 + rnd.nextInt(3)][];
+        obj.text.append('f');
+        for (int j = 0; j < face.length; j++) {
+          int vertex = rnd.nextInt(obj.vertices.size());
+          int texCoord = texCoords ? rnd.nextInt(obj.texCoords.size()) : -1;
+          int normal = normals ? rnd.nextInt(obj.normals.size()) : -1;
+          face[j] = new int[] { vertex, texCoord, normal };
+
+          obj.text.append(j > 0 ? continuation(rnd) : " ")
+              .append(index(rnd, vertex, obj.vertices.size()));
+          if (texCoords) {
+            obj.text.append('/')
+                .append(index(rnd, texCoord, obj.texCoords.size()));
+          } else if (normals) {
+            obj.text.append('/');
+          }
+          if (normals) {
+            obj.text.append('/')
+                .append(index(rnd, normal, obj.normals.size()));
+          }
+        }
+        obj.text.append(rnd.nextBoolean() ? "\n" : "\r\n");
+        obj.faces.add(face);
+      }
+    }
+    return obj;
+  }
+
+  private static void addVertex(ObjFile obj, String x, String y, String z) {
+    obj.text.append("v ").append(x).append(' ').append(y).append(' ')
+        .append(z).append('\n');
+    obj.vertices.add(new float[] { parse(x), parse(y), parse(z) });
+  }
+
+  /** Returns a token separator, which may be a line continuation. */
+  private static String continuation(Random rnd) {
+    switch (rnd.nextInt(4)) {
+    case 0: return " \\\n  ";
+    case 1: return "\t\\\r\n";
+    default: return " ";
+    }
+  }
+
+  /** Returns an absolute (one-based) or relative (negative) OBJ index. */
+  private static String index(Random rnd, int index, int count) {
+    return Integer.toString(rnd.nextBoolean() ? index + 1 : index - count);
+  }
+
+  /**
+   * Returns a number in one of several formats, some of which are handled
+   * by the fast path and some of which must fall back to
+   * <code>Double.parseDouble</code>.
+   */
+  private static String number(Random rnd) {
+    switch (rnd.nextInt(6)) {
+    case 0: return String.format(Locale.ROOT, "%.4f", 200.0 * rnd.nextDouble() - 100.0);
+    case 1: return Double.toString(rnd.nextGaussian());
+    case 2: return Integer.toString(rnd.nextInt(2001) - 1000);
+    case 3: return String.format(Locale.ROOT, "%.3e", rnd.nextGaussian());
+    case 4: return String.format(Locale.ROOT, "+%.2f", rnd.nextDouble());
+    default: return Double.toString(rnd.nextDouble() * 1e30);
+    }
+  }
+
+  private static float parse(String token) {
+    return (float) Double.parseDouble(token);
+  }
+
+  private static File write(ObjFile obj) throws IOException {
+    File file = File.createTempFile("mesh", ".obj");
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(obj.text.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+    return file;
+  }
+
+}
@@ -0,0 +1,82 @@
+package ca.eandb.jmist.framework.loader.openexr.attribute;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.stream.IIOByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class CompressionMethodTest {
+
+  private static final CompressionMethod[] METHODS = {
+      CompressionMethod.NONE,
+      CompressionMethod.RLE,
+      CompressionMethod.ZIPS,
+      CompressionMethod.ZIP,
+      CompressionMethod.PIZ
+  };
+
+  @Test
+  void testRoundTripSmooth() {
+    Random rnd = new Random(1);
+    for (CompressionMethod method : METHODS) {
+      for (int trial = 0; trial < 20; trial++) {
+        checkRoundTrip(method, rnd, false);
+      }
+    }
+  }
+
+  @Test
+  void testRoundTripNoise() {
+    Random rnd = new Random(2);
+    for (CompressionMethod method : METHODS) {
+      for (int trial = 0; trial < 20; trial++) {
+        checkRoundTrip(method, rnd, true);
+      }
+    }
+  }
+
+  private static void checkRoundTrip(CompressionMethod method, Random rnd, boolean noise) {
+    ChannelList channels = new ChannelList()
+        .addChannel(new Channel("Z", PixelType.FLOAT))
+        .addChannel(new Channel("A", PixelType.HALF))
+        .addChannel(new Channel("N", PixelType.UINT));
+    int x0 = rnd.nextInt(64) - 32;
+    int y0 = rnd.nextInt(64) - 32;
+    int w = 1 + rnd.nextInt(80);
+    int h = 1 + rnd.nextInt(33);
+    Box2i range = new Box2i(x0, y0, x0 + w - 1, y0 + h - 1);
+
+    byte[] data = new byte[w * h * (4 + 2 + 4)];
+    ByteBuffer bytes = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        bytes.putShort((short) (noise ? rnd.nextInt() : 0x3c00 + x));
+      }
+      for (int x = 0; x < w; x++) {
+        bytes.putInt(noise ? rnd.nextInt() : x * y);
+      }
+      for (int x = 0; x < w; x++) {
+        bytes.putFloat(noise ? (float) rnd.nextGaussian() : (float) Math.sin(0.1 * (x + y)));
+      }
+    }
+
+    IIOByteBuffer buf = new IIOByteBuffer(data.clone(), 0, data.length);
+    method.compress(buf, range, channels);
+
+    byte[] compressed = new byte[buf.getLength() + 3];
+    System.arraycopy(buf.getData(), buf.getOffset(), compressed, 3, buf.getLength());
+    buf = new IIOByteBuffer(compressed, 3, buf.getLength());
+    method.decompress(buf, range, channels);
+
+    byte[] result = Arrays.copyOfRange(buf.getData(), buf.getOffset(),
+        buf.getOffset() + buf.getLength());
+    assertArrayEquals(data, result, method.name());
+  }
+
+}
@@ -0,0 +1,205 @@
+package ca.eandb.jmist.framework.loader.ply;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ca.eandb.jmist.framework.geometry.mesh.BufferMesh;
+import ca.eandb.jmist.framework.geometry.mesh.Mesh;
+import ca.eandb.jmist.math.Point3;
+import ca.eandb.jmist.math.Vector3;
+
+class PlyMeshReaderTest {
+
+  private static final int VERTEX_COUNT = 40;
+
+  private static final int FACE_COUNT = 100;
+
+  /** Vertices stored as floats, with an interleaved colour property. */
+  private static final String[] FLOAT_VERTEX = {
+      "float x", "float y", "float z", "uchar red",
+      "float nx", "float ny", "float nz" };
+
+  /** Vertices stored with mixed, non-float types. */
+  private static final String[] MIXED_VERTEX = {
+      "int x", "short y", "double z" };
+
+  @Test
+  void testLittleEndianFloat() throws IOException {
+    List<BufferMesh> parts = checkRoundTrip(new PlyMeshReader(),
+        ByteOrder.LITTLE_ENDIAN, FLOAT_VERTEX, "uchar", "int");
+    assertEquals(1, parts.size());
+    assertTrue(parts.get(0).hasVertexNormals());
+  }
+
+  @Test
+  void testBigEndianFloat() throws IOException {
+    checkRoundTrip(new PlyMeshReader(), ByteOrder.BIG_ENDIAN, FLOAT_VERTEX,
+        "uchar", "int");
+  }
+
+  @Test
+  void testLittleEndianMixed() throws IOException {
+    checkRoundTrip(new PlyMeshReader(), ByteOrder.LITTLE_ENDIAN,
+        MIXED_VERTEX, "ushort", "uint");
+  }
+
+  @Test
+  void testBigEndianMixed() throws IOException {
+    List<BufferMesh> parts = checkRoundTrip(new PlyMeshReader(),
+        ByteOrder.BIG_ENDIAN, MIXED_VERTEX, "int", "short");
+    assertEquals(1, parts.size());
+  }
+
+  @Test
+  void testSharedVerticesSplitIntoParts() throws IOException {
+    /* The vertices (480 bytes) fit in one buffer, but the loops do not. */
+    List<BufferMesh> parts = checkRoundTrip(new PlyMeshReader(600),
+        ByteOrder.LITTLE_ENDIAN, new String[] { "float x", "float y", "float z" },
+        "uchar", "int");
+    assertTrue(parts.size() > 1);
+    for (BufferMesh part : parts) {
+      assertEquals(VERTEX_COUNT, part.getVertexCount());
+    }
+  }
+
+  @Test
+  void testLocalVerticesSplitIntoParts() throws IOException {
+    List<BufferMesh> parts = checkRoundTrip(new PlyMeshReader(128),
+        ByteOrder.BIG_ENDIAN, MIXED_VERTEX, "ushort", "int");
+    assertTrue(parts.size() > 1);
+    for (BufferMesh part : parts) {
+      assertTrue(part.getVertexCount() * 3 * 8 <= 128);
+    }
+  }
+
+  private static double coord(int vertex, int axis) {
+    return (vertex * 3 + axis) - 50;
+  }
+
+  private static double normal(int vertex, int axis) {
+    return 0.25 * (vertex + axis);
+  }
+
+  private static List<BufferMesh> checkRoundTrip(PlyMeshReader reader,
+      ByteOrder order, String[] vertexProperties, String countType,
+      String indexType) throws IOException {
+    Random rnd = new Random(vertexProperties.length);
+    int[][] faces = new int[FACE_COUNT][];
+    for (int i = 0; i < FACE_COUNT; i++) {
+      faces[i] = new int[3 + rnd.nextInt(3)];
+      for (int j = 0; j < faces[i].length; j++) {
+        faces[i][j] = rnd.nextInt(VERTEX_COUNT);
+      }
+    }
+
+    File file = File.createTempFile("mesh", ".ply");
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(createPly(order, vertexProperties, countType, indexType, faces));
+    }
+
+    List<BufferMesh> parts = reader.read(file);
+    boolean normals = vertexProperties.length > 3;
+
+    int face = 0;
+    for (BufferMesh part : parts) {
+      for (int i = 0; i < part.getFaceCount(); i++, face++) {
+        Mesh.Face f = part.getFace(i);
+        assertEquals(faces[face].length, f.getVertexCount());
+        int j = 0;
+        for (Mesh.Vertex v : f.getVertices()) {
+          int vertex = faces[face][j++];
+          Point3 p = v.getPosition();
+          assertEquals(coord(vertex, 0), p.x());
+          assertEquals(coord(vertex, 1), p.y());
+          assertEquals(coord(vertex, 2), p.z());
+          if (normals) {
+            Vector3 n = v.getNormal();
+            assertEquals(normal(vertex, 0), n.x());
+            assertEquals(normal(vertex, 2), n.z());
+          }
+        }
+      }
+    }
+    assertEquals(FACE_COUNT, face);
+    return parts;
+  }
+
+  private static byte[] createPly(ByteOrder order, String[] vertexProperties,
+      String countType, String indexType, int[][] faces) throws IOException {
+    StringBuilder header = new StringBuilder();
+    header.append("ply\n")
+        .append("format ")
+        .append(order == ByteOrder.LITTLE_ENDIAN
+            ? "binary_little_endian" : "binary_big_endian")
+        .append(" 1.0\n")
+        .append("comment written by PlyMeshReaderTest\n")
+        .append("element vertex ").append(VERTEX_COUNT).append('\n');
+    for (String property : vertexProperties) {
+      header.append("property ").append(property).append('\n');
+    }
+    header.append("element face ").append(faces.length).append('\n')
+        .append("property uchar flags\n")
+        .append("property list ").append(countType).append(' ')
+        .append(indexType).append(" vertex_indices\n")
+        .append("property list uchar float texcoord\n")
+        .append("end_header\n");
+
+    ByteBuffer data = ByteBuffer.allocate(1 << 16).order(order);
+    for (int i = 0; i < VERTEX_COUNT; i++) {
+      for (String property : vertexProperties) {
+        String[] words = property.split(" ");
+        double value;
+        switch (words[1]) {
+        case "x": value = coord(i, 0); break;
+        case "y": value = coord(i, 1); break;
+        case "z": value = coord(i, 2); break;
+        case "nx": value = normal(i, 0); break;
+        case "ny": value = normal(i, 1); break;
+        case "nz": value = normal(i, 2); break;
+        default: value = 255; break;
+        }
+        put(data, words[0], value);
+      }
+    }
+    for (int[] face : faces) {
+      data.put((byte) 1);
+      put(data, countType, face.length);
+      for (int index : face) {
+        put(data, indexType, index);
+      }
+      data.put((byte) 2).putFloat(0.5f).putFloat(0.25f);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+    bytes.write(data.array(), 0, data.position());
+    return bytes.toByteArray();
+  }
+
+  private static void put(ByteBuffer data, String type, double value) {
+    switch (type) {
+    case "uchar": data.put((byte) value); break;
+    case "short":
+    case "ushort": data.putShort((short) value); break;
+    case "int":
+    case "uint": data.putInt((int) value); break;
+    case "float": data.putFloat((float) value); break;
+    case "double": data.putDouble(value); break;
+    default: throw new IllegalArgumentException(type);
+    }
+  }
+
+}
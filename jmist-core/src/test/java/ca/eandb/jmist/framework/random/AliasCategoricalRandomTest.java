@@ -0,0 +1,53 @@
+package ca.eandb.jmist.framework.random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class AliasCategoricalRandomTest {
+
+  private static final double[] WEIGHTS = { 1.0, 0.0, 4.0, 2.5, 0.5, 2.0 };
+
+  @Test
+  void testProbabilitiesMatchCategoricalRandom() {
+    AliasCategoricalRandom alias = new AliasCategoricalRandom(WEIGHTS);
+    CategoricalRandom cdf = new CategoricalRandom(WEIGHTS);
+    for (int i = -1; i <= WEIGHTS.length; i++) {
+      assertEquals(cdf.getProbability(i), alias.getProbability(i), 1e-12);
+    }
+  }
+
+  @Test
+  void testSampleFrequencies() {
+    AliasCategoricalRandom alias = new AliasCategoricalRandom(WEIGHTS);
+    Random rnd = new Random(42);
+    int n = 1000000;
+    int[] count = new int[WEIGHTS.length];
+    for (int i = 0; i < n; i++) {
+      count[alias.next(rnd.nextDouble())]++;
+    }
+    for (int i = 0; i < WEIGHTS.length; i++) {
+      assertEquals(alias.getProbability(i), (double) count[i] / (double) n, 0.002);
+    }
+  }
+
+  @Test
+  void testSeedReference() {
+    AliasCategoricalRandom alias = new AliasCategoricalRandom(WEIGHTS);
+    Random rnd = new Random(7);
+    SeedReference ref = new SeedReference();
+    for (int i = 0; i < 10000; i++) {
+      double seed = rnd.nextDouble();
+      ref.seed = seed;
+      int value = alias.next(ref);
+      assertEquals(alias.next(seed), value);
+      assertTrue(0.0 <= ref.seed && ref.seed <= 1.0);
+    }
+    ref.seed = 1.0;
+    alias.next(ref);
+    assertTrue(0.0 <= ref.seed && ref.seed <= 1.0);
+  }
+
+}
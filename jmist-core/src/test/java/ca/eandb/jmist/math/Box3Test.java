@@ -0,0 +1,81 @@
+package ca.eandb.jmist.math;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class Box3Test {
+
+  private static final Box3 BOX = new Box3(-1.0, -2.0, -3.0, 1.0, 2.0, 3.0);
+
+  private static boolean contains(Box3 box, Point3 p) {
+    double eps = 1e-9;
+    return box.minimumX() - eps <= p.x() && p.x() <= box.maximumX() + eps
+        && box.minimumY() - eps <= p.y() && p.y() <= box.maximumY() + eps
+        && box.minimumZ() - eps <= p.z() && p.z() <= box.maximumZ() + eps;
+  }
+
+  @Test
+  void testIntersectRandomRays() {
+    Random rnd = new Random(1234);
+    int steps = 64;
+    for (int i = 0; i < 10000; i++) {
+      Point3 o = new Point3(
+          8.0 * rnd.nextDouble() - 4.0,
+          8.0 * rnd.nextDouble() - 4.0,
+          8.0 * rnd.nextDouble() - 4.0);
+      Vector3 d = new Vector3(
+          rnd.nextGaussian(), rnd.nextGaussian(), rnd.nextGaussian()).unit();
+      Ray3 ray = new Ray3(o, d);
+      double tmin = rnd.nextDouble();
+      double tmax = tmin + 10.0 * rnd.nextDouble();
+      double[] t = new double[2];
+
+      if (BOX.intersect(ray, tmin, tmax, t)) {
+        assertTrue(tmin <= t[0] && t[0] <= t[1] && t[1] <= tmax,
+            () -> String.format("[%f, %f] not within [%f, %f]", t[0], t[1], tmin, tmax));
+        for (int si = 0; si <= steps; si++) {
+          double s = t[0] + (t[1] - t[0]) * (double) si / (double) steps;
+          assertTrue(contains(BOX, ray.pointAt(s)),
+              () -> String.format("%s at t=%f outside box", ray, s));
+        }
+        assertTrue(BOX.intersects(ray, new Interval(tmin, tmax)));
+      } else {
+        for (int si = 1; si < steps; si++) {
+          double s = tmin + (tmax - tmin) * (double) si / (double) steps;
+          assertFalse(contains(BOX, ray.pointAt(s)),
+              () -> String.format("%s at t=%f inside box", ray, s));
+        }
+      }
+    }
+  }
+
+  @Test
+  void testIntersectAxisAligned() {
+    double[] t = new double[2];
+    Ray3 ray = new Ray3(new Point3(-5.0, 0.5, 0.5), Vector3.I);
+    assertTrue(BOX.intersect(ray, 0.0, Double.POSITIVE_INFINITY, t));
+    assertEquals(4.0, t[0], MathUtil.EPSILON);
+    assertEquals(6.0, t[1], MathUtil.EPSILON);
+
+    Ray3 outside = new Ray3(new Point3(-5.0, 2.5, 0.5), Vector3.I);
+    assertFalse(BOX.intersect(outside, 0.0, Double.POSITIVE_INFINITY, t));
+
+    Ray3 inside = new Ray3(Point3.ORIGIN, Vector3.NEGATIVE_K);
+    assertTrue(BOX.intersect(inside, 0.0, Double.POSITIVE_INFINITY, null));
+    Interval I = BOX.intersect(inside);
+    assertEquals(0.0, I.minimum(), MathUtil.EPSILON);
+    assertEquals(3.0, I.maximum(), MathUtil.EPSILON);
+  }
+
+  @Test
+  void testIntersectEmpty() {
+    Ray3 ray = new Ray3(Point3.ORIGIN, Vector3.J);
+    assertFalse(Box3.EMPTY.intersect(ray, 0.0, Double.POSITIVE_INFINITY, null));
+    assertTrue(Box3.EMPTY.intersect(ray).isEmpty());
+  }
+
+}